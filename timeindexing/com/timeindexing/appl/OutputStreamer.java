@@ -34,7 +34,10 @@ import com.timeindexing.event.OutputEventListener;
 import com.timeindexing.event.OutputEventGenerator;
 
 import java.io.OutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 
 /**
@@ -46,6 +49,12 @@ public class OutputStreamer extends OutputEventGenerator {
     protected long writeCount = 0;
     protected OutputPlugin outputPlugin = null;
     protected IndexProperties outputProperties = null;
+    protected boolean zeroCopy = true;
+
+    /*
+     * The no of items sent in each transfer, when doing zero copy output.
+     */
+    final static int TRANSFER_ITEMS = 256;
 
     /**
      * Construct an OutputStreamer object given
@@ -89,6 +98,10 @@ public class OutputStreamer extends OutputEventGenerator {
      * Process the TimeIndex
      */
     public long processTimeIndex(IndexView index) throws IOException, TimeIndexException {
+	if (canTransfer()) {
+	    return transferTimeIndex(index);
+	}
+
 	// output the selection
 	long writeCount = 0;
 	long writeTotal = 0;
@@ -115,6 +128,74 @@ public class OutputStreamer extends OutputEventGenerator {
 	return writeTotal;
     }
 
+    /**
+     * Process the TimeIndex by transferring the data
+     * straight from the index files to the output,
+     * without reading each item into a buffer.
+     */
+    protected long transferTimeIndex(IndexView index) throws IOException, TimeIndexException {
+	long writeCount = 0;
+	long writeTotal = 0;
+	long length = index.getLength();
+	long count = 0;
+
+	WritableByteChannel channel = null;
+
+	if (out instanceof FileOutputStream) {
+	    channel = ((FileOutputStream)out).getChannel();
+	} else {
+	    channel = Channels.newChannel(out);
+	}
+
+	for (long i=0; i<length; i+=count) {
+	    count = Math.min(TRANSFER_ITEMS, length - i);
+
+	    writeCount = index.transferData(i, count, channel);
+	    writeTotal += writeCount;
+
+	    if (hasOutputEventListeners()) {
+		fireOutputEvent(new OutputEvent(index.getURI().toString(), index.getID(), writeCount, this));
+	    }
+	}
+
+	writeCount = outputPlugin.flush();
+	writeTotal += writeCount;
+
+	if (hasOutputEventListeners()) {
+	    fireOutputEvent(new OutputEvent(index.getURI().toString(), index.getID(), writeCount, this));
+	}
+
+	return writeTotal;
+    }
+
+    /**
+     * Can the data be transferred straight to the output.
+     * This is only possible when the plugin is a DefaultWriter,
+     * and no per-item output, such as a newline, is requested.
+     */
+    protected boolean canTransfer() {
+	if (!zeroCopy) {
+	    return false;
+	} else if (!(outputPlugin instanceof DefaultOutputPlugin)) {
+	    return false;
+	} else if (((DefaultOutputPlugin)outputPlugin).getWriterPlugin().getClass() != DefaultWriter.class) {
+	    return false;
+	} else if (outputProperties != null && Boolean.valueOf((String)outputProperties.get("newline")).booleanValue()) {
+	    return false;
+	} else {
+	    return true;
+	}
+    }
+
+    /**
+     * Set whether data can be transferred straight to the output.
+     * It is on by default.
+     */
+    public OutputStreamer setZeroCopy(boolean zc) {
+	zeroCopy = zc;
+	return this;
+    }
+
     /**
      * Set an output plugin, to write to output.
      */
@@ -55,6 +55,8 @@ public class Selecter extends OutputEventGenerator implements OutputEventListene
 
     OutputPlugin outputPlugin = null;
 
+    boolean zeroCopy = true;
+
     /**
      * Construct a Selecter object, with output to System.out.
      */
@@ -120,6 +122,8 @@ public class Selecter extends OutputEventGenerator implements OutputEventListene
 
 	outputter = createSelectionStreamer(index, output, outputPlugin);
 
+	outputter.setZeroCopy(zeroCopy);
+
 	// listen to SelectionStreamer to get OutputEvents
 	outputter.addOutputEventListener(this);
 
@@ -144,6 +148,17 @@ public class Selecter extends OutputEventGenerator implements OutputEventListene
 	return new SelectionStreamer(index, output, plugin);
     }
 
+    /**
+     * Set whether data can be transferred straight from
+     * the index files to the output, when no per-item
+     * output is requested.
+     * It is on by default.
+     */
+    public Selecter setZeroCopy(boolean zc) {
+	zeroCopy = zc;
+	return this;
+    }
+
     /**
      * Get the number of bytes output.
      */
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TICompact.java
+
+package com.timeindexing.appl;
+
+import com.timeindexing.index.IndexCompactor;
+import com.timeindexing.index.TimeIndexException;
+import java.io.PrintStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Compact a TimeIndex in place.
+ * The items are rewritten into new files, which then replace the old ones.
+ */
+public class TICompact {
+    public static void main(String [] args) {
+	/*
+	 * Process args
+	 */
+	Properties options = new Properties();
+	String tifile = null;
+
+	for (int a=0; a < args.length; a++) {
+	    if (args[a].equals("-t")) {
+		// copy the items in data time order
+		options.setProperty("timeorder", "true");
+	    } else if (args[a].equals("-f")) {
+		// flatten chains of references
+		options.setProperty("flatten", "true");
+	    } else if (args[a].equals("-c")) {
+		// use the checked index format
+		options.setProperty("indexformat", "checked");
+	    } else if (args[a].equals("-d")) {
+		// share repeated data
+		options.setProperty("dedup", "true");
+	    } else if (args[a].startsWith("-")) {
+		help(System.err);
+		System.exit(1);
+	    } else if (tifile == null) {
+		tifile = args[a];
+	    } else {
+		help(System.err);
+		System.exit(1);
+	    }
+	}
+
+	if (tifile == null) {
+	    help(System.err);
+	    System.exit(1);
+	}
+
+	/*
+	 * Go for it
+	 */
+	try {
+	    long count = IndexCompactor.compact(tifile, options);
+
+	    System.err.println("TICompact: " + tifile + " has " + count + " items");
+
+	} catch (TimeIndexException tie) {
+	    System.err.println("TICompact: error " + tie.getMessage());
+	    System.exit(1);
+	} catch (IOException ioe) {
+	    System.err.println("TICompact: error " + ioe.getMessage());
+	    System.exit(1);
+	}
+    }
+
+    static void help(PrintStream out) {
+	out.println("ticompact [-t] [-f] [-c] [-d] <tifile>");
+	out.println("  -t  put the items in data time order");
+	out.println("  -f  flatten chains of references");
+	out.println("  -c  use the checked index format");
+	out.println("  -d  share repeated data in the data file");
+    }
+
+}
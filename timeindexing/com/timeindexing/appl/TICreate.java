@@ -33,8 +33,10 @@ import com.timeindexing.index.IndexProperties;
 import com.timeindexing.time.Timestamp;
 import com.timeindexing.data.DataItem;
 import com.timeindexing.data.ReaderResultItem;
+import com.timeindexing.data.ChannelItem;
 import com.timeindexing.plugin.ReaderPlugin;
 import com.timeindexing.plugin.ReaderResult;
+import com.timeindexing.plugin.ChannelReaderResult;
 import com.timeindexing.plugin.InputPlugin;
 import com.timeindexing.plugin.DefaultInputPlugin;
 import com.timeindexing.plugin.*;
@@ -349,7 +351,14 @@ public class TICreate {
 
 	    while ((result = inputPlugin.read()) != null) {
 		dataTS = result.getDataTimestamp();
-		item = new ReaderResultItem(result);
+
+		if (result instanceof ChannelReaderResult) {
+		    // the data is read from a channel
+		    ChannelReaderResult channelResult = (ChannelReaderResult)result;
+		    item = new ChannelItem(channelResult.getChannel(), channelResult.getSize(), channelResult.getDataType());
+		} else {
+		    item = new ReaderResultItem(result);
+		}
 
 		index.addItem(item, dataTS);
 
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// ChannelItem.java
+
+package com.timeindexing.data;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.timeindexing.index.DataType;
+
+/**
+ * A item of data presented by a data reader, where the
+ * data is read from a channel rather than held in a buffer.
+ * This is used for data that is too big to hold in one buffer,
+ * such as data over 2 GB.  The index reads the channel in
+ * slices as it writes the data out.
+ */
+public class ChannelItem implements DataItem {
+    // The channel
+    ReadableByteChannel channel = null;
+
+    // The no of bytes to take from the channel
+    long size = 0;
+
+    // the data type
+    DataType dataType = null;
+
+    /**
+     * Construct a ChannelItem from a channel and a size.
+     */
+    public ChannelItem(ReadableByteChannel ch, long size) {
+	this(ch, size, DataType.ANY);
+    }
+
+    /**
+     * Construct a ChannelItem from a channel, a size, and a DataType.
+     */
+    public ChannelItem(ReadableByteChannel ch, long size, DataType type) {
+	channel = ch;
+	this.size = size;
+	dataType = type;
+    }
+
+    /**
+     * Get the data itself.
+     * The data is only available from the channel.
+     * @return null
+     */
+    public ByteBuffer getBytes() {
+	return null;
+    }
+
+    /**
+     * Get the channel to read the data from.
+     */
+    public ReadableByteChannel getChannel() {
+	return channel;
+    }
+
+    /**
+     * Get the size of the item
+     */
+    public long getSize() {
+	return size;
+    }
+
+    /**
+     * Get the DataType of the DataItem.
+     */
+    public DataType getDataType() {
+	return dataType;
+    }
+
+    /**
+     * Get the channel from this ChannelItem.
+     * @return a ReadableByteChannel
+     */
+    public Object getObject() {
+	return channel;
+    }
+
+}
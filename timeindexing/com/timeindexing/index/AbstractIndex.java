@@ -42,12 +42,14 @@ import com.timeindexing.data.DataItem;
 import com.timeindexing.data.DataItemFactory;
 import com.timeindexing.cache.IndexCache;
 import com.timeindexing.cache.CachePolicy;
+import com.timeindexing.io.TimestampColumn;
 import com.timeindexing.util.DoubleLinkedList;
 import com.timeindexing.event.*;
 
 import java.util.Properties;
 import java.util.Iterator;
 import java.util.Comparator;
+import java.util.Arrays;
 import java.net.URI;
 
 
@@ -96,6 +98,16 @@ public abstract class AbstractIndex implements ExtendedIndex, ExtendedIndexHeade
     // an event multicaster
     IndexEventMulticaster eventMulticaster = new IndexEventMulticaster();
 
+    // How to search for a timestamp
+    SearchStrategy searchStrategy = SearchStrategy.AUTO;
+
+    // The average distance, in items, between an interpolated
+    // guess and the found position.  It decides the AUTO strategy.
+    double searchError = 0;
+
+    // A cache of the results of locate
+    LocateCache locateCache = new LocateCache(LocateCache.DEFAULT_SIZE);
+
     // Local variables for temporary use
     // index type
     //int indexType = -1;
@@ -279,6 +291,25 @@ public abstract class AbstractIndex implements ExtendedIndex, ExtendedIndexHeade
      */
     public abstract IndexItem addItem(DataItem item, Timestamp dataTime, long annotation) throws IndexTerminatedException, IndexClosedException, IndexActivationException, AddItemException;
 
+    /**
+     * Add a batch of Data Items to the Index, with speicifed Data Timestamps and annotation data.
+     * This version adds the items one at a time.
+     * Indexes that can do better should override it.
+     * @param items the DataItems to add
+     * @param dataTimes the Data Timestamps, null implies the Data Timestamps are the record Timestamps
+     * @param annotations the annotation meta data, null implies there are no annotations
+     * @return the IndexItems that were added
+     */
+    public IndexItem[] addItems(DataItem[] items, Timestamp[] dataTimes, long[] annotations) throws IndexTerminatedException, IndexClosedException, IndexActivationException, AddItemException {
+	IndexItem[] added = new IndexItem[items.length];
+
+	for (int i=0; i < items.length; i++) {
+	    added[i] = addItem(items[i], (dataTimes == null ? null : dataTimes[i]), (annotations == null ? 0 : annotations[i]));
+	}
+
+	return added;
+    }
+
 
     /**
      * Add an Index Item to the Index.
@@ -373,6 +404,100 @@ public abstract class AbstractIndex implements ExtendedIndex, ExtendedIndexHeade
 	return item;
     }
 
+    /**
+     * Add a batch of Index Items to the Index.
+     * The checks are done once, the header is updated once,
+     * and one add event is fired, for the last item in the batch.
+     * @param items the IndexItems to add
+     * @return the IndexItems that were added
+     * @throws IndexTerminatedException if the index has been terminated
+     * and an attempt is made to add an Item
+     * @throws IndexActivationException if the index has NOT been activated
+     * and an attempt is made to add an Item
+     */
+    protected synchronized IndexItem[] addItems(IndexItem[] items) throws IndexTerminatedException, IndexClosedException, IndexActivationException, AddItemException {
+	if (items.length == 0) {
+	    return items;
+	}
+
+	if (isTerminated()) {
+	    throw new IndexTerminatedException("addItems: Index terminated " + this);
+	}
+
+	if (isClosed()) {
+	    throw new IndexClosedException("addItems: Index closed " + this);
+	}
+
+	if (!isActivated()) {
+	    throw new IndexActivationException("addItems: Index NOT activated " + this);
+	}
+
+	// check all the timestamps before anything is added,
+	// so the batch is added completely or not at all
+	Timestamp indexLast = header.getLastTime();
+	Timestamp dataLast = header.getLastDataTime();
+
+	for (int i=0; i < items.length; i++) {
+	    Timestamp itemIndexTime = items[i].getIndexTimestamp();
+	    Timestamp itemDataTime = items[i].getDataTimestamp();
+
+	    if (TimeCalculator.lessThan(itemDataTime, dataLast)) {
+		throw new AddItemException("IndexItem data time " + itemDataTime + " not later than last data time " + dataLast + " .");
+	    }
+
+	    if (TimeCalculator.lessThan(itemIndexTime, indexLast)) {
+		throw new AddItemException("IndexItem index time not later than last index time.");
+	    }
+
+	    indexLast = itemIndexTime;
+	    dataLast = itemDataTime;
+	}
+
+	long indexSize = header.getLength();
+
+	for (int i=0; i < items.length; i++) {
+	    ManagedIndexItem itemM = (ManagedIndexItem)items[i];
+	    AbsolutePosition itemPosition = new AbsolutePosition(indexSize + i);
+
+	    // now set the item's position and
+	    // bind it to the index
+	    itemM.setPosition(itemPosition);
+	    itemM.setIndex(this);
+
+	    // add the item to the index item cache
+	    indexCache.addItem(items[i], itemPosition);
+	}
+
+	long newSize = indexSize + items.length;
+
+	IndexItem first = items[0];
+	IndexItem last = items[items.length-1];
+
+	// tell the header how big the index is now
+	header.setLength(newSize);
+
+	if (indexSize == 0) { // this batch has the first index item
+	    header.setFirstTime(first.getIndexTimestamp());
+	    header.setFirstDataTime(first.getDataTimestamp());
+	}
+
+	// now set last and end times in the header
+	header.setLastTime(last.getIndexTimestamp());
+	header.setEndTime(last.getIndexTimestamp());
+	// and the last data time
+	header.setLastDataTime(last.getDataTimestamp());
+
+	// mark as being changed
+	changed = true;
+
+	// tell all the listeners that items have been added
+	if (eventMulticaster.hasAddEventListeners()) {
+	    eventMulticaster.fireAddEvent(new IndexAddEvent(getURI().toString(), header.getID(), last, this));
+	}
+
+	return items;
+    }
+
     /**
      * Add a Reference to an IndexItem in a Index.
      * The Data Timestamp of the IndexItem is passed into this Index.
@@ -602,7 +727,25 @@ public abstract class AbstractIndex implements ExtendedIndex, ExtendedIndexHeade
 	    // now search for the timestamp
 	    // and build up a tree cache for later reuse.
 	    try {
-		TimestampMapping mapping = searchTimestamp(t, 0, getLength()-1, selector, lifetime, 0);
+		long nanos = TimestampColumn.toNanos(t);
+		LocateCache cache = locateCache;
+
+		// a repeated time is found without a search
+		if (cache != null) {
+		    TimestampMapping cached = cache.get(nanos, selector, lifetime, getLength());
+
+		    if (cached != null) {
+			return cached;
+		    }
+		}
+
+		long[] range = getSearchRange(t, selector);
+
+		TimestampMapping mapping = searchTimestamp(t, range[0], range[1], selector, lifetime, 0);
+
+		if (cache != null && mapping != null) {
+		    cache.put(nanos, selector, lifetime, mapping);
+		}
                 //System.err.println("AbstractIndex " + getName() + ": location of " + t +  " => " + mapping + " searchCache size = " + searchCache.getSize() + "/" + searchCache.getCapacity());
                 //System.err.println("AbstractIndex " + getName() + ": location of " + t +  " => " + mapping);
 
@@ -672,151 +815,397 @@ public abstract class AbstractIndex implements ExtendedIndex, ExtendedIndexHeade
 
 
     /**
-     * A new version of the binary search
+     * Get the start and end positions to search for a Timestamp.
+     * This is the whole index, but subclasses can
+     * narrow it down.
      */
-    protected TimestampMapping searchTimestamp(Timestamp t, long start, long end, IndexTimestampSelector selector, Lifetime lifetime, int depth) throws GetItemException, IndexClosedException {
-        IndexItem item = null;
-        Timestamp itemTS = null;
+    protected long[] getSearchRange(Timestamp t, IndexTimestampSelector selector) {
+	return new long[] { 0, getLength()-1 };
+    }
+
+    /**
+     * Get the strategy used to search for a timestamp.
+     */
+    public SearchStrategy getSearchStrategy() {
+	return searchStrategy;
+    }
 
-	//System.err.println(getName() + " searchTimestamp " + depth + ": " + t + "\t" + start + "\t" + end + "\t");
+    /**
+     * Set the strategy used to search for a timestamp.
+     */
+    public Index setSearchStrategy(SearchStrategy strategy) {
+	searchStrategy = strategy;
+	return this;
+    }
 
+    /**
+     * Get the cache of the results of locate.
+     * @return the cache, or null if there is none
+     */
+    public LocateCache getLocateCache() {
+	return locateCache;
+    }
 
-	// if there is only 1 item in the index
-	// there is nothing to search for
-	if (getLength() == 1) {
-	    item = getItem(0);
-	    // get the relevant timestamps out of the IndexItem
-	    if (selector == IndexTimestampSelector.DATA) {
-		itemTS = item.getDataTimestamp();
+    /**
+     * Check the search properties.
+     * 'search' is one of 'binary', 'interpolation', or 'auto'.
+     * 'locatecache' is the no of results of locate to keep,
+     * and 0 turns the cache off.
+     */
+    protected void checkSearchProperties(Properties indexProperties) throws IndexSpecificationException {
+	if (indexProperties.containsKey("search")) {
+	    String setting = indexProperties.getProperty("search").toLowerCase();
+
+	    if (setting.equals("binary")) {
+		searchStrategy = SearchStrategy.BINARY;
+	    } else if (setting.equals("interpolation")) {
+		searchStrategy = SearchStrategy.INTERPOLATION;
+	    } else if (setting.equals("auto")) {
+		searchStrategy = SearchStrategy.AUTO;
 	    } else {
-		itemTS = item.getIndexTimestamp();
+		throw new IndexSpecificationException("Bad value for 'search': " + setting);
 	    }
+	}
 
-	    return new TimestampMapping(itemTS,  item.getPosition());
-	} else {
+	if (indexProperties.containsKey("locatecache")) {
+	    int size = 0;
 
+	    try {
+		size = Integer.parseInt(indexProperties.getProperty("locatecache"));
+	    } catch (NumberFormatException nfe) {
+		throw new IndexSpecificationException("Bad value for 'locatecache': " + indexProperties.getProperty("locatecache"));
+	    }
 
-            /*
-             * check start position
-             */
-            TimestampMapping startMapping = checkClose(t, start, start+1, selector, lifetime);
+	    if (size < 0) {
+		throw new IndexSpecificationException("Bad value for 'locatecache': " + size);
+	    } else if (size == 0) {
+		locateCache = null;
+	    } else {
+		locateCache = new LocateCache(size);
+	    }
+	}
+    }
 
-            if (startMapping != null) {
-                return startMapping;
-            }
+    /**
+     * Search for a Timestamp between two positions.
+     * This is a search for the first item at or after the time,
+     * which looks at one timestamp per probe, compared as a long.
+     * If some items hold the time, the first of them is found.
+     * Otherwise, for a continuous lifetime the item before the time
+     * is found, and for a discrete lifetime the item after it.
+     * Only the found item is got as an IndexItem.
+     * <p>
+     * With an interpolation search the position is guessed
+     * from the first and last times of the index, and the search
+     * gallops out from the guess in steps of 1, 2, 4, ...
+     * until the time is bracketed.  It then carries on as a
+     * binary search inside the bracket.
+     */
+    protected TimestampMapping searchTimestamp(Timestamp t, long start, long end, IndexTimestampSelector selector, Lifetime lifetime, int depth) throws GetItemException, IndexClosedException {
+	long nanos = TimestampColumn.toNanos(t);
 
-            /*
-             * check end position
-             */
-            TimestampMapping endMapping = checkClose(t, end-1, end, selector, lifetime);
+	// guess where the time is, which costs no probes
+	long guess = guessPosition(nanos, start, end, selector);
 
-            if (endMapping != null) {
-                return endMapping;
-            }
+	// find the first item >= t
+	long low = start;
+	long high = end + 1;
+	long highNanos = 0;
 
+	if (useInterpolation(start, end)) {
+	    long guessNanos = getTimeNanos(guess, selector);
 
-            /*
-             * Check halfway
-             */
-	    long halfway = (start + end) / 2;
+	    if (guessNanos < nanos) {
+		// gallop up
+		long step = 1;
+		low = guess + 1;
 
-            TimestampMapping halfwayMapping = checkClose(t, halfway, halfway+1, selector, lifetime);
+		while (low < high) {
+		    long probe = Math.min(end, guess + step);
+		    long probeNanos = getTimeNanos(probe, selector);
 
-            if (halfwayMapping != null) {
-                return halfwayMapping;
-            }
+		    if (probeNanos < nanos) {
+			low = probe + 1;
+		    } else {
+			high = probe;
+			highNanos = probeNanos;
+			break;
+		    }
 
+		    step <<= 1;
+		}
+	    } else {
+		// gallop down
+		long step = 1;
+		high = guess;
+		highNanos = guessNanos;
+
+		while (low < high) {
+		    long probe = Math.max(start, guess - step);
+		    long probeNanos = getTimeNanos(probe, selector);
+
+		    if (probeNanos < nanos) {
+			low = probe + 1;
+			break;
+		    } else {
+			high = probe;
+			highNanos = probeNanos;
+		    }
 
-            /*
-             * We need to do some searching using binary chop.
-             */
+		    step <<= 1;
+		}
+	    }
+	}
 
-            item = getItem(halfway);
+	while (low < high) {
+	    long mid = (low + high) >>> 1;
+	    long midNanos = getTimeNanos(mid, selector);
 
-	    // get the relevant timestamps out of the Index Items
-	    if (selector == IndexTimestampSelector.DATA) {
-		itemTS = item.getDataTimestamp();
+	    if (midNanos < nanos) {
+		low = mid + 1;
 	    } else {
-		itemTS = item.getIndexTimestamp();
+		high = mid;
+		highNanos = midNanos;
 	    }
+	}
 
+	noteGuess(guess, low);
 
+	return foundMapping(nanos, low, highNanos, start, end, selector, lifetime);
+    }
 
-            if (TimeCalculator.lessThan(t, itemTS)) {
-		// the timestamp is in first half, so search that half
-		return searchTimestamp(t, start, halfway, selector, lifetime, depth+1);
-	    } else {
-		// the timestamp is in second half, so search that half
-		return searchTimestamp(t, halfway, end, selector, lifetime, depth+1);
+    /**
+     * Get the mapping for the result of a search,
+     * which is the first position at or after a time.
+     * @param low the first position at or after the time,
+     * or end + 1 if there is none
+     * @param lowNanos the time of the item at low
+     */
+    protected TimestampMapping foundMapping(long nanos, long low, long lowNanos, long start, long end, IndexTimestampSelector selector, Lifetime lifetime) throws GetItemException, IndexClosedException {
+	IndexItem item = getItem(foundPosition(nanos, low, lowNanos, start, end, lifetime));
+
+	if (selector == IndexTimestampSelector.DATA) {
+	    return new TimestampMapping(item.getDataTimestamp(), item.getPosition());
+	} else {
+	    return new TimestampMapping(item.getIndexTimestamp(), item.getPosition());
+	}
+    }
+
+    /**
+     * Get the position found by a search,
+     * from the first position at or after a time.
+     */
+    protected long foundPosition(long nanos, long low, long lowNanos, long start, long end, Lifetime lifetime) {
+	if (low <= end && lowNanos == nanos) {
+	    // an exact match
+	    return low;
+	} else if (lifetime == Lifetime.CONTINUOUS) {
+	    // the item has a lifetime up to the next one,
+	    // so it's the one before the time
+	    return Math.max(start, low - 1);
+	} else {
+	    // the item's lifetime is a point in time,
+	    // so it's the one after the time
+	    return Math.min(end, low);
+	}
+    }
+
+    /**
+     * Try and determine the positions of many times, in one pass.
+     * Each search gallops forward from the position found for
+     * the time before, so a run of close times is found
+     * by scanning the index once.
+     * @param times the times as a no of nanoseconds, in order
+     * @return the positions, with Position.TOO_LOW.value() or
+     * Position.TOO_HIGH.value() for times outside the index,
+     * or null if the positions can't be found
+     */
+    public long[] locateAll(long[] times, IndexTimestampSelector selector, Lifetime lifetime) {
+	long[] positions = new long[times.length];
+	long length = getLength();
+
+	if (length == 0) {
+	    Arrays.fill(positions, Position.TOO_HIGH.value());
+	    return positions;
+	}
+
+	long first = 0;
+	long last = 0;
+
+	if (selector == IndexTimestampSelector.DATA) {
+	    first = TimestampColumn.toNanos(getFirstDataTime());
+	    last = TimestampColumn.toNanos(getLastDataTime());
+	} else {
+	    first = TimestampColumn.toNanos(getFirstTime());
+	    last = TimestampColumn.toNanos(getLastTime());
+	}
+
+	long end = length - 1;
+	long from = 0;
+	long previous = Long.MIN_VALUE;
+
+	try {
+	    TimeScanner scanner = newTimeScanner(selector);
+
+	    for (int t=0; t < times.length; t++) {
+		long nanos = times[t];
+
+		if (nanos < first) {
+		    positions[t] = Position.TOO_LOW.value();
+		    continue;
+		} else if (nanos > last) {
+		    positions[t] = (lifetime == Lifetime.CONTINUOUS ? end : Position.TOO_HIGH.value());
+		    continue;
+		}
+
+		if (nanos < previous) {
+		    // the times are not in order, so start again
+		    from = 0;
+		}
+
+		previous = nanos;
+
+		scanner.moveTo(from);
+
+		// find the first item >= t, which is at or after
+		// the one found last time
+		long low = from;
+		long high = end + 1;
+		long highNanos = 0;
+		long probe = from;
+		long step = 1;
+
+		// gallop up
+		while (true) {
+		    long probeNanos = scanner.getTimeNanos(probe);
+
+		    if (probeNanos < nanos) {
+			low = probe + 1;
+
+			if (probe == end) {
+			    break;
+			}
+
+			probe = Math.min(end, probe + step);
+			step <<= 1;
+		    } else {
+			high = probe;
+			highNanos = probeNanos;
+			break;
+		    }
+		}
+
+		while (low < high) {
+		    long mid = (low + high) >>> 1;
+		    long midNanos = scanner.getTimeNanos(mid);
+
+		    if (midNanos < nanos) {
+			low = mid + 1;
+		    } else {
+			high = mid;
+			highNanos = midNanos;
+		    }
+		}
+
+		positions[t] = foundPosition(nanos, low, highNanos, 0, end, lifetime);
+
+		from = Math.min(end, low);
 	    }
 
-        }
+	    return positions;
+	} catch (GetItemException gie) {
+	    System.err.println("AbstractIndex " + getName() + ": locateAll threw " + gie.getMessage());
+	    return null;
+	} catch (IndexClosedException ice) {
+	    System.err.println("AbstractIndex " + getName() + ": locateAll threw " + ice.getMessage());
+	    return null;
+	}
+    }
 
+    /**
+     * Get a TimeScanner for a pass over the index.
+     * It gets the times one at a time.
+     */
+    protected TimeScanner newTimeScanner(IndexTimestampSelector selector) {
+	return new TimeScanner(this, selector, 0);
     }
 
     /**
-     * When searching, check if the item is close
-     * @return null if not close
+     * Get the timestamps of a run of items, as a no of nanoseconds.
+     * @return the no of times got
      */
-    private TimestampMapping checkClose(Timestamp t, long itemNumber, long itemNumberNext, IndexTimestampSelector selector, Lifetime lifetime) throws GetItemException, IndexClosedException {
-	IndexItem item = null;
-	IndexItem itemN = null;
-
-	Timestamp itemTS = null;
-	Timestamp itemTSN = null;
-
-
-        // get item
-        item = getItem(itemNumber);
-        // get item next
-        itemN = getItem(itemNumberNext);
-            
-
-        // get the relevant timestamps out of the Index Items
-        if (selector == IndexTimestampSelector.DATA) {
-            itemTS = item.getDataTimestamp();
-            itemTSN = itemN.getDataTimestamp();
-        } else {
-            itemTS = item.getIndexTimestamp();
-            itemTSN = itemN.getIndexTimestamp();
-        }
-
-
-
-        if (TimeCalculator.equals(t, itemTS)) {
-            // if the timestamp equals  itemTS
-            // we are there
-            return new TimestampMapping(itemTS,  item.getPosition());
-
-        } else if (TimeCalculator.equals(t, itemTSN)) {
-            // if the timestamp equals  itemTSN
-            // we are there
-            return new TimestampMapping(itemTSN,  itemN.getPosition());
-
-        } else if (TimeCalculator.greaterThan(t, itemTS) &&
-                   TimeCalculator.lessThan(t, itemTSN)) {
-
-            // if the timestamp is between itemTS and itemTSN
-            // then we are close
-
-            // the time is between two timestamps
-            if (lifetime == Lifetime.CONTINUOUS) {
-                // if lifetimes are continuous then item has a lifetime
-                // from its own timestamp upto itemN's timestamp
-                // which means that item is the IndexItem to return
-                return new TimestampMapping(itemTS, item.getPosition());
-            } else {
-                // if lifetimes are discrete then item's lifetime
-                // is a point in time and Timestamp t is after item,
-                // which means that itemN is the IndexItem to return
-                return new TimestampMapping(itemTSN,  itemN.getPosition());
-            }
-
-        } else {
-            // not close
-            return null;
-        }
+    protected int readTimesNanos(long position, int count, IndexTimestampSelector selector, long[] times) throws GetItemException, IndexClosedException {
+	for (int i=0; i < count; i++) {
+	    times[i] = getTimeNanos(position + i, selector);
+	}
+
+	return count;
+    }
+
+    /**
+     * Guess the position of a time between two positions,
+     * as if the times from the first to the last item
+     * were evenly spaced.
+     */
+    protected long guessPosition(long nanos, long start, long end, IndexTimestampSelector selector) {
+	long first = 0;
+	long last = 0;
+
+	if (selector == IndexTimestampSelector.DATA) {
+	    first = TimestampColumn.toNanos(getFirstDataTime());
+	    last = TimestampColumn.toNanos(getLastDataTime());
+	} else {
+	    first = TimestampColumn.toNanos(getFirstTime());
+	    last = TimestampColumn.toNanos(getLastTime());
+	}
+
+	long guess = 0;
 
+	if (last > first) {
+	    guess = (long)(((double)(nanos - first) / (double)(last - first)) * (getLength() - 1));
+	}
+
+	return Math.max(start, Math.min(end, guess));
+    }
+
+    /**
+     * Keep an average of how far out the guesses are.
+     */
+    protected void noteGuess(long guess, long found) {
+	searchError = (searchError * 7 + Math.abs(found - guess)) / 8;
+    }
+
+    /**
+     * Should a search between two positions start with an
+     * interpolated guess.
+     * For AUTO the gallop from an average guess, which takes about
+     * 2 * log2(error) probes, has to be quicker than a binary search.
+     */
+    protected boolean useInterpolation(long start, long end) {
+	if (searchStrategy == SearchStrategy.INTERPOLATION) {
+	    return true;
+	} else if (searchStrategy == SearchStrategy.BINARY) {
+	    return false;
+	} else {
+	    int binaryProbes = 64 - Long.numberOfLeadingZeros(end - start + 1);
+	    int gallopProbes = 2 * (64 - Long.numberOfLeadingZeros((long)searchError + 1)) + 1;
+
+	    return gallopProbes < binaryProbes;
+	}
+    }
+
+    /**
+     * Get a timestamp of the item at a position as a no of nanoseconds,
+     * for searching.
+     */
+    protected long getTimeNanos(long position, IndexTimestampSelector selector) throws GetItemException, IndexClosedException {
+	IndexItem item = getItem(position);
+
+	if (selector == IndexTimestampSelector.DATA) {
+	    return TimestampColumn.toNanos(item.getDataTimestamp());
+	} else {
+	    return TimestampColumn.toNanos(item.getIndexTimestamp());
+	}
     }
 
 
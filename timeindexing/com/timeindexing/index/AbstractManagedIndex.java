@@ -395,7 +395,6 @@ abstract class AbstractManagedIndex extends AbstractIndex implements ManagedInde
                 ;
 	    }
 
-            closed = true;
             activated = false;
 
 	    // close any Indexes that have been opened due
@@ -427,6 +426,9 @@ abstract class AbstractManagedIndex extends AbstractIndex implements ManagedInde
 	    
                 if (refCount == 0) {
                     // System.err.println("About to really close " + getURI());
+                    // only mark it closed when the last handle goes,
+                    // as other views may still be using it
+                    closed = true;
                     closeValue = reallyClose();
                 } else {
                     closeValue = false;
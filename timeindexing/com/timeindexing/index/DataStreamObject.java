@@ -0,0 +1,72 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// DataStreamObject.java
+
+package com.timeindexing.index;
+
+import com.timeindexing.basic.Size;
+
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * An implementations for objects that act as holders
+ * of data which has not been written yet, and which
+ * is read from a channel when it is written.
+ * Once the data is written, it is replaced by a DataReference.
+ */
+public class DataStreamObject implements DataAbstraction {
+    /*
+     * The channel that has the data
+     */
+    ReadableByteChannel channel = null;
+
+    /*
+     * The size of the data
+     */
+    Size size = null;
+
+    /**
+     * Construct a DataStreamObject
+     */
+    public DataStreamObject(ReadableByteChannel ch, Size sizeS) {
+	channel = ch;
+	size = sizeS;
+    }
+
+    /**
+     * Get the channel that has the data.
+     */
+    public ReadableByteChannel getChannel() {
+	return channel;
+    }
+
+     /**
+     * Get the size of the data.
+     */
+    public Size getSize() {
+	return size;
+    }
+
+    /**
+     * String version.
+     */
+    public String toString() {
+	return "DataStreamObject: size = " + size;
+    }
+}
@@ -35,6 +35,12 @@ import com.timeindexing.io.LoadStyle;
 import com.timeindexing.io.IndexHeaderIO;
 import com.timeindexing.io.IndexFileInteractor;
 import com.timeindexing.io.ExternalIndexIO;
+import com.timeindexing.io.SegmentedIndexIO;
+import com.timeindexing.io.IndexSegment;
+import com.timeindexing.io.DedupTable;
+import com.timeindexing.io.CompressedIndexIO;
+import com.timeindexing.io.BlockCodec;
+import com.timeindexing.io.FileUtils;
 import com.timeindexing.event.*;
 
 import java.util.Properties;
@@ -53,6 +59,33 @@ public class ExternalIndex extends FileIndex implements ManagedIndex  {
     String indexPathName = null;
     // The file name of the data file
     String dataPathName = null;
+
+    // Should the index records be read using memory mapping
+    Boolean mappedRead = Boolean.FALSE;
+
+    // Is the index held in segments
+    boolean segmented = false;
+
+    // The no of data bytes in a segment
+    Long segmentSize = null;
+
+    // The no of seconds in a segment
+    Long segmentPeriod = null;
+
+    // The codec for a compressed data file, null if not compressed
+    BlockCodec compression = null;
+
+    // The size of a block in a compressed data file
+    Integer blockSize = null;
+
+    // The no of blocks to cache for a compressed data file
+    Integer blockCache = null;
+
+    // The format of the index records, null for the fixed size format
+    Integer indexFormat = null;
+
+    // The ID to create the index with, null for a new ID
+    ID presetID = null;
     
     /**
      * Create an ExternalIndex
@@ -75,7 +108,13 @@ public class ExternalIndex extends FileIndex implements ManagedIndex  {
 
 	setIndexType(IndexType.EXTERNAL);
 
-	indexInteractor = new ExternalIndexIO(this);
+	if (segmented) {
+	    indexInteractor = new SegmentedIndexIO(this);
+	} else if (compression != null) {
+	    indexInteractor = new CompressedIndexIO(this);
+	} else {
+	    indexInteractor = new ExternalIndexIO(this);
+	}
 
     }
 
@@ -105,10 +144,19 @@ public class ExternalIndex extends FileIndex implements ManagedIndex  {
 
 	    indexProperties.put("indexpath", indexPathName);
 	    indexProperties.put("readonly", readOnly);
+	    putWriteProperties(indexProperties);
+	    indexProperties.put("mappedread", mappedRead);
+
+	    if (blockCache != null) {
+		indexProperties.put("blockcache", blockCache);
+	    }
 	    
 	    // open the index and the data
 	    indexInteractor.open(indexProperties);
 
+	    // open the timestamp columns
+	    indexInteractor.openTimeColumns(indexProperties);
+
 	    // load the index
 	    indexInteractor.loadIndex(loadStyle);
 
@@ -155,7 +203,7 @@ public class ExternalIndex extends FileIndex implements ManagedIndex  {
 
 	// things to do the first time in
 	// set the ID, the startTime, first offset, last offset
-	ID indexID = new UID();
+	ID indexID = (presetID != null ? presetID : new UID());
 	header.setID(indexID);
 	header.setStartTime(Clock.time.time());
 	header.setFirstOffset(new Offset(0));
@@ -173,6 +221,31 @@ public class ExternalIndex extends FileIndex implements ManagedIndex  {
 	    indexProperties.put("indexpath", indexPathName);
 	    indexProperties.put("datapath", dataPathName);
 	    indexProperties.put("canonicalpath", headerPathName);
+	    putWriteProperties(indexProperties);
+
+	    if (segmentSize != null) {
+		indexProperties.put("segmentsize", segmentSize);
+	    }
+
+	    if (segmentPeriod != null) {
+		indexProperties.put("segmentperiod", segmentPeriod);
+	    }
+
+	    if (indexFormat != null) {
+		indexProperties.put("indexformat", indexFormat);
+	    }
+
+	    if (compression != null) {
+		indexProperties.put("compression", compression);
+
+		if (blockSize != null) {
+		    indexProperties.put("blocksize", blockSize);
+		}
+
+		if (blockCache != null) {
+		    indexProperties.put("blockcache", blockCache);
+		}
+	    }
 
 	    // process optional properties
 
@@ -183,6 +256,9 @@ public class ExternalIndex extends FileIndex implements ManagedIndex  {
 		
 	    // create the relevant objects
 	    indexInteractor.create(indexProperties);	
+
+	    // create the timestamp columns
+	    indexInteractor.openTimeColumns(indexProperties);
 	
 	    // activate the index
 	    activate();
@@ -248,7 +324,32 @@ public class ExternalIndex extends FileIndex implements ManagedIndex  {
 		readOnly = Boolean.FALSE;
 	    }
 	}
-		
+
+	if (indexProperties.containsKey("mappedread")) {
+	    String mappedread = indexProperties.getProperty("mappedread").toLowerCase();
+
+	    if (mappedread.equals("true")) {
+		mappedRead = Boolean.TRUE;
+	    } else {
+		mappedRead = Boolean.FALSE;
+	    }
+	}
+
+	// a segmented index has a manifest next to the header
+	segmented = new File(FileUtils.resolveFileName(headerPathName, ".tis")).exists();
+
+	// a compressed index has a block directory next to the header
+	if (new File(FileUtils.resolveFileName(headerPathName, ".tdb")).exists()) {
+	    compression = BlockCodec.DEFLATE;
+	} else {
+	    compression = null;
+	}
+
+	blockCache = getIntegerProperty(indexProperties, "blockcache");
+
+	checkReadProperties(indexProperties);
+
+	checkWriteProperties(indexProperties);
     }
 
 
@@ -292,6 +393,15 @@ public class ExternalIndex extends FileIndex implements ManagedIndex  {
 	    dataPathName = headerPathName;
 	}
 
+	if (indexProperties.containsKey("indexid")) {
+	    // keep the ID of an index that is being rewritten
+	    try {
+		presetID = new SID(Long.parseLong(indexProperties.getProperty("indexid")));
+	    } catch (NumberFormatException nfe) {
+		throw new IndexSpecificationException("Bad value for 'indexid': " + indexProperties.getProperty("indexid"));
+	    }
+	}
+
 	if (indexProperties.containsKey("datatype")) {
 	    dataType = DataTypeDirectory.find(indexProperties.getProperty("dataType"));
 	}
@@ -311,7 +421,148 @@ public class ExternalIndex extends FileIndex implements ManagedIndex  {
 	} else {
 	    loadStyle = LoadStyle.NONE;
 	}
+
+	checkSegmentProperties(indexProperties);
+
+	checkCompressionProperties(indexProperties);
+
+	checkIndexFormat(indexProperties);
+
+	checkReadProperties(indexProperties);
+
+	checkWriteProperties(indexProperties);
+    }
+
+    /**
+     * Check the properties for a segmented index,
+     * 'segmentsize' and 'segmentperiod'.
+     * The size is in bytes, and the period is 'hourly', 'daily',
+     * or a no of seconds.
+     */
+    protected void checkSegmentProperties(Properties indexProperties) throws IndexSpecificationException {
+	segmented = false;
+
+	if (indexProperties.containsKey("segmentsize")) {
+	    try {
+		segmentSize = Long.valueOf(indexProperties.getProperty("segmentsize"));
+		segmented = true;
+	    } catch (NumberFormatException nfe) {
+		throw new IndexSpecificationException("Bad value for 'segmentsize': " + indexProperties.getProperty("segmentsize"));
+	    }
+	}
+
+	if (indexProperties.containsKey("segmentperiod")) {
+	    String setting = indexProperties.getProperty("segmentperiod").toLowerCase();
+
+	    if (setting.equals("hourly")) {
+		segmentPeriod = Long.valueOf(60 * 60);
+	    } else if (setting.equals("daily")) {
+		segmentPeriod = Long.valueOf(24 * 60 * 60);
+	    } else {
+		try {
+		    segmentPeriod = Long.valueOf(setting);
+		} catch (NumberFormatException nfe) {
+		    throw new IndexSpecificationException("Bad value for 'segmentperiod': " + setting);
+		}
+	    }
+
+	    segmented = true;
+	}
     }
 
 
+    /**
+     * Check the properties for a compressed data file,
+     * 'compression', 'blocksize', and 'blockcache'.
+     * The compression is 'deflate', 'fast', or 'none'.
+     */
+    protected void checkCompressionProperties(Properties indexProperties) throws IndexSpecificationException {
+	compression = null;
+
+	if (indexProperties.containsKey("compression")) {
+	    String setting = indexProperties.getProperty("compression").toLowerCase();
+
+	    if (setting.equals("deflate")) {
+		compression = BlockCodec.DEFLATE;
+	    } else if (setting.equals("fast")) {
+		compression = BlockCodec.FAST;
+	    } else if (setting.equals("none")) {
+		compression = null;
+	    } else {
+		throw new IndexSpecificationException("Bad value for 'compression': " + setting);
+	    }
+	}
+
+	if (compression != null && segmented) {
+	    throw new IndexSpecificationException("ExternalIndex cannot be both segmented and compressed");
+	}
+
+	blockSize = getIntegerProperty(indexProperties, "blocksize");
+	blockCache = getIntegerProperty(indexProperties, "blockcache");
+    }
+
+    /**
+     * Check the property 'indexformat'.
+     * It is 'fixed', for records of 52 bytes, 'compact',
+     * for delta encoded frames of records, or 'checked', for
+     * records with checksums, which are recovered after a crash.
+     */
+    protected void checkIndexFormat(Properties indexProperties) throws IndexSpecificationException {
+	indexFormat = null;
+
+	if (indexProperties.containsKey("indexformat")) {
+	    String setting = indexProperties.getProperty("indexformat").toLowerCase();
+
+	    if (setting.equals("compact")) {
+		indexFormat = Integer.valueOf(2);
+	    } else if (setting.equals("checked")) {
+		indexFormat = Integer.valueOf(3);
+	    } else if (setting.equals("fixed")) {
+		indexFormat = null;
+	    } else {
+		throw new IndexSpecificationException("Bad value for 'indexformat': " + setting);
+	    }
+	}
+
+	if (indexFormat != null && segmented) {
+	    throw new IndexSpecificationException("ExternalIndex cannot be both segmented and " + indexProperties.getProperty("indexformat").toLowerCase());
+	}
+
+	if (indexFormat != null && indexFormat.intValue() == 3 && compression != null) {
+	    throw new IndexSpecificationException("ExternalIndex cannot be both compressed and checked");
+	}
+    }
+
+    /**
+     * Get the segments of a segmented index.
+     * @return the segments, or null if the index is not segmented
+     */
+    public IndexSegment[] getSegments() {
+	if (indexInteractor instanceof SegmentedIndexIO) {
+	    return ((SegmentedIndexIO)indexInteractor).getSegments();
+	} else {
+	    return null;
+	}
+    }
+
+    /**
+     * Drop a segment of a segmented index, and remove its files.
+     * This is used to expire old data.
+     */
+    public void dropSegment(int number) throws IOException {
+	if (indexInteractor instanceof SegmentedIndexIO) {
+	    ((SegmentedIndexIO)indexInteractor).dropSegment(number);
+	} else {
+	    throw new IOException("Index " + getName() + " is not segmented");
+	}
+    }
+
+    /**
+     * Get the dedup table of an index that shares repeated payloads.
+     * @return the table, or null if the index has none
+     */
+    public DedupTable getDedupTable() {
+	return ((ExternalIndexIO)indexInteractor).getDedupTable();
+    }
+
 }
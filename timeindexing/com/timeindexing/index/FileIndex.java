@@ -22,6 +22,8 @@ package com.timeindexing.index;
 
 import com.timeindexing.time.Timestamp;
 import com.timeindexing.time.Clock;
+import com.timeindexing.time.Lifetime;
+import com.timeindexing.time.TimestampMapping;
 import com.timeindexing.basic.ID;
 import com.timeindexing.basic.UID;
 import com.timeindexing.basic.SID;
@@ -30,13 +32,22 @@ import com.timeindexing.basic.Offset;
 import com.timeindexing.basic.AbsolutePosition;
 import com.timeindexing.data.DataItem;
 import com.timeindexing.io.LoadStyle;
+import com.timeindexing.io.Durability;
+import com.timeindexing.io.WaitStrategy;
+import com.timeindexing.io.IOScheduler;
 import com.timeindexing.io.IndexFileInteractor;
 import com.timeindexing.io.FileUtils;
+import com.timeindexing.io.TimestampColumn;
+import com.timeindexing.io.DataRegionChannel;
 import com.timeindexing.event.*;
 
 import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Callable;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileLock;
+import java.nio.channels.WritableByteChannel;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -56,12 +67,75 @@ public abstract class FileIndex extends AbstractManagedIndex implements StoredIn
     LoadStyle loadStyle = LoadStyle.NONE;
     // The path name of the header
     String headerPathName = null;
+    // The durability of commits
+    Durability durability = Durability.NONE;
+    // The time between group syncs, in milliseconds
+    Long syncInterval = null;
+    // The no of bytes that causes an early group sync
+    Long syncBytes = null;
+    // How the writer thread waits
+    WaitStrategy waitStrategy = null;
+    // Who does the background I/O
+    IOScheduler ioScheduler = null;
+    // Keep timestamp columns for searching
+    Boolean timeColumns = null;
+    // Share repeated data in the data file
+    Boolean dedup = null;
+    // The most entries in the dedup table
+    Integer dedupSize = null;
+    // The no of items to read ahead of a sequential scan
+    int readAhead = READ_AHEAD;
+    // The position of the last item not in the cache
+    long lastMiss = -2;
+    // The no of misses in a row at sequential positions
+    int missRun = 0;
+    // The no of items between the posts of the time fence, 0 for none
+    int fenceSpacing = TimeFence.DEFAULT_SPACING;
+    // The time fence, which is built on the first search
+    volatile TimeFence timeFence = null;
+
+    /*
+     * The default no of items to read ahead.
+     */
+    final static int READ_AHEAD = 64;
+
+    /*
+     * The no of sequential misses before reading ahead.
+     */
+    final static int READ_AHEAD_TRIGGER = 2;
+
+    /*
+     * The no of index records read at a time by transferData().
+     */
+    final static int TRANSFER_BATCH = 1024;
 
     /**
      * Commit this index.
+     * With a durability of SYNC or GROUP, this returns when the
+     * flushed data is on stable storage.  The wait is done without
+     * holding the lock on the index, so that many commits
+     * can share one group sync.
+     * @return true if the index isActivated and isChanged, otherwise return false
+     */
+    public boolean commit() throws IndexCommitException  {
+	if (flushChanges()) {
+	    try {
+		indexInteractor.awaitDurable();
+	    } catch (IOException ioe) {
+		throw new IndexCommitException("Got IOException message '" + ioe.getMessage() + "' from index " + getURI().toString() + " when attemting to sync");
+	    }
+
+	    return true;
+	} else {
+	    return false;
+	}
+    }
+
+    /**
+     * Flush out any changes to the index.
      * @return true if the index isActivated and isChanged, otherwise return false
      */
-    public synchronized boolean commit() throws IndexCommitException  {
+    protected synchronized boolean flushChanges() throws IndexCommitException  {
 	// if the index is activated and has changed
 	// then flush out any changes
 	if (this.isActivated() && isChanged()) {
@@ -90,6 +164,378 @@ public abstract class FileIndex extends AbstractManagedIndex implements StoredIn
 	}
     }
 
+    /**
+     * Check the properties for reading.
+     * 'readahead' is the no of items to read in one go,
+     * when items are got in order, and 0 turns it off.
+     * 'search' and 'locatecache' are the search properties.
+     * 'fencespacing' is the no of items between the posts
+     * of the time fence, and 0 turns it off.
+     */
+    protected void checkReadProperties(Properties indexProperties) throws IndexSpecificationException {
+	checkSearchProperties(indexProperties);
+
+	Integer spacing = getIntegerProperty(indexProperties, "fencespacing");
+
+	if (spacing != null) {
+	    if (spacing.intValue() < 0) {
+		throw new IndexSpecificationException("Bad value for 'fencespacing': " + spacing);
+	    }
+
+	    fenceSpacing = spacing.intValue();
+	}
+
+	timeFence = null;
+
+	Integer setting = getIntegerProperty(indexProperties, "readahead");
+
+	if (setting != null) {
+	    if (setting.intValue() < 0) {
+		throw new IndexSpecificationException("Bad value for 'readahead': " + setting);
+	    }
+
+	    readAhead = setting.intValue();
+	}
+    }
+
+    /**
+     * Get an Integer property.
+     * @return the value, or null if it is not set
+     */
+    protected Integer getIntegerProperty(Properties indexProperties, String name) throws IndexSpecificationException {
+	if (indexProperties.containsKey(name)) {
+	    try {
+		return Integer.valueOf(indexProperties.getProperty(name));
+	    } catch (NumberFormatException nfe) {
+		throw new IndexSpecificationException("Bad value for '" + name + "': " + indexProperties.getProperty(name));
+	    }
+	} else {
+	    return null;
+	}
+    }
+
+    /**
+     * Check the properties for writing
+     * 'durability', 'syncinterval', 'syncbytes', 'waitstrategy',
+     * 'ioscheduler', 'timecolumns', 'dedup', and 'dedupsize'.
+     */
+    protected void checkWriteProperties(Properties indexProperties) throws IndexSpecificationException {
+	if (indexProperties.containsKey("durability")) {
+	    String setting = indexProperties.getProperty("durability").toLowerCase();
+
+	    if (setting.equals("sync")) {
+		durability = Durability.SYNC;
+	    } else if (setting.equals("group")) {
+		durability = Durability.GROUP;
+	    } else if (setting.equals("none")) {
+		durability = Durability.NONE;
+	    } else {
+		throw new IndexSpecificationException("Bad value for 'durability': " + setting);
+	    }
+	}
+
+	try {
+	    if (indexProperties.containsKey("syncinterval")) {
+		syncInterval = Long.valueOf(indexProperties.getProperty("syncinterval"));
+	    }
+
+	    if (indexProperties.containsKey("syncbytes")) {
+		syncBytes = Long.valueOf(indexProperties.getProperty("syncbytes"));
+	    }
+	} catch (NumberFormatException nfe) {
+	    throw new IndexSpecificationException("Bad value for 'syncinterval' or 'syncbytes': " + nfe.getMessage());
+	}
+
+	if (indexProperties.containsKey("waitstrategy")) {
+	    String setting = indexProperties.getProperty("waitstrategy").toLowerCase();
+
+	    if (setting.equals("spin")) {
+		waitStrategy = WaitStrategy.SPIN;
+	    } else if (setting.equals("yield")) {
+		waitStrategy = WaitStrategy.YIELD;
+	    } else if (setting.equals("park")) {
+		waitStrategy = WaitStrategy.PARK;
+	    } else {
+		throw new IndexSpecificationException("Bad value for 'waitstrategy': " + setting);
+	    }
+	}
+
+	if (indexProperties.containsKey("ioscheduler")) {
+	    String setting = indexProperties.getProperty("ioscheduler").toLowerCase();
+
+	    if (setting.equals("shared")) {
+		ioScheduler = IOScheduler.SHARED;
+	    } else if (setting.equals("thread")) {
+		ioScheduler = IOScheduler.THREAD;
+	    } else {
+		throw new IndexSpecificationException("Bad value for 'ioscheduler': " + setting);
+	    }
+	}
+
+	if (indexProperties.containsKey("timecolumns")) {
+	    String setting = indexProperties.getProperty("timecolumns").toLowerCase();
+
+	    if (setting.equals("true")) {
+		timeColumns = Boolean.TRUE;
+	    } else if (setting.equals("false")) {
+		timeColumns = Boolean.FALSE;
+	    } else {
+		throw new IndexSpecificationException("Bad value for 'timecolumns': " + setting);
+	    }
+	}
+
+	if (indexProperties.containsKey("dedup")) {
+	    String setting = indexProperties.getProperty("dedup").toLowerCase();
+
+	    if (setting.equals("true")) {
+		dedup = Boolean.TRUE;
+	    } else if (setting.equals("false")) {
+		dedup = Boolean.FALSE;
+	    } else {
+		throw new IndexSpecificationException("Bad value for 'dedup': " + setting);
+	    }
+	}
+
+	dedupSize = getIntegerProperty(indexProperties, "dedupsize");
+
+	if (dedupSize != null && dedupSize.intValue() <= 0) {
+	    throw new IndexSpecificationException("Bad value for 'dedupsize': " + dedupSize);
+	}
+    }
+
+    /**
+     * Pass the write settings on to the index interactor.
+     */
+    protected void putWriteProperties(IndexProperties indexProperties) {
+	indexProperties.put("durability", durability);
+
+	if (syncInterval != null) {
+	    indexProperties.put("syncinterval", syncInterval);
+	}
+
+	if (syncBytes != null) {
+	    indexProperties.put("syncbytes", syncBytes);
+	}
+
+	if (waitStrategy != null) {
+	    indexProperties.put("waitstrategy", waitStrategy);
+	}
+
+	if (ioScheduler != null) {
+	    indexProperties.put("ioscheduler", ioScheduler);
+	}
+
+	if (timeColumns != null) {
+	    indexProperties.put("timecolumns", timeColumns);
+	}
+
+	if (dedup != null) {
+	    indexProperties.put("dedup", dedup);
+	}
+
+	if (dedupSize != null) {
+	    indexProperties.put("dedupsize", dedupSize);
+	}
+    }
+
+    /**
+     * Search for a Timestamp.
+     * If the index has timestamp columns the whole search is done
+     * in the column, and only the found item is read.
+     * Otherwise it is the usual binary search over the items.
+     */
+    protected TimestampMapping searchTimestamp(Timestamp t, long start, long end, IndexTimestampSelector selector, Lifetime lifetime, int depth) throws GetItemException, IndexClosedException {
+	if (depth == 0) {
+	    long found = -1;
+
+	    try {
+		found = indexInteractor.searchTimeColumn(t, start, end, selector, lifetime);
+	    } catch (IOException ioe) {
+		System.err.println("FileIndex " + getName() + ": timestamp column search threw " + ioe.getMessage());
+		found = -1;
+	    }
+
+	    if (found >= 0) {
+		IndexItem item = getItem(found);
+
+		if (selector == IndexTimestampSelector.DATA) {
+		    return new TimestampMapping(item.getDataTimestamp(), item.getPosition());
+		} else {
+		    return new TimestampMapping(item.getIndexTimestamp(), item.getPosition());
+		}
+	    }
+
+	    // a range of up to one fence block is read in one go,
+	    // unless a guess is likely to find it quicker
+	    if (timeFence != null && end - start <= fenceSpacing && indexInteractor.canReadTimes() && ! useInterpolation(start, end)) {
+		return searchBlock(t, start, end, selector, lifetime);
+	    }
+	}
+
+	return super.searchTimestamp(t, start, end, selector, lifetime, depth);
+    }
+
+    /**
+     * Search for a Timestamp in a block of items.
+     * The times of the items that have been written out
+     * are read with one read of the index records,
+     * and the search is done on them in memory.
+     */
+    protected TimestampMapping searchBlock(Timestamp t, long start, long end, IndexTimestampSelector selector, Lifetime lifetime) throws GetItemException, IndexClosedException {
+	long nanos = TimestampColumn.toNanos(t);
+	int count = (int)(end - start + 1);
+	long[] times = new long[count];
+
+	readTimesNanos(start, count, selector, times);
+
+	// find the first item >= t
+	int low = 0;
+	int high = count;
+
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+
+	    if (times[mid] < nanos) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+
+	noteGuess(guessPosition(nanos, start, end, selector), start + low);
+
+	long lowNanos = (low < count ? times[low] : 0);
+
+	return foundMapping(nanos, start + low, lowNanos, start, end, selector, lifetime);
+    }
+
+    /**
+     * Get the timestamps of a run of items, as a no of nanoseconds.
+     * The items that have been written out are read with one
+     * read of the index records, and the rest are got one at a time.
+     * @return the no of times got
+     */
+    protected int readTimesNanos(long position, int count, IndexTimestampSelector selector, long[] times) throws GetItemException, IndexClosedException {
+	int got = 0;
+
+	// only read the items that have been written out
+	long written = (lastFlushPosition == null ? getLength() : lastFlushPosition.value());
+	int readable = (int)Math.max(0, Math.min(count, written - position));
+
+	if (readable > 0 && indexInteractor.canReadTimes()) {
+	    if (isClosed()) {
+		throw new IndexClosedException("Can't get item " + position + " from a closed index");
+	    }
+
+	    try {
+		got = indexInteractor.readTimesNanos(position, readable, selector, times);
+	    } catch (IOException ioe) {
+		got = 0;
+	    }
+	}
+
+	// the rest are got one at a time
+	for (int i=got; i < count; i++) {
+	    times[i] = getTimeNanos(position + i, selector);
+	}
+
+	return count;
+    }
+
+    /**
+     * Get a TimeScanner for a pass over the index.
+     * If the records can be read by position, the times
+     * are read a block at a time.
+     */
+    protected TimeScanner newTimeScanner(IndexTimestampSelector selector) {
+	if (indexInteractor.canReadTimes()) {
+	    return new TimeScanner(this, selector, TimeScanner.DEFAULT_BLOCK_SIZE);
+	} else {
+	    return super.newTimeScanner(selector);
+	}
+    }
+
+    /**
+     * Get the time fence, building it if needed.
+     * The fence is built from every K-th item, whose times are
+     * read from the index records, and then kept up to date
+     * as items are written.
+     * @return the fence, or null if there is none for this index
+     */
+    protected TimeFence getTimeFence() throws GetItemException, IndexClosedException {
+	TimeFence fence = timeFence;
+
+	if (fence != null || fenceSpacing == 0 || ! indexInteractor.canReadTimes()) {
+	    return fence;
+	}
+
+	synchronized (this) {
+	    if (timeFence == null) {
+		fence = new TimeFence(fenceSpacing);
+
+		// items written from now on are added to the fence
+		timeFence = fence;
+
+		// add the items already in the index
+		long position = 0;
+
+		while ((position = fence.nextPosition()) < getLength()) {
+		    fence.add(position, getTimeNanos(position, IndexTimestampSelector.DATA), getTimeNanos(position, IndexTimestampSelector.INDEX));
+		}
+	    }
+
+	    return timeFence;
+	}
+    }
+
+    /**
+     * Add a written item to the time fence, if it has one.
+     */
+    protected void addToFence(IndexItem item) {
+	TimeFence fence = timeFence;
+
+	if (fence != null) {
+	    fence.add(item.getPosition().value(), TimestampColumn.toNanos(item.getDataTimestamp()), TimestampColumn.toNanos(item.getIndexTimestamp()));
+	}
+    }
+
+    /**
+     * Get a timestamp of the item at a position as a no of nanoseconds,
+     * for searching.
+     * An item in the cache is used, otherwise the time is read
+     * from the index record, so a search does not fill the cache.
+     */
+    protected long getTimeNanos(long position, IndexTimestampSelector selector) throws GetItemException, IndexClosedException {
+	IndexItem item = null;
+
+	synchronized (indexCache) {
+	    if (indexCache.containsItem(position)) {
+		item = indexCache.getItem(position);
+	    }
+	}
+
+	if (item == null && indexInteractor.canReadTimes()) {
+	    if (isClosed()) {
+		throw new IndexClosedException("Can't get item " + position + " from a closed index");
+	    }
+
+	    try {
+		return indexInteractor.readTimeNanos(position, selector);
+	    } catch (IOException ioe) {
+		// the record may not be written out yet,
+		// so get the item
+	    }
+	}
+
+	if (item == null) {
+	    return super.getTimeNanos(position, selector);
+	} else if (selector == IndexTimestampSelector.DATA) {
+	    return TimestampColumn.toNanos(item.getDataTimestamp());
+	} else {
+	    return TimestampColumn.toNanos(item.getIndexTimestamp());
+	}
+    }
+
    /**
      * Close this index.
      */
@@ -204,7 +650,100 @@ public abstract class FileIndex extends AbstractManagedIndex implements StoredIn
 	return item;
     }
 
-   
+
+    /**
+     * Add a batch of Data Items to the Index, with Timestamps from the Data.
+     * The IDs will be generated.
+     * The items are added to the cache and written out in one critical section,
+     * and with autocommit on, there is one commit for the whole batch.
+     * @param dataitems the DataItems to add
+     * @param dataTSs the Timestamps for the data, null implies that
+     * the data Timestamps are the same as the record Timestamps
+     * @param annotations the annotation meta data, null implies no annotations
+     * @return the IndexItems that were added
+     */
+    public IndexItem[] addItems(DataItem[] dataitems, Timestamp[] dataTSs, long[] annotations) throws IndexTerminatedException, IndexClosedException, IndexActivationException, AddItemException {
+	FileIndexItem[] items = new FileIndexItem[dataitems.length];
+
+	if (dataitems.length == 0) {
+	    return items;
+	}
+
+	synchronized (this) {
+	    // set the IDs from the length
+	    // as it's unique
+	    long id = getLength();
+
+	    for (int i=0; i < dataitems.length; i++) {
+		// the record Timestamp is now (as microseconds)
+		Timestamp recordTS = Clock.time.time();
+		// the actual data Timestamp is the record Timestamp
+		// if there is no data Timestamp
+		Timestamp dataTS = (dataTSs == null ? null : dataTSs[i]);
+		Timestamp actualTS = (dataTS == null ? recordTS : dataTS);
+		long annotation = (annotations == null ? 0 : annotations[i]);
+
+		items[i] = new FileIndexItem(actualTS, recordTS, dataitems[i], dataitems[i].getDataType(), new SID(id + i), annotation);
+	    }
+
+	    // add the items to the cache
+	    addItems(items);
+
+	    // now write them out
+	    writeItems(items);
+	}
+
+	// mark as being changed
+	changed = true;
+
+	// if autoCommit is on, then commit
+	if (autoCommitOn) {
+	    try {
+		commit();
+	    } catch (IndexCommitException ice) {
+		throw new AddItemException("Can't add these items. " + ice.getMessage());
+	    }
+	}
+
+	return items;
+    }
+
+    /**
+     * Append a batch of IndexItems that already have
+     * their Timestamps and IDs, such as items copied from another index.
+     * The items are added to the cache and written out in one critical section,
+     * and with autocommit on, there is one commit for the whole batch.
+     * @param items the IndexItems to append
+     * @return the IndexItems that were added
+     */
+    protected IndexItem[] appendItems(FileIndexItem[] items) throws IndexTerminatedException, IndexClosedException, IndexActivationException, AddItemException {
+	if (items.length == 0) {
+	    return items;
+	}
+
+	synchronized (this) {
+	    // add the items to the cache
+	    addItems(items);
+
+	    // now write them out
+	    writeItems(items);
+	}
+
+	// mark as being changed
+	changed = true;
+
+	// if autoCommit is on, then commit
+	if (autoCommitOn) {
+	    try {
+		commit();
+	    } catch (IndexCommitException ice) {
+		throw new AddItemException("Can't add these items. " + ice.getMessage());
+	    }
+	}
+
+	return items;
+    }
+
     /**
      * Add a Referemnce to an IndexItem in a Index.
      */
@@ -320,26 +859,42 @@ public abstract class FileIndex extends AbstractManagedIndex implements StoredIn
 		if (indexCache.containsItem(n)) { 	// if the cache has the item
 		    // get it from the cache
 		    item = indexCache.getItem(n);
-		} else {
-		    System.err.println(getName() + " FileIndex: " +  "load-on-demand item: " + n);
-		    try {
-			// get the IndexItem from the index interactor.
-			// This automatically gets placed in the cache
-			item = indexInteractor.getItem(n, getLoadDataAutomatically());
+		}
+	    }
 
-			if (item == null) {
-			    throw new GetItemException("Cant load item " + n);
-			}
+	    // The item is loaded without holding the cache lock,
+	    // so that index interactors which can read concurrently
+	    // are not serialized here.
+	    // If two threads load the same item, the cache
+	    // keeps the last one.
+	    if (item == null) {
+		System.err.println(getName() + " FileIndex: " +  "load-on-demand item: " + n);
+		try {
+		    // get the IndexItem from the index interactor.
+		    // This automatically gets placed in the cache
+		    int count = readAheadCount(n);
+
+		    if (count > 1) {
+			// get the items ahead as well
+			ManagedIndexItem[] items = indexInteractor.getItems(n, count, getLoadDataAutomatically());
+
+			item = (items.length > 0 ? items[0] : null);
+		    } else {
+			item = indexInteractor.getItem(n, getLoadDataAutomatically());
+		    }
 
-			// Get it out of the cache.
-			// This will fill the data if it is hollow
-			//item = indexCache.getItem(n);
-		    } catch (IOException ioe) {
+		    if (item == null) {
 			throw new GetItemException("Cant load item " + n);
-		    } catch (Error e) {
-                        System.err.println(getName() + " FileIndex: item " + n +  " Error: " + e);
-			throw new GetItemException("Cant load item " + n);
-                    }
+		    }
+
+		    // Get it out of the cache.
+		    // This will fill the data if it is hollow
+		    //item = indexCache.getItem(n);
+		} catch (IOException ioe) {
+		    throw new GetItemException("Cant load item " + n);
+		} catch (Error e) {
+		    System.err.println(getName() + " FileIndex: item " + n +  " Error: " + e);
+		    throw new GetItemException("Cant load item " + n);
 		}
 	    }
 
@@ -352,6 +907,328 @@ public abstract class FileIndex extends AbstractManagedIndex implements StoredIn
 	}
     }
 
+    /**
+     * Work out how many items to get, when item n is not in the cache.
+     * After a few misses in a row at sequential positions,
+     * the next readAhead items are got in one go.
+     * This stops at the first item that is already in the cache.
+     * The counters are not locked, as they are only a hint.
+     */
+    protected int readAheadCount(long n) {
+	if (n == lastMiss + 1) {
+	    missRun++;
+	} else {
+	    missRun = 0;
+	}
+
+	lastMiss = n;
+
+	if (readAhead <= 1 || missRun < READ_AHEAD_TRIGGER) {
+	    return 1;
+	}
+
+	int count = (int)Math.min((long)readAhead, getLength() - n);
+
+	synchronized (indexCache) {
+	    for (int i=1; i < count; i++) {
+		if (indexCache.containsItem(n + i)) {
+		    count = i;
+		    break;
+		}
+	    }
+	}
+
+	// the next miss follows on from the last item got
+	lastMiss = n + count - 1;
+
+	return count;
+    }
+
+    /**
+     * Transfer the data of some IndexItems straight from the file
+     * to a channel, without copying it through buffers.
+     * The index records are read a batch at a time without their data,
+     * so only the data offsets and sizes are used.
+     * The data of adjacent items is merged into one range,
+     * and each range is sent with one transferTo().
+     * Items that are references are followed and their data
+     * is written to the channel.
+     * @param n the position of the first item
+     * @param count the number of items
+     * @param target the channel to write to
+     * @return the number of bytes transferred
+     */
+    public long transferData(long n, long count, WritableByteChannel target) throws GetItemException, IndexClosedException, IOException {
+	// check if out of bounds
+        if (n < 0 || count < 0 || n + count > getLength()) {
+	    throw new GetItemException("Cant transfer items " + n + " to " + (n + count));
+	}
+
+	// make sure everything added so far is in the file
+	try {
+	    flushChanges();
+	} catch (IndexCommitException ice) {
+	    throw new IOException("Cant flush index " + getURI() + " before transfer: " + ice.getMessage());
+	}
+
+	long transferTotal = 0;
+
+	// the current range of data
+	long rangeStart = 0;
+	long rangeSize = 0;
+
+	long i = n;
+	long end = n + count;
+
+	while (i < end) {
+	    // get the index records, but not the data
+	    ManagedIndexItem[] items = indexInteractor.getItems(i, (int)Math.min(end - i, TRANSFER_BATCH), false);
+
+	    if (items.length == 0) {
+		throw new GetItemException("Cant transfer item " + i);
+	    }
+
+	    for (int b=0; b < items.length; b++) {
+		IndexItem item = items[b];
+
+		if (item.isReference()) {
+		    // send the range so far
+		    if (rangeSize > 0) {
+			transferTotal += indexInteractor.transferData(rangeStart, rangeSize, target);
+			rangeSize = 0;
+		    }
+
+		    // follow all references until we find the real data
+		    while (item.isReference()) {
+			item = item.follow();
+		    }
+
+		    ByteBuffer data = item.getData().duplicate();
+
+		    while (data.hasRemaining()) {
+			transferTotal += target.write(data);
+		    }
+
+		} else {
+		    long offset = ((ManagedFileIndexItem)item).getDataOffset().value();
+		    long size = item.getDataSize().value();
+
+		    if (rangeSize > 0 && rangeStart + rangeSize == offset) {
+			// this data follows on, so add it to the range
+			rangeSize += size;
+		    } else {
+			// send the range so far and start a new one
+			if (rangeSize > 0) {
+			    transferTotal += indexInteractor.transferData(rangeStart, rangeSize, target);
+			}
+
+			rangeStart = offset;
+			rangeSize = size;
+		    }
+		}
+	    }
+
+	    i += items.length;
+	}
+
+	// send the last range
+	if (rangeSize > 0) {
+	    transferTotal += indexInteractor.transferData(rangeStart, rangeSize, target);
+	}
+
+	return transferTotal;
+    }
+
+    /**
+     * Get a channel for reading the data of the Index Item at position n.
+     * The data is read from the file as it is needed, either in slices
+     * or as a series of memory mapped windows, so it
+     * can be bigger than one buffer.
+     * Items that are references are followed.
+     * @param n the position of the item
+     */
+    public DataRegionChannel openData(long n) throws GetItemException, IndexClosedException, IOException {
+	// check if out of bounds
+        if (n < 0 || n >= getLength()) {
+	    throw new GetItemException("Cant open data of item " + n);
+	}
+
+	// make sure everything added so far is in the file
+	try {
+	    flushChanges();
+	} catch (IndexCommitException ice) {
+	    throw new IOException("Cant flush index " + getURI() + " before reading: " + ice.getMessage());
+	}
+
+	IndexItem item = getItem(n);
+
+	// follow all references until we find the real data
+	while (item.isReference()) {
+	    item = item.follow();
+	}
+
+	if (item.getIndex() instanceof FileIndex) {
+	    return ((FileIndex)item.getIndex()).openItemData((ManagedFileIndexItem)item);
+	} else {
+	    throw new IOException("The data of item " + n + " in index " + getURI() + " is not held in a file");
+	}
+    }
+
+    /**
+     * Get a channel for reading the data of an item in this index.
+     */
+    protected DataRegionChannel openItemData(ManagedFileIndexItem item) throws IOException {
+	return indexInteractor.openData(item.getDataOffset().value(), item.getDataSize().value());
+    }
+
+    /**
+     * Get an Index Item from the Index, without waiting for it.
+     * If the item is in the cache the Future is already done,
+     * otherwise the item is read by the background I/O.
+     * @return a Future for the IndexItem
+     */
+    public Future getItemAsync(long n) throws GetItemException, IndexClosedException {
+	setLastAccessTime();
+
+	// check if out of bounds
+        if (n < 0 || n >= getLength()) {
+	    throw new GetItemException("Cant load item " + n);
+	}
+
+	if (isClosed()) {
+	    throw new IndexClosedException("Can't get item " + n + " from a closed index");
+	}
+
+	IndexItem item = null;
+
+	synchronized (indexCache) {
+	    if (indexCache.containsItem(n)) {
+		item = indexCache.getItem(n);
+	    }
+	}
+
+	if (item != null) {
+	    return doneFuture(item);
+	} else {
+	    flushForRead();
+
+	    return indexInteractor.requestReadWork(n, 1, getLoadDataAutomatically(), true);
+	}
+    }
+
+    /**
+     * Get count Index Items, starting at position n,
+     * without waiting for them.
+     * Items in the cache are used as they are, and each run
+     * of items not in the cache is read by the background I/O.
+     * @return a Future for an IndexItem[]
+     */
+    public Future getItemsAsync(long n, long count) throws GetItemException, IndexClosedException {
+	setLastAccessTime();
+
+	// check if out of bounds
+        if (n < 0 || count < 0 || n + count > getLength() || count > Integer.MAX_VALUE) {
+	    throw new GetItemException("Cant load items " + n + " to " + (n + count - 1));
+	}
+
+	if (isClosed()) {
+	    throw new IndexClosedException("Can't get items from a closed index");
+	}
+
+	IndexItemsFuture future = new IndexItemsFuture((int)count);
+
+	int i = 0;
+
+	while (i < count) {
+	    // use the items in the cache
+	    synchronized (indexCache) {
+		while (i < count && indexCache.containsItem(n + i)) {
+		    future.setItem(i, indexCache.getItem(n + i));
+		    i++;
+		}
+	    }
+
+	    if (i == count) {
+		break;
+	    }
+
+	    // ask for the items up to the next one in the cache,
+	    // flushing the index before the first read
+	    if (future.parts.isEmpty()) {
+		flushForRead();
+	    }
+
+	    int start = i;
+
+	    synchronized (indexCache) {
+		while (i < count && ! indexCache.containsItem(n + i)) {
+		    i++;
+		}
+	    }
+
+	    future.addPart(start, indexInteractor.requestReadWork(n + start, i - start, getLoadDataAutomatically(), false));
+	}
+
+	return future;
+    }
+
+    /**
+     * Make sure everything added so far is in the file,
+     * before the background I/O reads it.
+     */
+    protected void flushForRead() throws GetItemException {
+	try {
+	    flushChanges();
+	} catch (IndexCommitException ice) {
+	    throw new GetItemException("Cant flush index " + getURI() + " before reading: " + ice.getMessage());
+	}
+    }
+
+    /**
+     * Get a Future which is already done.
+     */
+    protected Future doneFuture(final Object value) {
+	FutureTask future = new FutureTask(new Callable() {
+		public Object call() {
+		    return value;
+		}
+	    });
+
+	future.run();
+
+	return future;
+    }
+
+    /**
+     * Get the start and end positions to search for a Timestamp.
+     * The time fence narrows it down to one block of items.
+     * Otherwise the index interactor may know which part
+     * of the index holds the Timestamp.
+     */
+    protected long[] getSearchRange(Timestamp t, IndexTimestampSelector selector) {
+	long[] range = null;
+
+	try {
+	    TimeFence fence = getTimeFence();
+
+	    if (fence != null) {
+		range = fence.getRange(TimestampColumn.toNanos(t), selector, getLength());
+	    }
+	} catch (TimeIndexException tie) {
+	    System.err.println("FileIndex " + getName() + ": time fence threw " + tie.getMessage());
+	}
+
+	if (range == null) {
+	    range = indexInteractor.getSearchRange(t, selector);
+	}
+
+	if (range == null) {
+	    return super.getSearchRange(t, selector);
+	} else {
+	    return range;
+	}
+    }
+
     /**
      * Write an IndexItem to the Index.
      * @return the size of the resulting index.
@@ -364,6 +1241,7 @@ public abstract class FileIndex extends AbstractManagedIndex implements StoredIn
 	    // do a write now
 	    indexInteractor.addItem(item);
 
+	    addToFence(item);
 
 	    if (newSize == 1) { // this is the first index item
 		header.setFirstOffset(item.getIndexOffset()); // so set the offset of the first item
@@ -384,6 +1262,39 @@ public abstract class FileIndex extends AbstractManagedIndex implements StoredIn
 	}
     }
 
+    /**
+     * Write a batch of IndexItems to the Index.
+     * @return the size of the resulting index.
+     */
+    protected long writeItems(FileIndexItem[] items) throws IndexTerminatedException, IndexClosedException, IndexActivationException, AddItemException {
+	long newSize = getLength();
+
+	// and write them out to the file
+	try {
+	    // do a write now
+	    indexInteractor.addItems(items);
+
+	    for (int i=0; i < items.length; i++) {
+		addToFence(items[i]);
+	    }
+
+	    if (newSize == items.length) { // this batch has the first index item
+		header.setFirstOffset(items[0].getIndexOffset()); // so set the offset of the first item
+	    }
+
+	    // set the offset of the last item
+	    header.setLastOffset(items[items.length-1].getIndexOffset());
+
+	    // this is the last item flushed to the file
+	    lastFlushPosition = new AbsolutePosition(newSize);
+
+	    return newSize;
+
+	} catch (IOException ioe) {
+	    throw new AddItemException(ioe);
+	}
+    }
+
     /**
      * Retrieve an Index Item into the Index.
      * @param item the IndexItem to add
@@ -405,9 +1316,31 @@ public abstract class FileIndex extends AbstractManagedIndex implements StoredIn
 	    cacheSize = indexCache.addItem(item, position);
 	}
 
-	System.err.print("R" + "(" + position + ")");
-	//System.err.flush();
+	return cacheSize;
+    }
+
+    /**
+     * Retrieve a run of Index Items into the Index, in one go.
+     * The cache is locked once for the whole run.
+     * @param items the IndexItems to add
+     * @param position the position to load the first IndexItem at
+     * @return the no of items in the cache
+     */
+    public long retrieveItems(IndexItem[] items, long position) {
+	for (int i=0; i < items.length; i++) {
+	    ManagedIndexItem itemM = (ManagedIndexItem)items[i];
+	    itemM.setPosition(new AbsolutePosition(position + i));
+	    itemM.setIndex(this);
+	}
 
+	long cacheSize = 0;
+
+	synchronized (indexCache) {
+	    // add the items to the index item cache
+	    for (int i=0; i < items.length; i++) {
+		cacheSize = indexCache.addItem(items[i], position + i);
+	    }
+	}
 
 	return cacheSize;
     }
@@ -422,9 +1355,9 @@ public abstract class FileIndex extends AbstractManagedIndex implements StoredIn
 	//System.err.print("D");
 	//System.err.flush();
 
-	synchronized (indexInteractor) {
-	    return indexInteractor.convertDataReference(dataReference);
-	}
+	// The interactor reads the data with positional reads,
+	// so there is no need to lock it.
+	return indexInteractor.convertDataReference(dataReference);
     }
      
    /**
@@ -28,6 +28,7 @@ import com.timeindexing.basic.UID;
 import com.timeindexing.basic.Size;
 import com.timeindexing.basic.Offset;
 import com.timeindexing.data.DataItem;
+import com.timeindexing.data.ChannelItem;
 
 import java.io.Serializable;
 import java.io.IOException;
@@ -54,8 +55,21 @@ public class FileIndexItem extends IncoreIndexItem implements IndexItem, Managed
      */
     public FileIndexItem(Timestamp dataTS, Timestamp indexTS, DataItem dataitem,
 			DataType type, ID id, long annotationValue) {
-	this(dataTS, indexTS,  new DataHolderObject(dataitem.getBytes(),  dataitem.getSize()),
-	     type, id, annotationValue);
+	this(dataTS, indexTS,  dataFor(dataitem), type, id, annotationValue);
+    }
+
+    /**
+     * Get the DataAbstraction to hold the data of a DataItem.
+     * The data of a ChannelItem is read from its channel
+     * when the item is written.
+     */
+    static DataAbstraction dataFor(DataItem dataitem) {
+	if (dataitem instanceof ChannelItem) {
+	    ChannelItem channelItem = (ChannelItem)dataitem;
+	    return new DataStreamObject(channelItem.getChannel(), new Size(channelItem.getSize()));
+	} else {
+	    return new DataHolderObject(dataitem.getBytes(),  dataitem.getSize());
+	}
     }
 	
     /**
@@ -110,6 +124,11 @@ public class FileIndexItem extends IncoreIndexItem implements IndexItem, Managed
 	} else if (data instanceof DataReference) {
 	    // its a data reference object
 
+	    if (data.getSize().value() >= Integer.MAX_VALUE) {
+		// it can't be held in a buffer
+		throw new RuntimeException("FileIndexItem: data of " + getPosition() + " is " + data.getSize() + " bytes, which is too big for a buffer. Use openData() to read it.");
+	    }
+
 	    FileIndex index  = (FileIndex)getIndex();
 
 	    // read the data
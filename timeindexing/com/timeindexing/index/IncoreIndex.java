@@ -413,6 +413,8 @@ public class IncoreIndex extends AbstractManagedIndex implements ManagedIndex {
 		readOnly = Boolean.FALSE;
 	    }
 	}
+
+	checkSearchProperties(indexProperties);
     }
 
 
@@ -426,6 +428,8 @@ public class IncoreIndex extends AbstractManagedIndex implements ManagedIndex {
 	if (indexProperties.containsKey("datatype")) {
 	    dataType = DataTypeDirectory.find(indexProperties.getProperty("dataType"));
 	}
+
+	checkSearchProperties(indexProperties);
     }
 
     /**
@@ -94,6 +94,16 @@ public interface Index extends IndexHeader {
      */
     public IndexItem addItem(DataItem item, Timestamp dataTime, long annotation) throws IndexTerminatedException, IndexClosedException, IndexActivationException, AddItemException;
 
+    /**
+     * Add a batch of Data Items to the Index, with speicifed Data Timestamps and annotation data.
+     * The batch is added as one unit.
+     * @param items the DataItems to add
+     * @param dataTimes the Data Timestamps, null implies the Data Timestamps are the record Timestamps
+     * @param annotations the annotation meta data, null implies there are no annotations
+     * @return the IndexItems that were added
+     */
+    public IndexItem[] addItems(DataItem[] items, Timestamp[] dataTimes, long[] annotations) throws IndexTerminatedException, IndexClosedException, IndexActivationException, AddItemException;
+
     /**
      * Add a Reference to an IndexItem in a Index.
      * The Data Timestamp of the IndexItem is passed into this Index.
@@ -181,6 +191,14 @@ public interface Index extends IndexHeader {
      */
     public TimestampMapping locate(Position p, IndexTimestampSelector sel, Lifetime lifetime);
 
+    /**
+     * Try and determine the positions of many times, in one pass.
+     * The times are a no of nanoseconds, in order.
+     * Returns the positions, with Position.TOO_LOW.value() or
+     * Position.TOO_HIGH.value() for times outside the index.
+     */
+    public long[] locateAll(long[] times, IndexTimestampSelector sel, Lifetime lifetime);
+
 
     /**
      * Select an Interval given an Interval object.
@@ -0,0 +1,599 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// IndexCompactor.java
+
+package com.timeindexing.index;
+
+import com.timeindexing.time.Timestamp;
+import com.timeindexing.time.TimeCalculator;
+import com.timeindexing.basic.ID;
+import com.timeindexing.basic.Size;
+import com.timeindexing.basic.AbsolutePosition;
+import com.timeindexing.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Rewrite the items of an index into a fresh index.
+ * <p>
+ * The items are copied in batches, keeping their Timestamps,
+ * IDs and annotations.  They are read in position order, so the
+ * source index reads ahead, and each batch is written out in one go.
+ * Big data is streamed from the source rather than read into a buffer.
+ * Optionally, the items are copied in data Timestamp order,
+ * and chains of references are followed to their last item.
+ * <p>
+ * compact() rewrites a closed external index in place.
+ * The new files are put in by renaming the new header over the
+ * old one, as the header names the index and data files.
+ */
+public class IndexCompactor {
+    // The index to copy from
+    Index source = null;
+
+    // Copy the items in data Timestamp order
+    boolean timeOrder = false;
+
+    // Follow references to the end of a chain
+    boolean flattenReferences = false;
+
+    // The no of items written in one batch
+    int batchSize = BATCH_SIZE;
+
+    // The indexes that references point to, by ID
+    Map referencedIndexes = null;
+
+    /*
+     * The default no of items written in one batch
+     */
+    final static int BATCH_SIZE = 256;
+
+    /*
+     * Data at least this big is streamed from the source
+     */
+    final static long STREAM_SIZE = 16 * 1024 * 1024;
+
+    /*
+     * The most references followed for one item
+     */
+    final static int MAX_HOPS = 64;
+
+    /*
+     * The files of the timestamp columns, named after the header
+     */
+    final static String[] COLUMN_EXTENSIONS = { ".tdt", ".tit" };
+
+    /**
+     * Construct an IndexCompactor for an Index.
+     */
+    public IndexCompactor(Index source) {
+	this.source = source;
+    }
+
+    /**
+     * Copy the items in data Timestamp order,
+     * rather than in position order.
+     */
+    public IndexCompactor setTimeOrder(boolean timeOrder) {
+	this.timeOrder = timeOrder;
+	return this;
+    }
+
+    /**
+     * Follow chains of references, so each copied reference
+     * points to an item with data.
+     */
+    public IndexCompactor setFlattenReferences(boolean flatten) {
+	flattenReferences = flatten;
+	return this;
+    }
+
+    /**
+     * Set the no of items written in one batch.
+     */
+    public IndexCompactor setBatchSize(int size) {
+	batchSize = Math.max(1, size);
+	return this;
+    }
+
+    /**
+     * Copy all of the items of the source index into a FileIndex.
+     * @return the no of items copied
+     */
+    public long copyTo(FileIndex target) throws TimeIndexException, IOException {
+	long length = source.getLength();
+
+	// the positions in the order they are copied,
+	// null if they are copied in position order
+	long[] order = null;
+
+	// the new position of each item, null if it is the old position
+	long[] newPosition = null;
+
+	if (timeOrder) {
+	    order = dataTimeOrder(length);
+
+	    if (order != null) {
+		newPosition = new long[order.length];
+
+		for (int i=0; i < order.length; i++) {
+		    newPosition[(int)order[i]] = i;
+		}
+	    }
+	}
+
+	// references to the source from the target are
+	// moved with the items, if the target keeps the ID
+	boolean sameIndex = target.getID().equals(source.getID());
+
+	FileIndexItem[] batch = new FileIndexItem[batchSize];
+	ReadableByteChannel[] channels = new ReadableByteChannel[batchSize];
+	int count = 0;
+	Timestamp lastIndexTS = null;
+
+	try {
+	    for (long i=0; i < length; i++) {
+		long position = (order == null ? i : order[(int)i]);
+
+		IndexItem item = source.getItem(position);
+
+		// the index Timestamps have to be in order,
+		// which they may not be if the items are moved
+		Timestamp indexTS = item.getIndexTimestamp();
+
+		if (lastIndexTS != null && TimeCalculator.lessThan(indexTS, lastIndexTS)) {
+		    indexTS = lastIndexTS;
+		}
+
+		lastIndexTS = indexTS;
+
+		if (item.isReference()) {
+		    IndexReferenceDataHolder reference = copyReference(item, target, sameIndex ? newPosition : null);
+
+		    batch[count] = new FileIndexItem(item.getDataTimestamp(), indexTS, reference, new Size(0), DataType.REFERENCE, item.getItemID(), item.getAnnotationMetaData());
+
+		    reference.setIndexItem(batch[count]);
+
+		} else {
+		    long size = item.getDataSize().value();
+		    DataAbstraction data = null;
+
+		    if (size >= STREAM_SIZE && (channels[count] = openData(position)) != null) {
+			// stream the data across
+			data = new DataStreamObject(channels[count], new Size(size));
+		    } else {
+			// the item holds a buffer of the data,
+			// which is written out as it is
+			data = new DataHolderObject(item.getData(), new Size(size));
+		    }
+
+		    batch[count] = new FileIndexItem(item.getDataTimestamp(), indexTS, data, item.getDataType(), item.getItemID(), item.getAnnotationMetaData());
+		}
+
+		count++;
+
+		if (count == batchSize) {
+		    writeBatch(target, batch, channels, count);
+		    count = 0;
+		}
+	    }
+
+	    writeBatch(target, batch, channels, count);
+	} finally {
+	    closeReferencedIndexes();
+	}
+
+	return length;
+    }
+
+    /**
+     * Write out a batch of items, and close the channels
+     * the data was streamed from.
+     */
+    protected void writeBatch(FileIndex target, FileIndexItem[] batch, ReadableByteChannel[] channels, int count) throws TimeIndexException, IOException {
+	if (count == 0) {
+	    return;
+	}
+
+	if (count == batch.length) {
+	    target.appendItems(batch);
+	} else {
+	    target.appendItems(Arrays.copyOf(batch, count));
+	}
+
+	for (int i=0; i < count; i++) {
+	    batch[i] = null;
+
+	    if (channels[i] != null) {
+		channels[i].close();
+		channels[i] = null;
+	    }
+	}
+    }
+
+    /**
+     * Get a channel to read the data of an item in the source.
+     * @return null if the source cannot stream data
+     */
+    protected ReadableByteChannel openData(long position) throws TimeIndexException, IOException {
+	if (source instanceof IndexView) {
+	    return ((IndexView)source).openData(position);
+	} else if (source instanceof FileIndex) {
+	    return ((FileIndex)source).openData(position);
+	} else {
+	    return null;
+	}
+    }
+
+    /**
+     * Make a copy of the reference of an item.
+     * If references are flattened, a reference to another reference
+     * is replaced by where that one points, to the end of the chain.
+     * A reference that cannot be followed is copied as it is.
+     * The target is told the URI of the index referred to.
+     * @param newPosition the new positions of the source items, or null
+     */
+    protected IndexReferenceDataHolder copyReference(IndexItem item, FileIndex target, long[] newPosition) {
+	IndexReference reference = (IndexReference)((ManagedIndexItem)item).getDataAbstraction();
+
+	ID indexID = reference.getIndexID();
+	long position = reference.getIndexItemPosition().value();
+	URI indexURI = ((ManagedIndex)item.getIndex()).getIndexURI(indexID);
+
+	if (flattenReferences) {
+	    try {
+		for (int hops=0; hops < MAX_HOPS; hops++) {
+		    Index otherIndex = referencedIndex(indexID, indexURI);
+
+		    if (otherIndex == null) {
+			break;
+		    }
+
+		    IndexItem other = otherIndex.getItem(position);
+
+		    if (! other.isReference()) {
+			break;
+		    }
+
+		    reference = (IndexReference)((ManagedIndexItem)other).getDataAbstraction();
+		    indexID = reference.getIndexID();
+		    position = reference.getIndexItemPosition().value();
+		    indexURI = ((ManagedIndex)other.getIndex()).getIndexURI(indexID);
+		}
+	    } catch (GetItemException gie) {
+		// keep the last reference that was found
+	    } catch (IndexClosedException ice) {
+		// keep the last reference that was found
+	    }
+	}
+
+	// a reference to an item in the source itself
+	// has to follow the item to its new position
+	if (newPosition != null && indexID.equals(source.getID()) && position >= 0 && position < newPosition.length) {
+	    position = newPosition[(int)position];
+	}
+
+	if (indexURI != null && target.getIndexURI(indexID) == null) {
+	    target.addIndexURI(indexID, indexURI);
+	}
+
+	return new IndexReferenceDataHolder(indexID, new AbsolutePosition(position));
+    }
+
+    /**
+     * Get an index that a reference points to.
+     * IncoreIndexItem.follow() is not used, as the source would
+     * then close the indexes it followed into, even if
+     * someone else has them open.
+     * @return the index, or null if it cannot be found or opened
+     */
+    protected Index referencedIndex(ID indexID, URI indexURI) {
+	if (indexID.equals(source.getID())) {
+	    return source;
+	}
+
+	if (referencedIndexes == null) {
+	    referencedIndexes = new HashMap();
+	}
+
+	Index otherIndex = (Index)referencedIndexes.get(indexID);
+
+	if (otherIndex == null) {
+	    TimeIndexFactory factory = new TimeIndexFactory();
+
+	    // get a view of it if it's already open
+	    otherIndex = factory.find(indexID);
+
+	    if (otherIndex == null && indexURI != null && ! indexURI.isOpaque()) {
+		try {
+		    Properties properties = new Properties();
+		    properties.setProperty("indexpath", indexURI.getPath());
+		    properties.setProperty("loadstyle", "none");
+
+		    otherIndex = factory.open(properties);
+		} catch (TimeIndexException tie) {
+		    return null;
+		}
+	    }
+
+	    if (otherIndex != null) {
+		referencedIndexes.put(indexID, otherIndex);
+	    }
+	}
+
+	return otherIndex;
+    }
+
+    /**
+     * Close the views of the indexes that references pointed to.
+     * An index stays open if someone else has it open.
+     */
+    protected void closeReferencedIndexes() {
+	if (referencedIndexes == null) {
+	    return;
+	}
+
+	Iterator indexI = referencedIndexes.values().iterator();
+
+	while (indexI.hasNext()) {
+	    Index otherIndex = (Index)indexI.next();
+
+	    try {
+		otherIndex.close();
+	    } catch (TimeIndexException tie) {
+		System.err.println("IndexCompactor: cannot close " + otherIndex.getURI() + " " + tie.getMessage());
+	    }
+	}
+
+	referencedIndexes = null;
+    }
+
+    /**
+     * Work out the order of the items by data Timestamp.
+     * Items with the same data Timestamp keep their order.
+     * @return the positions in data Timestamp order,
+     * or null if the items are already in order
+     */
+    protected long[] dataTimeOrder(long length) throws TimeIndexException {
+	if (length > Integer.MAX_VALUE) {
+	    throw new TimeIndexException("IndexCompactor: cannot sort " + length + " items by data Timestamp");
+	}
+
+	final Timestamp[] times = new Timestamp[(int)length];
+	boolean inOrder = true;
+
+	for (int i=0; i < times.length; i++) {
+	    times[i] = source.getItem(i).getDataTimestamp();
+
+	    if (i > 0 && TimeCalculator.lessThan(times[i], times[i-1])) {
+		inOrder = false;
+	    }
+	}
+
+	if (inOrder) {
+	    return null;
+	}
+
+	Long[] positions = new Long[times.length];
+
+	for (int i=0; i < positions.length; i++) {
+	    positions[i] = Long.valueOf(i);
+	}
+
+	// this sort is stable
+	Arrays.sort(positions, new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    Timestamp t1 = times[((Long)o1).intValue()];
+		    Timestamp t2 = times[((Long)o2).intValue()];
+
+		    if (TimeCalculator.lessThan(t1, t2)) {
+			return -1;
+		    } else if (TimeCalculator.lessThan(t2, t1)) {
+			return 1;
+		    } else {
+			return 0;
+		    }
+		}
+	    });
+
+	long[] order = new long[positions.length];
+
+	for (int i=0; i < order.length; i++) {
+	    order[i] = positions[i].longValue();
+	}
+
+	return order;
+    }
+
+    /**
+     * Rewrite an external index in place.
+     * The items are copied into new index and data files, next to
+     * the old ones, with the same name and ID.
+     * Then the new header is renamed over the old header,
+     * which switches the index to the new files in one step,
+     * and the old files are removed.
+     * The index must not be open.
+     * Segmented and compressed indexes are not rewritten in place,
+     * as they have more files than the header names.
+     * The new files keep the index format and the timestamp
+     * columns of the old ones, unless the options say otherwise.
+     * @param indexPath the path of the index
+     * @param options create properties for the new files, such as
+     * 'indexformat' and 'timecolumns', and 'timeorder' and
+     * 'flatten' for the copy
+     * @return the no of items in the index
+     */
+    public static long compact(String indexPath, Properties options) throws TimeIndexException, IOException {
+	String headerPath = new File(FileUtils.resolveFileName(indexPath, ".tih")).getCanonicalPath();
+	String base = FileUtils.removeExtension(headerPath);
+
+	if (new File(base + ".tis").exists() || new File(base + ".tdb").exists()) {
+	    throw new IndexSpecificationException("IndexCompactor: cannot compact segmented or compressed index " + indexPath + " in place");
+	}
+
+	TimeIndexFactory factory = new TimeIndexFactory();
+
+	Properties openProperties = new Properties();
+	openProperties.setProperty("indexpath", headerPath);
+	openProperties.setProperty("loadstyle", "none");
+
+	IndexView sourceView = factory.open(openProperties);
+
+	if (sourceView == null) {
+	    throw new IndexOpenException("IndexCompactor: cannot open " + indexPath);
+	}
+
+	if (! sourceView.getIndexType().equals(IndexType.EXTERNAL)) {
+	    sourceView.close();
+	    throw new IndexTypeException("IndexCompactor: can only compact an external index in place, not " + sourceView.getIndexType());
+	}
+
+	String oldIndexFile = FileUtils.resolveFileName(sourceView.getIndexPathName(), ".tix");
+	String oldDataFile = FileUtils.resolveFileName(sourceView.getDataPathName(), ".tid");
+
+	// find some unused file names for the new files
+	String newBase = null;
+
+	for (int n=1; newBase == null; n++) {
+	    String candidate = base + "-" + n;
+
+	    if (! new File(candidate + ".tih").exists() &&
+		! new File(candidate + ".tix").exists() &&
+		! new File(candidate + ".tid").exists()) {
+		newBase = candidate;
+	    }
+	}
+
+	Properties createProperties = new Properties();
+	createProperties.putAll(options);
+	createProperties.remove("timeorder");
+	createProperties.remove("flatten");
+	createProperties.setProperty("name", sourceView.getName());
+	createProperties.setProperty("indexid", Long.toString(sourceView.getID().value()));
+	createProperties.setProperty("indexpath", newBase);
+	createProperties.setProperty("canonicalpath", newBase);
+	createProperties.setProperty("datapath", newBase);
+
+	// the new data file has a header if the old one did
+	AbstractManagedIndex sourceIndex = (AbstractManagedIndex)((TimeIndex)sourceView).indexModel;
+
+	if (Boolean.TRUE.equals(sourceIndex.getOption(HeaderOption.NO_DATA_FILE_HEADER_HO))) {
+	    createProperties.setProperty("nodatafileheader", "true");
+	}
+
+	// the new index has the format of the old one
+	if (! createProperties.containsKey("indexformat")) {
+	    int version = ((FileIndex)sourceIndex).indexInteractor.getVersionMajor();
+
+	    if (version == 3) {
+		createProperties.setProperty("indexformat", "checked");
+	    } else if (version == 2) {
+		sourceView.close();
+		throw new IndexSpecificationException("IndexCompactor: " + indexPath + " has the compact index format, so 'indexformat' must be set to fixed or checked");
+	    }
+	}
+
+	// and the timestamp columns, if it had them
+	if (! createProperties.containsKey("timecolumns")) {
+	    boolean hasColumns = true;
+
+	    for (int e=0; e < COLUMN_EXTENSIONS.length; e++) {
+		hasColumns &= new File(base + COLUMN_EXTENSIONS[e]).exists();
+	    }
+
+	    if (hasColumns) {
+		createProperties.setProperty("timecolumns", "true");
+	    }
+	}
+
+	if (createProperties.containsKey("segmentsize") || createProperties.containsKey("segmentperiod") ||
+	    createProperties.containsKey("compression") || "compact".equals(createProperties.getProperty("indexformat"))) {
+	    sourceView.close();
+	    throw new IndexSpecificationException("IndexCompactor: can only compact in place to the fixed or checked index format");
+	}
+
+	// The new index has the same ID as the old one,
+	// so it is not registered until the old one is closed.
+	ExternalIndex target = new ExternalIndex();
+	boolean created = false;
+	long count = 0;
+
+	try {
+	    target.create(createProperties);
+	    created = true;
+
+	    IndexCompactor compactor = new IndexCompactor(sourceView);
+	    compactor.setTimeOrder(Boolean.valueOf(options.getProperty("timeorder", "false")).booleanValue());
+	    compactor.setFlattenReferences(Boolean.valueOf(options.getProperty("flatten", "false")).booleanValue());
+
+	    count = compactor.copyTo(target);
+	} finally {
+	    sourceView.close();
+
+	    if (created) {
+		target.asView().close();
+	    }
+	}
+
+	// switch to the new files
+	Files.move(new File(newBase + ".tih").toPath(), new File(headerPath).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+	System.err.println("IndexCompactor: " + headerPath + " now uses " + newBase);
+
+	// remove the old files, and the files of the
+	// old index format
+	new File(oldIndexFile).delete();
+	new File(oldDataFile).delete();
+	new File(base + ".tif").delete();
+
+	// the table of shared data goes with the data file
+	File newTable = new File(newBase + ".tdh");
+
+	if (newTable.exists()) {
+	    Files.move(newTable.toPath(), new File(base + ".tdh").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	} else {
+	    new File(base + ".tdh").delete();
+	}
+
+	// the timestamp columns go with the header
+	for (int e=0; e < COLUMN_EXTENSIONS.length; e++) {
+	    File newColumn = new File(newBase + COLUMN_EXTENSIONS[e]);
+
+	    if (newColumn.exists()) {
+		Files.move(newColumn.toPath(), new File(base + COLUMN_EXTENSIONS[e]).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	    } else {
+		new File(base + COLUMN_EXTENSIONS[e]).delete();
+	    }
+	}
+
+	return count;
+    }
+}
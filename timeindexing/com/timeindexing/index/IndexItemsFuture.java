@@ -0,0 +1,151 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// IndexItemsFuture.java
+
+package com.timeindexing.index;
+
+import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A Future for a run of IndexItems.
+ * Some of the items may already be in the cache,
+ * and the rest come from reads, each with its own Future.
+ * The items are put together when the reads are done.
+ */
+class IndexItemsFuture implements Future {
+    // The items
+    IndexItem[] items = null;
+
+    // The Futures of the reads
+    LinkedList parts = new LinkedList();
+
+    // Where each read goes in items
+    LinkedList starts = new LinkedList();
+
+    /**
+     * Construct an IndexItemsFuture.
+     * @param count the no of items
+     */
+    IndexItemsFuture(int count) {
+	items = new IndexItem[count];
+    }
+
+    /**
+     * Set an item which is already got.
+     */
+    void setItem(int i, IndexItem item) {
+	items[i] = item;
+    }
+
+    /**
+     * Add the Future of a read of an IndexItem[],
+     * which goes in at position start.
+     */
+    void addPart(int start, Future part) {
+	parts.add(part);
+	starts.add(Integer.valueOf(start));
+    }
+
+    /**
+     * Wait for the items.
+     */
+    public Object get() throws InterruptedException, ExecutionException {
+	Iterator partIter = parts.iterator();
+	Iterator startIter = starts.iterator();
+
+	while (partIter.hasNext()) {
+	    IndexItem[] got = (IndexItem[])((Future)partIter.next()).get();
+	    int start = ((Integer)startIter.next()).intValue();
+
+	    System.arraycopy(got, 0, items, start, got.length);
+	}
+
+	return items;
+    }
+
+    /**
+     * Wait for the items, for up to a time.
+     */
+    public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+	long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+	Iterator partIter = parts.iterator();
+	Iterator startIter = starts.iterator();
+
+	while (partIter.hasNext()) {
+	    long left = deadline - System.nanoTime();
+
+	    IndexItem[] got = (IndexItem[])((Future)partIter.next()).get(left, TimeUnit.NANOSECONDS);
+	    int start = ((Integer)startIter.next()).intValue();
+
+	    System.arraycopy(got, 0, items, start, got.length);
+	}
+
+	return items;
+    }
+
+    /**
+     * Cancel the reads.
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+	boolean cancelled = false;
+	Iterator partIter = parts.iterator();
+
+	while (partIter.hasNext()) {
+	    cancelled |= ((Future)partIter.next()).cancel(mayInterruptIfRunning);
+	}
+
+	return cancelled;
+    }
+
+    /**
+     * Were any of the reads cancelled.
+     */
+    public boolean isCancelled() {
+	Iterator partIter = parts.iterator();
+
+	while (partIter.hasNext()) {
+	    if (((Future)partIter.next()).isCancelled()) {
+		return true;
+	    }
+	}
+
+	return false;
+    }
+
+    /**
+     * Are all the reads done.
+     */
+    public boolean isDone() {
+	Iterator partIter = parts.iterator();
+
+	while (partIter.hasNext()) {
+	    if (! ((Future)partIter.next()).isDone()) {
+		return false;
+	    }
+	}
+
+	return true;
+    }
+}
@@ -29,6 +29,10 @@ import com.timeindexing.time.TimeSpecifier;
 import com.timeindexing.time.Lifetime;
 import com.timeindexing.data.DataItem;
 import com.timeindexing.index.IndexTimestampSelector;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Future;
 
 /**
  * An index view has the moethods needed
@@ -135,6 +139,38 @@ public interface IndexView extends Index {
      */
     public IndexItem getItemAtMark() throws GetItemException, IndexClosedException;
 
+    /**
+     * Transfer the data of count Index Items, starting at position n,
+     * to a channel.
+     * Where the index is held in files, the data goes straight
+     * from the file to the channel.
+     * @return the number of bytes transferred
+     */
+    public long transferData(long n, long count, WritableByteChannel target) throws GetItemException, IndexClosedException, IOException;
+
+    /**
+     * Get a channel for reading the data of the Index Item at position n.
+     * Where the index is held in files, the data is read
+     * from the file as it is needed, so the data
+     * can be bigger than one buffer.
+     */
+    public ReadableByteChannel openData(long n) throws GetItemException, IndexClosedException, IOException;
+
+    /**
+     * Get the Index Item at position n, without waiting for it.
+     * Where the index is held in files, the item is read
+     * in the background, so the caller can do other work.
+     * @return a Future for the IndexItem
+     */
+    public Future getItemAsync(long n) throws GetItemException, IndexClosedException;
+
+    /**
+     * Get count Index Items, starting at position n,
+     * without waiting for them.
+     * @return a Future for an IndexItem[]
+     */
+    public Future getItemsAsync(long n, long count) throws GetItemException, IndexClosedException;
+
     /**
      * What is the region covered by position and mark.
      * Returned value is an Interval.
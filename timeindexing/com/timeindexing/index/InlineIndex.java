@@ -104,10 +104,14 @@ public class InlineIndex extends FileIndex implements ManagedIndex  {
 
 	    indexProperties.put("indexpath", indexPathName);
 	    indexProperties.put("readonly", readOnly);
+	    putWriteProperties(indexProperties);
 
 	    // open the index 
 	    indexInteractor.open(indexProperties);
 
+	    // open the timestamp columns
+	    indexInteractor.openTimeColumns(indexProperties);
+
 	    // load the index
 	    indexInteractor.loadIndex(loadStyle);
 
@@ -168,10 +172,14 @@ public class InlineIndex extends FileIndex implements ManagedIndex  {
 	    indexProperties.put("indexid", indexID);
 	    indexProperties.put("indexpath", indexPathName);
 	    indexProperties.put("canonicalpath", headerPathName);
+	    putWriteProperties(indexProperties);
 
 	    // create the relevant objects
 	    indexInteractor.create(indexProperties);
 
+	    // create the timestamp columns
+	    indexInteractor.openTimeColumns(indexProperties);
+
 	    // activate the index
 	    activate();
 	
@@ -234,6 +242,10 @@ public class InlineIndex extends FileIndex implements ManagedIndex  {
 		readOnly = Boolean.FALSE;
 	    }
 	}
+
+	checkReadProperties(indexProperties);
+
+	checkWriteProperties(indexProperties);
     }
 
 
@@ -280,6 +292,9 @@ public class InlineIndex extends FileIndex implements ManagedIndex  {
 	    loadStyle = LoadStyle.HOLLOW;
 	}
 
+	checkReadProperties(indexProperties);
+
+	checkWriteProperties(indexProperties);
     }
 
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// LocateCache.java
+
+package com.timeindexing.index;
+
+import com.timeindexing.time.Lifetime;
+import com.timeindexing.time.TimestampMapping;
+
+import com.google.code.simplelrucache.SynchronizedLruCache;
+
+/**
+ * A bounded cache of the results of locating a Timestamp,
+ * keyed by the time as a no of nanoseconds, the
+ * IndexTimestampSelector, and the Lifetime.
+ * The least recently used results are dropped first.
+ * <p>
+ * Only times from the first to the last item of an index
+ * are cached.  Appending items can't change these results,
+ * as new items are never earlier than the last one.
+ * The results for times after the last item do change,
+ * but they are worked out from the header without a search.
+ */
+public class LocateCache {
+    // the cached mappings
+    SynchronizedLruCache cache = null;
+
+    // the no of lookups that were found
+    long hits = 0;
+
+    // the no of lookups that were not found
+    long misses = 0;
+
+    /*
+     * The default no of entries.
+     */
+    public final static int DEFAULT_SIZE = 1024;
+
+    /*
+     * How long an entry lives, in milliseconds.
+     */
+    final static long ENTRY_TTL = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Construct a LocateCache with a maximum no of entries.
+     */
+    public LocateCache(int size) {
+	cache = new SynchronizedLruCache(size, ENTRY_TTL);
+    }
+
+    /**
+     * Get the mapping for a time.
+     * @param length the current length of the index
+     * @return the mapping, or null if it is not in the cache
+     */
+    public TimestampMapping get(long nanos, IndexTimestampSelector selector, Lifetime lifetime, long length) {
+	TimestampMapping mapping = (TimestampMapping)cache.get(new Key(nanos, selector, lifetime));
+
+	// a mapping past the end of a shorter index is no good
+	if (mapping != null && mapping.position().value() >= length) {
+	    mapping = null;
+	}
+
+	synchronized (this) {
+	    if (mapping == null) {
+		misses++;
+	    } else {
+		hits++;
+	    }
+	}
+
+	return mapping;
+    }
+
+    /**
+     * Put the mapping for a time.
+     */
+    public void put(long nanos, IndexTimestampSelector selector, Lifetime lifetime, TimestampMapping mapping) {
+	cache.put(new Key(nanos, selector, lifetime), mapping);
+    }
+
+    /**
+     * Remove all of the entries.
+     */
+    public void clear() {
+	cache.clear();
+    }
+
+    /**
+     * Get the no of entries.
+     */
+    public int size() {
+	return cache.getSize();
+    }
+
+    /**
+     * Get the no of lookups that were found.
+     */
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    /**
+     * Get the no of lookups that were not found.
+     */
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    /**
+     * String
+     */
+    public String toString() {
+	return "LocateCache entries: " + size() + " hits: " + getHits() + " misses: " + getMisses();
+    }
+
+    /**
+     * The key of an entry.
+     */
+    static class Key {
+	long nanos;
+	IndexTimestampSelector selector;
+	Lifetime lifetime;
+
+	Key(long nanos, IndexTimestampSelector selector, Lifetime lifetime) {
+	    this.nanos = nanos;
+	    this.selector = selector;
+	    this.lifetime = lifetime;
+	}
+
+	public boolean equals(Object other) {
+	    if (other instanceof Key) {
+		Key key = (Key)other;
+
+		return key.nanos == nanos && key.selector == selector && key.lifetime == lifetime;
+	    } else {
+		return false;
+	    }
+	}
+
+	public int hashCode() {
+	    return (int)(nanos ^ (nanos >>> 32)) * 31 + selector.hashCode() * 7 + lifetime.hashCode();
+	}
+    }
+}
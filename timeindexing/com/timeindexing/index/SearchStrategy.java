@@ -0,0 +1,59 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// SearchStrategy.java
+
+package com.timeindexing.index;
+
+
+/**
+ * An enumeration of 3 values to enable choice of how
+ * an index searches for a timestamp.
+ */
+public interface SearchStrategy {
+    /**
+     * A binary search, which takes log2(n) probes.
+     */
+    public static final SearchStrategy BINARY = new SearchStrategy() {
+	    public String toString() {
+		return "BINARY";
+	    }
+	};
+
+    /**
+     * An interpolation search, which guesses the position
+     * from the first and last times, and then gallops out
+     * from the guess until the time is bracketed.
+     * For regularly spaced times it takes 2 or 3 probes.
+     */
+    public static final SearchStrategy INTERPOLATION = new SearchStrategy() {
+	    public String toString() {
+		return "INTERPOLATION";
+	    }
+	};
+
+    /**
+     * Choose between the binary and the interpolation search
+     * from how far out the guesses have been.
+     */
+    public static final SearchStrategy AUTO = new SearchStrategy() {
+	    public String toString() {
+		return "AUTO";
+	    }
+	};
+}
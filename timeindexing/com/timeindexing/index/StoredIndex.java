@@ -36,6 +36,15 @@ public interface StoredIndex extends ManagedIndex  {
      */
     public long retrieveItem(IndexItem item, long position);
 
+    /**
+     * Retrieve a run of Index Items into the Index, in one go.
+     * This is a callback for the IOInteractor, when loading.
+     * @param items the IndexItems to add
+     * @param position the position to add the first item at
+     * @return the no of items in the cache
+     */
+    public long retrieveItems(IndexItem[] items, long position);
+
     /**
      * Read data for an index item
      * given an index position and a DataReference.
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TimeFence.java
+
+package com.timeindexing.index;
+
+
+/**
+ * A sparse fence of timestamps, which holds the times of every
+ * K-th item of an index, as a no of nanoseconds.
+ * A Timestamp is first looked up in the fence, which narrows
+ * a search down to one block of K items.
+ * <p>
+ * The times are kept in primitive arrays, so a fence over a
+ * billion items with a spacing of 1024 is about 16 Mb.
+ */
+public class TimeFence {
+    // the no of items between fence posts
+    int spacing = 0;
+
+    // the data times of the fence posts
+    long[] dataTimes = null;
+
+    // the index times of the fence posts
+    long[] indexTimes = null;
+
+    // the no of fence posts
+    int count = 0;
+
+    /*
+     * The default no of items between fence posts.
+     */
+    public final static int DEFAULT_SPACING = 1024;
+
+    /**
+     * Construct a TimeFence with a post every spacing items.
+     */
+    public TimeFence(int spacing) {
+	this.spacing = spacing;
+	dataTimes = new long[64];
+	indexTimes = new long[64];
+    }
+
+    /**
+     * Get the no of items between fence posts.
+     */
+    public int getSpacing() {
+	return spacing;
+    }
+
+    /**
+     * Get the no of fence posts.
+     */
+    public synchronized int size() {
+	return count;
+    }
+
+    /**
+     * Get the position of the next item that needs a fence post.
+     */
+    public synchronized long nextPosition() {
+	return (long)count * spacing;
+    }
+
+    /**
+     * Add the times of the item at a position.
+     * Only the item for the next fence post is kept,
+     * so every item can be passed in.
+     * @return true if a fence post was added
+     */
+    public synchronized boolean add(long position, long dataNanos, long indexNanos) {
+	if (position != (long)count * spacing) {
+	    return false;
+	}
+
+	if (count == dataTimes.length) {
+	    int newSize = count * 2;
+
+	    long[] newData = new long[newSize];
+	    System.arraycopy(dataTimes, 0, newData, 0, count);
+	    dataTimes = newData;
+
+	    long[] newIndex = new long[newSize];
+	    System.arraycopy(indexTimes, 0, newIndex, 0, count);
+	    indexTimes = newIndex;
+	}
+
+	dataTimes[count] = dataNanos;
+	indexTimes[count] = indexNanos;
+	count++;
+
+	return true;
+    }
+
+    /**
+     * Get the block of items which holds the first item at or
+     * after a time, together with the item before it.
+     * @param nanos the time as a no of nanoseconds
+     * @param length the length of the index
+     * @return an array of the start and end positions, or
+     * null if the fence does not match the index
+     */
+    public synchronized long[] getRange(long nanos, IndexTimestampSelector selector, long length) {
+	if (count == 0 || (long)(count - 1) * spacing >= length) {
+	    return null;
+	}
+
+	long[] times = (selector == IndexTimestampSelector.DATA ? dataTimes : indexTimes);
+
+	// find the no of posts before the time
+	int low = 0;
+	int high = count;
+
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+
+	    if (times[mid] < nanos) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+
+	if (low == 0) {
+	    // the first item is at or after the time
+	    return new long[] { 0, 0 };
+	} else if (low == count) {
+	    // the time is after the last post
+	    return new long[] { (long)(low - 1) * spacing, length - 1 };
+	} else {
+	    return new long[] { (long)(low - 1) * spacing, Math.min(length - 1, (long)low * spacing) };
+	}
+    }
+
+    /**
+     * String
+     */
+    public String toString() {
+	return "TimeFence spacing: " + spacing + " posts: " + size();
+    }
+}
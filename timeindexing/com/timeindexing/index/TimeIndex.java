@@ -45,9 +45,19 @@ import com.timeindexing.util.DoubleLinkedList;
 import com.timeindexing.cache.CachePolicy;
 import com.timeindexing.event.IndexAddEvent;
 import com.timeindexing.event.IndexAddEventListener;
+import com.timeindexing.io.TimestampColumn;
 
 import java.util.Iterator;
 import java.net.URI;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.Channels;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Callable;
 
 /**
  * This is the generic object that applications interact with.
@@ -363,6 +373,17 @@ public  class TimeIndex implements Index, IndexView, IndexAddEventListener, Clon
 	}
     }
 
+    /**
+     * Add a batch of Data Items to the Index, with speicifed Data Timestamps and annotation data.
+     */
+    public IndexItem[] addItems(DataItem[] items, Timestamp[] datatimes, long[] annotations) throws IndexTerminatedException, IndexClosedException, IndexActivationException, AddItemException {
+	if (isSelection) {
+	    throw new IndexTerminatedException("Can't add data to an Index selection");
+	} else {
+	    return indexModel.addItems(items, datatimes, annotations);
+	}
+    }
+
 
 
     /**
@@ -433,6 +454,135 @@ public  class TimeIndex implements Index, IndexView, IndexAddEventListener, Clon
 	}
     }
 
+    /**
+     * Transfer the data of count Index Items, starting at position n,
+     * to a channel.
+     * @return the number of bytes transferred
+     */
+    public long transferData(long n, long count, WritableByteChannel target) throws GetItemException, IndexClosedException, IOException {
+	long base = 0;
+
+	if (isSelection) {
+	    base = start.value();
+	}
+
+	if (indexModel instanceof FileIndex) {
+	    // the file index can send straight from the file
+	    return ((FileIndex)indexModel).transferData(n + base, count, target);
+	} else {
+	    // write the data of each item
+	    long transferTotal = 0;
+
+	    for (long i=n; i<n+count; i++) {
+		IndexItem item = indexModel.getItem(i + base);
+
+		// follow all references until we find the real data
+		while (item.isReference()) {
+		    item = item.follow();
+		}
+
+		ByteBuffer data = item.getData().duplicate();
+
+		while (data.hasRemaining()) {
+		    transferTotal += target.write(data);
+		}
+	    }
+
+	    return transferTotal;
+	}
+    }
+
+    /**
+     * Get a channel for reading the data of the Index Item at position n.
+     */
+    public ReadableByteChannel openData(long n) throws GetItemException, IndexClosedException, IOException {
+	long base = 0;
+
+	if (isSelection) {
+	    base = start.value();
+	}
+
+	if (indexModel instanceof FileIndex) {
+	    // the file index reads from the file
+	    return ((FileIndex)indexModel).openData(n + base);
+	} else {
+	    IndexItem item = indexModel.getItem(n + base);
+
+	    // follow all references until we find the real data
+	    while (item.isReference()) {
+		item = item.follow();
+	    }
+
+	    ByteBuffer data = item.getData().duplicate();
+	    byte[] bytes = new byte[data.remaining()];
+
+	    data.get(bytes);
+
+	    return Channels.newChannel(new ByteArrayInputStream(bytes));
+	}
+    }
+
+    /**
+     * Get the Index Item at position n, without waiting for it.
+     */
+    public Future getItemAsync(final long n) throws GetItemException, IndexClosedException {
+	long base = 0;
+
+	if (isSelection) {
+	    base = start.value();
+	}
+
+	if (indexModel instanceof FileIndex) {
+	    // the file index reads in the background
+	    return ((FileIndex)indexModel).getItemAsync(n + base);
+	} else {
+	    // get it now
+	    FutureTask future = new FutureTask(new Callable() {
+		    public Object call() throws Exception {
+			return getItem(n);
+		    }
+		});
+
+	    future.run();
+
+	    return future;
+	}
+    }
+
+    /**
+     * Get count Index Items, starting at position n,
+     * without waiting for them.
+     */
+    public Future getItemsAsync(final long n, final long count) throws GetItemException, IndexClosedException {
+	long base = 0;
+
+	if (isSelection) {
+	    base = start.value();
+	}
+
+	if (indexModel instanceof FileIndex) {
+	    // the file index reads in the background
+	    return ((FileIndex)indexModel).getItemsAsync(n + base, count);
+	} else {
+	    // get them now
+	    FutureTask future = new FutureTask(new Callable() {
+		    public Object call() throws Exception {
+			IndexItem[] items = new IndexItem[(int)count];
+
+			for (int i=0; i<count; i++) {
+			    items[i] = getItem(n + i);
+			}
+
+			return items;
+		    }
+		});
+
+	    future.run();
+
+	    return future;
+	}
+    }
+
     /**
      * Get an Index Item from the Index.
      * Uses IndexTimestampSelector.DATA and Lifetime.CONTINUOUS as defaults.
@@ -649,6 +799,62 @@ public  class TimeIndex implements Index, IndexView, IndexAddEventListener, Clon
 	}
     }
 
+    /**
+     * Try and determine the positions of many times, in one pass.
+     * The times are a no of nanoseconds, in order.
+     * @return null if the positions can't be found
+     */
+    public long[] locateAll(long[] times, IndexTimestampSelector sel, Lifetime lifetime) {
+	if (isSelection) {
+	    // locate in underlying index
+	    long[] positions = indexModel.locateAll(times, sel, lifetime);
+
+	    if (positions == null) {
+		return null;
+	    }
+
+	    IndexItem first = null;
+	    IndexItem last = null;
+
+	    try {
+		first = getItem(0);
+		last = getItem(getLength()-1);
+	    } catch (GetItemException gie) {
+		return null;
+	    } catch (IndexClosedException ice) {
+		return null;
+	    } catch (PositionOutOfBoundsException poobe) {
+		return null;
+	    }
+
+	    long firstNanos = 0;
+	    long lastNanos = 0;
+
+	    if (sel == IndexTimestampSelector.DATA) {
+		firstNanos = TimestampColumn.toNanos(first.getDataTimestamp());
+		lastNanos = TimestampColumn.toNanos(last.getDataTimestamp());
+	    } else {
+		firstNanos = TimestampColumn.toNanos(first.getIndexTimestamp());
+		lastNanos = TimestampColumn.toNanos(last.getIndexTimestamp());
+	    }
+
+	    // now map the positions into ones in this selection
+	    for (int t=0; t < times.length; t++) {
+		if (times[t] < firstNanos) {
+		    positions[t] = Position.TOO_LOW.value();
+		} else if (times[t] > lastNanos) {
+		    positions[t] = Position.TOO_HIGH.value();
+		} else {
+		    positions[t] = positions[t] - start.value();
+		}
+	    }
+
+	    return positions;
+	} else {
+	    return indexModel.locateAll(times, sel, lifetime);
+	}
+    }
+
 
     /**
      * Select an Interval given an Interval object.
@@ -700,6 +700,8 @@ public class TimeIndexFactory implements IndexPrimaryEventListener, IndexAddEven
      * @param index the original index to convert
      * @param kind One of IndexType.INLINE, IndexType.EXTERNAL, IndexType.INCORE.
      * @param indexProperties properties of the index needed at creat time, such as  its name.
+     * A stored index is filled by an IndexCompactor, which copies
+     * the items in batches and keeps their Timestamps.
      */
     public IndexView save(Index index, IndexType kind, Properties indexProperties) throws TimeIndexFactoryException, IndexSpecificationException, IndexCreateException, TimeIndexException {
 	IndexView newIndexView = create(kind, indexProperties);
@@ -707,6 +709,19 @@ public class TimeIndexFactory implements IndexPrimaryEventListener, IndexAddEven
 	// Get a direct handle on the index
 	ManagedIndex newIndex = TimeIndexDirectory.find(newIndexView.getID());
 
+	if (newIndex instanceof FileIndex) {
+	    // copy the items in batches
+	    try {
+		new IndexCompactor(index).copyTo((FileIndex)newIndex);
+	    } catch (IOException ioe) {
+		throw new TimeIndexException("TimeIndexFactory: save() failed to copy " + index.getName() + ". " + ioe.getMessage());
+	    }
+
+	    newIndex.commit();
+
+	    return newIndexView;
+	}
+
 	Iterator itemIterator = index.iterator();
 
 	while (itemIterator.hasNext()) {
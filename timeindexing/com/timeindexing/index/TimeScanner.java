@@ -0,0 +1,102 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TimeScanner.java
+
+package com.timeindexing.index;
+
+
+/**
+ * Gets the timestamps of the items of an index, as a no of
+ * nanoseconds, for a pass over the index in position order.
+ * <p>
+ * With a block size, the times are read a block at a time,
+ * so a pass that moves forward through the index reads
+ * each block once, in order.
+ * Times outside the current block are got one at a time.
+ */
+public class TimeScanner {
+    // the index
+    AbstractIndex index = null;
+
+    // which timestamps
+    IndexTimestampSelector selector = null;
+
+    // the no of times in a block, 0 for no blocks
+    int blockSize = 0;
+
+    // the times in the current block
+    long[] block = null;
+
+    // the position of the first time in the block
+    long blockStart = 0;
+
+    // the no of times in the block
+    int blockCount = 0;
+
+    /*
+     * The default no of times in a block.
+     */
+    public final static int DEFAULT_BLOCK_SIZE = 1024;
+
+    /**
+     * Construct a TimeScanner for an index.
+     * @param blockSize the no of times in a block, 0 for no blocks
+     */
+    public TimeScanner(AbstractIndex index, IndexTimestampSelector selector, int blockSize) {
+	this.index = index;
+	this.selector = selector;
+	this.blockSize = blockSize;
+
+	if (blockSize > 0) {
+	    block = new long[blockSize];
+	}
+    }
+
+    /**
+     * Move to a position, reading the block that holds it,
+     * if it is not the current one.
+     */
+    public void moveTo(long position) throws GetItemException, IndexClosedException {
+	if (block != null && ! inBlock(position)) {
+	    blockStart = position - (position % blockSize);
+
+	    int count = (int)Math.min(blockSize, index.getLength() - blockStart);
+
+	    blockCount = index.readTimesNanos(blockStart, count, selector, block);
+	}
+    }
+
+    /**
+     * Get the time of the item at a position.
+     */
+    public long getTimeNanos(long position) throws GetItemException, IndexClosedException {
+	if (block != null && inBlock(position)) {
+	    return block[(int)(position - blockStart)];
+	} else {
+	    return index.getTimeNanos(position, selector);
+	}
+    }
+
+    /**
+     * Is a position in the current block.
+     */
+    protected boolean inBlock(long position) {
+	return position >= blockStart && position < blockStart + blockCount;
+    }
+}
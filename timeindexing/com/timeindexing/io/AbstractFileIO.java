@@ -32,9 +32,11 @@ import com.timeindexing.index.DataHolder;
 import com.timeindexing.index.DataHolderObject;
 import com.timeindexing.index.DataReference;
 import com.timeindexing.index.DataReferenceObject;
+import com.timeindexing.index.DataStreamObject;
 import com.timeindexing.index.IndexReferenceDataHolder;
 import com.timeindexing.index.DataTypeDirectory;
 import com.timeindexing.index.IndexProperties;
+import com.timeindexing.index.IndexTimestampSelector;
 import com.timeindexing.index.IndexOpenException;
 import com.timeindexing.index.IndexCreateException;
 import com.timeindexing.event.*;
@@ -46,7 +48,7 @@ import com.timeindexing.basic.AbsolutePosition;
 import com.timeindexing.basic.Offset;
 import com.timeindexing.time.TimestampDecoder;
 import com.timeindexing.time.Timestamp;
-import com.timeindexing.util.ByteBufferRing;
+import com.timeindexing.time.Lifetime;
 
 import java.io.File;
 import java.io.RandomAccessFile;
@@ -55,7 +57,12 @@ import java.io.FileNotFoundException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
-import java.util.LinkedList;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Has code for indexes that are file-based.
@@ -83,7 +90,13 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
     ByteBuffer headerBuf = null;
     ByteBuffer indexBufWrite = null;
     ByteBuffer indexBufRead = null;
-    ByteBufferRing indexFlushBuffers = null;
+
+    // The ring of buffers passed to the writer thread
+    WriteRing writeRing = null;
+    // The buffer being filled for the index channel
+    WriteRequest indexFlushBuffer = null;
+    // The lock held by whoever is writing out of the ring
+    Object writeLock = new Object();
 
     // TimestampDecoder
     TimestampDecoder timestampDecoder = new TimestampDecoder();
@@ -93,18 +106,33 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
 
     int versionMajor = 0;
     int versionMinor = 0;
+
+    // Do the index records have checksums
+    boolean checksums = false;
     
     // are we creating or opening
     boolean creating = false;
     // Was the Index locked when we tried to activate it
     boolean hasBeenLocked = false;
 
-    // has a timeout happened whilst waiting for some work
-    boolean timeoutHappened = false;
-
     // A sync object
     Object syncObject = new Object();
 
+    // How durable is a commit
+    Durability durability = Durability.NONE;
+
+    // The group syncer, for Durability.GROUP
+    GroupSyncer groupSyncer = null;
+
+    // The columns of data and index timestamps, if there are any
+    TimestampColumn dataTimeColumn = null;
+    TimestampColumn indexTimeColumn = null;
+
+    // The no of syncs, and the total and max time taken, in nanoseconds
+    long syncCount = 0;
+    long syncTime = 0;
+    long maxSyncTime = 0;
+
     /*
      * The size of a header
      */
@@ -121,6 +149,32 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
      */
     final static int FLUSH_SIZE = 8 * 1024;
 
+    /*
+     * The no of buffers in the write ring
+     */
+    final static int WRITE_RING_SIZE = 16;
+
+    /*
+     * Buffers at least this big are written straight out,
+     * rather than being copied into flush buffers
+     */
+    final static int DIRECT_WRITE_SIZE = FLUSH_SIZE;
+
+    /*
+     * The size of a slice, when writing data from a channel
+     */
+    final static int STREAM_SLICE_SIZE = 1024 * 1024;
+
+    /*
+     * The most bytes read in one go, when reading ahead
+     */
+    final static int READ_AHEAD_SIZE = 1024 * 1024;
+
+    /*
+     * The most items read in one go, for the read requests
+     */
+    final static int READ_RUN_SIZE = 256;
+
 
     /**
      * Read an index header from the header stream.
@@ -212,6 +266,7 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
 	long writeCount = indexChannel.write(headerBuf);
 
 	indexChannelPosition = indexChannel.position();
+	indexFirstPosition = indexChannelPosition;
 
 	
 	//System.err.println("Index Header size = " + writeCount);
@@ -228,11 +283,35 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
 	return writeItem(itemM);
     }
 
+    /**
+     * Add a batch of items.
+     */
+    public long addItems(ManagedIndexItem[] items) throws IOException {
+	return writeItems(items);
+    }
+
+    /**
+     * Write the contents of a batch of items.
+     * This version writes them one at a time.
+     * Index types that can lay out a batch contiguously override it.
+     */
+    public synchronized long writeItems(ManagedIndexItem[] items) throws IOException {
+	long count = 0;
+
+	for (int i=0; i < items.length; i++) {
+	    count += writeItem(items[i]);
+	}
+
+	return count;
+    }
+
     /**
      * Write the contents of the item
      * It assumes the index file is alreayd open for writing.
      */
     public synchronized long writeItem(ManagedIndexItem itemM) throws IOException {
+	addToTimeColumns(itemM);
+
 	if (itemM.isReference()) {
 	    // write out a reference
 	    return writeReference(itemM);
@@ -245,6 +324,8 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
     /**
      * Write the contents of the item with normal data
      * It assumes the index file is alreayd open for writing.
+     * Data that comes from a channel is written in slices,
+     * so it can be bigger than one buffer.
      */
     public long writeNormal(ManagedIndexItem itemM) throws IOException {
 
@@ -253,60 +334,134 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
 
 	long count = 0;
 
-	long actualSize = itemM.getDataSize().value();
+	// where are we in the file
+	long currentIndexPosition = alignForIndexItem();
 
-	if (actualSize >= Integer.MAX_VALUE) {
-	    // buffers can only be so big
-	    // check we can allocate one big enough
-		throw new Error("InlineIndexIO: writeItem() has not YET implemented reading of data > " + Integer.MAX_VALUE + ". Actual size is " + actualSize);
-	} else {
+	//System.err.println("P(W) = " + currentIndexPosition);
 
-	    // where are we in the file
-	    long currentIndexPosition = alignForIndexItem();
+	// tell the IndexItem where its index is
+	item.setIndexOffset(new Offset(currentIndexPosition));
 
-	    //System.err.println("P(W) = " + currentIndexPosition);
+	// set the data position
+	long currentDataPosition = alignForData();
 
-	    // tell the IndexItem where its index is
-	    item.setIndexOffset(new Offset(currentIndexPosition));
+	ByteBuffer dataBuf = null;
 
-	    // set the data position
-	    long currentDataPosition = alignForData();
+	// the data may already be in the file
+	boolean shared = false;
 
-	    // tell the IndexItem where its data is
-	    item.setDataOffset(new Offset(currentDataPosition));
+	if (! isStreamed(item)) {
+	    // make the data ready for writing
+	    dataBuf = getPayload(item);
 
-	    // clear the index buf
-	    indexBufWrite.clear();
+	    long sharedPosition = shareData(dataBuf, currentDataPosition);
 
-	    // fill the buffer
-	    indexBufWrite.putLong(item.getIndexTimestamp().value());
-	    indexBufWrite.putLong(item.getDataTimestamp().value());
-	    indexBufWrite.putLong(currentDataPosition);
-	    indexBufWrite.putLong(item.getDataSize().value());
-	    indexBufWrite.putInt(item.getDataType().value());
-	    indexBufWrite.putLong(item.getItemID().value());
-	    indexBufWrite.putLong(item.getAnnotationMetaData());
+	    if (sharedPosition != currentDataPosition) {
+		currentDataPosition = sharedPosition;
+		shared = true;
+	    }
+	}
 
-	    // make it ready for writing
-	    indexBufWrite.flip();
+	// tell the IndexItem where its data is
+	item.setDataOffset(new Offset(currentDataPosition));
 
-	    // write the index item
-	    count +=  processIndexItem(indexBufWrite);
-	
-	    // make the data ready for writing
-            ByteBuffer dataBuf = item.getData();
+	// clear the index buf
+	indexBufWrite.clear();
 
-	    if (dataBuf.position() == dataBuf.limit()) {
-		dataBuf.flip();
+	// fill the buffer
+	encodeIndexRecord(indexBufWrite, item, currentDataPosition);
+
+	// make it ready for writing
+	indexBufWrite.flip();
+
+	// write the index item
+	count +=  processIndexItem(indexBufWrite);
+
+	if (isStreamed(item)) {
+	    DataStreamObject stream = (DataStreamObject)item.getDataAbstraction();
+
+	    // write the data from the channel
+	    count += processDataStream(stream.getChannel(), stream.getSize().value());
+
+	    // the data is now in the file
+	    item.setData(new DataReferenceObject(new Offset(currentDataPosition), stream.getSize()));
+
+	} else if (! shared) {
+	    // write the data
+	    count += processData(dataBuf);
+	}
+
+	// return how many bytes were written
+	return count;
+    }
+
+    /**
+     * Find a copy of some data that is already in the data file.
+     * By default data is not shared, and is always written.
+     * @param payload the data to be written
+     * @param dataPosition where the data will be written
+     * @return the offset of an existing copy, or dataPosition
+     * if the data has to be written
+     */
+    protected long shareData(ByteBuffer payload, long dataPosition) throws IOException {
+	return dataPosition;
+    }
+
+    /**
+     * Does an item have data that comes from a channel.
+     */
+    protected boolean isStreamed(ManagedIndexItem item) {
+	return item.getDataAbstraction() instanceof DataStreamObject;
+    }
+
+    /**
+     * Processing of data that comes from a channel.
+     * The data is read from the channel in slices, and each slice
+     * is processed like the data of a normal item.
+     * If the channel ends early, the rest is filled with zeroes,
+     * so the files stay consistent, and an IOException is thrown.
+     * @param channel the channel to read from
+     * @param size the no of bytes to take from the channel
+     */
+    protected long processDataStream(ReadableByteChannel channel, long size) throws IOException {
+	ByteBuffer slice = ByteBuffer.allocateDirect((int)Math.min((long)STREAM_SLICE_SIZE, Math.max(size, 1)));
+	long done = 0;
+	long count = 0;
+	boolean ended = false;
+
+	while (done < size) {
+	    slice.clear();
+
+	    if (slice.capacity() > size - done) {
+		slice.limit((int)(size - done));
 	    }
-	    
 
-            // write the data
-            count += processData(dataBuf);
+	    // fill the slice
+	    while (slice.hasRemaining() && ! ended) {
+		if (channel.read(slice) < 0) {
+		    ended = true;
+		}
+	    }
 
-	    // return how many bytes were written
-	    return count;
+	    if (ended) {
+		// pad out the rest of the slice
+		while (slice.hasRemaining()) {
+		    slice.put((byte)0);
+		}
+	    }
+
+	    slice.flip();
+
+	    done += slice.limit();
+
+	    count += processData(slice);
+	}
+
+	if (ended) {
+	    throw new IOException("Channel ended before " + size + " bytes were read for an item in index " + indexName);
 	}
+
+	return count;
     }
 
     /**
@@ -346,13 +501,7 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
 	    indexBufWrite.clear();
 
 	    // fill the buffer
-	    indexBufWrite.putLong(item.getIndexTimestamp().value());
-	    indexBufWrite.putLong(item.getDataTimestamp().value());
-	    indexBufWrite.putLong(currentDataPosition);
-	    indexBufWrite.putLong(REFERENCE_BUFFER_SIZE);
-	    indexBufWrite.putInt(DataType.REFERENCE_VALUE);
-	    indexBufWrite.putLong(item.getItemID().value());
-	    indexBufWrite.putLong(item.getAnnotationMetaData());
+	    encodeIndexRecord(indexBufWrite, item, currentDataPosition);
 
 	    // make it ready for writing
 	    indexBufWrite.flip();
@@ -361,16 +510,90 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
 	    count +=  processIndexItem(indexBufWrite);
 	
 	    // write the data
-	    IndexReferenceDataHolder reference = (IndexReferenceDataHolder)itemM.getDataAbstraction();
+	    ByteBuffer referenceBuffer = getPayload(item);
+
+	    count += processData(referenceBuffer);
+
+	    // return how many bytes were written
+	    return count;
+	}
+    }
+
+    /**
+     * Put the index record for an item into a buffer.
+     * @param buffer the buffer to fill
+     * @param item the item
+     * @param dataPosition the position of the item's data
+     */
+    protected void encodeIndexRecord(ByteBuffer buffer, ManagedFileIndexItem item, long dataPosition) {
+	int base = buffer.position();
+
+	buffer.putLong(item.getIndexTimestamp().value());
+	buffer.putLong(item.getDataTimestamp().value());
+	buffer.putLong(dataPosition);
+
+	if (item.isReference()) {
+	    buffer.putLong(REFERENCE_BUFFER_SIZE);
+	    buffer.putInt(DataType.REFERENCE_VALUE);
+	} else {
+	    buffer.putLong(item.getDataSize().value());
+	    buffer.putInt(item.getDataType().value());
+	}
+
+	buffer.putLong(item.getItemID().value());
+	buffer.putLong(item.getAnnotationMetaData());
+
+	if (checksums) {
+	    RecordChecksum.put(buffer, base, dataChecksum(item));
+	}
+    }
+
+    /**
+     * Get the checksum of the data of an item.
+     * Data streamed from a channel is not checked, so it is 0.
+     */
+    protected int dataChecksum(ManagedFileIndexItem item) {
+	if (isStreamed(item)) {
+	    return 0;
+	} else {
+	    return RecordChecksum.dataChecksum(getPayload(item));
+	}
+    }
+
+    /**
+     * Check the checksum of an index record, if the records have them.
+     * @param buffer the buffer holding the record
+     * @param base the index in the buffer of the start of the record
+     * @param indexOffset the byte offset of the record in the index file
+     */
+    protected void checkIndexRecord(ByteBuffer buffer, int base, long indexOffset) throws IOException {
+	if (checksums && ! RecordChecksum.isValid(buffer, base)) {
+	    throw new IOException("Index record at offset " + indexOffset + " in index " + indexName + " has a bad checksum");
+	}
+    }
+
+    /**
+     * Get the bytes to write out as the data for an item,
+     * ready for writing.
+     * For a reference this is the index ID and the item position.
+     */
+    protected ByteBuffer getPayload(ManagedIndexItem item) {
+	if (item.isReference()) {
+	    IndexReferenceDataHolder reference = (IndexReferenceDataHolder)item.getDataAbstraction();
 	    ByteBuffer referenceBuffer = ByteBuffer.allocate(REFERENCE_BUFFER_SIZE);
 	    referenceBuffer.putLong(reference.getIndexID().value());
 	    referenceBuffer.putLong(reference.getIndexItemPosition().value());
 	    referenceBuffer.flip();
 
-	    count += processData(referenceBuffer);
+	    return referenceBuffer;
+	} else {
+	    ByteBuffer dataBuf = item.getData();
 
-	    // return how many bytes were written
-	    return count;
+	    if (dataBuf.position() == dataBuf.limit()) {
+		dataBuf.flip();
+	    }
+
+	    return dataBuf;
 	}
     }
 
@@ -413,28 +636,40 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
 
     /**
      * Write a buffer of data.
-     * This flushes out large buffers a slice at a time.
+     * Small buffers are copied into the fill buffer for a channel,
+     * and each full fill buffer is passed to the writer thread.
+     * Large buffers are written straight out with a gathering write.
+     * The caller must hold the lock on this object.
+     * @param buffer the bytes to write
+     * @param channel the channel to write to
+     * @param fill the fill buffer for the channel
+     * @param offset the file offset for the first byte of buffer
      */
-    protected long bufferedWrite(ByteBuffer buffer, FileChannel channel, ByteBufferRing ring) throws IOException {
+    protected long bufferedWrite(ByteBuffer buffer, FileChannel channel, WriteRequest fill, long offset) throws IOException {
         long written = 0;
         int origLimit = buffer.limit();
         ByteBuffer slice = null;
 	ByteBuffer flushBuffer = null;
 
-	//System.err.println("bufferedWrite: ring = " + ring);
+	if (fill.buffer.position() > 0 && fill.endPosition() != offset) {
+	    // the write does not follow on from the bytes
+	    // already in the fill buffer, so pass those on first
+	    written += flushBuffer(fill);
+	}
+
+	if (fill.buffer.position() == 0) {
+	    // an empty fill buffer starts at the offset
+	    fill.channel = channel;
+	    fill.position = offset;
+	}
 
-	// get the current buffer from the ring
-	flushBuffer = ring.current();
+	if (buffer.remaining() >= DIRECT_WRITE_SIZE) {
+	    // don't copy big buffers
+	    return written + gatheringWrite(buffer, fill);
+	}
 
         while (buffer.hasRemaining()) {
-
-	    /*
-            System.err.println("flushBuffer() FB(P) = " + flushBuffer.position() +
-                           " FB(C) = " + flushBuffer.capacity() +
-                           " B(P) = " + buffer.position() + 
-                           " B(L) = " + buffer.limit() +
-                           " B(C) = " + buffer.capacity());
-	    */
+	    flushBuffer = fill.buffer;
 
             // no of bytes available in flushBuffer
             int available = flushBuffer.capacity() - flushBuffer.position();
@@ -454,15 +689,9 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
                 flushBuffer.put(slice);
                 
                 // this should have filled the flushBuffer
-		// lock it
-                // and then flush the buffer
-
-		ring.lock();
-
-                written += flushBuffer(channel, flushBuffer, ring);
-
-		// get another buffer to use
-		flushBuffer = ring.current();
+                // so flush the buffer
+		// and get another one to use
+                written += flushBuffer(fill);
 
                 // adjust the pointers into the buffer
                 buffer.position(buffer.limit());
@@ -480,43 +709,98 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
     }
 
 
-    static int count = 0;
-
     /**
-     * Actually flush the buffer out.
-     * Returns how man bytes were written.
+     * Write a buffer straight out to the channel of a fill buffer,
+     * together with the bytes already in the fill buffer,
+     * using one gathering write.  The buffer is not copied.
+     * The write ring is drained first, so the file is still
+     * written in order.
+     * The caller must hold the lock on this object.
+     * @return the no of bytes written
      */
-    protected synchronized long flushBuffer(FileChannel channel, ByteBuffer flushBuffer, ByteBufferRing ring)  throws IOException {
+    protected long gatheringWrite(ByteBuffer buffer, WriteRequest fill) throws IOException {
 	long written = 0;
 
-	if (flushBuffer.position() > 0) {
-	    flushBuffer.flip();
+	checkIOFailure();
 
-	    /* WAS
-            written = channel.write(flushBuffer);
+	// write out everything passed on so far
+	drainWriteQueue();
 
-	    // clear it
-	    flushBuffer.clear();
-	    */
+	FileChannel channel = fill.channel;
+	ByteBuffer[] buffers = null;
 
-	    requestWriteWork(channel, flushBuffer, ring);
-	    //System.err.println("Added WriteRequest [" + (count++) + "] " + channel + " for " + flushBuffer);
+	if (fill.buffer.position() > 0) {
+	    fill.buffer.flip();
+	    buffers = new ByteBuffer[] { fill.buffer, buffer };
+	} else {
+	    buffers = new ByteBuffer[] { buffer };
+	}
 
-	    //System.err.println("flushBuffer() writeQueue length = " + writeQueue.size());
+	// the writer thread only does positional writes,
+	// so the channel position can be set here
+	channel.position(fill.position);
 
-	    timeoutHappened = false;
+	try {
+	    while (buffer.hasRemaining()) {
+		written += channel.write(buffers);
+	    }
+	} catch (IOException ioe) {
+	    ioFailed(ioe);
+	    throw ioe;
+	}
 
-            notifyAllListeners();
+	// the fill buffer is empty, and starts after the buffer
+	fill.buffer.clear();
+	fill.position += written;
 
+	if (groupSyncer != null) {
+	    groupSyncer.addBytes(written);
 	}
 
 	return written;
     }
 
-    private void notifyAllListeners() {
-        synchronized (syncObject) {
-            syncObject.notifyAll();
-        }
+    /**
+     * Actually flush the buffer out, by passing it
+     * to the writer thread.
+     * If the write ring is full, this waits for a free slot.
+     * If an earlier write has failed, this throws its IOException,
+     * rather than waiting for a slot which is never freed.
+     * The caller must hold the lock on this object.
+     * Returns how man bytes were written.
+     */
+    protected long flushBuffer(WriteRequest fill)  throws IOException {
+	long written = 0;
+
+	checkIOFailure();
+
+	if (fill.buffer.position() > 0) {
+	    long queued = fill.buffer.position();
+
+	    int waits = 0;
+
+	    while (! writeRing.offer(fill)) {
+		// the ring is full
+		if (! isRunning() || servingReads) {
+		    // there is no background I/O, or it may be
+		    // waiting for this lock to do some reads,
+		    // so write one out here
+		    writeFromWorkQueue();
+		} else {
+		    writeRing.awaitSpace(waits);
+		    waits++;
+		}
+	    }
+
+	    // tell the scheduler there is a buffer to write
+	    scheduleWork();
+
+	    if (groupSyncer != null) {
+		groupSyncer.addBytes(queued);
+	    }
+	}
+
+	return written;
     }
 
     /**
@@ -531,6 +815,48 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
      */
     public abstract ManagedIndexItem getItem(long position, boolean doLoadData) throws IOException ;
 
+    /**
+     * Get a run of items, starting at index position Position,
+     * and post them into the index.
+     * This version gets them one at a time, but subclasses
+     * can read them all in one go.
+     * @return the items, which may be fewer than count
+     */
+    public ManagedIndexItem[] getItems(long position, int count, boolean doLoadData) throws IOException {
+	ManagedIndexItem[] items = new ManagedIndexItem[count];
+
+	for (int i=0; i < count; i++) {
+	    items[i] = getItem(position + i, doLoadData);
+	}
+
+	return items;
+    }
+
+    /**
+     * Set the data of an item from a buffer which holds
+     * the data of a run of items.
+     * The item gets a slice of the buffer, so nothing is copied.
+     * @param item the item
+     * @param buffer the buffer with the data
+     * @param bufferStart the file offset of the first byte in the buffer
+     */
+    protected void setDataFromBuffer(ManagedIndexItem item, ByteBuffer buffer, long bufferStart) {
+	if (item.isReference()) {
+	    return;
+	}
+
+	ManagedFileIndexItem fileItem = (ManagedFileIndexItem)item;
+
+	long size = item.getDataSize().value();
+	int from = (int)(fileItem.getDataOffset().value() - bufferStart);
+
+	ByteBuffer slice = buffer.duplicate();
+	slice.limit(from + (int)size);
+	slice.position(from);
+
+	fileItem.setData(new DataHolderObject(slice.slice(), new Size(size)));
+    }
+
     /**
      * Read the contents of the item
      * It assumes the index file is alreayd open for writing.
@@ -570,6 +896,8 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
 	// read an IndexItem into indexBufRead
 	readIndexItem(currentIndexPosition);
 
+	checkIndexRecord(indexBufRead, 0, currentIndexPosition);
+
 	// we read the right amount, so carry on
 
 	indexTS = timestampDecoder.decode(indexBufRead.getLong());
@@ -624,89 +952,422 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
     }
 
     /**
-     * Read some data, from a specified offset for a number of bytes.
+     * Decode an index record held in a buffer.
+     * This only uses absolute gets, so the state of the buffer
+     * is not changed and the buffer can be shared between threads.
+     * It does not move the index or data channel positions.
+     * @param buffer the buffer holding the record
+     * @param base the index in the buffer of the start of the record
+     * @param indexOffset the byte offset of the record in the index file
+     * @param withData read the data for this IndexItem if withData is true,
+     * the data needs to be read at a later time, otherwise
      */
-    protected DataAbstraction readNormalData(long offset, long size, boolean withData) throws IOException{
-	DataAbstraction data = null;
+    protected ManagedIndexItem decodeIndexRecord(ByteBuffer buffer, int base, long indexOffset, boolean withData) throws IOException {
+	checkIndexRecord(buffer, base, indexOffset);
 
-	if (withData) {	// go and get the data now, if it's needed
-	    // TODO: add code that checks how big the data
-	    // actually is.
-	    // only read it if the index isn't too big
-	    // and the data isn't too big
-	    ByteBuffer buffer = readData(offset, size);
+	Timestamp indexTS = timestampDecoder.decode(buffer.getLong(base));
+	Timestamp dataTS = timestampDecoder.decode(buffer.getLong(base + 8));
+	long offset = buffer.getLong(base + 16);
+	long size = buffer.getLong(base + 24);
+	int type = buffer.getInt(base + 32);
+	long id = buffer.getLong(base + 36);
+	long annotationValue = buffer.getLong(base + 44);
 
-	    // we got the data successfully, so build a DataHolderObject
-	    //System.err.println("AbstractIndexIO: readNormalData. size=" + size);
-	    data = new DataHolderObject(buffer, new Size(size));
-	} else {	    // don;t get the data now
-	    skipData(offset, size);
+	DataAbstraction data = null;
+	ManagedFileIndexItem indexItem = null;
 
-	    //System.err.println("AbstractIndexIO: readNormalData. DataReferenceObject offset=" + offset + " size="+size);
-	    // no need to get the  data, so build a DataReferenceObject
-	    data = new DataReferenceObject(new Offset(offset), new Size(size));
-	}
+	if (type == DataType.REFERENCE_VALUE) {
+	    ByteBuffer referenceBuffer = readDataAt(offset, size);
 
-	return data;
-    }
+	    data = new IndexReferenceDataHolder(new SID(referenceBuffer.getLong()), new AbsolutePosition(referenceBuffer.getLong()));
+	    indexItem = new FileIndexItem(dataTS, indexTS, data, new Size(0),  DataType.REFERENCE, new SID(id), annotationValue);
+	    ((IndexReferenceDataHolder)data).setIndexItem(indexItem);
 
-    /**
-     * Read a reference, from a specified offset for a number of bytes.
-     */
-    protected IndexReferenceDataHolder readReferenceData(long offset, long size) throws IOException{
-	IndexReferenceDataHolder data = null;
+	} else {
+	    if (withData && size < Integer.MAX_VALUE) {
+		data = new DataHolderObject(readDataAt(offset, size), new Size(size));
+	    } else {
+		data = new DataReferenceObject(new Offset(offset), new Size(size));
+	    }
 
-	ByteBuffer buffer = readData(offset, size);
+	    indexItem = new FileIndexItem(dataTS, indexTS, data, DataTypeDirectory.find(type), new SID(id), annotationValue);
+	}
 
-	// the id of the other Index
-	long indexIDValue = buffer.getLong();
+	// tell the IndexItem where its index is
+	indexItem.setIndexOffset(new Offset(indexOffset));
 
-	// the id as an ID object
-	ID indexID = new SID(indexIDValue);
-	// the position of the IndexItem in the other Index
-	long itemPosition =  buffer.getLong();
+	indexItem.setDataOffset(new Offset(offset));
 
-	//System.err.println("Read reference " + indexID + " @ " + itemPosition);
-	data = new IndexReferenceDataHolder(indexID , new AbsolutePosition(itemPosition));
+	indexItem.setIndex(getIndex());
 
-	return data;	
+	return indexItem;
     }
 
     /**
-     * Read an IndexItem given an offset.
-     * @param offset the byte offset in the file to start reading an item from
+     * Read some data, given an offset and a size,
+     * using positional reads on the channel that holds the data.
+     * This does not use or move the channel position,
+     * so it takes no lock and can be called by many threads at once.
+     * Small amounts of data are read into a new buffer,
+     * as the buffer is handed on to the caller.
+     * Larger amounts of data are memory mapped.
+     * @param offset the byte offset in the file to start reading from
+     * @param size the number of bytes to read
      */
-    public ByteBuffer readIndexItem(Offset offset, long size) throws IOException {
-	return readIndexItem(offset.value());
+    public ByteBuffer readDataAt(long offset, long size) throws IOException {
+	return readDataAt(getDataReadChannel(), offset, size);
     }
 
     /**
-     * Read an IndexItem given an offset.
-     * @param offset the byte offset in the file to start reading an item from
+     * Read some data from a channel, using positional reads.
+     * @param channel the channel that holds the data
+     * @param offset the byte offset in the channel to start reading from
+     * @param size the number of bytes to read
      */
-    public ByteBuffer readIndexItem(long offset) throws IOException {
-	int readCount = 0;
-
+    protected ByteBuffer readDataAt(FileChannel channel, long offset, long size) throws IOException {
+	if (size < 0) {
+	    throw new Error("AbstractFileIO: readDataAt() can;t have size < 0");
+	} else if (size >= Integer.MAX_VALUE) {
+	    // buffers can only be so big
+	    throw new IOException("AbstractFileIO: readDataAt() cannot read data of " + size + " bytes into one buffer. Use openData() to read it.");
+	} else if (size <= 4096) {
+	    // the data is less than a page size so read it
+	    ByteBuffer buffer = ByteBuffer.allocate((int)size);
 
-	// goto a position in the index
-	seekToIndex(offset);
+	    while (buffer.hasRemaining()) {
+		if (channel.read(buffer, offset + buffer.position()) < 0) {
+		    // got wrong amount
+		    throw new IOException("IO Error trying to read " + size + " bytes from offset " + offset + " got " + buffer.position());
+		}
+	    }
 
-	//System.err.println("P(R) = " + indexChannel.position());
+	    buffer.flip();
+
+	    return buffer;
+	} else {
+	    // the data is bigger than a page size
+	    // so map it
+	    return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+	}
+    }
+
+    /**
+     * Get a channel for reading some data, given an offset and a size.
+     * The data can be of any size.
+     * @param offset the byte offset in the file to start reading from
+     * @param size the number of bytes in the data
+     */
+    public DataRegionChannel openData(long offset, long size) throws IOException {
+	// make sure the data is in the file
+	drainWriteQueue();
+
+	return new DataRegionChannel(getDataReadChannel(), offset, size);
+    }
+
+    /**
+     * Transfer some data straight from the file to a channel,
+     * using FileChannel.transferTo().
+     * Like readDataAt() this does not move the channel position,
+     * so it takes no lock.
+     * @param offset the byte offset in the file to start from
+     * @param size the number of bytes to transfer
+     * @param target the channel to write to
+     * @return the number of bytes transferred
+     */
+    public long transferData(long offset, long size, WritableByteChannel target) throws IOException {
+	// make sure the data is in the file
+	drainWriteQueue();
+
+	return transferData(getDataReadChannel(), offset, size, target);
+    }
+
+    /**
+     * Transfer some data straight from a channel to another channel.
+     * @param channel the channel that holds the data
+     * @param offset the byte offset in the channel to start from
+     * @param size the number of bytes to transfer
+     * @param target the channel to write to
+     * @return the number of bytes transferred
+     */
+    protected long transferData(FileChannel channel, long offset, long size, WritableByteChannel target) throws IOException {
+	long done = 0;
+	long count = 0;
+
+	// transferTo() may send less than asked for,
+	// so keep going until it is all sent
+	while (done < size) {
+	    count = channel.transferTo(offset + done, size - done, target);
+
+	    if (count == 0 && offset + done >= channel.size()) {
+		// the file is too short
+		throw new IOException("IO Error trying to transfer " + size + " bytes from offset " + offset + " got " + done);
+	    }
+
+	    done += count;
+	}
+
+	return done;
+    }
+
+    /**
+     * Open the timestamp columns, if the property 'timecolumns' is true,
+     * or if the index already has them and 'timecolumns' is not false.
+     * The columns are held in files with .tdt and .tit extensions.
+     * Any entries missing from the columns are filled in
+     * from the index records.
+     */
+    public synchronized void openTimeColumns(IndexProperties indexProperties) throws IOException {
+	Boolean setting = (Boolean)indexProperties.get("timecolumns");
+
+	String dataColumnName = FileUtils.resolveFileName(headerFileName, ".tdt");
+	String indexColumnName = FileUtils.resolveFileName(headerFileName, ".tit");
+
+	if (setting == null) {
+	    // use them if they are there
+	    if (creating || ! new File(dataColumnName).exists() || ! new File(indexColumnName).exists()) {
+		return;
+	    }
+	} else if (setting.equals(Boolean.FALSE)) {
+	    return;
+	}
+
+	boolean writable = ! headerInteractor.isReadOnly();
+
+	TimestampColumn dataColumn = new TimestampColumn(dataColumnName);
+	TimestampColumn indexColumn = new TimestampColumn(indexColumnName);
+
+	if (dataColumn.open(writable, creating) && indexColumn.open(writable, creating)) {
+	    dataTimeColumn = dataColumn;
+	    indexTimeColumn = indexColumn;
+
+	    syncTimeColumns();
+	} else {
+	    System.err.println(getClass().getSimpleName() + " " + indexName + " cannot open timestamp columns");
+	}
+    }
+
+    /**
+     * Bring the timestamp columns into line with the index.
+     * Entries past the end of the index are dropped, and
+     * missing entries are read from the index records.
+     */
+    protected void syncTimeColumns() throws IOException {
+	long length = headerInteractor.getLength();
+
+	long count = Math.min(length, Math.min(dataTimeColumn.getLength(), indexTimeColumn.getLength()));
+
+	dataTimeColumn.truncate(count);
+	indexTimeColumn.truncate(count);
+
+	if (count < length) {
+	    // reading moves the index position, so put it back after
+	    long savedPosition = indexChannelPosition;
+
+	    for (; count < length; count++) {
+		ByteBuffer record = readIndexItem(getRecordOffset(count));
+
+		indexTimeColumn.add(TimestampColumn.toNanos(timestampDecoder.decode(record.getLong(0))));
+		dataTimeColumn.add(TimestampColumn.toNanos(timestampDecoder.decode(record.getLong(8))));
+	    }
+
+	    indexChannelPosition = savedPosition;
+
+	    flushTimeColumns();
+	}
+    }
+
+    /**
+     * Get the offset of the index record for a position.
+     */
+    protected long getRecordOffset(long position) throws IOException {
+	return indexFirstPosition + (position * INDEX_ITEM_SIZE);
+    }
+
+    /**
+     * Add the timestamps of an item to the timestamp columns.
+     */
+    protected void addToTimeColumns(ManagedIndexItem item) {
+	if (dataTimeColumn != null) {
+	    dataTimeColumn.add(TimestampColumn.toNanos(item.getDataTimestamp()));
+	    indexTimeColumn.add(TimestampColumn.toNanos(item.getIndexTimestamp()));
+	}
+    }
+
+    /**
+     * Write out the pending entries of the timestamp columns.
+     */
+    protected void flushTimeColumns() throws IOException {
+	if (dataTimeColumn != null) {
+	    dataTimeColumn.flush();
+	    indexTimeColumn.flush();
+	}
+    }
+
+    /**
+     * Force the timestamp columns to stable storage.
+     */
+    protected void forceTimeColumns() throws IOException {
+	if (dataTimeColumn != null) {
+	    dataTimeColumn.force();
+	    indexTimeColumn.force();
+	}
+    }
+
+    /**
+     * Close the timestamp columns.
+     */
+    protected void closeTimeColumns() throws IOException {
+	if (dataTimeColumn != null) {
+	    dataTimeColumn.close();
+	    indexTimeColumn.close();
+	}
+    }
+
+    /**
+     * Search for a Timestamp in a timestamp column.
+     * @return the position found, or -1 if there is no column to search
+     */
+    public long searchTimeColumn(Timestamp t, long start, long end, IndexTimestampSelector selector, Lifetime lifetime) throws IOException {
+	TimestampColumn column = null;
+
+	if (selector == IndexTimestampSelector.DATA) {
+	    column = dataTimeColumn;
+	} else {
+	    column = indexTimeColumn;
+	}
+
+	if (column == null) {
+	    return -1;
+	} else {
+	    return column.search(TimestampColumn.toNanos(t), start, end, lifetime == Lifetime.CONTINUOUS);
+	}
+    }
+
+    /**
+     * Can the timestamps of an item be read by position.
+     * Not in general, as the records may not all be the same size.
+     */
+    public boolean canReadTimes() {
+	return false;
+    }
+
+    /**
+     * Read a timestamp of the item at a position.
+     */
+    public long readTimeNanos(long position, IndexTimestampSelector selector) throws IOException {
+	throw new IOException(getClass().getSimpleName() + ": cannot read the time of item " + position + " by position");
+    }
+
+    /**
+     * Read the timestamps of a run of items.
+     */
+    public int readTimesNanos(long position, int count, IndexTimestampSelector selector, long[] times) throws IOException {
+	throw new IOException(getClass().getSimpleName() + ": cannot read the times of items " + position + " by position");
+    }
+
+    /**
+     * Get the major version of the index file.
+     */
+    public int getVersionMajor() {
+	return versionMajor;
+    }
+
+    /**
+     * Get the positions to search for a Timestamp.
+     * There is no narrowing of the search for a plain index.
+     * @return null if there is no narrowing
+     */
+    public long[] getSearchRange(Timestamp t, IndexTimestampSelector selector) {
+	return null;
+    }
+
+    /**
+     * Get the channel that holds the data,
+     * for positional reads.
+     */
+    protected abstract FileChannel getDataReadChannel();
+
+    /**
+     * Read some data, from a specified offset for a number of bytes.
+     */
+    protected DataAbstraction readNormalData(long offset, long size, boolean withData) throws IOException{
+	DataAbstraction data = null;
+
+	if (withData && size < Integer.MAX_VALUE) {	// go and get the data now, if it's needed
+	    // TODO: add code that checks how big the data
+	    // actually is.
+	    // only read it if the index isn't too big
+	    // data too big for a buffer is left as a reference
+	    ByteBuffer buffer = readData(offset, size);
+
+	    // we got the data successfully, so build a DataHolderObject
+	    //System.err.println("AbstractIndexIO: readNormalData. size=" + size);
+	    data = new DataHolderObject(buffer, new Size(size));
+	} else {	    // don;t get the data now
+	    skipData(offset, size);
+
+	    //System.err.println("AbstractIndexIO: readNormalData. DataReferenceObject offset=" + offset + " size="+size);
+	    // no need to get the  data, so build a DataReferenceObject
+	    data = new DataReferenceObject(new Offset(offset), new Size(size));
+	}
+
+	return data;
+    }
+
+    /**
+     * Read a reference, from a specified offset for a number of bytes.
+     */
+    protected IndexReferenceDataHolder readReferenceData(long offset, long size) throws IOException{
+	IndexReferenceDataHolder data = null;
+
+	ByteBuffer buffer = readData(offset, size);
+
+	// the id of the other Index
+	long indexIDValue = buffer.getLong();
+
+	// the id as an ID object
+	ID indexID = new SID(indexIDValue);
+	// the position of the IndexItem in the other Index
+	long itemPosition =  buffer.getLong();
+
+	//System.err.println("Read reference " + indexID + " @ " + itemPosition);
+	data = new IndexReferenceDataHolder(indexID , new AbsolutePosition(itemPosition));
+
+	return data;	
+    }
+
+    /**
+     * Read an IndexItem given an offset.
+     * @param offset the byte offset in the file to start reading an item from
+     */
+    public ByteBuffer readIndexItem(Offset offset, long size) throws IOException {
+	return readIndexItem(offset.value());
+    }
+
+    /**
+     * Read an IndexItem given an offset.
+     * @param offset the byte offset in the file to start reading an item from
+     */
+    public ByteBuffer readIndexItem(long offset) throws IOException {
+	int readCount = 0;
 
 	// clear the index buf
 	indexBufRead.clear();
 
 	// read a block of data
-	if ((readCount = indexChannel.read(indexBufRead)) != INDEX_ITEM_SIZE) {
-	    throw new IOException("Index Item too short: position = " +
-				  offset + " read count = " + readCount);
+	// this is a positional read, so the channel position is not moved
+	while (indexBufRead.hasRemaining()) {
+	    if ((readCount = indexChannel.read(indexBufRead, offset + indexBufRead.position())) < 0) {
+		throw new IOException("Index Item too short: position = " +
+				      offset + " read count = " + indexBufRead.position());
+	    }
 	}
 
 	// make buffer ready to get data from
 	indexBufRead.flip();
 
 	// update indexChannelPosition
-	indexChannelPosition += readCount;
+	indexChannelPosition = offset + INDEX_ITEM_SIZE;
 
 	return indexBufRead;
     }
@@ -727,54 +1388,10 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
      * @param size the number of bytes to read
      */
     public ByteBuffer readData(long offset, long size) throws IOException {
-	ByteBuffer buffer = null;
-	long readCount = 0;
-
-	if (size < 0) {
-	    throw new Error("AbstractFileIO: readItem() can;t have size < 0");
-	} else if (size >= Integer.MAX_VALUE) {
-	    // buffers can only be so big
-	    // check we can allocate one big enough
-		throw new Error("AbstractFileIO: readItem() has not YET implemented reading of data > " + Integer.MAX_VALUE + ". Actual size is " + size);
-	} else if (size <= 4096) {
-	    // the data is less than a page size so read it
-	    // allocate a buffer
-	    buffer = ByteBuffer.allocate((int)size);
-
-	    // seek to the right place
-	    seekToData(offset);
-
-	    // read some data
-	    readCount = readDataIntoBuffer(buffer, size);
-
-	    // check got correct amount
-	    if (readCount == size) {
-		buffer.limit((int)size);
-		buffer.position(0);
-
-		return buffer;
-	    } else {
-		// got wrong amount
-		throw new IOException("IO Error trying to read " + size + " bytes from offset " + offset);
-	    }
-
-	} else {
-	    // the data is bigger than a page size
-	    // so its better to
-	    // getting data using memory mapping
-	    buffer = memoryMapData(offset, size);
-	    seekToData(offset+size);
-	    return buffer;
-
-	}
+	return readDataAt(offset, size);
     }
 
 
-    /**
-     * Actually read in the data.
-     */
-    protected abstract long readDataIntoBuffer(ByteBuffer buffer, long size) throws IOException;
-
     /**
      * Read some data, given a DataReference.
      */
@@ -838,10 +1455,11 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
     /**
      * Read some data, given a DataReference
      * and return it as a DataHolderObject.
+     * This uses positional reads, so it needs no lock.
      */
     public DataHolderObject convertDataReference(DataReference dataReference) {
 	try { 
-	    ByteBuffer rawData = readData(dataReference);
+	    ByteBuffer rawData = readDataAt(dataReference.getOffset().value(), dataReference.getSize().value());
 	    return new DataHolderObject(rawData, dataReference.getSize());
 
  	} catch (IOException ioe) {
@@ -887,7 +1505,7 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
      * Load all of the items.
      * @return the position in the index after loading all the items
      */
-    private long loadAll(boolean doLoadData) throws IOException {
+    protected long loadAll(boolean doLoadData) throws IOException {
 	ManagedIndexItem item = null;
 	long position = indexChannelPosition;
 	long itemCount = headerInteractor.getLength();
@@ -1040,117 +1658,458 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
 	return headerInteractor.isWriteLocked();
     }
 
+    /**
+     * Set up the durability of commits from the properties
+     * 'durability', 'syncinterval', and 'syncbytes'.
+     * A read-only index has Durability.NONE.
+     */
+    protected void startDurability(IndexProperties indexProperties) {
+	Durability setting = (Durability)indexProperties.get("durability");
+
+	if (setting == null || headerInteractor.isReadOnly()) {
+	    durability = Durability.NONE;
+	} else {
+	    durability = setting;
+	}
+
+	if (durability == Durability.GROUP) {
+	    Long syncInterval = (Long)indexProperties.get("syncinterval");
+	    Long syncBytes = (Long)indexProperties.get("syncbytes");
+
+	    groupSyncer = new GroupSyncer(this,
+					  (syncInterval == null ? GroupSyncer.SYNC_INTERVAL : syncInterval.longValue()),
+					  (syncBytes == null ? GroupSyncer.SYNC_BYTES : syncBytes.longValue()));
+	    groupSyncer.start(indexName + "-SyncThread");
+	}
+    }
+
+    /**
+     * Stop the group syncer, if there is one.
+     * This must be called without holding the lock on this object,
+     * as the syncer needs it to drain the write queue.
+     */
+    protected void stopGroupSyncer() {
+	GroupSyncer syncer = groupSyncer;
+
+	if (syncer != null) {
+	    syncer.stop();
+	    groupSyncer = null;
+	}
+    }
+
+    /**
+     * Do a last sync if the index is not Durability.NONE.
+     * This should be called before the channels are closed.
+     */
+    protected void finalSync() throws IOException {
+	if (durability != Durability.NONE) {
+	    sync();
+	}
+    }
+
+    /**
+     * Wait until everything flushed so far is on stable storage,
+     * as the durability setting requires.
+     * @return true if it waited, false if the index is Durability.NONE
+     */
+    public boolean awaitDurable() throws IOException {
+	if (durability == Durability.SYNC) {
+	    sync();
+	    return true;
+	} else if (durability == Durability.GROUP && groupSyncer != null) {
+	    groupSyncer.awaitSync();
+	    return true;
+	} else {
+	    return false;
+	}
+    }
+
+    /**
+     * Write out everything in the write queue, and then
+     * force the files to stable storage.
+     * @return the time taken, in nanoseconds
+     */
+    public long sync() throws IOException {
+	long start = System.nanoTime();
+
+	drainWriteQueue();
+
+	forceChannels();
+
+	long time = System.nanoTime() - start;
+
+	synchronized (syncObject) {
+	    syncCount++;
+	    syncTime += time;
+
+	    if (time > maxSyncTime) {
+		maxSyncTime = time;
+	    }
+	}
+
+	return time;
+    }
+
+    /**
+     * Force the files of the index to stable storage.
+     */
+    protected abstract void forceChannels() throws IOException;
+
+    /**
+     * Get the no of syncs done.
+     */
+    public long getSyncCount() {
+	synchronized (syncObject) {
+	    return syncCount;
+	}
+    }
+
+    /**
+     * Get the total time spent in syncs, in nanoseconds.
+     */
+    public long getSyncTime() {
+	synchronized (syncObject) {
+	    return syncTime;
+	}
+    }
+
+    /**
+     * Get the longest time spent in a sync, in nanoseconds.
+     */
+    public long getMaxSyncTime() {
+	synchronized (syncObject) {
+	    return maxSyncTime;
+	}
+    }
+
     /*
      * The following methods are those associated with the
      * thread activity of this class.
      */
 
     /**
-     * Add some work to the write queue.
+     * Add some work to the read queue.
+     * The read is done by the background I/O, if it is running,
+     * otherwise it is done now.
+     * @param position the position of the first item
+     * @param count the no of items
+     * @param doLoadData load the data with the items
+     * @param single the Future is for the first item, rather than an array
+     * @return a Future for an IndexItem or an IndexItem[]
      */
-    public synchronized void requestWriteWork(FileChannel channel, ByteBuffer flushBuffer, ByteBufferRing ring) {
-	writeQueue.add(new WriteRequest(channel, flushBuffer, ring));
+    public Future requestReadWork(long position, int count, boolean doLoadData, boolean single) {
+	ReadRequest request = new ReadRequest(position, count, doLoadData, single);
+
+	synchronized (readQueue) {
+	    if (readsStopped) {
+		request.fail(new IOException("Cant read item " + position + " from a closed index"));
+		return request;
+	    }
+
+	    readQueue.add(request);
+	}
+
+	if (isRunning() && ! hasFailed()) {
+	    // wake up the I/O
+	    writeRing.nudge();
+	    scheduleWork();
+	} else {
+	    serviceReads();
+	}
+
+	return request;
     }
 
     /**
-     * Add some work to the read queue.
+     * Do all the requests in the read queue.
+     * The write ring is drained first, so the reads see
+     * everything flushed before they were asked for.
+     * The requests are sorted by position, which is also the
+     * order of the items in the files, and requests which
+     * overlap or are next to each other are read in one go
+     * with getItems().
+     * @return the no of requests done
+     */
+    public int serviceReads() {
+	ReadRequest[] requests = null;
+
+	synchronized (readQueue) {
+	    if (readQueue.isEmpty()) {
+		return 0;
+	    }
+
+	    requests = (ReadRequest[])readQueue.toArray(new ReadRequest[readQueue.size()]);
+	    readQueue.clear();
+
+	    servingReads = true;
+	}
+
+	try {
+	    // the reads must see everything written so far
+	    drainWriteQueue();
+	} catch (IOException ioe) {
+	    for (int r=0; r < requests.length; r++) {
+		requests[r].fail(ioe);
+	    }
+
+	    servingReads = false;
+
+	    return requests.length;
+	}
+
+	try {
+	    Arrays.sort(requests, ReadRequest.BY_POSITION);
+
+	    int first = 0;
+
+	    while (first < requests.length) {
+		long start = requests[first].position;
+		long end = requests[first].end();
+		int last = first + 1;
+
+		// add on the requests that join up with this run
+		while (last < requests.length &&
+		       requests[last].position <= end &&
+		       Math.max(end, requests[last].end()) - start <= READ_RUN_SIZE) {
+		    end = Math.max(end, requests[last].end());
+		    last++;
+		}
+
+		readRun(requests, first, last, start, end);
+
+		first = last;
+	    }
+	} finally {
+	    servingReads = false;
+	}
+
+	return requests.length;
+    }
+
+    /**
+     * Read the items for a run of requests, and complete them.
+     * If the read fails, all the requests in the run fail.
      */
-    public synchronized void requestReadWork(Position position, boolean doLoadData) {
-	readQueue.add(new ReadRequest(position, doLoadData));
+    protected void readRun(ReadRequest[] requests, int first, int last, long start, long end) {
+	boolean doLoadData = false;
+
+	for (int r=first; r < last; r++) {
+	    doLoadData |= requests[r].doLoadData;
+	}
+
+	try {
+	    IndexItem[] items = new IndexItem[(int)(end - start)];
+	    long position = start;
+
+	    // getItems() may get fewer than asked for
+	    while (position < end) {
+		int count = (int)Math.min(end - position, (long)READ_RUN_SIZE);
+
+		ManagedIndexItem[] got = getItems(position, count, doLoadData);
+
+		if (got.length == 0 || got[0] == null) {
+		    throw new IOException("Cant read item " + position);
+		}
+
+		System.arraycopy(got, 0, items, (int)(position - start), got.length);
+
+		position += got.length;
+	    }
+
+	    for (int r=first; r < last; r++) {
+		requests[r].complete(items, start);
+	    }
+	} catch (Throwable t) {
+	    for (int r=first; r < last; r++) {
+		requests[r].fail(t);
+	    }
+	}
     }
 
     /**
-     * Write the contents of the ffirst ByteBuffer in the work queue
-     * to a FileChannel.
+     * Stop taking read requests, and fail the ones in the queue.
+     * This waits for the I/O to finish the reads it is doing,
+     * so it must be called before getting the lock on this object.
+     */
+    protected void stopReads() {
+	if (readQueue == null) {
+	    return;
+	}
+
+	synchronized (readQueue) {
+	    readsStopped = true;
+
+	    Iterator iter = readQueue.iterator();
+
+	    while (iter.hasNext()) {
+		ReadRequest request = (ReadRequest)iter.next();
+		request.fail(new IOException("Cant read item " + request.position + " from a closed index"));
+	    }
+
+	    readQueue.clear();
+	}
+
+	while (servingReads) {
+	    LockSupport.parkNanos(100 * 1000);
+	}
+    }
+
+    /**
+     * Are there any read requests.
+     */
+    public boolean hasReadWork() {
+	synchronized (readQueue) {
+	    return ! readQueue.isEmpty();
+	}
+    }
+
+    /**
+     * Write the contents of the next buffer in the write ring
+     * to its FileChannel, at the offset for the buffer.
+     * These are positional writes, so readers can move the
+     * channel position without upsetting them.
+     * If the write fails, the slot is not released, and
+     * the failure is kept so the appenders see it.
      * It assumes the index file is alreayd open for writing.
      */
-    public synchronized long writeFromWorkQueue() throws IOException  {
+    public long writeFromWorkQueue() throws IOException  {
 	long written = 0;
 
-	// System.err.println("AbstractFileIO:writeFromWorkQueue() writeQueue length = " + writeQueue.size());
+	synchronized (writeLock) {
+	    checkIOFailure();
 
-	// get the buffer from the queue
-	WriteRequest writeRequest = (WriteRequest)writeQueue.getFirst();
-	// remove the buffer from the queue
-	writeQueue.removeFirst();
+	    WriteRequest writeRequest = writeRing.peek();
 
-	// get the write request details
-	FileChannel channel = writeRequest.channel;
-	ByteBuffer buffer = writeRequest.buffer;
-	ByteBufferRing ring = writeRequest.ring;
+	    if (writeRequest == null) {
+		// another thread drained the ring
+		return 0;
+	    }
 
-	// write out the buffer
-	written += channel.write(buffer);
+	    // get the write request details
+	    FileChannel channel = writeRequest.channel;
+	    ByteBuffer buffer = writeRequest.buffer;
+	    long position = writeRequest.position;
 
-	// clear it
-	buffer.clear();
+	    // write out the buffer
+	    try {
+		while (buffer.hasRemaining()) {
+		    written += channel.write(buffer, position + buffer.position());
+		}
+	    } catch (IOException ioe) {
+		ioFailed(ioe);
+		throw ioe;
+	    }
 
-	// unlock it, and make it ready for use
-	ring.unlock(buffer);
+	    // clear it, and make it ready for use
+	    writeRing.release();
+	}
 
 	return written;
     }
 
     /**
-     * This drains the write request queue by processing
-     * all the WriteRequests.
+     * This drains the write ring by writing out
+     * all the buffers passed to it so far.
      */
     public  void drainWriteQueue() throws IOException {
-	//System.err.println(getThread() + ": drainWriteQueue length = " + writeQueue.size());
+	long target = writeRing.getHead();
 
-	while (writeQueue.size() > 0) {
+	while (writeRing.getTail() < target) {
 	    writeFromWorkQueue();
 	}
     }
 
     /**
-     * Wait for the timeout to go off.
-     * @return true if the timeout happened, false if it dod not.
+     * Wait for some work for the writer thread.
+     * @return true if there is some work, false if there was a timeout
      */
-    public boolean timeOut(long timeout) {
-        synchronized (syncObject) {
-            try {
-                timeoutHappened = true;
+    public boolean awaitWork() {
+	return writeRing.awaitWork(5 * 1000);
+    }
 
-                // Now wait.
-                // Other methods can set timeoutHappened
-                // during the wait.
-                syncObject.wait(timeout);
+    /**
+     * Note that the background I/O has failed,
+     * and wake up any appender waiting for the write ring.
+     * @return true if this is the first failure
+     */
+    protected boolean ioFailed(IOException ioe) {
+	if (super.ioFailed(ioe)) {
+	    writeRing.fail(ioe);
+	    return true;
+	} else {
+	    return false;
+	}
+    }
 
-                // if we get to here an timeoutHappened is still true
-                // the wait ended because the amount of time has expired
-                // if timeoutHappened is false, then it was set false
-                // by a sendItem() or a receiveItem().
-                if (timeoutHappened) {
-                    return true;
-                } else {
-                    return false;
-                }
-            } catch (InterruptedException ie) {
-                //System.err.println(getIndex().getName() + " wait interrupted");
-                // a timeout didn;t happen, it was an interrupt
-                timeoutHappened = false;
-                return false;
-            }
-        }
+    /**
+     * Write out some of the buffers in the write ring,
+     * and then do the read requests.
+     * @param count the most no of buffers to write
+     * @return true if there are more buffers to write
+     */
+    public boolean serviceWork(int count) throws IOException {
+	for (int w=0; w<count && ! writeRing.isEmpty(); w++) {
+	    writeFromWorkQueue();
+	}
+
+	serviceReads();
+
+	return ! writeRing.isEmpty();
     }
 
-    public boolean awaitWork() {
-	// wait for some work
-	timeOut(5 * 1000);
+    /**
+     * Are there any buffers to write, or any reads to do.
+     */
+    public boolean hasWork() {
+	return ! writeRing.isEmpty() || hasReadWork();
+    }
 
-	if (timeoutHappened) {
-	    // there was a timeout, i.e. no work
-	    //System.err.println(getIndex().getName() + " awaitWork() sleep finished. No work");
-	    return false;
-	} else {
-	    // we got some work
-	    return true;
+    /**
+     * Called every so often when the I/O is idle.
+     */
+    public void idle() {
+	if (! headerInteractor.isReadOnly()) {
+	    // the index is open for read and write
+	    // so occassionally flush the header
+	    //headerInteractor.flush();
+	    //System.err.println(getClass().getSimpleName() + " " + getIndex().getName() + " flush() when idle");
+	}
+    }
+
+    /**
+     * Get the no of times an appender had to wait
+     * because the write ring was full.
+     */
+    public long getWriteWaits() {
+	return writeRing.getFullCount();
+    }
+
+    /**
+     * Set the WaitStrategy of the write ring from the property
+     * 'waitstrategy'.
+     */
+    protected void setWaitStrategy(IndexProperties indexProperties) {
+	WaitStrategy strategy = (WaitStrategy)indexProperties.get("waitstrategy");
+
+	if (strategy != null) {
+	    writeRing.setWaitStrategy(strategy);
+	}
+    }
+
+    /**
+     * Set the IOScheduler from the property 'ioscheduler'.
+     */
+    protected void setIOScheduler(IndexProperties indexProperties) {
+	IOScheduler ioScheduler = (IOScheduler)indexProperties.get("ioscheduler");
+
+	if (ioScheduler != null) {
+	    setIOScheduler(ioScheduler);
 	}
     }
 
     /**
      * The Thread run method.
+     * This is used when the IOScheduler has a thread for each index.
      */
     public void run() {
 	try {
@@ -1161,25 +2120,21 @@ public abstract class AbstractFileIO extends AbstractIndexIO implements IndexFil
                         break;
                     } else {
                         drainWriteQueue();
+                        serviceReads();
                     }
 
 		} else {
                     if (!isRunning()) {   // on thread stop
                         break;
                     } else {              // timeoutHappened
-                        if (! headerInteractor.isReadOnly()) {
-                            // the index is open for read and write
-                            // so occassionally flush the header
-                            //headerInteractor.flush();
-                            //System.err.println(getClass().getSimpleName() + " " + getIndex().getName() + " flush() in thread run() " + myThread);
-                        }
+                        idle();
                     }
 		}
 	    }
 
 	} catch (IOException ioe) {
-	    System.err.println("Run Got IOException: " + ioe);
-	    ioe.printStackTrace();
+	    // the appenders get the failure
+	    ioFailed(ioe);
 	}
 
         // reduce latch count by 1
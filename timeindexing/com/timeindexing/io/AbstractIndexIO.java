@@ -26,33 +26,52 @@ import com.timeindexing.basic.Position;
 
 import java.util.LinkedList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.io.IOException;
 
 /**
  * An object for doing IO for an Index.
  * It has a handle on the Index it's doing I/O for, and
- * handles the thread for the I/O.
+ * an IOScheduler which does the background I/O.
  */
 public abstract class AbstractIndexIO implements IndexInteractor,  Runnable {
     // The index this is doing I/O for
     StoredIndex myIndex = null;
 
-    // The Thread for this I/O
+    // The scheduler that does the background I/O
+    IOScheduler scheduler = IOScheduler.SHARED;
+
+    // The name for the I/O
+    String ioName = null;
+
+    // The Thread for this I/O, if the scheduler uses one
     Thread myThread = null;
 
-    // Should the thread be running
-    boolean threadRunning = false;
+    // Should the I/O be running
+    volatile boolean threadRunning = false;
 
     // Have we got to end of run()
     CountDownLatch latch = null;
     boolean endOfRun = false;
 
+    // Is this queued with, or being served by, a shared scheduler
+    AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    // The task a shared scheduler runs to do the I/O
+    Runnable serviceTask = null;
+
     // A work queue for read requests
     LinkedList readQueue = null;
 
+    // Has the I/O taken some read requests off the queue
+    volatile boolean servingReads = false;
+
+    // Are read requests no longer taken
+    boolean readsStopped = false;
 
-    // A work queue for write requests
-    LinkedList writeQueue = null;
+    // The IOException that stopped the background I/O, if there was one
+    AtomicReference ioFailure = new AtomicReference();
 
 
     /**
@@ -63,85 +82,141 @@ public abstract class AbstractIndexIO implements IndexInteractor,  Runnable {
     }
 
     /**
-     * Initialize the thread
-     * @param name the name of the thread
+     * Set the IOScheduler.
+     * This must be done before startThread().
+     */
+    public void setIOScheduler(IOScheduler ioScheduler) {
+	scheduler = ioScheduler;
+    }
+
+    /**
+     * Get the IOScheduler.
+     */
+    public IOScheduler getIOScheduler() {
+	return scheduler;
+    }
+
+    /**
+     * Initialize the I/O
+     * @param name the name of the I/O, which is used for any thread
      */
-    public Thread initThread(String name) {
-	myThread = new Thread(this, name);
+    public void initThread(String name) {
+	ioName = name;
 	readQueue = new LinkedList();
-	writeQueue = new LinkedList();
+	readsStopped = false;
         latch = new CountDownLatch(1);
-
-	return myThread;
     }
 
 
     /**
-     * Get the thread
+     * Get the thread, if the scheduler uses one.
      */
     public Thread getThread() {
 	return myThread;
     }
 
     /**
-     * Start the thread
+     * Start the I/O, by registering with the scheduler.
      */
-    public Thread startThread() {
-	if (myThread != null) {
+    public boolean startThread() {
+	if (ioName != null) {
 	    threadRunning = true;
             endOfRun = false;
-	    myThread.start();
-	    //System.err.println("Started Thread " + myThread);
-	    return myThread;
+	    scheduler.register(this, ioName);
+	    return true;
 	} else {
-	    return null;
+	    return false;
 	}
     }
 
     /**
-     * Stop the thread
+     * Stop the I/O.
+     * @return false if the I/O was never started
      */
-    public Thread stopThread() {
-	if (myThread != null) {
-	    //myThread.stop();
-
+    public boolean stopThread() {
+	if (ioName != null) {
 	    threadRunning = false;
 
+	    scheduler.deregister(this);
 
-            doStop();
-
-	    //Thread retVal = myThread;
-	    //myThread = null;
-	    //return retVal;
-            return myThread;
+            return true;
 	} else {
-	    return null;
+	    return false;
 	}
     }
 
-    private void doStop() {
+    /**
+     * Is the I/O still running.
+     */
+    public boolean isRunning() {
+	return threadRunning;
+    }
+
+    /**
+     * Note that the background I/O has failed, so it does no more work.
+     * Only the first failure is kept, and it is logged once.
+     * @return true if this is the first failure
+     */
+    protected boolean ioFailed(IOException ioe) {
+	if (ioFailure.compareAndSet(null, ioe)) {
+	    System.err.println(getClass().getSimpleName() + " " + ioName + " I/O failed: " + ioe);
+	    return true;
+	} else {
+	    return false;
+	}
+    }
 
-        //System.err.println(getIndex().getName() + " About to interrupt thread " + myThread);
+    /**
+     * Get the IOException that stopped the background I/O.
+     * @return the failure, or null if the I/O has not failed
+     */
+    public IOException getIOFailure() {
+	return (IOException)ioFailure.get();
+    }
 
-        // interrupt any methods waiting for work or IO
-        myThread.interrupt();
- 
-        // join myThread if it is not finished
-        try {
-            latch.await();
-        } catch (InterruptedException ie) {
-        }
-  
+    /**
+     * Has the background I/O failed.
+     */
+    public boolean hasFailed() {
+	return ioFailure.get() != null;
+    }
 
-        //System.err.println(getClass().getSimpleName() + " " + getIndex().getName() + " Stopped Thread " + myThread);
+    /**
+     * Throw an IOException if the background I/O has failed.
+     * Once a write has failed, the files have a hole in them,
+     * so nothing more is written.
+     */
+    protected void checkIOFailure() throws IOException {
+	IOException failure = getIOFailure();
 
+	if (failure != null) {
+	    throw new IOException(getClass().getSimpleName() + " " + ioName + " an earlier write failed: " + failure.getMessage(), failure);
+	}
     }
 
     /**
-     * Is the thread still running.
+     * Tell the scheduler there is some work.
      */
-    public boolean isRunning() {
-	return threadRunning;
+    protected void scheduleWork() {
+	scheduler.schedule(this);
     }
 
+    /**
+     * Do some of the background work.
+     * This is called by a shared scheduler.
+     * @param count the most no of writes to do
+     * @return true if there is more work to do
+     */
+    public abstract boolean serviceWork(int count) throws IOException;
+
+    /**
+     * Is there some background work to do.
+     */
+    public abstract boolean hasWork();
+
+    /**
+     * Called every so often when the I/O is idle.
+     */
+    public abstract void idle();
+
 }
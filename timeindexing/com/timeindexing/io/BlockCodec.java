@@ -0,0 +1,181 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+
+
+// BlockCodec.java
+
+package com.timeindexing.io;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.DataFormatException;
+
+/**
+ * A codec for compressing the blocks of a compressed data file.
+ */
+public interface BlockCodec {
+    /**
+     * Get the ID of the codec, which is saved with each block.
+     */
+    public int getID();
+
+    /**
+     * Compress some bytes.
+     * @param raw the bytes to compress
+     * @param length the no of bytes in raw
+     * @param packed where to put the compressed bytes
+     * @return the no of compressed bytes, or -1 if
+     * they do not fit in packed
+     */
+    public int compress(byte[] raw, int length, byte[] packed);
+
+    /**
+     * Decompress some bytes.
+     * @param packed the compressed bytes
+     * @param packedLength the no of bytes in packed
+     * @param raw where to put the bytes
+     * @param rawLength the no of bytes expected
+     */
+    public void decompress(byte[] packed, int packedLength, byte[] raw, int rawLength) throws IOException;
+
+    /**
+     * No compression.
+     * This is used for a block that does not get any smaller.
+     */
+    public final static BlockCodec STORED = new BlockCodec() {
+	    public int getID() {
+		return 0;
+	    }
+
+	    public int compress(byte[] raw, int length, byte[] packed) {
+		if (length > packed.length) {
+		    return -1;
+		} else {
+		    System.arraycopy(raw, 0, packed, 0, length);
+		    return length;
+		}
+	    }
+
+	    public void decompress(byte[] packed, int packedLength, byte[] raw, int rawLength) throws IOException {
+		if (packedLength != rawLength) {
+		    throw new IOException("Stored block has " + packedLength + " bytes, expected " + rawLength);
+		}
+
+		System.arraycopy(packed, 0, raw, 0, rawLength);
+	    }
+
+	    public String toString() {
+		return "STORED";
+	    }
+	};
+
+    /**
+     * Deflate, with the default level.
+     */
+    public final static BlockCodec DEFLATE = new DeflateCodec(1, Deflater.DEFAULT_COMPRESSION, "DEFLATE");
+
+    /**
+     * Deflate, with the fastest level.
+     * This gets less compression, but is much quicker to write.
+     */
+    public final static BlockCodec FAST = new DeflateCodec(2, Deflater.BEST_SPEED, "FAST");
+
+    /**
+     * Delta and varint encoding of index records.
+     * This is used for the compact index format.
+     */
+    public final static BlockCodec RECORDS = new IndexRecordCodec();
+
+}
+
+/**
+ * A BlockCodec using Deflater and Inflater.
+ */
+class DeflateCodec implements BlockCodec {
+    int id = 0;
+    int level = 0;
+    String name = null;
+
+    /**
+     * Construct a DeflateCodec.
+     */
+    DeflateCodec(int id, int level, String name) {
+	this.id = id;
+	this.level = level;
+	this.name = name;
+    }
+
+    public int getID() {
+	return id;
+    }
+
+    public int compress(byte[] raw, int length, byte[] packed) {
+	Deflater deflater = new Deflater(level, true);
+
+	try {
+	    deflater.setInput(raw, 0, length);
+	    deflater.finish();
+
+	    int count = 0;
+
+	    while (! deflater.finished()) {
+		if (count == packed.length) {
+		    // it didn't get any smaller
+		    return -1;
+		}
+
+		count += deflater.deflate(packed, count, packed.length - count);
+	    }
+
+	    return count;
+	} finally {
+	    deflater.end();
+	}
+    }
+
+    public void decompress(byte[] packed, int packedLength, byte[] raw, int rawLength) throws IOException {
+	Inflater inflater = new Inflater(true);
+
+	try {
+	    inflater.setInput(packed, 0, packedLength);
+
+	    int count = 0;
+
+	    while (count < rawLength) {
+		int got = inflater.inflate(raw, count, rawLength - count);
+
+		if (got == 0 && (inflater.finished() || inflater.needsInput())) {
+		    throw new IOException("Compressed block is too short, got " + count + " bytes, expected " + rawLength);
+		}
+
+		count += got;
+	    }
+	} catch (DataFormatException dfe) {
+	    throw new IOException("Compressed block is corrupt: " + dfe.getMessage());
+	} finally {
+	    inflater.end();
+	}
+    }
+
+    public String toString() {
+	return name;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+
+
+// BlockDirectory.java
+
+package com.timeindexing.io;
+
+import com.timeindexing.index.IndexOpenException;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The directory of the blocks in a compressed data file.
+ * <p>
+ * For each block it has the offset of the block's first byte,
+ * as used in the index records, the offset of the compressed
+ * bytes in the data file, the compressed and uncompressed sizes,
+ * and the codec used.
+ * An entry is added to the end of the file as each block is written.
+ */
+public class BlockDirectory {
+    // The file name
+    String fileName = null;
+
+    // The file and channel
+    RandomAccessFile file = null;
+    FileChannel channel = null;
+
+    // The size of the uncompressed blocks
+    int blockSize = 0;
+
+    // The codec the blocks are written with
+    int codecID = 0;
+
+    // The entries
+    long[] starts = new long[64];
+    long[] offsets = new long[64];
+    int[] packedLengths = new int[64];
+    int[] rawLengths = new int[64];
+    int[] codecs = new int[64];
+
+    // The no of entries
+    int count = 0;
+
+    // A buffer for an entry
+    ByteBuffer entryBuf = ByteBuffer.allocate(ENTRY_SIZE);
+
+    /*
+     * The size of the header
+     */
+    final static int HEADER_SIZE = 16;
+
+    /*
+     * The size of an entry
+     */
+    final static int ENTRY_SIZE = 32;
+
+    /**
+     * Construct a BlockDirectory.
+     */
+    public BlockDirectory(String fileName) {
+	this.fileName = fileName;
+    }
+
+    /**
+     * Create the directory file.
+     */
+    public void create(BlockCodec codec, int blockSize) throws IOException {
+	this.blockSize = blockSize;
+	this.codecID = codec.getID();
+
+	file = new RandomAccessFile(fileName, "rw");
+	file.setLength(0);
+	channel = file.getChannel();
+
+	ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+	// TimeIndex Header magic
+	header.put(FileType.T);
+	header.put(FileType.I);
+	header.put(FileType.BYTE_3);
+	header.put(FileType.BLOCK_DIRECTORY);
+
+	// version major, version minor
+	header.put((byte)1);
+	header.put((byte)0);
+
+	header.putShort((short)codecID);
+	header.putInt(blockSize);
+	header.putInt(0);
+
+	header.flip();
+
+	while (header.hasRemaining()) {
+	    channel.write(header, header.position());
+	}
+    }
+
+    /**
+     * Open the directory file and read the entries.
+     * Entries for blocks that go past the end of the data file
+     * were never completely written, so they are dropped.
+     * @param readOnly should the file be opened read-only
+     * @param dataSize the size of the data file
+     */
+    public void open(boolean readOnly, long dataSize) throws IOException, IndexOpenException {
+	if (! new File(fileName).exists()) {
+	    throw new IndexOpenException("Could not find block directory: " + fileName);
+	}
+
+	file = new RandomAccessFile(fileName, readOnly ? "r" : "rw");
+	channel = file.getChannel();
+
+	ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	readFully(header, 0);
+
+	if (header.get() != FileType.T ||
+	    header.get() != FileType.I ||
+	    header.get() != FileType.BYTE_3 ||
+	    header.get() != FileType.BLOCK_DIRECTORY) {
+	    throw new IndexOpenException("File is not a time index block directory: " + fileName);
+	}
+
+	// version major, version minor
+	header.get();
+	header.get();
+
+	codecID = header.getShort();
+	blockSize = header.getInt();
+
+	// read all the entries in one go
+	long entryCount = (channel.size() - HEADER_SIZE) / ENTRY_SIZE;
+	ByteBuffer entries = ByteBuffer.allocate((int)entryCount * ENTRY_SIZE);
+	readFully(entries, HEADER_SIZE);
+
+	for (int e=0; e < entryCount; e++) {
+	    long start = entries.getLong();
+	    long offset = entries.getLong();
+	    int packed = entries.getInt();
+	    int raw = entries.getInt();
+	    int codec = entries.getInt();
+	    entries.getInt();
+
+	    if (offset + packed > dataSize) {
+		System.err.println("BlockDirectory: " + fileName + " dropped " + (entryCount - e) + " incomplete blocks");
+		break;
+	    }
+
+	    addEntry(start, offset, packed, raw, codec);
+	}
+
+	if (! readOnly) {
+	    // new entries go after the good ones
+	    file.setLength(HEADER_SIZE + (count * ENTRY_SIZE));
+	}
+    }
+
+    /**
+     * Read a buffer from the directory file.
+     */
+    protected void readFully(ByteBuffer buffer, long position) throws IOException {
+	while (buffer.hasRemaining()) {
+	    if (channel.read(buffer, position + buffer.position()) < 0) {
+		throw new IOException("Block directory too short: " + fileName);
+	    }
+	}
+
+	buffer.flip();
+    }
+
+    /**
+     * Add a block, and write its entry to the directory file.
+     * @param start the offset of the first uncompressed byte
+     * @param offset the offset of the block in the data file
+     * @param packed the no of bytes in the data file
+     * @param raw the no of uncompressed bytes
+     * @param codec the ID of the codec used
+     */
+    public synchronized void add(long start, long offset, int packed, int raw, int codec) throws IOException {
+	entryBuf.clear();
+	entryBuf.putLong(start);
+	entryBuf.putLong(offset);
+	entryBuf.putInt(packed);
+	entryBuf.putInt(raw);
+	entryBuf.putInt(codec);
+	entryBuf.putInt(0);
+	entryBuf.flip();
+
+	long position = HEADER_SIZE + (count * ENTRY_SIZE);
+
+	while (entryBuf.hasRemaining()) {
+	    channel.write(entryBuf, position + entryBuf.position());
+	}
+
+	addEntry(start, offset, packed, raw, codec);
+    }
+
+    /**
+     * Add an entry to the arrays.
+     */
+    protected void addEntry(long start, long offset, int packed, int raw, int codec) {
+	if (count == starts.length) {
+	    int newLength = starts.length * 2;
+
+	    starts = grow(starts, newLength);
+	    offsets = grow(offsets, newLength);
+	    packedLengths = grow(packedLengths, newLength);
+	    rawLengths = grow(rawLengths, newLength);
+	    codecs = grow(codecs, newLength);
+	}
+
+	starts[count] = start;
+	offsets[count] = offset;
+	packedLengths[count] = packed;
+	rawLengths[count] = raw;
+	codecs[count] = codec;
+
+	count++;
+    }
+
+    private long[] grow(long[] array, int newLength) {
+	long[] newArray = new long[newLength];
+	System.arraycopy(array, 0, newArray, 0, array.length);
+	return newArray;
+    }
+
+    private int[] grow(int[] array, int newLength) {
+	int[] newArray = new int[newLength];
+	System.arraycopy(array, 0, newArray, 0, array.length);
+	return newArray;
+    }
+
+    /**
+     * Find the block that holds an uncompressed offset.
+     * @return the block no, or -1 if the offset is not in a block
+     */
+    public synchronized int find(long position) {
+	int low = 0;
+	int high = count - 1;
+
+	while (low <= high) {
+	    int mid = (low + high) >>> 1;
+
+	    if (position < starts[mid]) {
+		high = mid - 1;
+	    } else if (position >= starts[mid] + rawLengths[mid]) {
+		low = mid + 1;
+	    } else {
+		return mid;
+	    }
+	}
+
+	return -1;
+    }
+
+    /**
+     * Get the no of blocks.
+     */
+    public synchronized int getCount() {
+	return count;
+    }
+
+    /**
+     * Get the offset of the first uncompressed byte of a block.
+     */
+    public synchronized long getStart(int block) {
+	return starts[block];
+    }
+
+    /**
+     * Get the offset of a block in the data file.
+     */
+    public synchronized long getOffset(int block) {
+	return offsets[block];
+    }
+
+    /**
+     * Get the no of bytes a block has in the data file.
+     */
+    public synchronized int getPackedLength(int block) {
+	return packedLengths[block];
+    }
+
+    /**
+     * Get the no of uncompressed bytes in a block.
+     */
+    public synchronized int getRawLength(int block) {
+	return rawLengths[block];
+    }
+
+    /**
+     * Get the ID of the codec a block was written with.
+     */
+    public synchronized int getCodecID(int block) {
+	return codecs[block];
+    }
+
+    /**
+     * Get the offset in the data file after the last block.
+     * @param empty the offset to use if there are no blocks
+     */
+    public synchronized long getFileEnd(long empty) {
+	if (count == 0) {
+	    return empty;
+	} else {
+	    return offsets[count-1] + packedLengths[count-1];
+	}
+    }
+
+    /**
+     * Get the total no of bytes in the data file for all the blocks.
+     */
+    public synchronized long getPackedSize() {
+	long total = 0;
+
+	for (int b=0; b < count; b++) {
+	    total += packedLengths[b];
+	}
+
+	return total;
+    }
+
+    /**
+     * Get the total no of uncompressed bytes in all the blocks.
+     */
+    public synchronized long getRawSize() {
+	long total = 0;
+
+	for (int b=0; b < count; b++) {
+	    total += rawLengths[b];
+	}
+
+	return total;
+    }
+
+    /**
+     * Get the size of the uncompressed blocks.
+     */
+    public int getBlockSize() {
+	return blockSize;
+    }
+
+    /**
+     * Get the ID of the codec the blocks are written with.
+     */
+    public int getCodecID() {
+	return codecID;
+    }
+
+    /**
+     * Force the directory file to stable storage.
+     */
+    public void force() throws IOException {
+	channel.force(false);
+    }
+
+    /**
+     * Close the directory file.
+     */
+    public void close() throws IOException {
+	channel.close();
+    }
+
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+
+
+// BlockStore.java
+
+package com.timeindexing.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+/**
+ * A store of bytes in a file, held as a series of blocks,
+ * each of which is encoded with a BlockCodec.
+ * <p>
+ * The bytes are addressed by the offset they would have if they
+ * were not encoded.  Appended bytes are collected into a block,
+ * and each full block is encoded and passed to the write ring of
+ * the AbstractFileIO that owns the store.  The blocks are listed in
+ * a BlockDirectory.
+ * <p>
+ * Decoded blocks are held in a small LRU cache, so reading
+ * a block piece by piece only decodes it once.
+ */
+public class BlockStore {
+    // The I/O object that owns the store
+    AbstractFileIO owner = null;
+
+    // The channel for the blocks
+    FileChannel channel = null;
+
+    // The fill buffer for the channel
+    WriteRequest fill = null;
+
+    // The directory of blocks
+    BlockDirectory directory = null;
+
+    // The codec for new blocks
+    BlockCodec codec = null;
+
+    // The block being filled
+    byte[] block = null;
+
+    // The no of bytes in the block being filled
+    int blockFill = 0;
+
+    // The offset of the block being filled
+    long blockStart = 0;
+
+    // A buffer for encoded bytes
+    byte[] packed = null;
+
+    // The offset in the file for the next block
+    long fileEnd = 0;
+
+    // The cache of decoded blocks
+    Map cache = null;
+
+    // The no of blocks in the cache
+    int cacheSize = 0;
+
+    // The no of blocks read and decoded, and the no of cache hits
+    long blockReads = 0;
+    long blockHits = 0;
+
+    /**
+     * Construct a BlockStore.
+     * @param owner the I/O object that owns the store
+     * @param channel the channel for the blocks
+     * @param fill the fill buffer for the channel
+     * @param directory the directory of blocks, already created or opened
+     * @param codec the codec for new blocks
+     * @param firstOffset the offset in the file of the first block
+     * @param cacheSize the no of decoded blocks to keep
+     */
+    public BlockStore(AbstractFileIO owner, FileChannel channel, WriteRequest fill, BlockDirectory directory, BlockCodec codec, long firstOffset, int cacheSize) {
+	this.owner = owner;
+	this.channel = channel;
+	this.fill = fill;
+	this.directory = directory;
+	this.codec = codec;
+	this.cacheSize = cacheSize;
+
+	block = new byte[directory.getBlockSize()];
+	packed = new byte[directory.getBlockSize()];
+
+	// the next block goes after the last one
+	fileEnd = directory.getFileEnd(firstOffset);
+
+	cache = new LinkedHashMap(cacheSize, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+		    return size() > BlockStore.this.cacheSize;
+		}
+	    };
+    }
+
+    /**
+     * Get the codec for a codec ID.
+     */
+    public static BlockCodec codecFor(int id) throws IOException {
+	if (id == BlockCodec.STORED.getID()) {
+	    return BlockCodec.STORED;
+	} else if (id == BlockCodec.DEFLATE.getID()) {
+	    return BlockCodec.DEFLATE;
+	} else if (id == BlockCodec.FAST.getID()) {
+	    return BlockCodec.FAST;
+	} else if (id == BlockCodec.RECORDS.getID()) {
+	    return BlockCodec.RECORDS;
+	} else {
+	    throw new IOException("Unknown block codec " + id);
+	}
+    }
+
+    /**
+     * Append some bytes.
+     * The caller must hold the lock on the owner.
+     * @param buffer the bytes
+     * @param position the offset of the first byte
+     * @return the no of bytes taken
+     */
+    public long append(ByteBuffer buffer, long position) throws IOException {
+	int length = buffer.remaining();
+
+	while (buffer.hasRemaining()) {
+	    if (blockFill == 0) {
+		// a new block starts here
+		blockStart = position + (length - buffer.remaining());
+	    }
+
+	    int todo = Math.min(buffer.remaining(), block.length - blockFill);
+
+	    buffer.get(block, blockFill, todo);
+	    blockFill += todo;
+
+	    if (blockFill == block.length) {
+		writeBlock();
+	    }
+	}
+
+	return length;
+    }
+
+    /**
+     * Encode the block being filled and write it out,
+     * even if it is not full.
+     * The caller must hold the lock on the owner.
+     */
+    public void writeBlock() throws IOException {
+	if (blockFill == 0) {
+	    return;
+	}
+
+	BlockCodec used = codec;
+	int packedLength = used.compress(block, blockFill, packed);
+
+	if (packedLength < 0) {
+	    // it didn't get any smaller
+	    used = BlockCodec.STORED;
+	    packedLength = used.compress(block, blockFill, packed);
+	}
+
+	owner.bufferedWrite(ByteBuffer.wrap(packed, 0, packedLength), channel, fill, fileEnd);
+
+	// pass it on now, so a read of the block
+	// only has to drain the write ring
+	owner.flushBuffer(fill);
+
+	directory.add(blockStart, fileEnd, packedLength, blockFill, used.getID());
+
+	// the block is likely to be read soon
+	byte[] raw = new byte[blockFill];
+	System.arraycopy(block, 0, raw, 0, blockFill);
+
+	synchronized (cache) {
+	    cache.put(Integer.valueOf(directory.getCount() - 1), raw);
+	}
+
+	fileEnd += packedLength;
+	blockStart += blockFill;
+	blockFill = 0;
+    }
+
+    /**
+     * Read some bytes.
+     */
+    public ByteBuffer read(long offset, long size) throws IOException {
+	if (size < 0) {
+	    throw new Error("BlockStore: read() can;t have size < 0");
+	} else if (size >= Integer.MAX_VALUE) {
+	    // buffers can only be so big
+	    throw new Error("BlockStore: read() has not YET implemented reading of data > " + Integer.MAX_VALUE + ". Actual size is " + size);
+	}
+
+	byte[] result = new byte[(int)size];
+
+	read(offset, result, 0, result.length);
+
+	return ByteBuffer.wrap(result);
+    }
+
+    /**
+     * Read some bytes into an array.
+     * The bytes are copied out of the decoded blocks that hold them.
+     * @param offset the offset of the first byte
+     * @param result where to put the bytes
+     * @param start where to start in result
+     * @param length the no of bytes to read
+     */
+    public void read(long offset, byte[] result, int start, int length) throws IOException {
+	int done = 0;
+
+	while (done < length) {
+	    long position = offset + done;
+	    int blockNo = directory.find(position);
+
+	    if (blockNo < 0) {
+		// it must be in the block being filled
+		done += readUnwritten(position, result, start + done, length - done);
+	    } else {
+		byte[] raw = getBlock(blockNo);
+		int from = (int)(position - directory.getStart(blockNo));
+		int count = Math.min(raw.length - from, length - done);
+
+		System.arraycopy(raw, from, result, start + done, count);
+		done += count;
+	    }
+	}
+    }
+
+    /**
+     * Get a channel for reading a region of the stored bytes.
+     * The windows it returns are copies of the decoded bytes,
+     * rather than memory mapped.
+     * @param offset the offset of the first byte
+     * @param size the no of bytes in the region
+     */
+    public DataRegionChannel openRegion(long offset, long size) {
+	final BlockStore store = this;
+
+	return new DataRegionChannel(null, offset, size) {
+		protected int readAt(ByteBuffer dst, long fileOffset) throws IOException {
+		    int length = dst.remaining();
+
+		    if (dst.hasArray()) {
+			store.read(fileOffset, dst.array(), dst.arrayOffset() + dst.position(), length);
+			dst.position(dst.position() + length);
+		    } else {
+			byte[] bytes = new byte[length];
+			store.read(fileOffset, bytes, 0, length);
+			dst.put(bytes);
+		    }
+
+		    return length;
+		}
+
+		protected ByteBuffer window(long fileOffset, int length) throws IOException {
+		    return store.read(fileOffset, length);
+		}
+	    };
+    }
+
+    /**
+     * Copy some bytes from the block being filled.
+     * @return the no of bytes copied
+     */
+    protected int readUnwritten(long position, byte[] result, int start, int length) throws IOException {
+	synchronized (owner) {
+	    int from = (int)(position - blockStart);
+
+	    if (from < 0 || from >= blockFill) {
+		// it may have just been written out
+		if (directory.find(position) >= 0) {
+		    return 0;
+		} else {
+		    throw new IOException("IO Error trying to read from offset " + position + " which is not in a block");
+		}
+	    }
+
+	    int count = Math.min(blockFill - from, length);
+
+	    System.arraycopy(block, from, result, start, count);
+
+	    return count;
+	}
+    }
+
+    /**
+     * Get a decoded block, from the cache
+     * or by reading and decoding it.
+     */
+    protected byte[] getBlock(int blockNo) throws IOException {
+	Integer key = Integer.valueOf(blockNo);
+	byte[] raw = null;
+
+	synchronized (cache) {
+	    raw = (byte[])cache.get(key);
+
+	    if (raw != null) {
+		blockHits++;
+		return raw;
+	    }
+	}
+
+	// make sure the block is in the file
+	if (! owner.writeRing.isEmpty()) {
+	    owner.drainWriteQueue();
+	}
+
+	int packedLength = directory.getPackedLength(blockNo);
+	ByteBuffer buffer = ByteBuffer.allocate(packedLength);
+	long offset = directory.getOffset(blockNo);
+
+	while (buffer.hasRemaining()) {
+	    if (channel.read(buffer, offset + buffer.position()) < 0) {
+		throw new IOException("IO Error trying to read block " + blockNo + " of " + packedLength + " bytes from offset " + offset + " got " + buffer.position());
+	    }
+	}
+
+	raw = new byte[directory.getRawLength(blockNo)];
+
+	codecFor(directory.getCodecID(blockNo)).decompress(buffer.array(), packedLength, raw, raw.length);
+
+	synchronized (cache) {
+	    blockReads++;
+	    cache.put(key, raw);
+	}
+
+	return raw;
+    }
+
+    /**
+     * Get the directory of blocks.
+     */
+    public BlockDirectory getDirectory() {
+	return directory;
+    }
+
+    /**
+     * Force the directory to stable storage.
+     * The blocks are forced with the channel.
+     */
+    public void force() throws IOException {
+	directory.force();
+    }
+
+    /**
+     * Close the directory.
+     */
+    public void close() throws IOException {
+	directory.close();
+    }
+
+    /**
+     * String
+     */
+    public String toString() {
+	return codec +
+	    " blocks: " + directory.getCount() +
+	    " raw: " + directory.getRawSize() +
+	    " packed: " + directory.getPackedSize() +
+	    " block reads: " + blockReads +
+	    " cache hits: " + blockHits;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+
+
+// CompressedIndexIO.java
+
+package com.timeindexing.io;
+
+import com.timeindexing.index.StoredIndex;
+import com.timeindexing.index.IndexProperties;
+import com.timeindexing.index.IndexOpenException;
+import com.timeindexing.index.IndexCreateException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This does I/O for an Index with external data, where the
+ * data file is compressed.
+ * <p>
+ * The data of the items is collected into blocks of 'blocksize'
+ * bytes, and each full block is compressed with a BlockCodec and
+ * written to the data file.  The offsets in the index records are
+ * the offsets the data would have if it were not compressed, so
+ * the block and the offset in the block for an item are found
+ * from the block directory, which is held in a file
+ * with a .tdb extension.
+ * <p>
+ * Uncompressed blocks are held in a small LRU cache, so reading
+ * the items of a block one after the other only decompresses
+ * the block once.
+ */
+public class CompressedIndexIO extends ExternalIndexIO {
+    // The compressed data
+    BlockStore dataStore = null;
+
+    // The codec for new blocks
+    BlockCodec codec = BlockCodec.DEFLATE;
+
+    // The no of blocks in the cache
+    int blockCacheSize = BLOCK_CACHE_SIZE;
+
+    /*
+     * The default size of a block
+     */
+    final static int BLOCK_SIZE = 64 * 1024;
+
+    /*
+     * The default no of blocks in the cache
+     */
+    final static int BLOCK_CACHE_SIZE = 16;
+
+    /**
+     * Construct a CompressedIndexIO.
+     */
+    public CompressedIndexIO(StoredIndex managedIndex) {
+	super(managedIndex);
+    }
+
+    /**
+     * Operation on creation.
+     */
+    public long create(IndexProperties indexProperties) throws IOException, IndexCreateException {
+	BlockCodec setting = (BlockCodec)indexProperties.get("compression");
+	Integer size = (Integer)indexProperties.get("blocksize");
+
+	if (setting != null) {
+	    codec = setting;
+	}
+
+	setBlockCacheSize(indexProperties);
+
+	long position = super.create(indexProperties);
+
+	BlockDirectory directory = new BlockDirectory(FileUtils.resolveFileName(headerFileName, ".tdb"));
+	directory.create(codec, (size == null ? BLOCK_SIZE : size.intValue()));
+
+	// the first block goes after the data file header
+	dataStore = new BlockStore(this, dataChannel, dataFlushBuffer, directory, codec, dataAppendPosition, blockCacheSize);
+
+	return position;
+    }
+
+    /**
+     * Open an index file  to read it.
+     */
+    public long open(IndexProperties indexProperties) throws IOException, IndexOpenException {
+	setBlockCacheSize(indexProperties);
+
+	long position = super.open(indexProperties);
+
+	BlockDirectory directory = new BlockDirectory(FileUtils.resolveFileName(headerFileName, ".tdb"));
+	directory.open(headerInteractor.isReadOnly(), dataChannel.size());
+
+	codec = BlockStore.codecFor(directory.getCodecID());
+
+	// the first block goes after the data file header
+	dataStore = new BlockStore(this, dataChannel, dataFlushBuffer, directory, codec, dataChannelPosition, blockCacheSize);
+
+	return position;
+    }
+
+    /**
+     * Set the no of blocks in the cache from the property 'blockcache'.
+     */
+    protected void setBlockCacheSize(IndexProperties indexProperties) {
+	Integer size = (Integer)indexProperties.get("blockcache");
+
+	if (size != null) {
+	    blockCacheSize = size.intValue();
+	}
+    }
+
+    /**
+     * Data is not shared, as the data file holds compressed
+     * blocks rather than the data at its offsets.
+     */
+    protected void openDedupTable(IndexProperties indexProperties) {
+    }
+
+    /**
+     * Write a buffer of data.
+     * The data is copied into the block being filled,
+     * and each full block is written out.
+     */
+    protected long bufferedDataWrite(ByteBuffer buffer) throws IOException {
+	return dataStore.append(buffer, dataChannelPosition);
+    }
+
+    /**
+     * Read some data.
+     * The data is copied out of the uncompressed blocks that hold it.
+     */
+    public ByteBuffer readDataAt(long offset, long size) throws IOException {
+	return dataStore.read(offset, size);
+    }
+
+    /**
+     * Get a channel for reading some data.
+     * The windows are uncompressed copies of the data.
+     */
+    public DataRegionChannel openData(long offset, long size) throws IOException {
+	return dataStore.openRegion(offset, size);
+    }
+
+    /**
+     * Transfer some data to a channel.
+     * The data has to be decompressed, so it is not a zero-copy transfer.
+     * It is sent a window at a time.
+     */
+    public long transferData(long offset, long size, WritableByteChannel target) throws IOException {
+	DataRegionChannel region = openData(offset, size);
+	ByteBuffer buffer = null;
+	long done = 0;
+
+	while ((buffer = region.nextWindow()) != null) {
+	    while (buffer.hasRemaining()) {
+		done += target.write(buffer);
+	    }
+	}
+
+	return done;
+    }
+
+    /**
+     * Some data from the data file.
+     * The data is uncompressed, so it is not memory mapped.
+     */
+    protected ByteBuffer memoryMapData(long offset, long size) throws IOException {
+	return readDataAt(offset, size);
+    }
+
+    /**
+     * Operation on flush.
+     * The block being filled is written out first,
+     * even if it is not full.
+     */
+    public synchronized long flush() throws IOException {
+	if (dataStore != null) {
+	    dataStore.writeBlock();
+	}
+
+	return super.flush();
+    }
+
+    /**
+     * Force the files of the index to stable storage.
+     */
+    protected void forceChannels() throws IOException {
+	super.forceChannels();
+
+	dataStore.force();
+    }
+
+    /**
+     * Flush and close the files, including the block directory.
+     */
+    protected synchronized long closeFiles() throws IOException {
+	long size = super.closeFiles();
+
+	dataStore.close();
+
+	return size;
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// DataRegionChannel.java
+
+package com.timeindexing.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * A channel for reading the data of one item, which is
+ * a region of a data file.
+ * The data can be read as a channel, or as a series of
+ * memory mapped windows, so data of any size can be read
+ * without holding it all in one buffer.
+ * <p>
+ * This uses positional reads, so it does not move the position
+ * of the file channel, and many can be used at once.
+ * Closing a DataRegionChannel does not close the file channel.
+ */
+public class DataRegionChannel implements ReadableByteChannel {
+    // The file channel
+    FileChannel channel = null;
+
+    // The offset of the region in the file
+    long offset = 0;
+
+    // The size of the region
+    long size = 0;
+
+    // The position in the region
+    long position = 0;
+
+    // The size of a window
+    int windowSize = WINDOW_SIZE;
+
+    // is the channel open
+    boolean open = true;
+
+    /*
+     * The default size of a window.
+     */
+    final static int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Construct a DataRegionChannel for a region of a file channel.
+     * @param channel the channel that holds the data
+     * @param offset the offset of the data in the channel
+     * @param size the size of the data
+     */
+    public DataRegionChannel(FileChannel channel, long offset, long size) {
+	this.channel = channel;
+	this.offset = offset;
+	this.size = size;
+    }
+
+    /**
+     * Read some bytes from the current position into a buffer.
+     * @return the no of bytes read, or -1 at the end of the region
+     */
+    public int read(ByteBuffer dst) throws IOException {
+	if (! open) {
+	    throw new ClosedChannelException();
+	}
+
+	if (position >= size) {
+	    return -1;
+	}
+
+	int origLimit = dst.limit();
+
+	// don't read past the end of the region
+	if (dst.remaining() > size - position) {
+	    dst.limit(dst.position() + (int)(size - position));
+	}
+
+	int count = readAt(dst, offset + position);
+
+	dst.limit(origLimit);
+
+	if (count < 0) {
+	    throw new IOException("IO Error trying to read from offset " + (offset + position) + " which is past the end of the file");
+	}
+
+	position += count;
+
+	return count;
+    }
+
+    /**
+     * Get the next window of the data, and move the position
+     * to the end of the window.
+     * Each window is at most getWindowSize() bytes.
+     * @return the window, or null at the end of the region
+     */
+    public ByteBuffer nextWindow() throws IOException {
+	if (! open) {
+	    throw new ClosedChannelException();
+	}
+
+	if (position >= size) {
+	    return null;
+	}
+
+	int length = (int)Math.min((long)windowSize, size - position);
+
+	ByteBuffer window = window(offset + position, length);
+
+	position += length;
+
+	return window;
+    }
+
+    /**
+     * Read bytes from a file offset into a buffer.
+     */
+    protected int readAt(ByteBuffer dst, long fileOffset) throws IOException {
+	return channel.read(dst, fileOffset);
+    }
+
+    /**
+     * Get a window of bytes from a file offset.
+     */
+    protected ByteBuffer window(long fileOffset, int length) throws IOException {
+	return channel.map(FileChannel.MapMode.READ_ONLY, fileOffset, length);
+    }
+
+    /**
+     * Get the size of the data.
+     */
+    public long size() {
+	return size;
+    }
+
+    /**
+     * Get the position in the data.
+     */
+    public long position() {
+	return position;
+    }
+
+    /**
+     * Set the position in the data.
+     */
+    public DataRegionChannel position(long newPosition) {
+	if (newPosition < 0 || newPosition > size) {
+	    throw new IllegalArgumentException("DataRegionChannel: position " + newPosition + " is outside of the data size " + size);
+	}
+
+	position = newPosition;
+	return this;
+    }
+
+    /**
+     * Get the no of bytes left to read.
+     */
+    public long remaining() {
+	return size - position;
+    }
+
+    /**
+     * Get the size of a window.
+     */
+    public int getWindowSize() {
+	return windowSize;
+    }
+
+    /**
+     * Set the size of a window.
+     */
+    public DataRegionChannel setWindowSize(int windowSize) {
+	if (windowSize <= 0) {
+	    throw new IllegalArgumentException("DataRegionChannel: window size must be > 0");
+	}
+
+	this.windowSize = windowSize;
+	return this;
+    }
+
+    /**
+     * Is the channel open.
+     */
+    public boolean isOpen() {
+	return open;
+    }
+
+    /**
+     * Close the channel.
+     * The file channel stays open.
+     */
+    public void close() {
+	open = false;
+    }
+
+    /**
+     * String
+     */
+    public String toString() {
+	return "DataRegionChannel offset: " + offset + " size: " + size + " position: " + position;
+    }
+}
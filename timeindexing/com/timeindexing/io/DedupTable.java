@@ -0,0 +1,314 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// DedupTable.java
+
+package com.timeindexing.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A table of the data already in a data file, keyed by a
+ * digest of the data, so a repeated payload can point at
+ * the existing copy rather than being written again.
+ * <p>
+ * The table is bounded, and the least recently used entries
+ * are dropped first.  It is held in a file next to the index,
+ * which is written out in one go when the table is closed.
+ * The file starts with the name of the data file, so a table
+ * left over from other data is not used.
+ * Each entry is a SHA-256 digest, a size, and an offset.
+ */
+public class DedupTable {
+    // the file name
+    String fileName = null;
+
+    // the name of the data file the offsets are in
+    String dataFileName = null;
+
+    // the most entries to keep
+    int capacity = 0;
+
+    // digest and size -> offset, in least recently used order
+    LinkedHashMap table = null;
+
+    // makes the digests
+    MessageDigest digester = null;
+
+    // have entries been added since the table was read
+    boolean changed = false;
+
+    // the no of payloads that were found in the table
+    long hits = 0;
+
+    /*
+     * The default no of entries.
+     */
+    public final static int DEFAULT_CAPACITY = 16384;
+
+    /*
+     * Data smaller than this is always written,
+     * as an entry costs more than it saves.
+     */
+    final static int MIN_SIZE = 16;
+
+    /*
+     * The size of a digest.
+     */
+    final static int DIGEST_SIZE = 32;
+
+    /*
+     * The size of an entry in the file.
+     */
+    final static int ENTRY_SIZE = DIGEST_SIZE + 8 + 8;
+
+    /**
+     * Construct a DedupTable for a named file.
+     * @param dataFileName the name of the data file
+     * @param capacity the most entries to keep
+     */
+    public DedupTable(String fileName, String dataFileName, int capacity) {
+	this.fileName = fileName;
+	this.dataFileName = dataFileName;
+	this.capacity = Math.max(1, capacity);
+
+	final int maxEntries = this.capacity;
+
+	table = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+		    return size() > maxEntries;
+		}
+	    };
+
+	try {
+	    digester = MessageDigest.getInstance("SHA-256");
+	} catch (NoSuchAlgorithmException nsae) {
+	    throw new Error("DedupTable: no SHA-256 digest available");
+	}
+    }
+
+    /**
+     * Open the table, reading any entries in the file.
+     * Entries for data past the end of the data file are dropped,
+     * and so is a table for another data file.
+     * The file is made if it does not exist, as it shows
+     * that items in the data file may share data.
+     * @param dataLength the length of the data file
+     * @return the no of entries read
+     */
+    public synchronized int open(long dataLength) throws IOException {
+	table.clear();
+	changed = false;
+
+	File tableFile = new File(fileName);
+
+	if (! tableFile.exists()) {
+	    tableFile.createNewFile();
+	    return 0;
+	}
+
+	RandomAccessFile file = new RandomAccessFile(tableFile, "r");
+
+	try {
+	    FileChannel channel = file.getChannel();
+
+	    if (channel.size() == 0) {
+		return 0;
+	    }
+
+	    String tableDataName = file.readUTF();
+
+	    if (! tableDataName.equals(dataFileName)) {
+		System.err.println("DedupTable: " + fileName + " is for " + tableDataName + " not " + dataFileName);
+
+		// write out an empty table when closed
+		changed = true;
+		return 0;
+	    }
+
+	    long start = file.getFilePointer();
+
+	    // only read whole entries
+	    long count = (channel.size() - start) / ENTRY_SIZE;
+	    ByteBuffer entries = ByteBuffer.allocate((int)(count * ENTRY_SIZE));
+
+	    while (entries.hasRemaining()) {
+		if (channel.read(entries, start + entries.position()) < 0) {
+		    break;
+		}
+	    }
+
+	    entries.flip();
+
+	    while (entries.remaining() >= ENTRY_SIZE) {
+		byte[] key = new byte[DIGEST_SIZE + 8];
+		entries.get(key);
+		long offset = entries.getLong();
+
+		long size = ByteBuffer.wrap(key).getLong(DIGEST_SIZE);
+
+		if (offset >= 0 && size > 0 && offset + size <= dataLength) {
+		    table.put(ByteBuffer.wrap(key), Long.valueOf(offset));
+		}
+	    }
+	} finally {
+	    file.close();
+	}
+
+	return table.size();
+    }
+
+    /**
+     * Get the offset of a payload that is already in the data file.
+     * If it is not there, the payload is added to the table
+     * at the given offset, where it is about to be written.
+     * @param payload the data, from its position to its limit
+     * @param offset where the data will be written if it is new
+     * @return the offset of the existing copy, or offset
+     * if the data has to be written
+     */
+    public synchronized long offsetOf(ByteBuffer payload, long offset) {
+	int size = payload.remaining();
+
+	if (size < MIN_SIZE) {
+	    return offset;
+	}
+
+	ByteBuffer key = keyOf(payload);
+
+	Long existing = (Long)table.get(key);
+
+	if (existing != null) {
+	    hits++;
+	    return existing.longValue();
+	} else {
+	    table.put(key, Long.valueOf(offset));
+	    changed = true;
+	    return offset;
+	}
+    }
+
+    /**
+     * Make the key for a payload, which is its digest and its size.
+     * The position of the payload is not moved.
+     */
+    protected ByteBuffer keyOf(ByteBuffer payload) {
+	int size = payload.remaining();
+
+	digester.reset();
+	digester.update(payload.duplicate());
+
+	ByteBuffer key = ByteBuffer.allocate(DIGEST_SIZE + 8);
+	key.put(digester.digest());
+	key.putLong(size);
+	key.flip();
+
+	return key;
+    }
+
+    /**
+     * Write the table to its file, if it has changed.
+     * A new file is written, and renamed over the old one,
+     * so the old table is kept if this does not finish.
+     */
+    public synchronized void close() throws IOException {
+	if (! changed) {
+	    return;
+	}
+
+	File tableFile = new File(fileName);
+	File newFile = new File(fileName + ".new");
+
+	ByteBuffer entries = ByteBuffer.allocate(table.size() * ENTRY_SIZE);
+
+	// least recently used first, so the order is kept when it is read
+	Iterator entryI = table.entrySet().iterator();
+
+	while (entryI.hasNext()) {
+	    Map.Entry entry = (Map.Entry)entryI.next();
+
+	    entries.put(((ByteBuffer)entry.getKey()).duplicate());
+	    entries.putLong(((Long)entry.getValue()).longValue());
+	}
+
+	entries.flip();
+
+	RandomAccessFile file = new RandomAccessFile(newFile, "rw");
+
+	try {
+	    FileChannel channel = file.getChannel();
+
+	    channel.truncate(0);
+
+	    file.writeUTF(dataFileName);
+
+	    long start = file.getFilePointer();
+
+	    while (entries.hasRemaining()) {
+		channel.write(entries, start + entries.position());
+	    }
+
+	    channel.force(false);
+	} finally {
+	    file.close();
+	}
+
+	Files.move(newFile.toPath(), tableFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+	changed = false;
+    }
+
+    /**
+     * Get the no of entries.
+     */
+    public synchronized int size() {
+	return table.size();
+    }
+
+    /**
+     * Get the no of payloads that were found in the table.
+     */
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    /**
+     * Get the file name of the table.
+     */
+    public String getFileName() {
+	return fileName;
+    }
+
+    /**
+     * String
+     */
+    public String toString() {
+	return "DedupTable entries: " + size() + " hits: " + getHits();
+    }
+}
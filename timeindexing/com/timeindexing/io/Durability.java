@@ -0,0 +1,64 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// Durability.java
+
+package com.timeindexing.io;
+
+
+/**
+ * An enumeration of how durable a commit of an index is.
+ */
+public interface Durability {
+    /**
+     * A commit hands the data to the operating system,
+     * but does not wait for it to get to stable storage.
+     */
+    public final static Durability NONE = new Durability() {
+	    public String toString() {
+		return "NONE";
+	    }
+	};
+
+
+    /**
+     * A background thread forces the files to stable storage
+     * every N milliseconds or every N bytes.
+     * A commit waits for the next force, which is shared by
+     * all the commits waiting for it.
+     */
+    public final static Durability GROUP = new Durability() {
+	    public String toString() {
+		return "GROUP";
+	    }
+	};
+
+
+
+    /**
+     * Every commit forces the files to stable storage.
+     */
+    public final static Durability SYNC = new Durability() {
+	    public String toString() {
+		return "SYNC";
+	    }
+	};
+
+
+
+}
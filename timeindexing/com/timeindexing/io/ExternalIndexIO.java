@@ -33,6 +33,7 @@ import com.timeindexing.index.DataAbstraction;
 import com.timeindexing.index.DataHolderObject;
 import com.timeindexing.index.DataReference;
 import com.timeindexing.index.IndexProperties;
+import com.timeindexing.index.IndexTimestampSelector;
 import com.timeindexing.index.HeaderOption;
 import com.timeindexing.index.IndexOpenException;
 import com.timeindexing.index.IndexCreateException;
@@ -44,7 +45,6 @@ import com.timeindexing.basic.Size;
 import com.timeindexing.basic.Offset;
 import com.timeindexing.time.TimestampDecoder;
 import com.timeindexing.time.Timestamp;
-import com.timeindexing.util.ByteBufferRing;
 
 import java.io.File;
 import java.io.RandomAccessFile;
@@ -53,6 +53,8 @@ import java.io.FileNotFoundException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -76,12 +78,55 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
     long dataFirstPosition = 0;
     long dataAppendPosition = 0;
     ByteBuffer dataHeaderBuf = null;
-    ByteBufferRing dataFlushBuffers = null;
+    WriteRequest dataFlushBuffer = null;
 
 
     String dataIndexName = null;
     ID dataIndexID = null;
 
+    // The reader for mapped index records, if mapped reads are on
+    MappedIndexReader mappedReader = null;
+
+    // The frames of records, for the compact index format
+    BlockStore recordStore = null;
+
+    // The table of data already in the data file, if repeated data is shared
+    DedupTable dedupTable = null;
+
+    // Can items share data in the data file.
+    // This is so if the index has a dedup table, even if it is not used now.
+    boolean sharedData = false;
+
+    /*
+     * The version of the compact index format
+     */
+    final static int COMPACT_VERSION = 2;
+
+    /*
+     * The version of the checked index format
+     */
+    final static int CHECKED_VERSION = 3;
+
+    /*
+     * The no of records in a frame of the compact index format
+     */
+    final static int FRAME_ITEMS = 64;
+
+    /*
+     * The no of decoded frames to keep
+     */
+    final static int FRAME_CACHE_SIZE = 64;
+
+    /*
+     * The no of records decoded by one task, when loading all of an index
+     */
+    final static int LOAD_RANGE_SIZE = 8192;
+
+    /*
+     * The no of ranges per thread in one batch, when loading all of an index
+     */
+    final static int LOAD_RANGES_PER_THREAD = 4;
+
     /**
      * Construct an External Index.
      */
@@ -91,8 +136,9 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 	dataHeaderBuf = ByteBuffer.allocate(HEADER_SIZE);
 	indexBufWrite = ByteBuffer.allocate(INDEX_ITEM_SIZE);
 	indexBufRead = ByteBuffer.allocate(INDEX_ITEM_SIZE);
-	indexFlushBuffers = new ByteBufferRing(4, FLUSH_SIZE);
-	dataFlushBuffers = new ByteBufferRing(8, FLUSH_SIZE);
+	writeRing = new WriteRing(WRITE_RING_SIZE, FLUSH_SIZE);
+	indexFlushBuffer = writeRing.newFillBuffer(null);
+	dataFlushBuffer = writeRing.newFillBuffer(null);
     }
 
     /**
@@ -143,6 +189,16 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 	    }
 
 
+	    // the compact and checked index formats have their own version
+	    Integer indexFormat = (Integer)indexProperties.get("indexformat");
+
+	    if (indexFormat != null && indexFormat.intValue() == COMPACT_VERSION) {
+		versionMajor = COMPACT_VERSION;
+	    } else if (indexFormat != null && indexFormat.intValue() == CHECKED_VERSION) {
+		versionMajor = CHECKED_VERSION;
+		useChecksums();
+	    }
+
 	    // deal with the headers
 	    indexFile.setLength(0);
 	    dataFile.setLength(0);
@@ -160,14 +216,30 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 
 	    dataAppendPosition = dataHeaderPosition;
 
+	    // share repeated data, if asked for
+	    openDedupTable(indexProperties);
+
 	    // flush out all the data
 	    flush();
 
+	    if (versionMajor == COMPACT_VERSION) {
+		openRecordStore();
+	    }
+
 	    // get a output thread going
+	    // set how the writer thread waits
+	    setWaitStrategy(indexProperties);
+
+	    // set who does the background I/O
+	    setIOScheduler(indexProperties);
+
 	    initThread(indexName + "-" + hashCode() + "-IOThread");
 	    startThread();
+
+	    // set up the durability of commits
+	    startDurability(indexProperties);
 	
-            System.err.println(getClass().getSimpleName() + " " + getIndex().getName() + " created Thread " + myThread);
+            System.err.println(getClass().getSimpleName() + " " + getIndex().getName() + " created I/O " + getIOScheduler());
 
 	    return indexAppendPosition;
 
@@ -222,13 +294,35 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 	// open the relevant files
 	open();
 
+	// items may share data if there is a dedup table
+	sharedData = new File(FileUtils.resolveFileName(headerFileName, ".tdh")).exists();
+
 	// read the headers
 	long indexHeaderPosition = readMetaData();
 
+	// share repeated data, if asked for
+	openDedupTable(indexProperties);
+
+	if (versionMajor == COMPACT_VERSION) {
+	    openRecordStore();
+	}
+
+	// set up mapped reads of the index records, if asked for
+	openMappedReader(indexProperties);
+
+	// set how the writer thread waits
+	setWaitStrategy(indexProperties);
+
+	// set who does the background I/O
+	setIOScheduler(indexProperties);
+
 	initThread(indexName + "-" + hashCode() + "-IOThread");
 	startThread();
 
-	System.err.println(getClass().getSimpleName() + " " + getIndex().getName() + " opened Thread " + myThread);
+	// set up the durability of commits
+	startDurability(indexProperties);
+
+	System.err.println(getClass().getSimpleName() + " " + getIndex().getName() + " opened I/O " + getIOScheduler());
 
 	return indexHeaderPosition;
     }
@@ -356,38 +450,369 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 	    // and   ID in header == ID in data 
 	    // and   name in header == name in index
 	    // and   name in header == name in data 
-	    if (headerInteractor.getID().equals(indexID) && 
-		headerInteractor.getID().equals(dataIndexID) &&
-		headerInteractor.getName().equals(indexName) &&
-		headerInteractor.getName().equals(dataIndexName)) {
-		// The values in the header match up so we
-		// must be looking in the right place.
-
-		// sync the read header with the index object
-		getIndex().syncHeader(headerInteractor);
-
-		return indexHeaderPosition;
-	    } else {
+	    if (! (headerInteractor.getID().equals(indexID) && 
+		   headerInteractor.getID().equals(dataIndexID) &&
+		   headerInteractor.getName().equals(indexName) &&
+		   headerInteractor.getName().equals(dataIndexName))) {
 		// The values in the header are different
 		// so something is wrong
 		throw new IndexOpenException("The file '" + indexFileName +
 					     "' is not an index for the data file '" +
 					     dataFileName);
 	    }
-	} else {  // There is NO data header
+	}
 
-	    // sync the read header with the index object
-	    getIndex().syncHeader(headerInteractor);
-	    
-	    return indexHeaderPosition;
+	// the checked index format can be made
+	// consistent after a crash
+	if (versionMajor == CHECKED_VERSION) {
+	    useChecksums();
+	    recover(dataHeaderPosition);
 	}
+
+	// sync the read header with the index object
+	getIndex().syncHeader(headerInteractor);
+
+	return indexHeaderPosition;
+    }
+
+    /**
+     * Use index records with checksums, for the checked index format.
+     */
+    protected void useChecksums() {
+	checksums = true;
+
+	setItemSize(RecordChecksum.CHECKED_RECORD_SIZE);
+
+	indexBufWrite = ByteBuffer.allocate(INDEX_ITEM_SIZE);
+	indexBufRead = ByteBuffer.allocate(INDEX_ITEM_SIZE);
     }
 
+    /**
+     * Recover from a crash, for the checked index format.
+     * The header and the files may not agree, if the header was
+     * written but the records were not, or the other way round.
+     * <p>
+     * The records are checked from the end of the index file back to
+     * the last one which is whole, has a good checksum, and has all
+     * of its data in the data file.  Anything after it is a torn write,
+     * and is cut off, unless the index is read-only.
+     * The header is then set from the last good record.
+     * Only the tail of the index is read, so this is quick.
+     * @param dataStart the offset of the first data in the data file
+     * @return the no of items in the index
+     */
+    protected long recover(long dataStart) throws IOException {
+	// reading moves the index position, so put it back after
+	long savedPosition = indexChannelPosition;
+
+	long dataLength = dataChannel.size();
+	long count = (indexChannel.size() - indexFirstPosition) / INDEX_ITEM_SIZE;
+	long valid = count;
+
+	long lastIndexTime = 0;
+	long lastDataTime = 0;
+	long dataEnd = dataStart;
+
+	// look back for the last good record
+	while (valid > 0) {
+	    ByteBuffer record = readIndexItem(getRecordOffset(valid - 1));
+
+	    if (isWholeRecord(record, dataLength)) {
+		lastIndexTime = record.getLong(0);
+		lastDataTime = record.getLong(8);
+		dataEnd = record.getLong(16) + record.getLong(24);
+		break;
+	    } else {
+		valid--;
+	    }
+	}
+
+	long length = headerInteractor.getLength();
+
+	if (valid != length) {
+	    System.err.println(getClass().getSimpleName() + " " + indexName + " recovered " + valid + " items, header had " + length);
+
+	    headerInteractor.setLength(valid);
+
+	    if (valid == 0) {
+		headerInteractor.setFirstOffset(new Offset(0));
+		headerInteractor.setLastOffset(new Offset(0));
+		headerInteractor.setFirstTime(Timestamp.ZERO);
+		headerInteractor.setFirstDataTime(Timestamp.ZERO);
+		headerInteractor.setLastTime(Timestamp.ZERO);
+		headerInteractor.setLastDataTime(Timestamp.ZERO);
+	    } else {
+		headerInteractor.setLastOffset(new Offset(getRecordOffset(valid - 1)));
+		headerInteractor.setLastTime(timestampDecoder.decode(lastIndexTime));
+		headerInteractor.setLastDataTime(timestampDecoder.decode(lastDataTime));
+
+		if (length == 0) {
+		    // the first item was not in the header either
+		    ByteBuffer first = readIndexItem(getRecordOffset(0));
+
+		    headerInteractor.setFirstOffset(new Offset(getRecordOffset(0)));
+		    headerInteractor.setFirstTime(timestampDecoder.decode(first.getLong(0)));
+		    headerInteractor.setFirstDataTime(timestampDecoder.decode(first.getLong(8)));
+		}
+	    }
+	}
+
+	if (! headerInteractor.isReadOnly()) {
+	    // cut off the torn tail
+	    if (indexChannel.size() > getRecordOffset(valid)) {
+		System.err.println(getClass().getSimpleName() + " " + indexName + " truncated index at " + getRecordOffset(valid));
+		indexChannel.truncate(getRecordOffset(valid));
+	    }
+
+	    // if items share data, the last record may point at
+	    // earlier data, so the end of the data is not known
+	    if (dataLength > dataEnd && ! sharedData) {
+		System.err.println(getClass().getSimpleName() + " " + indexName + " truncated data at " + dataEnd);
+		dataChannel.truncate(dataEnd);
+	    }
+
+	    if (valid != length) {
+		headerInteractor.write();
+	    }
+	}
+
+	indexChannelPosition = savedPosition;
+
+	return valid;
+    }
+
+    /**
+     * Is an index record whole.
+     * It must have a good checksum, and all of its data must
+     * be in the data file with a good checksum.
+     */
+    protected boolean isWholeRecord(ByteBuffer record, long dataLength) throws IOException {
+	if (! RecordChecksum.isValid(record, 0)) {
+	    return false;
+	}
+
+	long offset = record.getLong(16);
+	long size = record.getLong(24);
+
+	if (offset < 0 || size < 0 || offset + size > dataLength) {
+	    return false;
+	}
+
+	int dataChecksum = RecordChecksum.getDataChecksum(record, 0);
+
+	if (dataChecksum == 0) {
+	    // the data was not checked
+	    return true;
+	} else {
+	    return RecordChecksum.dataChecksum(dataChannel, offset, size) == dataChecksum;
+	}
+    }
+
+
+    /**
+     * Set up the table of data already in the data file,
+     * if the property 'dedup' is true.
+     * If it is not set, the table is used if the index has one.
+     * Then a repeated payload is not written again, and its
+     * index record points at the existing copy.
+     * The table is in a file with a .tdh extension, and
+     * holds at most 'dedupsize' entries.
+     */
+    protected void openDedupTable(IndexProperties indexProperties) throws IOException {
+	Boolean setting = (Boolean)indexProperties.get("dedup");
+
+	String tableName = FileUtils.resolveFileName(headerFileName, ".tdh");
+
+	if (creating) {
+	    // a table from an old index with this name is no use
+	    new File(tableName).delete();
+	}
+
+	if (setting == null) {
+	    // use it if it is there
+	    if (creating || ! new File(tableName).exists()) {
+		return;
+	    }
+	} else if (setting.equals(Boolean.FALSE)) {
+	    return;
+	}
+
+	if (headerInteractor.isReadOnly()) {
+	    // nothing is written, so there is nothing to share
+	    return;
+	}
+
+	Integer capacity = (Integer)indexProperties.get("dedupsize");
+
+	DedupTable table = new DedupTable(tableName, dataFileName, capacity == null ? DedupTable.DEFAULT_CAPACITY : capacity.intValue());
+
+	table.open(dataChannel.size());
+
+	dedupTable = table;
+	sharedData = true;
+    }
+
+    /**
+     * Find a copy of some data that is already in the data file,
+     * using the dedup table.
+     */
+    protected long shareData(ByteBuffer payload, long dataPosition) throws IOException {
+	if (dedupTable == null) {
+	    return dataPosition;
+	} else {
+	    return dedupTable.offsetOf(payload, dataPosition);
+	}
+    }
+
+    /**
+     * Get the dedup table, which has the no of entries
+     * and the no of payloads that were shared.
+     * @return the table, or null if the index has none,
+     * or it is closed
+     */
+    public DedupTable getDedupTable() {
+	return dedupTable;
+    }
+
+    /**
+     * Set up the frames of records for the compact index format.
+     * The frames are listed in a directory with a .tif extension.
+     */
+    protected void openRecordStore() throws IOException, IndexOpenException {
+	BlockDirectory directory = new BlockDirectory(FileUtils.resolveFileName(headerFileName, ".tif"));
+	long headerEnd = 0;
+
+	if (creating) {
+	    directory.create(BlockCodec.RECORDS, FRAME_ITEMS * INDEX_ITEM_SIZE);
+	    headerEnd = indexAppendPosition;
+	} else {
+	    directory.open(headerInteractor.isReadOnly(), indexChannel.size());
+	    headerEnd = indexFirstPosition;
+	}
+
+	// the first frame goes after the index file header
+	recordStore = new BlockStore(this, indexChannel, indexFlushBuffer, directory, BlockCodec.RECORDS, headerEnd, FRAME_CACHE_SIZE);
+    }
+
+    /**
+     * Set up mapped reads of the index records,
+     * if the property 'mappedread' is true.
+     * The compact index format is not mapped.
+     */
+    protected void openMappedReader(IndexProperties indexProperties) {
+	Boolean mappedRead = (Boolean)indexProperties.get("mappedread");
+
+	if (mappedRead != null && mappedRead.equals(Boolean.TRUE) && recordStore == null) {
+	    mappedReader = new MappedIndexReader(indexChannel, indexFirstPosition, INDEX_ITEM_SIZE);
+	}
+    }
 
     /**
      * Get the item at index position Position.
+     * If mapped reads are on, and the record is in the file,
+     * the record is decoded from the mapped index file
+     * without taking the lock on this object.
+     */
+    public ManagedIndexItem getItem(long position, boolean doLoadData) throws IOException  {
+	MappedIndexReader reader = mappedReader;
+
+	if (reader != null) {
+	    ByteBuffer window = reader.getWindow(position);
+
+	    if (window != null) {
+		ManagedIndexItem item = decodeIndexRecord(window, reader.recordIndex(position), reader.recordOffset(position), doLoadData);
+
+		// post the read item into the index
+		// this is the Index callback
+		getIndex().retrieveItem(item, position);
+
+		return item;
+	    }
+	}
+
+	return readItemAtPosition(position, doLoadData);
+    }
+
+    /**
+     * The timestamps of an item can be read by position,
+     * as the index records are all the same size.
+     */
+    public boolean canReadTimes() {
+	return true;
+    }
+
+    /**
+     * Read a timestamp of the item at a position, as a no of
+     * nanoseconds, straight from its index record.
+     * The index timestamp is the first field, and the data timestamp
+     * is the second.
+     */
+    public long readTimeNanos(long position, IndexTimestampSelector selector) throws IOException {
+	int field = (selector == IndexTimestampSelector.DATA ? 8 : 0);
+
+	MappedIndexReader reader = mappedReader;
+
+	if (reader != null) {
+	    ByteBuffer window = reader.getWindow(position);
+
+	    if (window != null) {
+		return timestampDecoder.toNanos(window.getLong(reader.recordIndex(position) + field));
+	    }
+	}
+
+	return readRecordTime(position, field);
+    }
+
+    /**
+     * Read the timestamps of a run of items, as a no of nanoseconds.
+     * All the index records are read in one go,
+     * unless they are in the mapped window.
+     */
+    public synchronized int readTimesNanos(long position, int count, IndexTimestampSelector selector, long[] times) throws IOException {
+	int field = (selector == IndexTimestampSelector.DATA ? 8 : 0);
+
+	MappedIndexReader reader = mappedReader;
+
+	if (reader != null && reader.getWindow(position) != null && reader.getWindow(position + count - 1) != null) {
+	    for (int i=0; i < count; i++) {
+		times[i] = readTimeNanos(position + i, selector);
+	    }
+
+	    return count;
+	}
+
+	ByteBuffer records = readIndexRecords(position, count);
+
+	int got = records.limit() / INDEX_ITEM_SIZE;
+
+	for (int i=0; i < got; i++) {
+	    times[i] = timestampDecoder.toNanos(records.getLong(i * INDEX_ITEM_SIZE + field));
+	}
+
+	return got;
+    }
+
+    /**
+     * Read one field of the index record at a position.
+     */
+    protected synchronized long readRecordTime(long position, int field) throws IOException {
+	// reading moves the index position, so put it back after
+	long savedPosition = indexChannelPosition;
+
+	try {
+	    ByteBuffer record = readIndexItem(getRecordOffset(position));
+
+	    return timestampDecoder.toNanos(record.getLong(field));
+	} finally {
+	    indexChannelPosition = savedPosition;
+	}
+    }
+
+    /**
+     * Get the item at index position Position,
+     * by seeking to it and reading it.
      */
-    public synchronized ManagedIndexItem getItem(long position, boolean doLoadData) throws IOException  {
+    protected synchronized ManagedIndexItem readItemAtPosition(long position, boolean doLoadData) throws IOException  {
 	// calculate the position to load from
 	long start = indexFirstPosition;
 	long determined = start + (position * INDEX_ITEM_SIZE);
@@ -402,6 +827,230 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 	return item;
     }
 
+    /**
+     * Get a run of items, starting at index position Position,
+     * and post them into the index.
+     * The index records are read in one go, and so is the data
+     * for all of them, as long as it is not too big.
+     * Each item gets a slice of the data.
+     * @return the items, which may be fewer than count
+     */
+    public synchronized ManagedIndexItem[] getItems(long position, int count, boolean doLoadData) throws IOException {
+	ByteBuffer records = readIndexRecords(position, count);
+
+	int got = records.limit() / INDEX_ITEM_SIZE;
+
+	if (got == 0) {
+	    return super.getItems(position, count, doLoadData);
+	}
+
+	ByteBuffer data = null;
+	long dataStart = 0;
+
+	if (doLoadData) {
+	    // work out where the data is
+	    long dataEnd = 0;
+	    dataStart = Long.MAX_VALUE;
+
+	    for (int i=0; i < got; i++) {
+		int base = i * INDEX_ITEM_SIZE;
+
+		if (records.getInt(base + 32) != DataType.REFERENCE_VALUE) {
+		    long offset = records.getLong(base + 16);
+		    long size = records.getLong(base + 24);
+
+		    dataStart = Math.min(dataStart, offset);
+		    dataEnd = Math.max(dataEnd, offset + size);
+		}
+	    }
+
+	    if (dataEnd > dataStart && dataEnd - dataStart <= READ_AHEAD_SIZE) {
+		data = readDataAt(dataStart, dataEnd - dataStart);
+	    }
+	}
+
+	ManagedIndexItem[] items = new ManagedIndexItem[got];
+
+	for (int i=0; i < got; i++) {
+	    ManagedIndexItem item = decodeIndexRecord(records, i * INDEX_ITEM_SIZE, getRecordOffset(position + i), doLoadData && data == null);
+
+	    if (data != null) {
+		setDataFromBuffer(item, data, dataStart);
+	    }
+
+	    // post the read item into the index
+	    getIndex().retrieveItem(item, position + i);
+
+	    items[i] = item;
+	}
+
+	return items;
+    }
+
+    /**
+     * Read a run of index records, starting at index position Position.
+     * @return a buffer with the records, which may hold fewer than count
+     */
+    protected ByteBuffer readIndexRecords(long position, int count) throws IOException {
+	long offset = getRecordOffset(position);
+	ByteBuffer records = ByteBuffer.allocate(count * INDEX_ITEM_SIZE);
+
+	if (recordStore != null) {
+	    recordStore.read(offset, records.array(), 0, records.capacity());
+	    records.position(records.capacity());
+	} else {
+	    readRecords(indexChannel, offset, records);
+	}
+
+	records.flip();
+
+	// only whole records
+	records.limit(records.limit() - (records.limit() % INDEX_ITEM_SIZE));
+
+	return records;
+    }
+
+    /**
+     * Fill a buffer with records from a channel, using positional reads.
+     * It stops at the end of the channel.
+     */
+    protected void readRecords(FileChannel channel, long offset, ByteBuffer records) throws IOException {
+	while (records.hasRemaining()) {
+	    if (channel.read(records, offset + records.position()) < 0) {
+		break;
+	    }
+	}
+    }
+
+    /**
+     * Load all of the items.
+     * The records are decoded in parallel, a batch at a time.
+     * Each batch of records is mapped, and split into ranges which
+     * are decoded on a ForkJoinPool into one array.
+     * The array is then posted into the index in one go.
+     * Small indexes are loaded one item at a time.
+     * @return the position in the index after loading all the items
+     */
+    protected long loadAll(boolean doLoadData) throws IOException {
+	long itemCount = headerInteractor.getLength();
+
+	if (itemCount < LOAD_RANGE_SIZE * 2) {
+	    return super.loadAll(doLoadData);
+	}
+
+	ForkJoinPool pool = new ForkJoinPool();
+	int batchSize = LOAD_RANGE_SIZE * LOAD_RANGES_PER_THREAD * pool.getParallelism();
+	long position = 0;
+
+	try {
+	    while (position < itemCount) {
+		int count = (int)Math.min((long)batchSize, itemCount - position);
+
+		ByteBuffer records = mapIndexRecords(position, count);
+
+		int got = records.limit() / INDEX_ITEM_SIZE;
+
+		if (got == 0) {
+		    throw new IOException("ExternalIndexIO: loadAll() found no index record at position " + position + " of " + itemCount);
+		}
+
+		ManagedIndexItem[] items = new ManagedIndexItem[got];
+
+		pool.invoke(new RecordDecoder(records, position, items, 0, got, doLoadData));
+
+		// post the read items into the index
+		// this is the Index callback
+		getIndex().retrieveItems(items, position);
+
+		position += got;
+	    }
+	} catch (RuntimeException re) {
+	    // a task failed to read some data
+	    for (Throwable t = re; t != null; t = t.getCause()) {
+		if (t instanceof IOException) {
+		    throw (IOException)t;
+		}
+	    }
+
+	    throw re;
+	} finally {
+	    pool.shutdown();
+	}
+
+	indexChannelPosition = getRecordOffset(itemCount);
+
+	return indexChannelPosition;
+    }
+
+    /**
+     * Get a run of index records, starting at index position Position,
+     * for loading.
+     * Records in the index file are memory mapped,
+     * and those in frames are read.
+     * @return a buffer with the records, which may hold fewer than count
+     */
+    protected ByteBuffer mapIndexRecords(long position, int count) throws IOException {
+	if (recordStore != null) {
+	    return readIndexRecords(position, count);
+	}
+
+	long offset = getRecordOffset(position);
+	long size = Math.min((long)count * INDEX_ITEM_SIZE, indexChannel.size() - offset);
+
+	if (size < INDEX_ITEM_SIZE) {
+	    return ByteBuffer.allocate(0);
+	}
+
+	// only whole records
+	size -= size % INDEX_ITEM_SIZE;
+
+	return indexChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+    /**
+     * Decode a range of records in a buffer into an array of items.
+     * A range that is too big is split in two, and
+     * the halves are decoded in parallel.
+     * Record i of the buffer is at index position first + i,
+     * and goes into slot i of the items.
+     */
+    class RecordDecoder extends RecursiveAction {
+	private static final long serialVersionUID = 3209134681739478821L;
+
+	ByteBuffer records;
+	long first;
+	ManagedIndexItem[] items;
+	int start;
+	int end;
+	boolean doLoadData;
+
+	RecordDecoder(ByteBuffer records, long first, ManagedIndexItem[] items, int start, int end, boolean doLoadData) {
+	    this.records = records;
+	    this.first = first;
+	    this.items = items;
+	    this.start = start;
+	    this.end = end;
+	    this.doLoadData = doLoadData;
+	}
+
+	protected void compute() {
+	    if (end - start > LOAD_RANGE_SIZE) {
+		int middle = (start + end) >>> 1;
+
+		invokeAll(new RecordDecoder(records, first, items, start, middle, doLoadData),
+			  new RecordDecoder(records, first, items, middle, end, doLoadData));
+	    } else {
+		try {
+		    for (int i=start; i < end; i++) {
+			items[i] = decodeIndexRecord(records, i * INDEX_ITEM_SIZE, getRecordOffset(first + i), doLoadData);
+		    }
+		} catch (IOException ioe) {
+		    throw new RuntimeException(ioe);
+		}
+	    }
+	}
+    }
+
     /**
      * Align the index for an append of the Data
      */
@@ -412,6 +1061,81 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 	return dataChannelPosition; 
     }
 
+    /**
+     * Write the contents of a batch of items.
+     * All the index records are put into one buffer, which is
+     * written in one go.  The data of each item is passed on
+     * as it is, so small ones are coalesced and big ones are not copied.
+     */
+    public synchronized long writeItems(ManagedIndexItem[] items) throws IOException {
+	for (int i=0; i < items.length; i++) {
+	    if (isStreamed(items[i])) {
+		// data from a channel is written one item at a time
+		long count = 0;
+
+		for (int j=0; j < items.length; j++) {
+		    count += super.writeItem(items[j]);
+		}
+
+		return count;
+	    }
+	}
+
+	// where are we in the files
+	long currentIndexPosition = alignForIndexItem();
+	long currentDataPosition = alignForData();
+
+	ByteBuffer records = ByteBuffer.allocate(items.length * INDEX_ITEM_SIZE);
+	ByteBuffer[] payloads = new ByteBuffer[items.length];
+	long dataPosition = currentDataPosition;
+
+	for (int i=0; i < items.length; i++) {
+	    ManagedFileIndexItem item = (ManagedFileIndexItem)items[i];
+
+	    addToTimeColumns(item);
+
+	    payloads[i] = getPayload(item);
+
+	    // the data may already be in the file
+	    long itemDataPosition = dataPosition;
+
+	    if (! item.isReference()) {
+		itemDataPosition = shareData(payloads[i], dataPosition);
+	    }
+
+	    // tell the IndexItem where its index and data are
+	    item.setIndexOffset(new Offset(currentIndexPosition + (i * INDEX_ITEM_SIZE)));
+	    item.setDataOffset(new Offset(itemDataPosition));
+
+	    encodeIndexRecord(records, item, itemDataPosition);
+
+	    if (itemDataPosition == dataPosition) {
+		dataPosition += payloads[i].remaining();
+	    } else {
+		// there is no need to write it
+		payloads[i] = null;
+	    }
+	}
+
+	records.flip();
+
+	// write the index records
+	long count = bufferedIndexWrite(records);
+
+	indexChannelPosition += records.limit();
+
+	indexAppendPosition = indexChannelPosition;
+
+	// write the data
+	for (int i=0; i < items.length; i++) {
+	    if (payloads[i] != null) {
+		count += processData(payloads[i]);
+	    }
+	}
+
+	return count;
+    }
+
     /**
      * Processing of the idnex item.
      */
@@ -442,37 +1166,46 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 
     /**
      * Write a buffer of index items.
+     * For the compact index format they are added to the current frame.
      */
     protected long bufferedIndexWrite(ByteBuffer buffer) throws IOException {
-	return bufferedWrite(buffer, indexChannel, indexFlushBuffers);
+	if (recordStore != null) {
+	    return recordStore.append(buffer, indexChannelPosition);
+	} else {
+	    return bufferedWrite(buffer, indexChannel, indexFlushBuffer, indexChannelPosition);
+	}
     }
 
-
     /**
-     * Write a buffer of data.
+     * Read an IndexItem given an offset.
+     * For the compact index format the record is
+     * decoded from the frame that holds it.
+     * @param offset the byte offset in the file to start reading an item from
      */
-    protected long bufferedDataWrite(ByteBuffer buffer) throws IOException {
-	return bufferedWrite(buffer, dataChannel, dataFlushBuffers);
+    public ByteBuffer readIndexItem(long offset) throws IOException {
+	if (recordStore != null) {
+	    // clear the index buf
+	    indexBufRead.clear();
+
+	    recordStore.read(offset, indexBufRead.array(), 0, INDEX_ITEM_SIZE);
+
+	    // update indexChannelPosition
+	    indexChannelPosition = offset + INDEX_ITEM_SIZE;
+
+	    return indexBufRead;
+	} else {
+	    return super.readIndexItem(offset);
+	}
     }
 
 
     /**
-     * Actually read in the data.
+     * Write a buffer of data.
      */
-    protected long readDataIntoBuffer(ByteBuffer buffer, long size) throws IOException {
-	long readCount = 0;
-
-	// read the data of index item
-	if ((readCount = dataChannel.read(buffer)) != size) {
-	    throw new IOException("Index Item Data too short: position = " +
-				  dataChannel.position() + " expected " +
-				  size + " got read count = " + readCount);
-	}
-	dataChannelPosition += readCount;
+    protected long bufferedDataWrite(ByteBuffer buffer) throws IOException {
+	return bufferedWrite(buffer, dataChannel, dataFlushBuffer, dataChannelPosition);
+    }
 
-	return readCount;
-    }	
-    
 
     /**
      * Memory map some data from a channel.
@@ -481,28 +1214,28 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 	return dataChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
     }
     
-   /**
-     * Read some data, given a DataReference
-     * and return it as a DataHolderObject.
+    /**
+     * Get the channel that holds the data,
+     * for positional reads.
      */
-    public synchronized DataHolderObject convertDataReference(DataReference dataReference) {
-	try { 
-	    ByteBuffer rawData = readData(dataReference);
-
-	    //if (rawData.limit() != dataReference.getSize().value()) {
-	    //	System.err.println("ExternalIndexIO: convertDataReference failed " + dataReference.getSize() + " != " + rawData.limit());
-	    //}
-
-	    return new DataHolderObject(rawData, dataReference.getSize());
+    protected FileChannel getDataReadChannel() {
+	return dataChannel;
+    }
 
-	    
 
- 	} catch (IOException ioe) {
-	    ioe.printStackTrace();
-	    return null;
+    /**
+     * Force the files of the index to stable storage.
+     */
+    protected void forceChannels() throws IOException {
+	indexChannel.force(false);
+	dataChannel.force(false);
+	headerInteractor.force();
+	forceTimeColumns();
+
+	if (recordStore != null) {
+	    recordStore.force();
 	}
-   }
-
+    }
 
     /**
      * Seek to a certain position.
@@ -546,15 +1279,17 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
     public synchronized long flush() throws IOException {
 	long written = 0;
 
+	// the current frame is written out, even if it is not full
+	if (recordStore != null) {
+	    recordStore.writeBlock();
+	}
+
 	// flush out any reaming data
-	ByteBuffer indexBuffer = indexFlushBuffers.current();
-	indexFlushBuffers.lock();
-	written += flushBuffer(indexChannel, indexBuffer, indexFlushBuffers);
+	written += flushBuffer(indexFlushBuffer);
 
-	ByteBuffer dataBuffer = dataFlushBuffers.current();
-	dataFlushBuffers.lock();
-	written += flushBuffer(dataChannel, dataBuffer, dataFlushBuffers);
+	written += flushBuffer(dataFlushBuffer);
 
+	flushTimeColumns();
 
 	// flush the header
 	headerInteractor.flush();
@@ -566,7 +1301,19 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
      * Operation on close
      * @return the size of the index
      */
-    public synchronized long close() throws IOException {
+    public long close() throws IOException {
+	// stop the group syncer and the reads before getting the lock
+	stopGroupSyncer();
+	stopReads();
+
+	return closeFiles();
+    }
+
+    /**
+     * Flush and close the files.
+     * @return the size of the index
+     */
+    protected synchronized long closeFiles() throws IOException {
 	long size = -1;
 
 	// flush out any reaming data
@@ -575,21 +1322,40 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 	//System.err.println("ExternalIndexIO: at close wrote = " + lastWrite);
 
 	drainWriteQueue();
+
+	// make it durable
+	finalSync();
 	
 	size = indexChannel.size();
 	
 	//System.err.println("ExternalIndexIO: size at close = " + size);
 
+	if (mappedReader != null) {
+	    mappedReader.close();
+	    mappedReader = null;
+	}
+
 	indexChannel.close();
 	dataChannel.close();
 
+	closeTimeColumns();
+
+	if (dedupTable != null) {
+	    dedupTable.close();
+	    dedupTable = null;
+	}
+
+	if (recordStore != null) {
+	    recordStore.close();
+	}
+
 
 	// close the header
         headerInteractor.close();
 
 	// end thread
-	if (stopThread() == null) {
-	    System.err.println("Thread is null?");
+	if (! stopThread()) {
+	    System.err.println("I/O not started?");
 	} 
 
         System.err.println(getClass().getSimpleName() + " " + getIndex().getName() + " closed ");
@@ -727,6 +1493,12 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 	//System.err.println("Data append position = " + dataChannelPosition);
 	dataAppendPosition = dataChannelPosition;
 
+	if (sharedData) {
+	    // the last item read may point at earlier data,
+	    // so append after everything in the data file
+	    dataAppendPosition = Math.max(dataAppendPosition, dataChannel.size());
+	}
+
 	return true;
     }
 
@@ -753,9 +1525,15 @@ public class ExternalIndexIO extends AbstractFileIO implements IndexFileInteract
 
 	    // work out append position
 	    // from index data offset + data size
-	    long indexAppendPoint = lastOffset.value() + headerInteractor.getItemSize();
+	    long indexAppendPoint = lastOffset.value() + INDEX_ITEM_SIZE;
 	    long dataAppendPoint = itemM.getDataOffset().value() + itemM.getDataSize().value();
 
+	    if (sharedData) {
+		// the last item may point at earlier data,
+		// so append after everything in the data file
+		dataAppendPoint = Math.max(dataAppendPoint, dataChannel.size());
+	    }
+
 	    // set append position
 	    indexAppendPosition = indexAppendPoint;
 	    dataAppendPosition = dataAppendPoint;
@@ -55,6 +55,16 @@ public interface FileType {
      */
     public final byte ANNOTATIONS = 0x06;
 
+    /**
+     * A segment manifest file
+     */
+    public final byte SEGMENT_MANIFEST = 0x07;
+
+    /**
+     * A block directory file, for compressed data
+     */
+    public final byte BLOCK_DIRECTORY = 0x08;
+
 
     /**
      * T
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// GroupSyncer.java
+
+package com.timeindexing.io;
+
+import java.io.IOException;
+import java.util.TreeMap;
+import java.util.Map;
+
+/**
+ * Does group syncs for an index with Durability.GROUP.
+ * A thread syncs the index as soon as a committer is waiting,
+ * and all the committers that arrive while a sync is in progress
+ * share the next one.
+ * Uncommitted writes are synced every N milliseconds, or
+ * sooner if N bytes have been written since the last sync.
+ */
+class GroupSyncer implements Runnable {
+    // The interactor to sync
+    AbstractFileIO interactor = null;
+
+    // The time between syncs, in milliseconds
+    long syncInterval = 0;
+
+    // The no of bytes that causes an early sync
+    long syncBytes = 0;
+
+    // The thread
+    Thread myThread = null;
+
+    // Should the thread be running
+    boolean running = false;
+
+    // The no of sync requests
+    long requested = 0;
+
+    // The request no covered by the last sync
+    long synced = 0;
+
+    // The no of bytes written since the last sync
+    long pendingBytes = 0;
+
+    // The no of committers waiting for a sync
+    int waiting = 0;
+
+    // The failed syncs, keyed by the last request they covered.
+    // Each value is a Failure, so a committer only sees the
+    // failure of the sync that covered its own request.
+    TreeMap failures = new TreeMap();
+
+    /*
+     * The default time between syncs, in milliseconds
+     */
+    final static long SYNC_INTERVAL = 100;
+
+    /*
+     * The default no of bytes between syncs
+     */
+    final static long SYNC_BYTES = 1024 * 1024;
+
+    /**
+     * Construct a GroupSyncer.
+     */
+    GroupSyncer(AbstractFileIO interactor, long syncInterval, long syncBytes) {
+	this.interactor = interactor;
+	this.syncInterval = syncInterval;
+	this.syncBytes = syncBytes;
+    }
+
+    /**
+     * Start the thread.
+     */
+    synchronized void start(String name) {
+	running = true;
+	myThread = new Thread(this, name);
+	myThread.setDaemon(true);
+	myThread.start();
+    }
+
+    /**
+     * Stop the thread.
+     * Any waiting committers are released.
+     */
+    void stop() {
+	synchronized (this) {
+	    running = false;
+	    notifyAll();
+	}
+
+	try {
+	    myThread.join();
+	} catch (InterruptedException ie) {
+	}
+    }
+
+    /**
+     * Note that some bytes have been written.
+     */
+    synchronized void addBytes(long count) {
+	pendingBytes += count;
+
+	if (pendingBytes >= syncBytes) {
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Wait for a sync that covers everything written so far.
+     */
+    void awaitSync() throws IOException {
+	boolean covered = false;
+
+	synchronized (this) {
+	    requested++;
+	    waiting++;
+
+	    long ticket = requested;
+
+	    try {
+		// wake up the syncer
+		notifyAll();
+
+		while (running && synced < ticket) {
+		    try {
+			wait();
+		    } catch (InterruptedException ie) {
+			throw new IOException("Interrupted waiting for sync");
+		    }
+		}
+
+		covered = synced >= ticket;
+
+		if (covered) {
+		    // did the sync that covered this request fail
+		    Map.Entry entry = failures.ceilingEntry(Long.valueOf(ticket));
+
+		    if (entry != null && ((Failure)entry.getValue()).first <= ticket) {
+			throw ((Failure)entry.getValue()).exception;
+		    }
+		}
+	    } finally {
+		waiting--;
+
+		// later requests are never covered by these failures
+		if (waiting == 0) {
+		    failures.clear();
+		}
+	    }
+	}
+
+	if (!covered) {
+	    // the syncer stopped before syncing this request,
+	    // so do the sync here, outside the lock, as the
+	    // sync needs to drain the write queue
+	    interactor.sync();
+	}
+    }
+
+    /**
+     * The Thread run method.
+     */
+    public void run() {
+	while (true) {
+	    long first = 0;
+	    long target = 0;
+
+	    synchronized (this) {
+		if (running && requested == synced && pendingBytes < syncBytes) {
+		    try {
+			wait(syncInterval);
+		    } catch (InterruptedException ie) {
+		    }
+		}
+
+		if (!running) {
+		    break;
+		}
+
+		if (requested == synced && pendingBytes == 0) {
+		    // nothing to do
+		    continue;
+		}
+
+		// this sync covers all the requests so far
+		first = synced + 1;
+		target = requested;
+		pendingBytes = 0;
+	    }
+
+	    IOException result = null;
+
+	    try {
+		interactor.sync();
+	    } catch (IOException ioe) {
+		System.err.println("GroupSyncer: sync failed " + ioe);
+		result = ioe;
+	    }
+
+	    synchronized (this) {
+		if (result != null && target >= first && waiting > 0) {
+		    failures.put(Long.valueOf(target), new Failure(first, result));
+		}
+
+		synced = target;
+		notifyAll();
+	    }
+	}
+    }
+
+    /**
+     * A failed sync, and the first request it covered.
+     */
+    static class Failure {
+	long first;
+	IOException exception;
+
+	Failure(long first, IOException exception) {
+	    this.first = first;
+	    this.exception = exception;
+	}
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// IOScheduler.java
+
+package com.timeindexing.io;
+
+/**
+ * An IOScheduler runs the background I/O for indexes.
+ * The index interactors are registered when they are opened,
+ * and they tell the scheduler when they have some work to do.
+ */
+public interface IOScheduler {
+    /**
+     * Start doing the background I/O for an interactor.
+     * @param name a name for the interactor, used for thread names
+     */
+    public void register(AbstractIndexIO interactor, String name);
+
+    /**
+     * Tell the scheduler that an interactor has some work to do.
+     */
+    public void schedule(AbstractIndexIO interactor);
+
+    /**
+     * Stop doing the background I/O for an interactor.
+     * This returns when any work in progress for it is finished.
+     */
+    public void deregister(AbstractIndexIO interactor);
+
+    /**
+     * A thread for each index.
+     * This was the original way of doing the I/O.
+     */
+    public final static IOScheduler THREAD = new ThreadIOScheduler();
+
+    /**
+     * A pool of threads shared by all the indexes.
+     * This is the default.
+     */
+    public final static IOScheduler SHARED = new SharedIOScheduler(Math.max(2, Runtime.getRuntime().availableProcessors()));
+}
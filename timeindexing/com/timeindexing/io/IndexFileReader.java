@@ -25,11 +25,16 @@ import com.timeindexing.index.DataReference;
 import com.timeindexing.index.DataHolderObject;
 import com.timeindexing.index.IndexProperties;
 import com.timeindexing.index.IndexOpenException;
+import com.timeindexing.index.IndexTimestampSelector;
+import com.timeindexing.time.Timestamp;
+import com.timeindexing.time.Lifetime;
 import com.timeindexing.basic.Offset;
 import com.timeindexing.basic.Position;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Future;
 
 /**
  * An interface for readers of indexes.
@@ -74,6 +79,23 @@ public interface IndexFileReader {
      */
     public ManagedIndexItem readItem(long offset, boolean withData) throws IOException;
 
+    /**
+     * Get a run of items, starting at index position Position,
+     * and post them into the index.
+     * This is used to read ahead of a sequential scan.
+     * @return the items, which may be fewer than count
+     */
+    public ManagedIndexItem[] getItems(long position, int count, boolean doLoadData) throws IOException;
+
+    /**
+     * Ask for a run of items to be read in the background.
+     * Requests waiting to be done are sorted, and joined up
+     * where they can, so they are read in one go.
+     * @param single the Future is for the first item, rather than an array
+     * @return a Future for an IndexItem or an IndexItem[]
+     */
+    public Future requestReadWork(long position, int count, boolean doLoadData, boolean single);
+
     /**
      * Read some data, given an offset and a size.
      * @param offset the byte offset in the file to start reading an item from
@@ -88,6 +110,26 @@ public interface IndexFileReader {
      */
     public ByteBuffer readData(long offset, long size) throws IOException;
 
+    /**
+     * Transfer some data straight from the file to a channel,
+     * given an offset and a size.
+     * The data is not copied into a buffer on the way.
+     * @param offset the byte offset in the file to start from
+     * @param size the number of bytes to transfer
+     * @param target the channel to write to
+     * @return the number of bytes transferred
+     */
+    public long transferData(long offset, long size, WritableByteChannel target) throws IOException;
+
+    /**
+     * Get a channel for reading some data, given an offset and a size.
+     * The data can be read in slices, or as a series of windows,
+     * so it can be bigger than one buffer.
+     * @param offset the byte offset in the file to start from
+     * @param size the number of bytes in the data
+     */
+    public DataRegionChannel openData(long offset, long size) throws IOException;
+
    /**
      * Read some data, given a DataReferenceObject
      */
@@ -99,6 +141,53 @@ public interface IndexFileReader {
      */
     public DataHolderObject convertDataReference(DataReference ref) ;
 
+    /**
+     * Get the major version of the index file,
+     * which says which format the records are in.
+     */
+    public int getVersionMajor();
+
+    /**
+     * Get the positions to search for a Timestamp, if the
+     * index can narrow down the search.
+     * @return an array of the start and end positions, or
+     * null if there is no narrowing
+     */
+    public long[] getSearchRange(Timestamp t, IndexTimestampSelector selector);
+
+    /**
+     * Open the timestamp columns of the index, if it has them,
+     * or if they are asked for.
+     */
+    public void openTimeColumns(IndexProperties indexProperties) throws IOException;
+
+    /**
+     * Search for a Timestamp in a timestamp column,
+     * between two positions.
+     * @return the position found, or -1 if there is no column to search
+     */
+    public long searchTimeColumn(Timestamp t, long start, long end, IndexTimestampSelector selector, Lifetime lifetime) throws IOException;
+
+    /**
+     * Can the timestamps of an item be read by position,
+     * straight from its index record.
+     */
+    public boolean canReadTimes();
+
+    /**
+     * Read a timestamp of the item at a position, as a no of
+     * nanoseconds, straight from its index record,
+     * without making an IndexItem.
+     */
+    public long readTimeNanos(long position, IndexTimestampSelector selector) throws IOException;
+
+    /**
+     * Read the timestamps of a run of items, starting at a position,
+     * as a no of nanoseconds, with one read of the index records.
+     * @return the no of times read, which may be fewer than count
+     */
+    public int readTimesNanos(long position, int count, IndexTimestampSelector selector, long[] times) throws IOException;
+
     /**
      * Load the index data, based on a specified LoadStyle.
      */
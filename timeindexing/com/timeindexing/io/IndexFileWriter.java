@@ -64,6 +64,13 @@ public interface IndexFileWriter {
      * Flush the  index.
      */
     public long flush() throws IOException;
+
+    /**
+     * Wait until everything flushed is on stable storage,
+     * as the durability of the index requires.
+     */
+    public boolean awaitDurable() throws IOException;
+
     /**
      * Close the  index.
      */
@@ -325,6 +325,15 @@ public class IndexHeaderIO extends IndexDecoder implements HeaderFileInteractor,
 	}
     }
 
+    /**
+     * Force the header file to stable storage.
+     */
+    public synchronized void force() throws IOException {
+	if (isOpen() && !isReadOnly()) {
+	    channel.force(false);
+	}
+    }
+
     /**
      * Operation on close
      */
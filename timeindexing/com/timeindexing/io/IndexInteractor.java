@@ -49,4 +49,9 @@ public interface IndexInteractor {
      */
     public long addItem(ManagedIndexItem item) throws IOException;
 
+    /**
+     * Add a batch of IndexItems to the index.
+     */
+    public long addItems(ManagedIndexItem[] items) throws IOException;
+
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// IndexOffsetTable.java
+
+package com.timeindexing.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A side table of longs, one per index position, held in a file.
+ * Entry n holds the byte offset of IndexItem n, so an item can be
+ * found with a single lookup rather than a scan from the first item.
+ * <p>
+ * New entries are kept in memory until flush() is called.
+ * If the file cannot be opened for writing, and it does not
+ * exist, the table is kept in memory only.
+ */
+public class IndexOffsetTable {
+    // the file name
+    String fileName = null;
+
+    // the file and channel
+    RandomAccessFile file = null;
+    FileChannel channel = null;
+
+    // is the file open for writing
+    boolean writable = false;
+
+    // how many entries are in the file
+    long persisted = 0;
+
+    // entries not yet written to the file
+    long[] pending = new long[256];
+    int pendingCount = 0;
+
+    // a buffer for reading and writing single entries
+    ByteBuffer entryBuf = ByteBuffer.allocate(8);
+
+    /**
+     * Construct an IndexOffsetTable for a named file.
+     */
+    public IndexOffsetTable(String fileName) {
+	this.fileName = fileName;
+    }
+
+    /**
+     * Open the table.
+     * @param writable should the table be opened for writing
+     * @param truncate should any existing entries be thrown away
+     * @return true if the table is backed by a file,
+     * false if it is in memory only
+     */
+    public synchronized boolean open(boolean writable, boolean truncate) throws IOException {
+	File tableFile = new File(fileName);
+
+	persisted = 0;
+	pendingCount = 0;
+	this.writable = false;
+
+	try {
+	    if (writable) {
+		file = new RandomAccessFile(tableFile, "rw");
+		this.writable = true;
+
+		if (truncate) {
+		    file.setLength(0);
+		}
+
+	    } else if (tableFile.exists()) {
+		file = new RandomAccessFile(tableFile, "r");
+	    } else {
+		file = null;
+	    }
+	} catch (FileNotFoundException fnfe) {
+	    // we can't get at the file
+	    file = null;
+	}
+
+	if (file == null) {
+	    // memory only
+	    channel = null;
+	    return false;
+	} else {
+	    channel = file.getChannel();
+
+	    // only count whole entries
+	    persisted = channel.size() / 8;
+
+	    return true;
+	}
+    }
+
+    /**
+     * Get the no of entries in the table.
+     */
+    public synchronized long getLength() {
+	return persisted + pendingCount;
+    }
+
+    /**
+     * Add an entry to the end of the table.
+     */
+    public synchronized void add(long offset) {
+	if (pendingCount == pending.length) {
+	    long[] newPending = new long[pending.length * 2];
+	    System.arraycopy(pending, 0, newPending, 0, pendingCount);
+	    pending = newPending;
+	}
+
+	pending[pendingCount] = offset;
+	pendingCount++;
+    }
+
+    /**
+     * Get the entry for a position.
+     * @return the entry, or -1 if the position is not in the table
+     */
+    public synchronized long get(long position) throws IOException {
+	if (position < 0 || position >= getLength()) {
+	    return -1;
+	} else if (position >= persisted) {
+	    return pending[(int)(position - persisted)];
+	} else {
+	    // do a positional read, so the channel position
+	    // is not disturbed
+	    entryBuf.clear();
+
+	    long entryPosition = position * 8;
+	    int readCount = 0;
+
+	    while (entryBuf.hasRemaining()) {
+		readCount = channel.read(entryBuf, entryPosition + entryBuf.position());
+
+		if (readCount < 0) {
+		    throw new IOException("IndexOffsetTable: " + fileName + " too short at entry " + position);
+		}
+	    }
+
+	    entryBuf.flip();
+
+	    return entryBuf.getLong();
+	}
+    }
+
+    /**
+     * Get the entries for a run of positions, with one read.
+     * @param position the first position
+     * @param entries where to put the entries
+     * @return the no of entries got, which stops at the end of the table
+     */
+    public synchronized int get(long position, long[] entries) throws IOException {
+	if (position < 0) {
+	    return 0;
+	}
+
+	int count = (int)Math.max(0, Math.min((long)entries.length, getLength() - position));
+	int done = 0;
+
+	if (position < persisted && count > 0) {
+	    // some are in the file
+	    int fromFile = (int)Math.min((long)count, persisted - position);
+	    ByteBuffer runBuf = ByteBuffer.allocate(fromFile * 8);
+
+	    while (runBuf.hasRemaining()) {
+		if (channel.read(runBuf, (position * 8) + runBuf.position()) < 0) {
+		    throw new IOException("IndexOffsetTable: " + fileName + " too short at entry " + (position + (runBuf.position() / 8)));
+		}
+	    }
+
+	    runBuf.flip();
+
+	    for (; done < fromFile; done++) {
+		entries[done] = runBuf.getLong();
+	    }
+	}
+
+	// the rest are pending
+	for (; done < count; done++) {
+	    entries[done] = pending[(int)(position + done - persisted)];
+	}
+
+	return count;
+    }
+
+    /**
+     * Truncate the table to a certain number of entries.
+     */
+    public synchronized void truncate(long length) throws IOException {
+	if (length >= getLength()) {
+	    return;
+	} else if (length >= persisted) {
+	    pendingCount = (int)(length - persisted);
+	} else {
+	    pendingCount = 0;
+	    persisted = length;
+
+	    if (writable) {
+		channel.truncate(length * 8);
+	    }
+	}
+    }
+
+    /**
+     * Write any pending entries to the file.
+     * @return the number of bytes written
+     */
+    public synchronized long flush() throws IOException {
+	if (!writable || pendingCount == 0) {
+	    return 0;
+	} else {
+	    ByteBuffer buffer = ByteBuffer.allocate(pendingCount * 8);
+
+	    buffer.asLongBuffer().put(pending, 0, pendingCount);
+
+	    long writePosition = persisted * 8;
+	    long written = 0;
+
+	    while (buffer.hasRemaining()) {
+		written += channel.write(buffer, writePosition + buffer.position());
+	    }
+
+	    persisted += pendingCount;
+	    pendingCount = 0;
+
+	    return written;
+	}
+    }
+
+    /**
+     * Write any pending entries, and force the file
+     * to stable storage.
+     */
+    public synchronized void force() throws IOException {
+	flush();
+
+	if (writable) {
+	    channel.force(false);
+	}
+    }
+
+    /**
+     * Close the table.
+     */
+    public synchronized void close() throws IOException {
+	flush();
+
+	if (file != null) {
+	    file.close();
+	    file = null;
+	    channel = null;
+	    writable = false;
+	}
+    }
+
+    /**
+     * Get the file name of the table.
+     */
+    public String getFileName() {
+	return fileName;
+    }
+}
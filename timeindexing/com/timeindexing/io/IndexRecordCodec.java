@@ -0,0 +1,258 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+
+
+// IndexRecordCodec.java
+
+package com.timeindexing.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A BlockCodec for a run of index records, as used by
+ * the compact index format.
+ * <p>
+ * Each record is written as a flags byte, then the two timestamps
+ * as deltas from the previous record, and the size.
+ * For an index in time order the deltas are small, so they take a
+ * few bytes as varints.  The offset of the data, the ID, the type,
+ * and the annotation are only written if they are not the expected
+ * ones, which are the previous offset plus the previous size,
+ * the previous ID plus one, the previous type, and the
+ * previous annotation.
+ */
+public class IndexRecordCodec implements BlockCodec {
+    /*
+     * The size of an index record
+     */
+    final static int RECORD_SIZE = 52;
+
+    /*
+     * The flags
+     */
+    final static int OFFSET_FLAG = 0x01;
+    final static int ID_FLAG = 0x02;
+    final static int TYPE_FLAG = 0x04;
+    final static int ANNOTATION_FLAG = 0x08;
+
+    /**
+     * Construct an IndexRecordCodec.
+     */
+    IndexRecordCodec() {
+    }
+
+    public int getID() {
+	return 3;
+    }
+
+    public int compress(byte[] raw, int length, byte[] packed) {
+	ByteBuffer in = ByteBuffer.wrap(raw, 0, length);
+
+	long prevIndexTS = 0;
+	long prevDataTS = 0;
+	long prevOffset = 0;
+	long prevSize = 0;
+	int prevType = 0;
+	long prevID = -1;
+	long prevAnnotation = 0;
+
+	int count = 0;
+
+	for (int base=0; base + RECORD_SIZE <= length; base += RECORD_SIZE) {
+	    long indexTS = in.getLong(base);
+	    long dataTS = in.getLong(base + 8);
+	    long offset = in.getLong(base + 16);
+	    long size = in.getLong(base + 24);
+	    int type = in.getInt(base + 32);
+	    long id = in.getLong(base + 36);
+	    long annotation = in.getLong(base + 44);
+
+	    int flags = 0;
+
+	    if (offset != prevOffset + prevSize) {
+		flags |= OFFSET_FLAG;
+	    }
+
+	    if (id != prevID + 1) {
+		flags |= ID_FLAG;
+	    }
+
+	    if (type != prevType) {
+		flags |= TYPE_FLAG;
+	    }
+
+	    if (annotation != prevAnnotation) {
+		flags |= ANNOTATION_FLAG;
+	    }
+
+	    // the most a record can take is the flags and 7 varints
+	    if (count + 1 + (7 * 10) > packed.length) {
+		return -1;
+	    }
+
+	    packed[count++] = (byte)flags;
+	    count = putVarLong(packed, count, indexTS - prevIndexTS);
+	    count = putVarLong(packed, count, dataTS - prevDataTS);
+	    count = putVarLong(packed, count, size);
+
+	    if ((flags & TYPE_FLAG) != 0) {
+		count = putVarLong(packed, count, type);
+	    }
+
+	    if ((flags & OFFSET_FLAG) != 0) {
+		count = putVarLong(packed, count, offset - (prevOffset + prevSize));
+	    }
+
+	    if ((flags & ID_FLAG) != 0) {
+		count = putVarLong(packed, count, id - (prevID + 1));
+	    }
+
+	    if ((flags & ANNOTATION_FLAG) != 0) {
+		count = putVarLong(packed, count, annotation);
+	    }
+
+	    prevIndexTS = indexTS;
+	    prevDataTS = dataTS;
+	    prevOffset = offset;
+	    prevSize = size;
+	    prevType = type;
+	    prevID = id;
+	    prevAnnotation = annotation;
+	}
+
+	return count;
+    }
+
+    public void decompress(byte[] packed, int packedLength, byte[] raw, int rawLength) throws IOException {
+	ByteBuffer out = ByteBuffer.wrap(raw, 0, rawLength);
+
+	long prevIndexTS = 0;
+	long prevDataTS = 0;
+	long prevOffset = 0;
+	long prevSize = 0;
+	int prevType = 0;
+	long prevID = -1;
+	long prevAnnotation = 0;
+
+	// the position in packed
+	int[] state = new int[1];
+
+	for (int base=0; base + RECORD_SIZE <= rawLength; base += RECORD_SIZE) {
+	    if (state[0] >= packedLength) {
+		throw new IOException("Compact index records too short, got " + (base / RECORD_SIZE) + " records, expected " + (rawLength / RECORD_SIZE));
+	    }
+
+	    int flags = packed[state[0]++];
+
+	    long indexTS = prevIndexTS + getVarLong(packed, packedLength, state);
+	    long dataTS = prevDataTS + getVarLong(packed, packedLength, state);
+	    long size = getVarLong(packed, packedLength, state);
+
+	    int type = prevType;
+	    long offset = prevOffset + prevSize;
+	    long id = prevID + 1;
+	    long annotation = prevAnnotation;
+
+	    if ((flags & TYPE_FLAG) != 0) {
+		type = (int)getVarLong(packed, packedLength, state);
+	    }
+
+	    if ((flags & OFFSET_FLAG) != 0) {
+		offset += getVarLong(packed, packedLength, state);
+	    }
+
+	    if ((flags & ID_FLAG) != 0) {
+		id += getVarLong(packed, packedLength, state);
+	    }
+
+	    if ((flags & ANNOTATION_FLAG) != 0) {
+		annotation = getVarLong(packed, packedLength, state);
+	    }
+
+	    out.putLong(base, indexTS);
+	    out.putLong(base + 8, dataTS);
+	    out.putLong(base + 16, offset);
+	    out.putLong(base + 24, size);
+	    out.putInt(base + 32, type);
+	    out.putLong(base + 36, id);
+	    out.putLong(base + 44, annotation);
+
+	    prevIndexTS = indexTS;
+	    prevDataTS = dataTS;
+	    prevOffset = offset;
+	    prevSize = size;
+	    prevType = type;
+	    prevID = id;
+	    prevAnnotation = annotation;
+	}
+    }
+
+    /**
+     * Put a long as a zig-zag varint.
+     * @return the position after it
+     */
+    static int putVarLong(byte[] buffer, int position, long value) {
+	long zigzag = (value << 1) ^ (value >> 63);
+
+	while ((zigzag & ~0x7FL) != 0) {
+	    buffer[position++] = (byte)((zigzag & 0x7F) | 0x80);
+	    zigzag >>>= 7;
+	}
+
+	buffer[position++] = (byte)zigzag;
+
+	return position;
+    }
+
+    /**
+     * Get a zig-zag varint.
+     * @param state holds the position, which is moved on
+     */
+    static long getVarLong(byte[] buffer, int length, int[] state) throws IOException {
+	long zigzag = 0;
+	int shift = 0;
+	int position = state[0];
+
+	while (true) {
+	    if (position >= length || shift > 63) {
+		throw new IOException("Compact index record is corrupt at " + position);
+	    }
+
+	    byte b = buffer[position++];
+
+	    zigzag |= (long)(b & 0x7F) << shift;
+
+	    if ((b & 0x80) == 0) {
+		break;
+	    }
+
+	    shift += 7;
+	}
+
+	state[0] = position;
+
+	return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    public String toString() {
+	return "RECORDS";
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// IndexSegment.java
+
+package com.timeindexing.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.nio.channels.FileChannel;
+
+/**
+ * One segment of a segmented index.
+ * A segment is a pair of files, one with the index records and
+ * one with the data, for a run of positions in the index.
+ * <p>
+ * The offsets in the index records are the offsets the index would
+ * have if it were one pair of files.  A segment knows the offset
+ * of its first index record and of its first data byte, so
+ * an offset is turned into an offset in the segment's files
+ * by taking off the base.
+ * <p>
+ * The files are opened when they are first used, and
+ * can be closed at any time, as they will be opened again
+ * when they are next used.
+ */
+public class IndexSegment {
+    // The segment no
+    int number = 0;
+
+    // The position of the first item
+    long firstPosition = 0;
+
+    // The no of items
+    long count = 0;
+
+    // The offset of the first index record
+    long indexBase = 0;
+
+    // The offset of the first data byte
+    long dataBase = 0;
+
+    // The first and last data timestamps, as held in the index records
+    long firstDataTime = 0;
+    long lastDataTime = 0;
+
+    // The first and last index timestamps, as held in the index records
+    long firstIndexTime = 0;
+    long lastIndexTime = 0;
+
+    // Has the segment been dropped
+    boolean dropped = false;
+
+    // The file names
+    String indexFileName = null;
+    String dataFileName = null;
+
+    // The files and channels
+    RandomAccessFile indexFile = null;
+    FileChannel indexChannel = null;
+    RandomAccessFile dataFile = null;
+    FileChannel dataChannel = null;
+
+    /**
+     * Construct an IndexSegment.
+     */
+    public IndexSegment(int number, long firstPosition, long indexBase, long dataBase) {
+	this.number = number;
+	this.firstPosition = firstPosition;
+	this.indexBase = indexBase;
+	this.dataBase = dataBase;
+    }
+
+    /**
+     * Get the segment no.
+     */
+    public int getNumber() {
+	return number;
+    }
+
+    /**
+     * Get the position of the first item.
+     */
+    public long getFirstPosition() {
+	return firstPosition;
+    }
+
+    /**
+     * Get the no of items.
+     */
+    public long getCount() {
+	return count;
+    }
+
+    /**
+     * Has the segment been dropped.
+     */
+    public boolean isDropped() {
+	return dropped;
+    }
+
+    /**
+     * Get the name of the index file.
+     */
+    public String getIndexFileName() {
+	return indexFileName;
+    }
+
+    /**
+     * Get the name of the data file.
+     */
+    public String getDataFileName() {
+	return dataFileName;
+    }
+
+    /**
+     * Set the names of the files.
+     */
+    void setFileNames(String indexFileName, String dataFileName) {
+	this.indexFileName = indexFileName;
+	this.dataFileName = dataFileName;
+    }
+
+    /**
+     * Note an item added to the segment, given
+     * the timestamps from its index record.
+     */
+    void addItem(long indexTime, long dataTime) {
+	if (count == 0) {
+	    firstIndexTime = indexTime;
+	    firstDataTime = dataTime;
+	}
+
+	lastIndexTime = indexTime;
+	lastDataTime = dataTime;
+
+	count++;
+    }
+
+    /**
+     * Create the files, and open them for writing.
+     */
+    synchronized void create() throws IOException {
+	indexFile = new RandomAccessFile(indexFileName, "rw");
+	indexFile.setLength(0);
+	indexChannel = indexFile.getChannel();
+
+	dataFile = new RandomAccessFile(dataFileName, "rw");
+	dataFile.setLength(0);
+	dataChannel = dataFile.getChannel();
+    }
+
+    /**
+     * Get the channel for the index file, opening it if needed.
+     */
+    synchronized FileChannel getIndexChannel() throws IOException {
+	if (indexChannel == null) {
+	    checkDropped();
+	    indexFile = openFile(indexFileName);
+	    indexChannel = indexFile.getChannel();
+	}
+
+	return indexChannel;
+    }
+
+    /**
+     * Get the channel for the data file, opening it if needed.
+     */
+    synchronized FileChannel getDataChannel() throws IOException {
+	if (dataChannel == null) {
+	    checkDropped();
+	    dataFile = openFile(dataFileName);
+	    dataChannel = dataFile.getChannel();
+	}
+
+	return dataChannel;
+    }
+
+    /**
+     * Open a file, read-write if possible.
+     */
+    private RandomAccessFile openFile(String fileName) throws IOException {
+	File file = new File(fileName);
+
+	try {
+	    if (file.canWrite()) {
+		return new RandomAccessFile(file, "rw");
+	    } else {
+		return new RandomAccessFile(file, "r");
+	    }
+	} catch (FileNotFoundException fnfe) {
+	    throw new IOException("Could not find segment file: " + fileName);
+	}
+    }
+
+    /**
+     * Throw an IOException if the segment has been dropped.
+     */
+    private void checkDropped() throws IOException {
+	if (dropped) {
+	    throw new IOException("Segment " + number + " has been dropped");
+	}
+    }
+
+    /**
+     * Force any open files to stable storage.
+     */
+    synchronized void force() throws IOException {
+	if (indexChannel != null) {
+	    indexChannel.force(false);
+	}
+
+	if (dataChannel != null) {
+	    dataChannel.force(false);
+	}
+    }
+
+    /**
+     * Close the files.
+     */
+    synchronized void close() throws IOException {
+	if (indexChannel != null) {
+	    indexChannel.close();
+	    indexChannel = null;
+	    indexFile = null;
+	}
+
+	if (dataChannel != null) {
+	    dataChannel.close();
+	    dataChannel = null;
+	    dataFile = null;
+	}
+    }
+
+    /**
+     * Close the files, delete them, and mark the segment as dropped.
+     */
+    synchronized void drop() throws IOException {
+	close();
+
+	new File(indexFileName).delete();
+	new File(dataFileName).delete();
+
+	dropped = true;
+    }
+
+    /**
+     * String
+     */
+    public String toString() {
+	return "IndexSegment " + number +
+	    " position: " + firstPosition +
+	    " count: " + count +
+	    (dropped ? " dropped" : "");
+    }
+}
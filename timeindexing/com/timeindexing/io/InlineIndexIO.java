@@ -33,6 +33,7 @@ import com.timeindexing.index.DataAbstraction;
 import com.timeindexing.index.DataHolderObject;
 import com.timeindexing.index.DataReference;
 import com.timeindexing.index.DataReferenceObject;
+import com.timeindexing.index.IndexReferenceDataHolder;
 import com.timeindexing.index.IndexProperties;
 import com.timeindexing.index.HeaderOption;
 import com.timeindexing.index.IndexOpenException;
@@ -44,7 +45,6 @@ import com.timeindexing.basic.Size;
 import com.timeindexing.basic.Offset;
 import com.timeindexing.time.TimestampDecoder;
 import com.timeindexing.time.Timestamp;
-import com.timeindexing.util.ByteBufferRing;
 
 import java.io.File;
 import java.io.RandomAccessFile;
@@ -73,6 +73,16 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
      */
     boolean trailingHeader = false;
 
+    /*
+     * The table of item offsets, so items can be got without
+     * a scan down the index.
+     */
+    IndexOffsetTable offsetTable = null;
+    String offsetTableFileName = null;
+
+    // was the index file opened for writing
+    boolean indexFileWritable = false;
+
     /**
      * Construct an Inline Index.
      */
@@ -81,7 +91,8 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 	headerBuf = ByteBuffer.allocate(HEADER_SIZE);
 	indexBufWrite = ByteBuffer.allocate(INDEX_ITEM_SIZE);
 	indexBufRead = ByteBuffer.allocate(INDEX_ITEM_SIZE);
-	indexFlushBuffers = new ByteBufferRing(8, FLUSH_SIZE);
+	writeRing = new WriteRing(WRITE_RING_SIZE, FLUSH_SIZE);
+	indexFlushBuffer = writeRing.newFillBuffer(null);
     }
 
     /**
@@ -129,10 +140,23 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 	    long position = writeHeader(FileType.INLINE_INDEX);
 	    indexAppendPosition = position;
 
+	    // start with an empty offset table
+	    offsetTable = new IndexOffsetTable(offsetTableFileName);
+	    offsetTable.open(true, true);
+
 	    flush();
 
+	    // set how the writer thread waits
+	    setWaitStrategy(indexProperties);
+
+	    // set who does the background I/O
+	    setIOScheduler(indexProperties);
+
 	    initThread(indexName + "-IOThread");
 	    startThread();
+
+	    // set up the durability of commits
+	    startDurability(indexProperties);
 	
 	    return position;
 	} catch (IndexOpenException ioe) {
@@ -248,9 +272,39 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 
 	long position = readMetaData();
 
+	// open the offset table and bring it up to date
+	// it is only written to if the index can be written to
+	File tableFile = new File(offsetTableFileName);
+	boolean tableWritable = false;
+
+	if (readOnly.equals(Boolean.FALSE) && indexFileWritable) {
+	    if (tableFile.exists()) {
+		tableWritable = tableFile.canWrite();
+	    } else {
+		tableWritable = tableFile.getAbsoluteFile().getParentFile().canWrite();
+	    }
+	}
+
+	offsetTable = new IndexOffsetTable(offsetTableFileName);
+
+	if (! offsetTable.open(tableWritable, false)) {
+	    System.err.println("InlineIndexIO: using in-memory offset table for " + indexFileName);
+	}
+
+	syncOffsetTable();
+
+	// set how the writer thread waits
+	setWaitStrategy(indexProperties);
+
+	// set who does the background I/O
+	setIOScheduler(indexProperties);
+
 	initThread(indexName + "-IOThread");
 	startThread();
 
+	// set up the durability of commits
+	startDurability(indexProperties);
+
 	return position;
     }
 
@@ -306,6 +360,11 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 	    indexFile = new RandomAccessFile(file, openMode);
 	    indexChannel = indexFile.getChannel();
 
+	    indexFileWritable = openMode.equals("rw");
+
+	    // the offset table lives next to the index file
+	    offsetTableFileName = FileUtils.removeExtension(file.getPath()) + ".tio";
+
 	    //System.err.println("InlineIndexIO: opened \"" + actualFileName + "\"");
 
 	} catch (FileNotFoundException fnfe) {
@@ -348,12 +407,106 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 
     /**
      * Get the item at index position Position.
-     * This will load upto position position.
+     * The offset of the item is found in the offset table,
+     * so the item can be read directly.
+     * If the offset table does not cover the position,
+     * this will load upto position position.
      */
     public synchronized ManagedIndexItem getItem(long position, boolean doLoadData) throws IOException  {
-	// this requires a linear scan down the index
+	if (position >= offsetTable.getLength()) {
+	    // the table might be behind the index
+	    syncOffsetTable();
+	}
+
+	long offset = offsetTable.get(position);
+
+	if (offset >= 0) {
+	    ManagedIndexItem item =  readItem(offset, doLoadData);
+
+	    // post the read item into the index
+	    // this is the Index callback
+	    getIndex().retrieveItem(item, position);
+
+	    return item;
+	} else {
+	    return scanToItem(position, doLoadData);
+	}
+    }
+
+    /**
+     * Get a run of items, starting at index position Position,
+     * and post them into the index.
+     * The records and their data are next to each other in the file,
+     * so they are read in one go, as long as they are not too big.
+     * Each item gets a slice of the data.
+     * @return the items, which may be fewer than count
+     */
+    public synchronized ManagedIndexItem[] getItems(long position, int count, boolean doLoadData) throws IOException {
+	if (position + count >= offsetTable.getLength()) {
+	    // the table might be behind the index
+	    syncOffsetTable();
+	}
+
+	long[] offsets = new long[count + 1];
+	int known = offsetTable.get(position, offsets);
+
+	long start = offsets[0];
+	long end = start;
+	int got = 0;
+
+	// an item ends where the next one starts
+	while (got + 1 < known) {
+	    long next = offsets[got + 1];
+
+	    if (next - start > READ_AHEAD_SIZE) {
+		break;
+	    }
+
+	    end = next;
+	    got++;
+	}
+
+	if (got == 0) {
+	    return super.getItems(position, count, doLoadData);
+	}
+
+	ByteBuffer buffer = readDataAt(start, end - start);
+
+	ManagedIndexItem[] items = new ManagedIndexItem[got];
 
-	IndexItem item = null;
+	for (int i=0; i < got; i++) {
+	    long offset = offsets[i];
+
+	    ManagedIndexItem item = decodeIndexRecord(buffer, (int)(offset - start), offset, false);
+
+	    if (doLoadData) {
+		setDataFromBuffer(item, buffer, start);
+	    }
+
+	    // post the read item into the index
+	    getIndex().retrieveItem(item, position + i);
+
+	    items[i] = item;
+	}
+
+	return items;
+    }
+
+    /**
+     * Get the offset of the index record for a position,
+     * from the offset table.
+     */
+    protected long getRecordOffset(long position) throws IOException {
+	return offsetTable.get(position);
+    }
+
+    /**
+     * Get the item at index position Position,
+     * by doing a linear scan down the index.
+     * This will load upto position position.
+     */
+    protected ManagedIndexItem scanToItem(long position, boolean doLoadData) throws IOException  {
+	ManagedIndexItem item = null;
 
 	//System.err.println("InlineIndexIO: getItem " + position);
 
@@ -375,7 +528,58 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 	    //System.err.println("InlineIndexIO: retrieveItem at position " + count);
 	    getIndex().retrieveItem(item, count);
 	}
-	return null;
+	return item;
+    }
+
+    /**
+     * Bring the offset table into line with the index.
+     * Entries past the end of the index are dropped, and
+     * missing entries are found by walking the index items
+     * from the last known one.
+     */
+    protected void syncOffsetTable() throws IOException {
+	long length = headerInteractor.getLength();
+
+	offsetTable.truncate(length);
+
+	long count = offsetTable.getLength();
+
+	if (count < length) {
+	    long offset = 0;
+
+	    if (count == 0) {
+		offset = indexFirstPosition;
+	    } else {
+		long lastOffset = offsetTable.get(count - 1);
+		offset = lastOffset + INDEX_ITEM_SIZE + readItemDataSize(lastOffset);
+	    }
+
+	    for (; count < length; count++) {
+		offsetTable.add(offset);
+
+		offset += INDEX_ITEM_SIZE + readItemDataSize(offset);
+	    }
+	}
+    }
+
+    /**
+     * Read the data size of the item at an offset.
+     * This does a positional read, so the channel position is not disturbed.
+     */
+    private long readItemDataSize(long offset) throws IOException {
+	// the size follows the 2 timestamps and the data offset
+	ByteBuffer sizeBuf = ByteBuffer.allocate(8);
+	long sizePosition = offset + 24;
+
+	while (sizeBuf.hasRemaining()) {
+	    if (indexChannel.read(sizeBuf, sizePosition + sizeBuf.position()) < 0) {
+		throw new IOException("InlineIndexIO: index item too short at offset " + offset);
+	    }
+	}
+
+	sizeBuf.flip();
+
+	return sizeBuf.getLong();
     }
 
     /**
@@ -390,6 +594,9 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
      * Processing of the idnex item.
      */
     protected long processIndexItem(ByteBuffer buffer) throws IOException  {
+	// remember where the item is
+	offsetTable.add(indexChannelPosition);
+
 	// write the index item
 	long count = bufferedIndexWrite(buffer);
 
@@ -418,7 +625,7 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
      * Write a buffer of index items.
      */
     protected long bufferedIndexWrite(ByteBuffer buffer) throws IOException {
-	return bufferedWrite(buffer, indexChannel, indexFlushBuffers);
+	return bufferedWrite(buffer, indexChannel, indexFlushBuffer, indexChannelPosition);
     }
 
 
@@ -426,34 +633,61 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
      * Write a buffer of data.
      */
     protected long bufferedDataWrite(ByteBuffer buffer) throws IOException {
-	return bufferedWrite(buffer, indexChannel, indexFlushBuffers);
+	return bufferedWrite(buffer, indexChannel, indexFlushBuffer, indexChannelPosition);
     }
 
 
     /**
-     * Actually read in the data.
+     * Memory map some data from a channel.
      */
-    protected long readDataIntoBuffer(ByteBuffer buffer, long size) throws IOException {
-	long readCount = 0;
+    protected ByteBuffer memoryMapData(long offset, long size) throws IOException {
+	return indexChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+    
 
-	// read the data of index item
-	if ((readCount = indexChannel.read(buffer)) != size) {
-	    throw new IOException("Index Item Data too short: position = " +
-				  indexChannel.position() + " read count = " + readCount);
-	}
-	indexChannelPosition += readCount;
+    /**
+     * Get the channel that holds the data,
+     * for positional reads.
+     * The data is inline in the index file.
+     */
+    protected FileChannel getDataReadChannel() {
+	return indexChannel;
+    }
 
-	return readCount;
-    }	
-    
+    /**
+     * Read some data, from a specified offset for a number of bytes.
+     * The read is positional, so the index channel is moved past
+     * the data, which is where the next item starts.
+     */
+    protected DataAbstraction readNormalData(long offset, long size, boolean withData) throws IOException{
+	DataAbstraction data = super.readNormalData(offset, size, withData);
+
+	seekToData(offset + size);
+
+	return data;
+    }
 
     /**
-     * Memory map some data from a channel.
+     * Read a reference, from a specified offset for a number of bytes.
+     * The index channel is moved past the reference.
      */
-    protected ByteBuffer memoryMapData(long offset, long size) throws IOException {
-	return indexChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    protected IndexReferenceDataHolder readReferenceData(long offset, long size) throws IOException{
+	IndexReferenceDataHolder data = super.readReferenceData(offset, size);
+
+	seekToData(offset + size);
+
+	return data;
+    }
+
+    /**
+     * Force the file of the index to stable storage.
+     */
+    protected void forceChannels() throws IOException {
+	indexChannel.force(false);
+	offsetTable.force();
+	headerInteractor.force();
+	forceTimeColumns();
     }
-    
 
     /**
      * Seek to a certain position.
@@ -529,9 +763,12 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 	long written = 0;
 
 	// flush out any reaming data
-	ByteBuffer indexBuffer = indexFlushBuffers.current();
-	indexFlushBuffers.lock();
-	written += flushBuffer(indexChannel, indexBuffer, indexFlushBuffers);
+	written += flushBuffer(indexFlushBuffer);
+
+	// flush the offset table
+	offsetTable.flush();
+
+	flushTimeColumns();
 
 	// flush the header
 	long headerWritten = headerInteractor.flush();
@@ -545,12 +782,27 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
      * Operation on close
      * @return the size of the index
      */
-    public synchronized long close() throws IOException {
+    public long close() throws IOException {
+	// stop the group syncer and the reads before getting the lock
+	stopGroupSyncer();
+	stopReads();
+
+	return closeFiles();
+    }
+
+    /**
+     * Flush and close the file.
+     * @return the size of the index
+     */
+    protected synchronized long closeFiles() throws IOException {
 	// flush out any reaming data
 	long lastWrite = flush();
 
 	drainWriteQueue();
 
+	// make it durable
+	finalSync();
+
 	long channelSize = indexChannel.size();
 	
 	//System.err.println("InlineIndexIO: at close wrote = " + lastWrite + ". " +  channelSize + ". Position = " + indexChannel.position());
@@ -565,6 +817,14 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 	    // sync the IO header with the index
 	    headerInteractor.syncWithIndex();
 
+	    // the header goes straight after the last item.
+	    // The writes are positional, so the channel position
+	    // has to be set, and any old header and trailer
+	    // are dropped
+	    channelSize = indexAppendPosition;
+	    indexChannel.truncate(channelSize);
+	    indexChannel.position(channelSize);
+
 	    //System.err.println("InlineIndexIO: size at close = " + channelSize + ". Position = " + indexChannel.position());
 
 	    // now copy it to the end of the indexChannel
@@ -583,6 +843,11 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 	    //System.err.println("InlineIndexIO: size at close = " + channelSize + ". Position = " + indexChannel.position());
 	}
 
+	// close the offset table
+	offsetTable.close();
+
+	closeTimeColumns();
+
 	// really close the channel
 	reallyClose();
 
@@ -596,8 +861,8 @@ public class InlineIndexIO extends AbstractFileIO implements IndexFileInteractor
 	*/
 
 	// end thread
-	if (stopThread() == null) {
-	    System.err.println("InlineIndexIO: " + indexName + " Thread is null?");
+	if (! stopThread()) {
+	    System.err.println("InlineIndexIO: " + indexName + " I/O not started?");
 	}
 
 	return channelSize;
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// MappedIndexReader.java
+
+package com.timeindexing.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps the fixed size records of an index file into memory
+ * in large windows, so that records can be got by position
+ * without seeking the channel or doing a read per record.
+ * <p>
+ * Each window holds a whole number of records.
+ * The last window is remapped when the file has grown
+ * past the end of it.
+ * The buffers handed out must only be used with absolute gets,
+ * so they can be shared by many threads.
+ */
+public class MappedIndexReader {
+    // The channel to map
+    FileChannel channel = null;
+
+    // The offset of the first record
+    long firstPosition = 0;
+
+    // The size of a record
+    int recordSize = 0;
+
+    // The no of records in a window
+    int windowRecords = 0;
+
+    // The mapped windows
+    volatile MappedByteBuffer[] windows = new MappedByteBuffer[0];
+
+    /*
+     * The default no of records in a window.
+     */
+    final static int WINDOW_RECORDS = 64 * 1024;
+
+    /**
+     * Construct a MappedIndexReader.
+     * @param channel the channel to map
+     * @param firstPosition the offset of the first record
+     * @param recordSize the size of each record
+     */
+    public MappedIndexReader(FileChannel channel, long firstPosition, int recordSize) {
+	this(channel, firstPosition, recordSize, WINDOW_RECORDS);
+    }
+
+    /**
+     * Construct a MappedIndexReader.
+     * @param channel the channel to map
+     * @param firstPosition the offset of the first record
+     * @param recordSize the size of each record
+     * @param windowRecords the no of records in each window
+     */
+    public MappedIndexReader(FileChannel channel, long firstPosition, int recordSize, int windowRecords) {
+	this.channel = channel;
+	this.firstPosition = firstPosition;
+	this.recordSize = recordSize;
+	this.windowRecords = windowRecords;
+    }
+
+    /**
+     * Get the window that holds the record for a position.
+     * The record starts at recordIndex(position) in the buffer.
+     * @return the buffer, or null if the record is not yet in the file
+     */
+    public ByteBuffer getWindow(long position) throws IOException {
+	int window = (int)(position / windowRecords);
+	int end = recordIndex(position) + recordSize;
+
+	MappedByteBuffer[] current = windows;
+
+	if (window < current.length && current[window] != null && current[window].capacity() >= end) {
+	    return current[window];
+	} else {
+	    return remap(window, end);
+	}
+    }
+
+    /**
+     * Get the index in a window of the record for a position.
+     */
+    public int recordIndex(long position) {
+	return (int)(position % windowRecords) * recordSize;
+    }
+
+    /**
+     * Get the file offset of the record for a position.
+     */
+    public long recordOffset(long position) {
+	return firstPosition + (position * recordSize);
+    }
+
+    /**
+     * Map a window, which needs to be at least a certain size.
+     */
+    private synchronized ByteBuffer remap(int window, int end) throws IOException {
+	MappedByteBuffer[] current = windows;
+
+	// someone else might have done it
+	if (window < current.length && current[window] != null && current[window].capacity() >= end) {
+	    return current[window];
+	}
+
+	long windowStart = firstPosition + ((long)window * windowRecords * recordSize);
+	long available = channel.size() - windowStart;
+
+	// only map whole records
+	long mapSize = Math.min((long)windowRecords * recordSize, (available / recordSize) * recordSize);
+
+	if (mapSize < end) {
+	    // the record is not in the file yet
+	    return null;
+	}
+
+	MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, mapSize);
+
+	MappedByteBuffer[] newWindows = current;
+
+	if (window >= current.length) {
+	    newWindows = new MappedByteBuffer[window + 1];
+	    System.arraycopy(current, 0, newWindows, 0, current.length);
+	} else {
+	    newWindows = current.clone();
+	}
+
+	newWindows[window] = mapped;
+
+	windows = newWindows;
+
+	return mapped;
+    }
+
+    /**
+     * Drop all the windows.
+     */
+    public synchronized void close() {
+	windows = new MappedByteBuffer[0];
+    }
+}
@@ -21,23 +21,87 @@
 
 package com.timeindexing.io;
 
-import com.timeindexing.basic.Position;
+import com.timeindexing.index.IndexItem;
+import java.util.Comparator;
+import java.util.concurrent.FutureTask;
 
 /**
  * A class that represents a read request in the I/O thread.
- * It holds data on the Position being requested and a Boolean
- * stating if the data should be loaded with the IndexItem.
+ * It holds data on the position and the no of items being requested,
+ * and a Boolean stating if the data should be loaded with the IndexItem.
+ * <p>
+ * It is also the Future the caller waits on.
+ * The I/O thread completes it with an IndexItem, if it is for
+ * a single item, or with an IndexItem[] otherwise.
  */
-class ReadRequest {
-    Position position;
+class ReadRequest extends FutureTask {
+    long position;
+    int count;
     boolean doLoadData;
+    boolean single;
+
+    /*
+     * Nothing is run, as the result is set by the I/O thread.
+     */
+    final static Runnable NO_OP = new Runnable() {
+	    public void run() {
+	    }
+	};
+
+    /*
+     * Sort requests by position.
+     */
+    final static Comparator BY_POSITION = new Comparator() {
+	    public int compare(Object o1, Object o2) {
+		long p1 = ((ReadRequest)o1).position;
+		long p2 = ((ReadRequest)o2).position;
+
+		return (p1 < p2 ? -1 : (p1 == p2 ? 0 : 1));
+	    }
+	};
 
     /**
      * Construct a ReadRequest.
+     * @param p the position of the first item
+     * @param n the no of items
+     * @param load load the data with the items
+     * @param one the result is the first item, rather than an array
      */
-    public ReadRequest(Position p, boolean load) {
+    public ReadRequest(long p, int n, boolean load, boolean one) {
+	super(NO_OP, null);
 	position = p;
+	count = n;
 	doLoadData = load;
+	single = one;
+    }
+
+    /**
+     * Get the position after the last item.
+     */
+    public long end() {
+	return position + count;
     }
-}
 
+    /**
+     * Complete the request with some items.
+     * The items start at position first.
+     */
+    public void complete(IndexItem[] items, long first) {
+	int from = (int)(position - first);
+
+	if (single) {
+	    set(items[from]);
+	} else {
+	    IndexItem[] result = new IndexItem[count];
+	    System.arraycopy(items, from, result, 0, count);
+	    set(result);
+	}
+    }
+
+    /**
+     * Fail the request.
+     */
+    public void fail(Throwable t) {
+	setException(t);
+    }
+}
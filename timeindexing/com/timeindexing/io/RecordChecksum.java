@@ -0,0 +1,146 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// RecordChecksum.java
+
+package com.timeindexing.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The checksums of an index record, as used by
+ * the checked index format.
+ * <p>
+ * A checked record is the usual 52 byte record, followed by
+ * the checksum of the item's data and then the checksum of
+ * the first 56 bytes of the record.
+ * A data checksum of 0 means the data was not checked,
+ * which is the case for data streamed from a channel.
+ */
+public class RecordChecksum {
+    /*
+     * The size of a record, without the checksums
+     */
+    final static int RECORD_SIZE = 52;
+
+    /*
+     * The size of a checked record
+     */
+    final static int CHECKED_RECORD_SIZE = RECORD_SIZE + 8;
+
+    /*
+     * The most bytes read in one go when checking data
+     */
+    final static int READ_SIZE = 1024 * 1024;
+
+    /**
+     * Put the checksums after a record in a buffer.
+     * The buffer position is after the first 52 bytes of the record.
+     * @param base the index in the buffer of the start of the record
+     * @param dataChecksum the checksum of the item's data
+     */
+    public static void put(ByteBuffer buffer, int base, int dataChecksum) {
+	buffer.putInt(dataChecksum);
+	buffer.putInt(checksum(buffer, base, RECORD_SIZE + 4));
+    }
+
+    /**
+     * Is the checksum of a record in a buffer correct.
+     * @param base the index in the buffer of the start of the record
+     */
+    public static boolean isValid(ByteBuffer buffer, int base) {
+	return buffer.getInt(base + RECORD_SIZE + 4) == checksum(buffer, base, RECORD_SIZE + 4);
+    }
+
+    /**
+     * Get the data checksum of a record in a buffer.
+     */
+    public static int getDataChecksum(ByteBuffer buffer, int base) {
+	return buffer.getInt(base + RECORD_SIZE);
+    }
+
+    /**
+     * Get the checksum of some bytes in a buffer.
+     * The buffer position is not changed.
+     */
+    public static int checksum(ByteBuffer buffer, int start, int length) {
+	CRC32 crc = new CRC32();
+
+	if (buffer.hasArray()) {
+	    crc.update(buffer.array(), buffer.arrayOffset() + start, length);
+	} else {
+	    // copy out a chunk at a time
+	    ByteBuffer copy = buffer.duplicate();
+	    byte[] bytes = new byte[Math.min(length, 64 * 1024)];
+
+	    copy.limit(start + length);
+	    copy.position(start);
+
+	    while (copy.hasRemaining()) {
+		int count = Math.min(copy.remaining(), bytes.length);
+
+		copy.get(bytes, 0, count);
+		crc.update(bytes, 0, count);
+	    }
+	}
+
+	return (int)crc.getValue();
+    }
+
+    /**
+     * Get the checksum of the data in a buffer,
+     * from its position to its limit.
+     * The buffer position is not changed.
+     */
+    public static int dataChecksum(ByteBuffer data) {
+	return checksum(data, data.position(), data.remaining());
+    }
+
+    /**
+     * Get the checksum of some data in a channel, using positional reads.
+     * @return the checksum, or 0 if the channel ends before the data does
+     */
+    public static int dataChecksum(FileChannel channel, long offset, long size) throws IOException {
+	CRC32 crc = new CRC32();
+	ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(size, (long)READ_SIZE));
+	long done = 0;
+
+	while (done < size) {
+	    buffer.clear();
+
+	    if (buffer.capacity() > size - done) {
+		buffer.limit((int)(size - done));
+	    }
+
+	    while (buffer.hasRemaining()) {
+		if (channel.read(buffer, offset + done + buffer.position()) < 0) {
+		    return 0;
+		}
+	    }
+
+	    crc.update(buffer.array(), 0, buffer.limit());
+
+	    done += buffer.limit();
+	}
+
+	return (int)crc.getValue();
+    }
+}
@@ -0,0 +1,772 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// SegmentedIndexIO.java
+
+package com.timeindexing.io;
+
+import com.timeindexing.index.StoredIndex;
+import com.timeindexing.index.ManagedIndexItem;
+import com.timeindexing.index.IndexProperties;
+import com.timeindexing.index.IndexTimestampSelector;
+import com.timeindexing.index.IndexOpenException;
+import com.timeindexing.index.IndexCreateException;
+import com.timeindexing.time.Timestamp;
+import com.timeindexing.time.TimeCalculator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This does I/O for an Index with external data, where the
+ * index records and the data are held in a series of segments,
+ * rather than in one index file and one data file.
+ * <p>
+ * A new segment is started when the data in the current segment
+ * reaches 'segmentsize' bytes, or when an item's data timestamp
+ * falls in a different period of 'segmentperiod' seconds.
+ * The index file and the data file only hold their headers.
+ * The segments are listed in a manifest file, with a .tis extension,
+ * which has the first position, the no of items, and the first
+ * and last times of each segment.  The manifest is written when
+ * a segment is started or dropped, and on close.
+ * <p>
+ * Old segments can be closed, and will be opened again when used,
+ * or dropped, which deletes their files.
+ */
+public class SegmentedIndexIO extends ExternalIndexIO {
+    // The segments, which are replaced as a whole when one is added
+    volatile IndexSegment[] segments = new IndexSegment[0];
+
+    // The segment being appended to
+    IndexSegment current = null;
+
+    // The manifest file name
+    String manifestFileName = null;
+
+    // The no of data bytes in a segment, 0 for no limit
+    long segmentSize = 0;
+
+    // The no of seconds in a segment, 0 for no limit
+    long segmentPeriod = 0;
+
+    // The period of the current segment
+    long currentPeriod = 0;
+
+    // Has the manifest changed since it was last written
+    boolean manifestChanged = false;
+
+    // The first segment that may have writes not yet forced
+    volatile int firstUnsynced = 0;
+
+    /**
+     * Construct a SegmentedIndexIO.
+     */
+    public SegmentedIndexIO(StoredIndex managedIndex) {
+	super(managedIndex);
+    }
+
+    /**
+     * Operation on creation.
+     */
+    public long create(IndexProperties indexProperties) throws IOException, IndexCreateException {
+	Long size = (Long)indexProperties.get("segmentsize");
+	Long period = (Long)indexProperties.get("segmentperiod");
+
+	if (size != null) {
+	    segmentSize = size.longValue();
+	}
+
+	if (period != null) {
+	    segmentPeriod = period.longValue();
+	}
+
+	long position = super.create(indexProperties);
+
+	// the first segment starts after the headers
+	startSegment(0, 0, indexAppendPosition, dataAppendPosition);
+
+	writeManifest();
+
+	return position;
+    }
+
+    /**
+     * Open an index file  to read it.
+     */
+    public long open(IndexProperties indexProperties) throws IOException, IndexOpenException {
+	long position = super.open(indexProperties);
+
+	readManifest();
+
+	return position;
+    }
+
+    /**
+     * Open the index and data files, and
+     * work out the name of the manifest.
+     */
+    protected long open() throws IOException, IndexOpenException {
+	long result = super.open();
+
+	manifestFileName = FileUtils.resolveFileName(headerFileName, ".tis");
+
+	return result;
+    }
+
+    /**
+     * Mapped reads are not used, as the index records
+     * are spread over many files.
+     */
+    protected void openMappedReader(IndexProperties indexProperties) {
+    }
+
+    /**
+     * The timestamps are not read by position, as the index
+     * records are spread over many files.
+     */
+    public boolean canReadTimes() {
+	return false;
+    }
+
+    /**
+     * Data is not shared, as old segments can be removed
+     * while later items point into them.
+     */
+    protected void openDedupTable(IndexProperties indexProperties) {
+    }
+
+    /**
+     * Write the contents of the item,
+     * starting a new segment first if needed.
+     */
+    public synchronized long writeItem(ManagedIndexItem itemM) throws IOException {
+	checkRoll(itemM);
+
+	long count = super.writeItem(itemM);
+
+	addToSegment(itemM);
+
+	return count;
+    }
+
+    /**
+     * Write the contents of a batch of items,
+     * starting a new segment first if needed.
+     * All the batch goes into one segment.
+     */
+    public synchronized long writeItems(ManagedIndexItem[] items) throws IOException {
+	checkRoll(items[0]);
+
+	long count = super.writeItems(items);
+
+	for (int i=0; i < items.length; i++) {
+	    addToSegment(items[i]);
+	}
+
+	return count;
+    }
+
+    /**
+     * Note an item in the current segment.
+     * The manifest is not written for each item.
+     */
+    protected void addToSegment(ManagedIndexItem item) {
+	if (current.count == 0) {
+	    currentPeriod = periodOf(item.getDataTimestamp());
+	}
+
+	current.addItem(item.getIndexTimestamp().value(), item.getDataTimestamp().value());
+
+	manifestChanged = true;
+    }
+
+    /**
+     * Start a new segment if the current one is full,
+     * or the item is in a new period.
+     * A segment always has at least one item.
+     */
+    protected void checkRoll(ManagedIndexItem item) throws IOException {
+	if (current.count == 0) {
+	    return;
+	}
+
+	if (segmentSize > 0 && dataAppendPosition - current.dataBase >= segmentSize) {
+	    rollSegment();
+	} else if (segmentPeriod > 0 && periodOf(item.getDataTimestamp()) != currentPeriod) {
+	    rollSegment();
+	}
+    }
+
+    /**
+     * Get the period a Timestamp is in.
+     */
+    protected long periodOf(Timestamp t) {
+	if (segmentPeriod > 0) {
+	    return t.getSeconds() / segmentPeriod;
+	} else {
+	    return 0;
+	}
+    }
+
+    /**
+     * Start a new segment after the current one.
+     */
+    protected void rollSegment() throws IOException {
+	// pass on what is buffered for the current segment
+	flushBuffer(indexFlushBuffer);
+	flushBuffer(dataFlushBuffer);
+
+	startSegment(current.number + 1, current.firstPosition + current.count, indexAppendPosition, dataAppendPosition);
+
+	writeManifest();
+
+	System.err.println(getClass().getSimpleName() + " " + indexName + " started " + current);
+    }
+
+    /**
+     * Create the files for a segment, and make it the current one.
+     */
+    protected void startSegment(int number, long firstPosition, long indexBase, long dataBase) throws IOException {
+	IndexSegment segment = new IndexSegment(number, firstPosition, indexBase, dataBase);
+
+	setSegmentFileNames(segment);
+
+	segment.create();
+
+	IndexSegment[] newSegments = new IndexSegment[segments.length + 1];
+	System.arraycopy(segments, 0, newSegments, 0, segments.length);
+	newSegments[segments.length] = segment;
+
+	segments = newSegments;
+	current = segment;
+	manifestChanged = true;
+    }
+
+    /**
+     * Set the file names of a segment.
+     * The index segments are next to the header, and
+     * the data segments are next to the data file.
+     */
+    protected void setSegmentFileNames(IndexSegment segment) {
+	File headerFile = new File(headerFileName).getAbsoluteFile();
+	File dataFile = new File(dataFileName).getAbsoluteFile();
+
+	String indexBase = FileUtils.removeExtension(new File(indexFileName).getName());
+	String dataBase = FileUtils.removeExtension(dataFile.getName());
+
+	segment.setFileNames(new File(headerFile.getParent(), indexBase + "-" + segment.number + ".tix").getPath(),
+			     new File(dataFile.getParent(), dataBase + "-" + segment.number + ".tid").getPath());
+    }
+
+    /**
+     * Find the segment that holds an index offset.
+     */
+    protected IndexSegment findIndexSegment(long offset) throws IOException {
+	IndexSegment[] segs = segments;
+	int low = 0;
+	int high = segs.length - 1;
+
+	// find the last segment with a base <= offset
+	while (low < high) {
+	    int mid = (low + high + 1) / 2;
+
+	    if (segs[mid].indexBase <= offset) {
+		low = mid;
+	    } else {
+		high = mid - 1;
+	    }
+	}
+
+	if (segs.length == 0 || segs[low].indexBase > offset) {
+	    throw new IOException("No segment for index offset " + offset);
+	} else {
+	    return segs[low];
+	}
+    }
+
+    /**
+     * Find the segment that holds a data offset.
+     */
+    protected IndexSegment findDataSegment(long offset) throws IOException {
+	IndexSegment[] segs = segments;
+	int low = 0;
+	int high = segs.length - 1;
+
+	// find the last segment with a base <= offset
+	while (low < high) {
+	    int mid = (low + high + 1) / 2;
+
+	    if (segs[mid].dataBase <= offset) {
+		low = mid;
+	    } else {
+		high = mid - 1;
+	    }
+	}
+
+	if (segs.length == 0 || segs[low].dataBase > offset) {
+	    throw new IOException("No segment for data offset " + offset);
+	} else {
+	    return segs[low];
+	}
+    }
+
+    /**
+     * Write a buffer of index items to the current segment.
+     */
+    protected long bufferedIndexWrite(ByteBuffer buffer) throws IOException {
+	return bufferedWrite(buffer, current.getIndexChannel(), indexFlushBuffer, indexChannelPosition - current.indexBase);
+    }
+
+    /**
+     * Write a buffer of data to the current segment.
+     */
+    protected long bufferedDataWrite(ByteBuffer buffer) throws IOException {
+	return bufferedWrite(buffer, current.getDataChannel(), dataFlushBuffer, dataChannelPosition - current.dataBase);
+    }
+
+    /**
+     * Read an index record given an offset,
+     * from the segment that holds it.
+     */
+    public ByteBuffer readIndexItem(long offset) throws IOException {
+	IndexSegment segment = findIndexSegment(offset);
+	FileChannel channel = segment.getIndexChannel();
+	long local = offset - segment.indexBase;
+
+	// clear the index buf
+	indexBufRead.clear();
+
+	// this is a positional read, so the channel position is not moved
+	while (indexBufRead.hasRemaining()) {
+	    if (channel.read(indexBufRead, local + indexBufRead.position()) < 0) {
+		throw new IOException("Index Item too short: position = " +
+				      offset + " read count = " + indexBufRead.position());
+	    }
+	}
+
+	// make buffer ready to get data from
+	indexBufRead.flip();
+
+	// update indexChannelPosition
+	indexChannelPosition = offset + INDEX_ITEM_SIZE;
+
+	return indexBufRead;
+    }
+
+    /**
+     * Read a run of index records from the segment that holds the first one.
+     * The run stops at the end of the segment, so the data
+     * for the records is all in one segment too.
+     */
+    protected ByteBuffer readIndexRecords(long position, int count) throws IOException {
+	long offset = getRecordOffset(position);
+	IndexSegment segment = findIndexSegment(offset);
+
+	long left = segment.firstPosition + segment.count - position;
+	int todo = (int)Math.max(0, Math.min((long)count, left));
+
+	ByteBuffer records = ByteBuffer.allocate(todo * INDEX_ITEM_SIZE);
+
+	readRecords(segment.getIndexChannel(), offset - segment.indexBase, records);
+
+	records.flip();
+
+	// only whole records
+	records.limit(records.limit() - (records.limit() % INDEX_ITEM_SIZE));
+
+	return records;
+    }
+
+    /**
+     * Get a run of index records for loading.
+     * The records are read from the segment that holds the first one,
+     * as a mapping of the index file would span segments.
+     */
+    protected ByteBuffer mapIndexRecords(long position, int count) throws IOException {
+	return readIndexRecords(position, count);
+    }
+
+    /**
+     * Read some data from the segment that holds it.
+     */
+    public ByteBuffer readDataAt(long offset, long size) throws IOException {
+	IndexSegment segment = findDataSegment(offset);
+
+	return readDataAt(segment.getDataChannel(), offset - segment.dataBase, size);
+    }
+
+    /**
+     * Get a channel for reading some data from the segment that holds it.
+     */
+    public DataRegionChannel openData(long offset, long size) throws IOException {
+	// make sure the data is in the files
+	drainWriteQueue();
+
+	IndexSegment segment = findDataSegment(offset);
+
+	return new DataRegionChannel(segment.getDataChannel(), offset - segment.dataBase, size);
+    }
+
+    /**
+     * Transfer some data straight to a channel.
+     * The data may be spread over more than one segment.
+     */
+    public long transferData(long offset, long size, WritableByteChannel target) throws IOException {
+	long done = 0;
+
+	// make sure the data is in the files
+	drainWriteQueue();
+
+	while (done < size) {
+	    IndexSegment segment = findDataSegment(offset + done);
+	    FileChannel channel = segment.getDataChannel();
+	    long local = offset + done - segment.dataBase;
+
+	    // send up to the end of the segment
+	    long count = Math.min(size - done, channel.size() - local);
+
+	    if (count <= 0) {
+		throw new IOException("IO Error trying to transfer " + size + " bytes from offset " + offset + " got " + done);
+	    }
+
+	    done += transferData(channel, local, count, target);
+	}
+
+	return done;
+    }
+
+    /**
+     * Get the positions to search for a Timestamp.
+     * This skips all the segments before the one
+     * the Timestamp falls in, and all the ones after.
+     * Dropped segments are never searched, as their items
+     * can not be got.
+     * @return null if there is no narrowing
+     */
+    public long[] getSearchRange(Timestamp t, IndexTimestampSelector selector) {
+	IndexSegment[] segs = segments;
+
+	if (segs.length <= 1) {
+	    return null;
+	}
+
+	// find the last segment that starts before t,
+	// as items at t may start in the segment before
+	int found = -1;
+
+	// the first segment that has not been dropped
+	int live = -1;
+
+	for (int s=0; s < segs.length; s++) {
+	    if (segs[s].count == 0 || segs[s].dropped) {
+		continue;
+	    }
+
+	    if (live < 0) {
+		live = s;
+	    }
+
+	    long first = (selector == IndexTimestampSelector.DATA ? segs[s].firstDataTime : segs[s].firstIndexTime);
+
+	    if (TimeCalculator.lessThanEquals(t, timestampDecoder.decode(first))) {
+		break;
+	    } else {
+		found = s;
+	    }
+	}
+
+	if (found < 0) {
+	    if (live > 0) {
+		// t is before the first item that can be got
+		found = live;
+	    } else {
+		return null;
+	    }
+	}
+
+	long length = getIndex().getLength();
+
+	// search up to the first item of the next segment
+	long start = segs[found].firstPosition;
+	long end = Math.min(segs[found].firstPosition + segs[found].count, length - 1);
+
+	if (found == segs.length - 1) {
+	    end = length - 1;
+	}
+
+	if (end < start) {
+	    return null;
+	} else {
+	    return new long[] { start, end };
+	}
+    }
+
+    /**
+     * Get the segments.
+     */
+    public IndexSegment[] getSegments() {
+	IndexSegment[] segs = segments;
+	IndexSegment[] copy = new IndexSegment[segs.length];
+	System.arraycopy(segs, 0, copy, 0, segs.length);
+	return copy;
+    }
+
+    /**
+     * Close the files of a segment.
+     * They are opened again if the segment is used.
+     */
+    public void closeSegment(int number) throws IOException {
+	getOldSegment(number).close();
+    }
+
+    /**
+     * Drop a segment, by deleting its files.
+     * The items in the segment can no longer be got.
+     */
+    public synchronized void dropSegment(int number) throws IOException {
+	IndexSegment segment = getOldSegment(number);
+
+	// make sure nothing is waiting to be written to it
+	drainWriteQueue();
+
+	segment.drop();
+
+	manifestChanged = true;
+	writeManifest();
+    }
+
+    /**
+     * Get a segment that is not the current one.
+     */
+    protected IndexSegment getOldSegment(int number) throws IOException {
+	IndexSegment[] segs = segments;
+
+	if (number < 0 || number >= segs.length - 1) {
+	    throw new IOException("Segment " + number + " is not an old segment");
+	} else {
+	    return segs[number];
+	}
+    }
+
+    /**
+     * Write out the manifest.
+     * It is written to a new file, which then replaces the old one.
+     */
+    protected synchronized void writeManifest() throws IOException {
+	IndexSegment[] segs = segments;
+	File manifest = new File(manifestFileName);
+	File newManifest = new File(manifestFileName + ".new");
+
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newManifest)));
+
+	try {
+	    // TimeIndex Header magic
+	    out.writeByte(FileType.T);
+	    out.writeByte(FileType.I);
+	    out.writeByte(FileType.BYTE_3);
+	    out.writeByte(FileType.SEGMENT_MANIFEST);
+
+	    // version major, version minor
+	    out.writeByte(versionMajor);
+	    out.writeByte(versionMinor);
+
+	    out.writeLong(segmentSize);
+	    out.writeLong(segmentPeriod);
+	    out.writeInt(segs.length);
+
+	    for (int s=0; s < segs.length; s++) {
+		IndexSegment segment = segs[s];
+
+		out.writeInt(segment.number);
+		out.writeBoolean(segment.dropped);
+		out.writeLong(segment.firstPosition);
+		out.writeLong(segment.count);
+		out.writeLong(segment.indexBase);
+		out.writeLong(segment.dataBase);
+		out.writeLong(segment.firstIndexTime);
+		out.writeLong(segment.lastIndexTime);
+		out.writeLong(segment.firstDataTime);
+		out.writeLong(segment.lastDataTime);
+	    }
+
+	    out.flush();
+	} finally {
+	    out.close();
+	}
+
+	if (! newManifest.renameTo(manifest)) {
+	    // some platforms don't replace on rename
+	    manifest.delete();
+
+	    if (! newManifest.renameTo(manifest)) {
+		throw new IOException("Could not replace manifest " + manifestFileName);
+	    }
+	}
+
+	manifestChanged = false;
+    }
+
+    /**
+     * Read the manifest.
+     */
+    protected void readManifest() throws IOException, IndexOpenException {
+	File manifest = new File(manifestFileName);
+
+	if (! manifest.exists()) {
+	    throw new IndexOpenException("Could not find segment manifest: " + manifestFileName);
+	}
+
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)));
+
+	try {
+	    byte byteT = in.readByte();
+	    byte byteI = in.readByte();
+	    byte three = in.readByte();
+	    byte type = in.readByte();
+
+	    if (byteT != FileType.T ||
+		byteI != FileType.I ||
+		three != FileType.BYTE_3 ||
+		type != FileType.SEGMENT_MANIFEST) {
+		throw new IndexOpenException("File is not a time index segment manifest: " + manifestFileName);
+	    }
+
+	    // version major, version minor
+	    in.readByte();
+	    in.readByte();
+
+	    segmentSize = in.readLong();
+	    segmentPeriod = in.readLong();
+
+	    int segmentCount = in.readInt();
+
+	    IndexSegment[] segs = new IndexSegment[segmentCount];
+
+	    for (int s=0; s < segmentCount; s++) {
+		int number = in.readInt();
+		boolean dropped = in.readBoolean();
+		long firstPosition = in.readLong();
+		long count = in.readLong();
+		long indexBase = in.readLong();
+		long dataBase = in.readLong();
+
+		IndexSegment segment = new IndexSegment(number, firstPosition, indexBase, dataBase);
+		segment.dropped = dropped;
+		segment.count = count;
+		segment.firstIndexTime = in.readLong();
+		segment.lastIndexTime = in.readLong();
+		segment.firstDataTime = in.readLong();
+		segment.lastDataTime = in.readLong();
+
+		setSegmentFileNames(segment);
+
+		segs[s] = segment;
+	    }
+
+	    if (segmentCount == 0) {
+		throw new IndexOpenException("Segment manifest has no segments: " + manifestFileName);
+	    }
+
+	    segments = segs;
+	    current = segs[segmentCount - 1];
+	    firstUnsynced = segmentCount - 1;
+
+	    // the header has the real no of items
+	    current.count = headerInteractor.getLength() - current.firstPosition;
+
+	    // the manifest is only written when a segment is started
+	    // and on close, so get the times of the current segment
+	    // from its first and last records
+	    if (current.count > 0) {
+		readSegmentTimes(current);
+
+		currentPeriod = periodOf(timestampDecoder.decode(current.firstDataTime));
+	    }
+
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * Set the times of a segment from its first and last records.
+     */
+    protected synchronized void readSegmentTimes(IndexSegment segment) throws IOException {
+	ByteBuffer record = null;
+
+	// reading moves the index position, so put it back after
+	long savedPosition = indexChannelPosition;
+
+	record = readIndexItem(segment.indexBase);
+	segment.firstIndexTime = record.getLong(0);
+	segment.firstDataTime = record.getLong(8);
+
+	record = readIndexItem(segment.indexBase + ((segment.count - 1) * INDEX_ITEM_SIZE));
+	segment.lastIndexTime = record.getLong(0);
+	segment.lastDataTime = record.getLong(8);
+
+	indexChannelPosition = savedPosition;
+    }
+
+    /**
+     * Force the files of the index to stable storage.
+     */
+    protected void forceChannels() throws IOException {
+	IndexSegment[] segs = segments;
+	int last = segs.length - 1;
+
+	// only the segments written since the last sync need forcing
+	for (int s=firstUnsynced; s <= last; s++) {
+	    segs[s].force();
+	}
+
+	firstUnsynced = last;
+
+	super.forceChannels();
+    }
+
+    /**
+     * Flush and close the files, including the segments.
+     * The manifest is written if it has changed.
+     */
+    protected synchronized long closeFiles() throws IOException {
+	long size = super.closeFiles();
+
+	if (manifestChanged && ! headerInteractor.isReadOnly()) {
+	    writeManifest();
+	}
+
+	IndexSegment[] segs = segments;
+
+	for (int s=0; s < segs.length; s++) {
+	    segs[s].close();
+	}
+
+	return size;
+    }
+}
@@ -32,6 +32,7 @@ import java.io.RandomAccessFile;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -95,9 +96,18 @@ public class  ShadowIndexIO extends ExternalIndexIO implements IndexFileInteract
 
 	    flush();
 
+	    // set how the writer thread waits
+	    setWaitStrategy(indexProperties);
+
+	    // set who does the background I/O
+	    setIOScheduler(indexProperties);
+
 	    initThread(indexName + "-IOThread");
 	    startThread();
 
+	    // set up the durability of commits
+	    startDurability(indexProperties);
+
 	    return position;
 	} catch (IndexOpenException ioe) {
 	    throw new IndexCreateException(ioe);
@@ -152,9 +162,21 @@ public class  ShadowIndexIO extends ExternalIndexIO implements IndexFileInteract
 	// read the headers
 	long position = readMetaData();
 
+	// set up mapped reads of the index records, if asked for
+	openMappedReader(indexProperties);
+
+	// set how the writer thread waits
+	setWaitStrategy(indexProperties);
+
+	// set who does the background I/O
+	setIOScheduler(indexProperties);
+
 	initThread(indexName + "-IOThread");
 	startThread();
 
+	// set up the durability of commits
+	startDurability(indexProperties);
+
 	return position;
    }
 
@@ -290,6 +312,19 @@ public class  ShadowIndexIO extends ExternalIndexIO implements IndexFileInteract
 	return count;
     }
 
+    /**
+     * Processing of data that comes from a channel.
+     * The data is already in the data file,
+     * so the channel is not read.
+     */
+    protected long processDataStream(ReadableByteChannel channel, long size) throws IOException {
+	dataChannelPosition += size;
+
+	dataAppendPosition = dataChannelPosition;
+
+	return size;
+    }
+
     /**
      * Operation on flush.
      * Returns how many bytes were written.
@@ -298,8 +333,9 @@ public class  ShadowIndexIO extends ExternalIndexIO implements IndexFileInteract
 	long written = 0;
 
 	// flush out any reaming data
-	ByteBuffer indexBuffer = indexFlushBuffers.current();
-	written += flushBuffer(indexChannel, indexBuffer, indexFlushBuffers);
+	written += flushBuffer(indexFlushBuffer);
+
+	flushTimeColumns();
 
 	// flush the header
 	headerInteractor.flush();
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// SharedIOScheduler.java
+
+package com.timeindexing.io;
+
+import java.util.Set;
+import java.util.Iterator;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.io.IOException;
+
+/**
+ * An IOScheduler that shares a small pool of threads
+ * between all the indexes.
+ * <p>
+ * An interactor with work is queued at most once.
+ * A thread does a few writes for it, and if there is still
+ * more to do it goes to the back of the queue, so a busy index
+ * does not hold up the others.
+ * One timer thread does the idle processing for all the indexes.
+ * The threads are daemons, and go away when there is no work.
+ * An interactor whose I/O fails is not queued again, as the
+ * failed write would just be tried over and over.
+ */
+public class SharedIOScheduler implements IOScheduler {
+    // The pool of threads doing the writes
+    ThreadPoolExecutor workers = null;
+
+    // The timer for idle processing
+    ScheduledThreadPoolExecutor timer = null;
+
+    // The registered interactors
+    Set interactors = null;
+
+    // The no of threads made so far
+    int threadCount = 0;
+
+    /*
+     * The no of writes done for an interactor in one go.
+     */
+    final static int QUANTUM = 4;
+
+    /*
+     * The time between idle calls, in milliseconds.
+     */
+    final static long IDLE_INTERVAL = 5 * 1000;
+
+    /**
+     * Construct a SharedIOScheduler.
+     * @param size the no of threads in the pool
+     */
+    public SharedIOScheduler(int size) {
+	workers = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue(), newThreadFactory("IOScheduler"));
+	workers.allowCoreThreadTimeOut(true);
+
+	interactors = Collections.newSetFromMap(new ConcurrentHashMap());
+    }
+
+    /**
+     * Start doing the background I/O for an interactor.
+     */
+    public void register(final AbstractIndexIO interactor, String name) {
+	interactor.serviceTask = new Runnable() {
+		public void run() {
+		    serve(interactor);
+		}
+	    };
+
+	interactors.add(interactor);
+
+	startTimer();
+    }
+
+    /**
+     * Queue an interactor, if it is not already queued,
+     * and its I/O has not failed.
+     */
+    public void schedule(AbstractIndexIO interactor) {
+	if (interactor.isRunning() && ! interactor.hasFailed() && interactor.scheduled.compareAndSet(false, true)) {
+	    workers.execute(interactor.serviceTask);
+	}
+    }
+
+    /**
+     * Stop doing the background I/O for an interactor.
+     * The interactor is no longer running, so it will not be
+     * queued again, but it may be queued or being served now.
+     */
+    public void deregister(AbstractIndexIO interactor) {
+	interactors.remove(interactor);
+
+	while (interactor.scheduled.get()) {
+	    LockSupport.parkNanos(100 * 1000);
+	}
+    }
+
+    /**
+     * Do some work for an interactor.
+     * On an IOException the interactor is marked as failed,
+     * which logs the failure once and passes it to the appenders,
+     * and it is not queued again.
+     */
+    protected void serve(AbstractIndexIO interactor) {
+	boolean more = false;
+
+	try {
+	    more = interactor.serviceWork(QUANTUM);
+	} catch (IOException ioe) {
+	    interactor.ioFailed(ioe);
+	} finally {
+	    interactor.scheduled.set(false);
+	}
+
+	// look again after clearing the flag,
+	// as an appender may have missed seeing it cleared
+	if (! interactor.hasFailed() && (more || interactor.hasWork())) {
+	    schedule(interactor);
+	}
+    }
+
+    /**
+     * Start the timer, if it is not already running.
+     */
+    protected synchronized void startTimer() {
+	if (timer == null) {
+	    timer = new ScheduledThreadPoolExecutor(1, newThreadFactory("IOScheduler-Timer"));
+
+	    timer.scheduleWithFixedDelay(new Runnable() {
+		    public void run() {
+			tick();
+		    }
+		}, IDLE_INTERVAL, IDLE_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+    }
+
+    /**
+     * Do the idle processing for all the interactors.
+     */
+    protected void tick() {
+	Iterator iter = interactors.iterator();
+
+	while (iter.hasNext()) {
+	    AbstractIndexIO interactor = (AbstractIndexIO)iter.next();
+
+	    interactor.idle();
+
+	    // pick up any work that was missed
+	    if (interactor.hasWork()) {
+		schedule(interactor);
+	    }
+	}
+    }
+
+    /**
+     * Make a ThreadFactory for daemon threads.
+     */
+    protected ThreadFactory newThreadFactory(final String name) {
+	return new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread thread = null;
+
+		    synchronized (SharedIOScheduler.this) {
+			thread = new Thread(r, name + "-" + threadCount);
+			threadCount++;
+		    }
+
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    };
+    }
+
+    /**
+     * Get the no of interactors registered.
+     */
+    public int getRegisteredCount() {
+	return interactors.size();
+    }
+
+    /**
+     * String
+     */
+    public String toString() {
+	return "SHARED";
+    }
+}
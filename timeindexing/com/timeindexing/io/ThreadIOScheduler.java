@@ -0,0 +1,74 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// ThreadIOScheduler.java
+
+package com.timeindexing.io;
+
+/**
+ * An IOScheduler that has one thread for each index.
+ * The thread runs the run() method of the interactor,
+ * which waits on the write ring for work.
+ */
+public class ThreadIOScheduler implements IOScheduler {
+    /**
+     * Construct a ThreadIOScheduler.
+     */
+    public ThreadIOScheduler() {
+    }
+
+    /**
+     * Start a thread for the interactor.
+     */
+    public void register(AbstractIndexIO interactor, String name) {
+	interactor.myThread = new Thread(interactor, name);
+	interactor.myThread.start();
+    }
+
+    /**
+     * Does nothing, as the thread finds its own work.
+     */
+    public void schedule(AbstractIndexIO interactor) {
+    }
+
+    /**
+     * Stop the thread for the interactor,
+     * and wait for the end of its run().
+     */
+    public void deregister(AbstractIndexIO interactor) {
+	Thread thread = interactor.myThread;
+
+	if (thread != null) {
+	    // interrupt any methods waiting for work or IO
+	    thread.interrupt();
+
+	    // wait for the end of run()
+	    try {
+		interactor.latch.await();
+	    } catch (InterruptedException ie) {
+	    }
+	}
+    }
+
+    /**
+     * String
+     */
+    public String toString() {
+	return "THREAD";
+    }
+}
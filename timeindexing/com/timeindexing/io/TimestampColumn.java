@@ -0,0 +1,294 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+
+
+// TimestampColumn.java
+
+package com.timeindexing.io;
+
+import com.timeindexing.time.Timestamp;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A side column of timestamps, one per index position, held in a file.
+ * Entry n holds a timestamp of IndexItem n as a no of nanoseconds,
+ * so timestamps of different kinds can be compared as longs.
+ * <p>
+ * A Timestamp can be searched for directly in the column,
+ * which is memory mapped, so a search does not read or
+ * decode any index records.
+ * New entries are kept in memory until flush() is called.
+ */
+public class TimestampColumn {
+    // the file name
+    String fileName = null;
+
+    // the file and channel
+    RandomAccessFile file = null;
+    FileChannel channel = null;
+
+    // the mapped entries
+    MappedIndexReader reader = null;
+
+    // is the file open for writing
+    boolean writable = false;
+
+    // how many entries are in the file
+    long persisted = 0;
+
+    // entries not yet written to the file
+    long[] pending = new long[256];
+    int pendingCount = 0;
+
+    /*
+     * The no of entries in a mapped window.
+     */
+    final static int WINDOW_ENTRIES = 1024 * 1024;
+
+    /**
+     * Construct a TimestampColumn for a named file.
+     */
+    public TimestampColumn(String fileName) {
+	this.fileName = fileName;
+    }
+
+    /**
+     * Convert a Timestamp to the value held in a column.
+     */
+    public static long toNanos(Timestamp t) {
+	return (t.getSeconds() * 1000000000L) + t.getNanoSeconds();
+    }
+
+    /**
+     * Open the column.
+     * @param writable should the column be opened for writing
+     * @param truncate should any existing entries be thrown away
+     * @return false if the file cannot be opened
+     */
+    public synchronized boolean open(boolean writable, boolean truncate) throws IOException {
+	File columnFile = new File(fileName);
+
+	persisted = 0;
+	pendingCount = 0;
+	this.writable = false;
+
+	try {
+	    if (writable) {
+		file = new RandomAccessFile(columnFile, "rw");
+		this.writable = true;
+
+		if (truncate) {
+		    file.setLength(0);
+		}
+
+	    } else if (columnFile.exists()) {
+		file = new RandomAccessFile(columnFile, "r");
+	    } else {
+		file = null;
+	    }
+	} catch (FileNotFoundException fnfe) {
+	    // we can't get at the file
+	    file = null;
+	}
+
+	if (file == null) {
+	    channel = null;
+	    return false;
+	} else {
+	    channel = file.getChannel();
+	    reader = new MappedIndexReader(channel, 0, 8, WINDOW_ENTRIES);
+
+	    // only count whole entries
+	    persisted = channel.size() / 8;
+
+	    return true;
+	}
+    }
+
+    /**
+     * Get the no of entries in the column.
+     */
+    public synchronized long getLength() {
+	return persisted + pendingCount;
+    }
+
+    /**
+     * Add an entry to the end of the column.
+     */
+    public synchronized void add(long nanos) {
+	if (pendingCount == pending.length) {
+	    long[] newPending = new long[pending.length * 2];
+	    System.arraycopy(pending, 0, newPending, 0, pendingCount);
+	    pending = newPending;
+	}
+
+	pending[pendingCount] = nanos;
+	pendingCount++;
+    }
+
+    /**
+     * Get the entry for a position.
+     * The caller must hold the lock on this object.
+     */
+    private long get(long position) throws IOException {
+	if (position >= persisted) {
+	    return pending[(int)(position - persisted)];
+	} else {
+	    ByteBuffer window = reader.getWindow(position);
+
+	    if (window == null) {
+		throw new IOException("TimestampColumn: " + fileName + " too short at entry " + position);
+	    }
+
+	    return window.getLong(reader.recordIndex(position));
+	}
+    }
+
+    /**
+     * Search for a time between two positions.
+     * The entries must be in time order.
+     * If the time is held by some entries, the position of the first
+     * of them is returned.  Otherwise, for a continuous lifetime
+     * the position before the time is returned, and for a
+     * discrete lifetime the position after it.
+     * @param nanos the time to look for
+     * @param start the first position to look at
+     * @param end the last position to look at
+     * @param continuous is the lifetime of an item continuous
+     * @return the position, or -1 if the positions
+     * are not all in the column
+     */
+    public synchronized long search(long nanos, long start, long end, boolean continuous) throws IOException {
+	if (start < 0 || end >= getLength() || start > end) {
+	    return -1;
+	}
+
+	// find the first entry >= nanos
+	long low = start;
+	long high = end + 1;
+
+	while (low < high) {
+	    long mid = (low + high) >>> 1;
+
+	    if (get(mid) < nanos) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+
+	if (low <= end && get(low) == nanos) {
+	    // an exact match
+	    return low;
+	} else if (continuous) {
+	    // the one before the time
+	    return Math.max(start, low - 1);
+	} else {
+	    // the one after the time
+	    return Math.min(end, low);
+	}
+    }
+
+    /**
+     * Truncate the column to a certain number of entries.
+     */
+    public synchronized void truncate(long length) throws IOException {
+	if (length >= getLength()) {
+	    return;
+	} else if (length >= persisted) {
+	    pendingCount = (int)(length - persisted);
+	} else {
+	    pendingCount = 0;
+	    persisted = length;
+
+	    if (writable) {
+		// the mapped windows may be past the new end
+		reader.close();
+		channel.truncate(length * 8);
+	    }
+	}
+    }
+
+    /**
+     * Write any pending entries to the file.
+     * @return the number of bytes written
+     */
+    public synchronized long flush() throws IOException {
+	if (!writable || pendingCount == 0) {
+	    return 0;
+	} else {
+	    ByteBuffer buffer = ByteBuffer.allocate(pendingCount * 8);
+
+	    buffer.asLongBuffer().put(pending, 0, pendingCount);
+
+	    long writePosition = persisted * 8;
+	    long written = 0;
+
+	    while (buffer.hasRemaining()) {
+		written += channel.write(buffer, writePosition + buffer.position());
+	    }
+
+	    persisted += pendingCount;
+	    pendingCount = 0;
+
+	    return written;
+	}
+    }
+
+    /**
+     * Write any pending entries, and force the file
+     * to stable storage.
+     */
+    public synchronized void force() throws IOException {
+	flush();
+
+	if (writable) {
+	    channel.force(false);
+	}
+    }
+
+    /**
+     * Close the column.
+     */
+    public synchronized void close() throws IOException {
+	flush();
+
+	if (file != null) {
+	    reader.close();
+	    file.close();
+	    file = null;
+	    channel = null;
+	    writable = false;
+	}
+    }
+
+    /**
+     * Get the file name of the column.
+     */
+    public String getFileName() {
+	return fileName;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// WaitStrategy.java
+
+package com.timeindexing.io;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits on a WriteRing.
+ * The writer thread waits when the ring is empty, and
+ * the appender waits when the ring is full.
+ */
+public interface WaitStrategy {
+    /**
+     * Wait for a while.
+     * @param count how many times the caller has waited so far
+     * @param maxNanos the longest time to wait
+     */
+    public void idle(int count, long maxNanos);
+
+    /**
+     * Keep spinning.
+     * This has the lowest latency, but uses a whole CPU.
+     */
+    public final static WaitStrategy SPIN = new WaitStrategy() {
+	    public void idle(int count, long maxNanos) {
+	    }
+
+	    public String toString() {
+		return "SPIN";
+	    }
+	};
+
+    /**
+     * Yield the CPU to other threads.
+     */
+    public final static WaitStrategy YIELD = new WaitStrategy() {
+	    public void idle(int count, long maxNanos) {
+		Thread.yield();
+	    }
+
+	    public String toString() {
+		return "YIELD";
+	    }
+	};
+
+    /**
+     * Spin for a bit, then yield for a bit, and then park
+     * until woken up.
+     * This is the default.
+     */
+    public final static WaitStrategy PARK = new WaitStrategy() {
+	    public void idle(int count, long maxNanos) {
+		if (count < 100) {
+		    // spin
+		} else if (count < 200) {
+		    Thread.yield();
+		} else {
+		    LockSupport.parkNanos(this, maxNanos);
+		}
+	    }
+
+	    public String toString() {
+		return "PARK";
+	    }
+	};
+
+}
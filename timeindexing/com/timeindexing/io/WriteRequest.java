@@ -21,28 +21,34 @@
 
 package com.timeindexing.io;
 
-import com.timeindexing.util.ByteBufferRing;
-
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 /**
  * A class that represents a write request in the I/O thread.
  * It holds data on the channel being written to, the buffer to
- * write, and the ByteBufferRing the buffer came from.
+ * write, and the offset in the file where the buffer goes.
+ * <p>
+ * The slots of a WriteRing are WriteRequests, and so is the
+ * buffer an appender is filling for a channel.
  */
 class WriteRequest {
     FileChannel channel = null;
     ByteBuffer buffer = null;
-    ByteBufferRing ring = null;
+    long position = 0;
 
     /**
      * Construct a WriteRequest.
      */
-    public WriteRequest(FileChannel fc, ByteBuffer bb, ByteBufferRing r) {
+    public WriteRequest(FileChannel fc, ByteBuffer bb) {
 	channel = fc;
 	buffer = bb;
-	ring = r;
     }
-}
 
+    /**
+     * Get the file offset just after the bytes in the buffer.
+     */
+    public long endPosition() {
+	return position + buffer.position();
+    }
+}
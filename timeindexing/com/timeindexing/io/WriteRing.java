@@ -0,0 +1,339 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// WriteRing.java
+
+package com.timeindexing.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring of preallocated direct buffers, which passes
+ * full buffers from an appender to the writer thread.
+ * <p>
+ * There is one producer and one consumer at a time, and they only
+ * share two sequence counters, so there are no locks.
+ * The producer fills its own buffer, and on publish swaps it with
+ * the empty buffer in the next slot.  When all the slots are full
+ * the producer waits, so a slow disk holds up the appender rather
+ * than using more memory.
+ */
+public class WriteRing {
+    // The slots
+    WriteRequest[] slots = null;
+
+    // The mask for a slot index
+    int mask = 0;
+
+    // The size of the buffers
+    int bufferSize = 0;
+
+    // The next sequence no to publish, written by the producer
+    volatile long head = 0;
+
+    // The next sequence no to consume, written by the consumer
+    volatile long tail = 0;
+
+    // How to wait
+    WaitStrategy waitStrategy = WaitStrategy.PARK;
+
+    // Threads waiting, so they can be woken up
+    volatile Thread waitingConsumer = null;
+    volatile Thread waitingProducer = null;
+
+    // The no of times the producer found the ring full
+    volatile long fullCount = 0;
+
+    // Set when the consumer has other work, such as reads
+    volatile boolean nudged = false;
+
+    // Set when a write has failed, so the slots are never freed
+    volatile IOException failure = null;
+
+    /*
+     * The longest a producer parks before looking again.
+     */
+    final static long PRODUCER_PARK = 1000 * 1000;
+
+    /**
+     * Construct a WriteRing.
+     * @param size the no of slots, which is rounded up to a power of 2
+     * @param bufferSize the size of each buffer
+     */
+    public WriteRing(int size, int bufferSize) {
+	int slotCount = 1;
+
+	while (slotCount < size) {
+	    slotCount <<= 1;
+	}
+
+	slots = new WriteRequest[slotCount];
+	mask = slotCount - 1;
+	this.bufferSize = bufferSize;
+
+	for (int s=0; s < slotCount; s++) {
+	    slots[s] = new WriteRequest(null, ByteBuffer.allocateDirect(bufferSize));
+	}
+    }
+
+    /**
+     * Create a WriteRequest for a producer to fill, for a channel.
+     */
+    public WriteRequest newFillBuffer(FileChannel channel) {
+	return new WriteRequest(channel, ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    /**
+     * Get the size of the buffers.
+     */
+    public int getBufferSize() {
+	return bufferSize;
+    }
+
+    /**
+     * Get the no of slots.
+     */
+    public int size() {
+	return slots.length;
+    }
+
+    /**
+     * Set the wait strategy.
+     */
+    public void setWaitStrategy(WaitStrategy strategy) {
+	waitStrategy = strategy;
+    }
+
+    /**
+     * Get the wait strategy.
+     */
+    public WaitStrategy getWaitStrategy() {
+	return waitStrategy;
+    }
+
+    /**
+     * Is the ring empty.
+     */
+    public boolean isEmpty() {
+	return tail == head;
+    }
+
+    /**
+     * Is the ring full.
+     */
+    public boolean isFull() {
+	return head - tail == slots.length;
+    }
+
+    /**
+     * Get the sequence no of the next slot to be published.
+     */
+    public long getHead() {
+	return head;
+    }
+
+    /**
+     * Get the sequence no of the next slot to be consumed.
+     */
+    public long getTail() {
+	return tail;
+    }
+
+    /**
+     * Get the no of times a producer found the ring full.
+     */
+    public long getFullCount() {
+	return fullCount;
+    }
+
+    /**
+     * Publish a filled buffer, if there is a free slot.
+     * The flipped buffer goes into the slot, and the producer
+     * gets the empty buffer from the slot to fill next.
+     * @return false if the ring is full
+     */
+    public boolean offer(WriteRequest fill) {
+	long seq = head;
+
+	if (seq - tail == slots.length) {
+	    return false;
+	}
+
+	WriteRequest slot = slots[(int)seq & mask];
+
+	ByteBuffer empty = slot.buffer;
+
+	fill.buffer.flip();
+
+	slot.channel = fill.channel;
+	slot.buffer = fill.buffer;
+	slot.position = fill.position;
+
+	fill.position = fill.position + fill.buffer.limit();
+	fill.buffer = empty;
+
+	// this makes the slot visible to the consumer
+	head = seq + 1;
+
+	Thread consumer = waitingConsumer;
+
+	if (consumer != null) {
+	    LockSupport.unpark(consumer);
+	}
+
+	return true;
+    }
+
+    /**
+     * Wait a while for a free slot.
+     * @param count how many times the caller has waited so far
+     * @throws IOException if a write has failed, as the slot
+     * will never be freed
+     */
+    public void awaitSpace(int count) throws IOException {
+	if (count == 0) {
+	    fullCount++;
+	}
+
+	waitingProducer = Thread.currentThread();
+
+	if (isFull() && failure == null) {
+	    waitStrategy.idle(count, PRODUCER_PARK);
+	}
+
+	waitingProducer = null;
+
+	if (failure != null) {
+	    throw new IOException("WriteRing: a write failed: " + failure.getMessage(), failure);
+	}
+    }
+
+    /**
+     * Note that a write has failed, and wake up any waiting producer.
+     */
+    public void fail(IOException ioe) {
+	failure = ioe;
+
+	Thread producer = waitingProducer;
+
+	if (producer != null) {
+	    LockSupport.unpark(producer);
+	}
+    }
+
+    /**
+     * Wait for a slot to be published.
+     * @param timeout the longest time to wait, in milliseconds
+     * It also returns when the consumer is nudged.
+     * @return true if there is work, false on a timeout or an interrupt
+     */
+    public boolean awaitWork(long timeout) {
+	long deadline = System.nanoTime() + (timeout * 1000 * 1000);
+	int count = 0;
+
+	while (isEmpty()) {
+	    if (nudged) {
+		nudged = false;
+		return true;
+	    }
+
+	    long left = deadline - System.nanoTime();
+
+	    if (left <= 0 || Thread.currentThread().isInterrupted()) {
+		return false;
+	    }
+
+	    waitingConsumer = Thread.currentThread();
+
+	    // look again, as the producer may have missed
+	    // seeing the waiting thread
+	    if (isEmpty() && ! nudged) {
+		waitStrategy.idle(count, left);
+	    }
+
+	    waitingConsumer = null;
+
+	    count++;
+	}
+
+	return true;
+    }
+
+    /**
+     * Wake up the consumer, even though nothing is published.
+     * This is used when there is other work for it to do.
+     */
+    public void nudge() {
+	nudged = true;
+
+	Thread consumer = waitingConsumer;
+
+	if (consumer != null) {
+	    LockSupport.unpark(consumer);
+	}
+    }
+
+    /**
+     * Get the next published slot, without removing it.
+     * Only one consumer at a time must call this.
+     * @return the slot, or null if the ring is empty
+     */
+    public WriteRequest peek() {
+	long seq = tail;
+
+	if (seq == head) {
+	    return null;
+	} else {
+	    return slots[(int)seq & mask];
+	}
+    }
+
+    /**
+     * Release the slot got by peek(), once its buffer has been written.
+     */
+    public void release() {
+	WriteRequest slot = slots[(int)tail & mask];
+
+	slot.buffer.clear();
+	slot.channel = null;
+
+	// this makes the slot free for the producer
+	tail = tail + 1;
+
+	Thread producer = waitingProducer;
+
+	if (producer != null) {
+	    LockSupport.unpark(producer);
+	}
+    }
+
+    /**
+     * String
+     */
+    public String toString() {
+	return "WriteRing " +
+	    "size: " + size() +
+	    " head: " + head +
+	    " tail: " + tail +
+	    " full: " + fullCount +
+	    (failure == null ? "" : " failed: " + failure.getMessage());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// ChannelReaderResult.java
+
+package com.timeindexing.plugin;
+
+import com.timeindexing.time.Timestamp;
+import com.timeindexing.index.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A value returned by a reader plugin, where the data
+ * is too big for a buffer, and has to be read from a channel.
+ */
+public class ChannelReaderResult extends DefaultReaderResult {
+    ReadableByteChannel channel = null;
+    long size = 0;
+
+    /**
+     * Construct a ChannelReaderResult
+     */
+    public ChannelReaderResult(ReadableByteChannel ch, long size, Timestamp dTS, DataType dType) {
+	super(null, dTS, dType);
+	channel = ch;
+	this.size = size;
+    }
+
+    /**
+     * Get the data associated with this ReaderResult.
+     * The data is only available from the channel.
+     * @return null
+     */
+    public ByteBuffer getData() {
+	return null;
+    }
+
+    /**
+     * Get the channel to read the data from.
+     */
+    public ReadableByteChannel getChannel() {
+	return channel;
+    }
+
+    /**
+     * Get the size of the data.
+     */
+    public long getSize() {
+	return size;
+    }
+}
@@ -37,6 +37,8 @@ import java.io.FileNotFoundException;
 /**
  * A plugin that takes a file input stream and
  * returns the whole file.
+ * A file too big to map in one go is returned
+ * as a channel.
  */
 public class FileItem implements ReaderPlugin {
     FileInputStream input = null;
@@ -74,6 +76,15 @@ public class FileItem implements ReaderPlugin {
 	    // convert the input stream to a channel
 	    FileChannel inputChannel = input.getChannel();
 
+	    long size = inputChannel.size();
+
+	    if (size >= Integer.MAX_VALUE) {
+		// it can't be mapped in one buffer
+		// so the index reads it from the channel
+		setEOF();
+
+		return new ChannelReaderResult(inputChannel, size, null, DataType.ANY);
+	    }
 
 	    // now memory map the file in
 	    buffer = inputChannel.map(FileChannel.MapMode.READ_ONLY, 0, inputChannel.size());
@@ -376,6 +376,10 @@ public class SelectServlet extends HttpServlet implements IndexPrimaryEventListe
 	    // get a Selecter
 	    selecter = allocateSelecter(filename, out);
 
+	    // send the data straight from the index files
+	    // unless there is per-item output
+	    selecter.setZeroCopy(empty(newline));
+
 	    // add the servlet as an event listener
 	    selecter.addPrimaryEventListener(this);
 
@@ -27,6 +27,33 @@ import java.util.logging.Logger;
  * object that is associated with that format.
  */
 public class TimestampDecoder {
+    /**
+     * Decode a long and return the time as a no of nanoseconds,
+     * as the seconds and nanoseconds of the Timestamp would give.
+     * Encoded times of different kinds can then be compared as longs.
+     * The absolute kinds after the epoch are worked out
+     * without making a Timestamp.
+     */
+    public long toNanos(long value) {
+	if (value == 0) {
+	    return 0;
+	}
+
+	long valueT = value & Timestamp.TOP_2_MASK;
+
+	if (valueT == Timestamp.MILLISECOND && (value & Timestamp.MILLISECOND_SIGN) == 0) {
+	    return value * 1000000;
+	} else if (valueT == Timestamp.MICROSECOND && (value & Timestamp.MICROSECOND_SIGN) == 0) {
+	    return (value ^ Timestamp.MICROSECOND) * 1000;
+	} else if (valueT == Timestamp.NANOSECOND && (value & Timestamp.NANOSECOND_SIGN) == 0) {
+	    return value ^ Timestamp.NANOSECOND;
+	} else {
+	    Timestamp t = decode(value);
+
+	    return (t.getSeconds() * 1000000000L) + t.getNanoSeconds();
+	}
+    }
+
     /**
      * Decode a long and return the relevant Timestamp
      */
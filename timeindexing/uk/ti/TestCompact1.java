@@ -0,0 +1,160 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TestCompact1.java
+
+package uk.ti;
+
+import com.timeindexing.index.IndexView;
+import com.timeindexing.index.IndexItem;
+import com.timeindexing.index.IndexType;
+import com.timeindexing.index.IndexCompactor;
+import com.timeindexing.index.TimeIndexFactory;
+import com.timeindexing.index.TimeIndexException;
+import com.timeindexing.time.MillisecondTimestamp;
+import com.timeindexing.data.StringItem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * Test that compacting a checked index keeps it checked,
+ * and keeps its timestamp columns.
+ */
+public class TestCompact1 {
+    public static void main(String [] args) {
+	String indexPath = "/tmp/testcompact1";
+
+	if (args.length == 1) {
+	    indexPath = args[0];
+	}
+
+	int count = 1000;
+
+	TimeIndexFactory factory = new TimeIndexFactory();
+
+	Properties createProperties = new Properties();
+	createProperties.setProperty("name", "index-TestCompact1");
+	createProperties.setProperty("indexpath", indexPath);
+	createProperties.setProperty("datapath", indexPath);
+	createProperties.setProperty("nodatafileheader", "true");
+	createProperties.setProperty("indexformat", "checked");
+	createProperties.setProperty("timecolumns", "true");
+
+	try {
+	    IndexView index = factory.create(IndexType.EXTERNAL, createProperties);
+
+	    for (int i=0; i < count; i++) {
+		index.addItem(new StringItem("item " + i), new MillisecondTimestamp(1000000L + i));
+	    }
+
+	    factory.close(index);
+
+	    if (versionOf(indexPath) != 3) {
+		System.err.println("TestCompact1: the new index is not checked");
+		System.exit(1);
+	    }
+
+	    IndexCompactor.compact(indexPath, new Properties());
+
+	    int version = versionOf(indexPath);
+
+	    if (version != 3) {
+		System.err.println("TestCompact1: the compacted index has version " + version + ", not checked");
+		System.exit(1);
+	    }
+
+	    if (! new File(indexPath + ".tdt").exists() || ! new File(indexPath + ".tit").exists()) {
+		System.err.println("TestCompact1: the compacted index has lost its timestamp columns");
+		System.exit(1);
+	    }
+
+	    Properties openProperties = new Properties();
+	    openProperties.setProperty("indexpath", indexPath);
+
+	    index = factory.open(openProperties);
+
+	    if (index.getLength() != count) {
+		System.err.println("TestCompact1: the compacted index has " + index.getLength() + " items, not " + count);
+		System.exit(1);
+	    }
+
+	    for (int i=0; i < count; i++) {
+		IndexItem item = index.getItem(i);
+		ByteBuffer buffer = item.getData();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+
+		if (! new String(bytes).equals("item " + i)) {
+		    System.err.println("TestCompact1: item " + i + " is wrong");
+		    System.exit(1);
+		}
+	    }
+
+	    factory.close(index);
+
+	    System.err.println("TestCompact1: OK");
+
+	} catch (TimeIndexException tie) {
+	    System.err.println("TestCompact1: " + tie);
+	    System.exit(1);
+	} catch (IOException ioe) {
+	    System.err.println("TestCompact1: " + ioe);
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Get the major version of the index records,
+     * which is the fifth byte of the .tix file.
+     * The compactor writes new files named after the index,
+     * so the only .tix file is the one in use.
+     */
+    private static int versionOf(String indexPath) throws IOException {
+	File indexFile = new File(indexPath);
+	File tixFile = null;
+	String[] names = indexFile.getAbsoluteFile().getParentFile().list();
+
+	for (int n=0; n < names.length; n++) {
+	    if (names[n].startsWith(indexFile.getName()) && names[n].endsWith(".tix")) {
+		tixFile = new File(indexFile.getAbsoluteFile().getParentFile(), names[n]);
+	    }
+	}
+
+	if (tixFile == null) {
+	    throw new IOException("no index file for " + indexPath);
+	}
+
+	FileInputStream input = new FileInputStream(tixFile);
+
+	try {
+	    byte[] magic = new byte[6];
+
+	    if (input.read(magic) != 6) {
+		throw new IOException("short index file");
+	    }
+
+	    return magic[4];
+	} finally {
+	    input.close();
+	}
+    }
+}
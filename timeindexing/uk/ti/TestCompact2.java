@@ -0,0 +1,345 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TestCompact2.java
+
+package uk.ti;
+
+import com.timeindexing.index.IndexView;
+import com.timeindexing.index.IndexItem;
+import com.timeindexing.index.IndexType;
+import com.timeindexing.index.IndexCompactor;
+import com.timeindexing.index.DataType;
+import com.timeindexing.index.FileIndex;
+import com.timeindexing.index.TimeIndexFactory;
+import com.timeindexing.index.TimeIndexDirectory;
+import com.timeindexing.index.TimeIndexException;
+import com.timeindexing.time.Timestamp;
+import com.timeindexing.time.MicrosecondTimestamp;
+import com.timeindexing.time.TimeCalculator;
+import com.timeindexing.data.DataItem;
+import com.timeindexing.data.StringItem;
+import com.timeindexing.data.LongItem;
+import com.timeindexing.data.ByteBufferItem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * Test the compact index format, which keeps the index
+ * records in delta encoded frames, with a .tif directory.
+ * The index is created, reopened and added to, and reopened
+ * again, and every record is checked each time.
+ * The items have different types and annotations, some of them
+ * share data, some are references, and some are copied from
+ * another index with their own IDs, so the offset, ID, type and
+ * annotation of a record are sometimes not the expected ones.
+ */
+public class TestCompact2 {
+    /*
+     * The no of items added when the index is created
+     */
+    final static int FIRST = 500;
+
+    /*
+     * The no of items copied from another index
+     */
+    final static int COPIED = 150;
+
+    /*
+     * The no of items added after the index is reopened
+     */
+    final static int MORE = 300;
+
+    /*
+     * The no of items in the index which is referenced
+     */
+    final static int REFERENCED = 20;
+
+    final static long BASE_TIME = 1000000000L * 1000000L;
+
+    static String indexPath = "/tmp/testcompact2";
+
+    static TimeIndexFactory factory = new TimeIndexFactory();
+
+    public static void main(String [] args) {
+	if (args.length == 1) {
+	    indexPath = args[0];
+	}
+
+	removeFiles();
+
+	try {
+	    // the index that is referenced
+	    IndexView referenced = factory.create(IndexType.EXTERNAL, properties(indexPath + "-ref", null));
+
+	    for (int r=0; r < REFERENCED; r++) {
+		referenced.addItem(new StringItem(referencedData(r)), new MicrosecondTimestamp(BASE_TIME + r));
+	    }
+
+	    referenced.commit();
+
+	    // the compact index
+	    IndexView index = factory.create(IndexType.EXTERNAL, properties(indexPath, "compact"));
+
+	    addItems(index, referenced, 0, FIRST);
+
+	    // the index that is copied in,
+	    // made now so its times are later
+	    IndexView source = factory.create(IndexType.EXTERNAL, properties(indexPath + "-src", null));
+
+	    for (int c=0; c < COPIED; c++) {
+		source.addItem(new StringItem(copiedData(c)), new MicrosecondTimestamp(BASE_TIME + (FIRST + c) * 1000L), annotation(FIRST + c));
+	    }
+
+	    source.commit();
+
+	    new IndexCompactor(source).copyTo((FileIndex)TimeIndexDirectory.find(index.getID()));
+
+	    factory.close(source);
+
+	    checkItems("create", index, FIRST + COPIED);
+
+	    factory.close(index);
+
+	    if (versionOf(indexPath) != 2 || ! new File(indexPath + ".tif").exists()) {
+		fail("the index does not have the compact format");
+	    }
+
+	    // reopen and add some more
+	    index = open();
+	    checkItems("reopen", index, FIRST + COPIED);
+
+	    addItems(index, referenced, FIRST + COPIED, FIRST + COPIED + MORE);
+	    checkItems("append", index, FIRST + COPIED + MORE);
+
+	    factory.close(index);
+
+	    // and again
+	    index = open();
+	    checkItems("reopen after append", index, FIRST + COPIED + MORE);
+	    factory.close(index);
+
+	    factory.close(referenced);
+
+	    removeFiles();
+
+	    System.err.println("TestCompact2: OK");
+
+	} catch (TimeIndexException tie) {
+	    System.err.println("TestCompact2: " + tie);
+	    System.exit(1);
+	} catch (IOException ioe) {
+	    System.err.println("TestCompact2: " + ioe);
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Add the items from position start to end.
+     * Every fifth item is a reference, and every fifth
+     * has the same data as the others.
+     */
+    static void addItems(IndexView index, IndexView referenced, int start, int end) throws TimeIndexException {
+	for (int p=start; p < end; p++) {
+	    Timestamp dataTS = new MicrosecondTimestamp(BASE_TIME + p * 1000L);
+
+	    if (p % 5 == 4) {
+		index.addReference(referenced.getItem(p % REFERENCED), referenced, dataTS, annotation(p));
+	    } else {
+		index.addItem(dataItem(p), dataTS, annotation(p));
+	    }
+	}
+    }
+
+    /**
+     * Check every item in the index.
+     */
+    static void checkItems(String name, IndexView index, int expected) throws TimeIndexException {
+	if (index.getLength() != expected) {
+	    fail(name + ": the index has " + index.getLength() + " items, not " + expected);
+	}
+
+	Timestamp lastIndexTS = null;
+
+	for (int p=0; p < expected; p++) {
+	    IndexItem item = index.getItem(p);
+	    boolean copied = (p >= FIRST && p < FIRST + COPIED);
+
+	    if (! TimeCalculator.equals(item.getDataTimestamp(), new MicrosecondTimestamp(BASE_TIME + p * 1000L))) {
+		fail(name + ": item " + p + " has data time " + item.getDataTimestamp());
+	    }
+
+	    if (lastIndexTS != null && TimeCalculator.lessThan(item.getIndexTimestamp(), lastIndexTS)) {
+		fail(name + ": item " + p + " has an index time before the one before it");
+	    }
+
+	    lastIndexTS = item.getIndexTimestamp();
+
+	    long id = (copied ? p - FIRST : p);
+
+	    if (item.getItemID().value() != id) {
+		fail(name + ": item " + p + " has ID " + item.getItemID() + ", not " + id);
+	    }
+
+	    if (item.getAnnotationMetaData() != annotation(p)) {
+		fail(name + ": item " + p + " has annotation " + item.getAnnotationMetaData() + ", not " + annotation(p));
+	    }
+
+	    String data = null;
+	    DataType type = null;
+
+	    if (copied) {
+		data = copiedData(p - FIRST);
+		type = DataType.STRING;
+	    } else if (p % 5 == 4) {
+		data = referencedData(p % REFERENCED);
+		type = DataType.REFERENCE;
+	    } else {
+		DataItem dataItem = dataItem(p);
+		data = new String(bytesOf(dataItem.getBytes()));
+		type = dataItem.getDataType();
+	    }
+
+	    if (item.getDataType().value() != type.value()) {
+		fail(name + ": item " + p + " has type " + item.getDataType() + ", not " + type);
+	    }
+
+	    while (item.isReference()) {
+		item = item.follow();
+	    }
+
+	    if (! new String(bytesOf(item.getData())).equals(data)) {
+		fail(name + ": item " + p + " has the wrong data");
+	    }
+	}
+
+	System.err.println("TestCompact2: " + name + " OK");
+    }
+
+    /**
+     * The data item for position p.
+     */
+    static DataItem dataItem(int p) {
+	switch (p % 5) {
+	case 0:
+	    return new StringItem("item " + p);
+	case 1:
+	    return new LongItem(p * 1000L);
+	case 2:
+	    return new ByteBufferItem(ByteBuffer.wrap(("bytes of item " + p).getBytes()), DataType.ANY);
+	default:
+	    // the same data, which is shared
+	    return new StringItem("the same data for every one of these items");
+	}
+    }
+
+    /**
+     * The annotation for position p.
+     * It is the same for runs of items, and is sometimes negative.
+     */
+    static long annotation(int p) {
+	if ((p / 3) % 4 == 0) {
+	    return 0;
+	} else {
+	    return (p / 3) * ((p % 2 == 0) ? 1000L : -1000L);
+	}
+    }
+
+    static String referencedData(int r) {
+	return "referenced item " + r;
+    }
+
+    static String copiedData(int c) {
+	return "copied item " + c;
+    }
+
+    static byte[] bytesOf(ByteBuffer buffer) {
+	ByteBuffer copy = buffer.duplicate();
+	copy.rewind();
+
+	byte[] bytes = new byte[copy.remaining()];
+	copy.get(bytes);
+
+	return bytes;
+    }
+
+    static Properties properties(String path, String indexFormat) {
+	Properties createProperties = new Properties();
+	createProperties.setProperty("name", new File(path).getName());
+	createProperties.setProperty("indexpath", path);
+	createProperties.setProperty("datapath", path);
+	createProperties.setProperty("nodatafileheader", "true");
+
+	if (indexFormat != null) {
+	    createProperties.setProperty("indexformat", indexFormat);
+	    createProperties.setProperty("dedup", "true");
+	}
+
+	return createProperties;
+    }
+
+    static IndexView open() throws TimeIndexException {
+	Properties openProperties = new Properties();
+	openProperties.setProperty("indexpath", indexPath);
+
+	IndexView index = factory.open(openProperties);
+	index.activate();
+
+	return index;
+    }
+
+    /**
+     * Get the major version of the index records,
+     * which is the fifth byte of the .tix file.
+     */
+    static int versionOf(String path) throws IOException {
+	FileInputStream input = new FileInputStream(path + ".tix");
+
+	try {
+	    byte[] magic = new byte[6];
+
+	    if (input.read(magic) != 6) {
+		throw new IOException("short index file");
+	    }
+
+	    return magic[4];
+	} finally {
+	    input.close();
+	}
+    }
+
+    static void removeFiles() {
+	String[] paths = { indexPath, indexPath + "-ref", indexPath + "-src" };
+	String[] extensions = { ".tih", ".tix", ".tid", ".tif", ".tdh" };
+
+	for (int p=0; p < paths.length; p++) {
+	    for (int e=0; e < extensions.length; e++) {
+		new File(paths[p] + extensions[e]).delete();
+	    }
+	}
+    }
+
+    static void fail(String message) {
+	System.err.println("TestCompact2: " + message);
+	System.exit(1);
+    }
+}
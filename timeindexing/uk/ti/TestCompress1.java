@@ -0,0 +1,265 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TestCompress1.java
+
+package uk.ti;
+
+import com.timeindexing.index.IndexView;
+import com.timeindexing.index.IndexItem;
+import com.timeindexing.index.IndexType;
+import com.timeindexing.index.TimeIndexFactory;
+import com.timeindexing.index.TimeIndexException;
+import com.timeindexing.time.MicrosecondTimestamp;
+import com.timeindexing.data.StringItem;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * Test an external index with a compressed data file,
+ * for each of the compressions.
+ * The index is created, reopened and added to, and reopened again,
+ * and every item is checked each time, in order and in reverse.
+ * Some of the items are bigger than a block, so their data
+ * spans blocks, and the last block is only part full
+ * when the index is closed.
+ */
+public class TestCompress1 {
+    /*
+     * The no of bytes in a block
+     */
+    final static int BLOCK_SIZE = 4096;
+
+    /*
+     * The no of items added when the index is created
+     */
+    final static int FIRST = 3000;
+
+    /*
+     * The no of items added after the index is reopened
+     */
+    final static int MORE = 1000;
+
+    /*
+     * One in this many items is bigger than a block
+     */
+    final static int BIG_EVERY = 500;
+
+    /*
+     * The size of the block directory header and entries
+     */
+    final static int DIRECTORY_HEADER_SIZE = 16;
+    final static int DIRECTORY_ENTRY_SIZE = 32;
+
+    final static long BASE_TIME = 1000000000L * 1000000L;
+
+    static String indexDir = "/tmp";
+
+    static String[] compressions = { "deflate", "fast" };
+
+    static TimeIndexFactory factory = new TimeIndexFactory();
+
+    public static void main(String [] args) {
+	if (args.length == 1) {
+	    indexDir = args[0];
+	}
+
+	try {
+	    for (int c=0; c < compressions.length; c++) {
+		test(compressions[c]);
+	    }
+
+	    System.err.println("TestCompress1: OK");
+
+	} catch (TimeIndexException tie) {
+	    System.err.println("TestCompress1: " + tie);
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Create, reopen, append to, and reopen an index
+     * with the specified compression.
+     */
+    static void test(String compression) throws TimeIndexException {
+	String indexPath = indexDir + "/testcompress1-" + compression;
+
+	removeFiles(indexPath);
+
+	Properties createProperties = new Properties();
+	createProperties.setProperty("name", "index-TestCompress1-" + compression);
+	createProperties.setProperty("indexpath", indexPath);
+	createProperties.setProperty("datapath", indexPath);
+	createProperties.setProperty("nodatafileheader", "true");
+	createProperties.setProperty("compression", compression);
+	createProperties.setProperty("blocksize", Integer.toString(BLOCK_SIZE));
+
+	IndexView index = factory.create(IndexType.EXTERNAL, createProperties);
+
+	addItems(index, 0, FIRST);
+	checkItems(compression + " create", index, FIRST);
+
+	factory.close(index);
+
+	checkFiles(compression + " create", indexPath, FIRST);
+
+	// reopen and add some more
+	index = open(indexPath);
+	checkItems(compression + " reopen", index, FIRST);
+
+	addItems(index, FIRST, FIRST + MORE);
+	checkItems(compression + " append", index, FIRST + MORE);
+
+	factory.close(index);
+
+	checkFiles(compression + " append", indexPath, FIRST + MORE);
+
+	// and again
+	index = open(indexPath);
+	checkItems(compression + " reopen after append", index, FIRST + MORE);
+
+	factory.close(index);
+
+	removeFiles(indexPath);
+    }
+
+    /**
+     * Add the items from position start to end.
+     */
+    static void addItems(IndexView index, int start, int end) throws TimeIndexException {
+	for (int p=start; p < end; p++) {
+	    index.addItem(new StringItem(itemData(p)), new MicrosecondTimestamp(BASE_TIME + p * 1000L));
+	}
+    }
+
+    /**
+     * Check all the items, in order, which reads the blocks
+     * one after the other, and in reverse, which goes back to
+     * blocks that have been dropped from the block cache.
+     */
+    static void checkItems(String name, IndexView index, long count) throws TimeIndexException {
+	if (index.getLength() != count) {
+	    fail(name + ": the index has " + index.getLength() + " items, not " + count);
+	}
+
+	for (long p=0; p < count; p++) {
+	    checkItem(name, index, p);
+	}
+
+	for (long p=count-1; p >= 0; p--) {
+	    checkItem(name, index, p);
+	}
+
+	System.err.println("TestCompress1: " + name + " OK");
+    }
+
+    static void checkItem(String name, IndexView index, long p) throws TimeIndexException {
+	IndexItem item = index.getItem(p);
+	ByteBuffer buffer = item.getData().duplicate();
+	buffer.rewind();
+
+	byte[] bytes = new byte[buffer.remaining()];
+	buffer.get(bytes);
+
+	if (! new String(bytes).equals(itemData(p))) {
+	    fail(name + ": item " + p + " has the wrong data");
+	}
+
+	if (item.getDataTimestamp().getSeconds() != (BASE_TIME + p * 1000L) / 1000000L) {
+	    fail(name + ": item " + p + " has the wrong data time");
+	}
+    }
+
+    /**
+     * Check that the data file is compressed, and that
+     * there is a block directory with an entry for each block.
+     */
+    static void checkFiles(String name, String indexPath, long count) {
+	File dataFile = new File(indexPath + ".tid");
+	File directoryFile = new File(indexPath + ".tdb");
+
+	if (! directoryFile.exists()) {
+	    fail(name + ": there is no block directory");
+	}
+
+	long dataSize = dataSize(count);
+
+	if (dataFile.length() >= dataSize) {
+	    fail(name + ": the data file has " + dataFile.length() + " bytes for " + dataSize + " bytes of data");
+	}
+
+	long entries = (directoryFile.length() - DIRECTORY_HEADER_SIZE) / DIRECTORY_ENTRY_SIZE;
+
+	if ((directoryFile.length() - DIRECTORY_HEADER_SIZE) % DIRECTORY_ENTRY_SIZE != 0 || entries < dataSize / BLOCK_SIZE) {
+	    fail(name + ": the block directory has " + directoryFile.length() + " bytes for " + dataSize + " bytes of data");
+	}
+    }
+
+    /**
+     * The data of an item.  Every BIG_EVERY item
+     * is bigger than a block.
+     */
+    static String itemData(long p) {
+	if (p % BIG_EVERY == BIG_EVERY - 1) {
+	    StringBuffer buffer = new StringBuffer();
+
+	    while (buffer.length() < BLOCK_SIZE * 2) {
+		buffer.append("big item " + p + " at " + buffer.length() + "\n");
+	    }
+
+	    return buffer.toString();
+	} else {
+	    return "item " + p + (p % 3 == 0 ? " has some more data" : "");
+	}
+    }
+
+    static long dataSize(long count) {
+	long size = 0;
+
+	for (long p=0; p < count; p++) {
+	    size += itemData(p).length();
+	}
+
+	return size;
+    }
+
+    static IndexView open(String indexPath) throws TimeIndexException {
+	Properties openProperties = new Properties();
+	openProperties.setProperty("indexpath", indexPath);
+
+	IndexView index = factory.open(openProperties);
+	index.activate();
+
+	return index;
+    }
+
+    static void removeFiles(String indexPath) {
+	String[] extensions = { ".tih", ".tix", ".tid", ".tdb" };
+
+	for (int e=0; e < extensions.length; e++) {
+	    new File(indexPath + extensions[e]).delete();
+	}
+    }
+
+    static void fail(String message) {
+	System.err.println("TestCompress1: " + message);
+	System.exit(1);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TestDedup1.java
+
+package uk.ti;
+
+import com.timeindexing.index.IndexView;
+import com.timeindexing.index.IndexItem;
+import com.timeindexing.index.IndexType;
+import com.timeindexing.index.ExternalIndex;
+import com.timeindexing.index.TimeIndexDirectory;
+import com.timeindexing.index.TimeIndexFactory;
+import com.timeindexing.index.TimeIndexException;
+import com.timeindexing.io.DedupTable;
+import com.timeindexing.time.MicrosecondTimestamp;
+import com.timeindexing.data.StringItem;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Properties;
+
+/**
+ * Test an external index with a dedup table, where a repeated
+ * payload points at the copy already in the data file.
+ * The index is created, reopened and added to, and reopened again,
+ * and every item is checked each time.
+ * The data file must only hold one copy of each repeated payload,
+ * including the ones added after the reopen, as the table
+ * is kept in a .tdh file.
+ * Payloads that are too small to share are always written.
+ */
+public class TestDedup1 {
+    /*
+     * The no of items added when the index is created
+     */
+    final static int FIRST = 3000;
+
+    /*
+     * The no of items added after the index is reopened
+     */
+    final static int MORE = 1000;
+
+    /*
+     * The no of different repeated payloads
+     */
+    final static int SHARED = 40;
+
+    final static long BASE_TIME = 1000000000L * 1000000L;
+
+    static String indexPath = "/tmp/testdedup1";
+
+    static TimeIndexFactory factory = new TimeIndexFactory();
+
+    public static void main(String [] args) {
+	if (args.length == 1) {
+	    indexPath = args[0];
+	}
+
+	removeFiles();
+
+	try {
+	    Properties createProperties = new Properties();
+	    createProperties.setProperty("name", "index-TestDedup1");
+	    createProperties.setProperty("indexpath", indexPath);
+	    createProperties.setProperty("datapath", indexPath);
+	    createProperties.setProperty("nodatafileheader", "true");
+	    createProperties.setProperty("dedup", "true");
+
+	    IndexView index = factory.create(IndexType.EXTERNAL, createProperties);
+
+	    addItems(index, 0, FIRST);
+	    checkItems("create", index, FIRST);
+	    checkTable("create", index, 0, FIRST);
+
+	    factory.close(index);
+
+	    checkFiles("create", FIRST);
+
+	    // reopen, which uses the table as the index has one,
+	    // and add some more
+	    index = open();
+	    checkItems("reopen", index, FIRST);
+
+	    addItems(index, FIRST, FIRST + MORE);
+	    checkItems("append", index, FIRST + MORE);
+	    checkTable("append", index, FIRST, FIRST + MORE);
+
+	    factory.close(index);
+
+	    checkFiles("append", FIRST + MORE);
+
+	    // and again
+	    index = open();
+	    checkItems("reopen after append", index, FIRST + MORE);
+
+	    factory.close(index);
+
+	    removeFiles();
+
+	    System.err.println("TestDedup1: OK");
+
+	} catch (TimeIndexException tie) {
+	    System.err.println("TestDedup1: " + tie);
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Add the items from position start to end.
+     */
+    static void addItems(IndexView index, int start, int end) throws TimeIndexException {
+	for (int p=start; p < end; p++) {
+	    index.addItem(new StringItem(itemData(p)), new MicrosecondTimestamp(BASE_TIME + p * 1000L));
+	}
+    }
+
+    /**
+     * Check all the items.
+     */
+    static void checkItems(String name, IndexView index, long count) throws TimeIndexException {
+	if (index.getLength() != count) {
+	    fail(name + ": the index has " + index.getLength() + " items, not " + count);
+	}
+
+	for (long p=0; p < count; p++) {
+	    IndexItem item = index.getItem(p);
+	    ByteBuffer buffer = item.getData().duplicate();
+	    buffer.rewind();
+
+	    byte[] bytes = new byte[buffer.remaining()];
+	    buffer.get(bytes);
+
+	    if (! new String(bytes).equals(itemData(p))) {
+		fail(name + ": item " + p + " has the wrong data");
+	    }
+	}
+
+	System.err.println("TestDedup1: " + name + " OK");
+    }
+
+    /**
+     * Check the dedup table has an entry for each payload
+     * that can be shared, and that the items from start to end,
+     * which were added since the index was opened,
+     * were shared when their payload was already there.
+     */
+    static void checkTable(String name, IndexView index, long start, long end) {
+	DedupTable table = ((ExternalIndex)TimeIndexDirectory.find(index.getID())).getDedupTable();
+
+	if (table == null) {
+	    fail(name + ": the index has no dedup table");
+	}
+
+	HashSet written = new HashSet();
+	long hits = 0;
+
+	for (long p=0; p < end; p++) {
+	    String data = itemData(p);
+
+	    if (data.length() >= 16 && ! written.add(data) && p >= start) {
+		hits++;
+	    }
+	}
+
+	if (table.size() != written.size()) {
+	    fail(name + ": the dedup table has " + table.size() + " entries, not " + written.size());
+	}
+
+	if (table.getHits() != hits) {
+	    fail(name + ": the dedup table has " + table.getHits() + " hits, not " + hits);
+	}
+    }
+
+    /**
+     * Check that the data file only holds one copy
+     * of each payload that can be shared, and that
+     * there is a dedup table.
+     */
+    static void checkFiles(String name, long count) {
+	if (! new File(indexPath + ".tdh").exists()) {
+	    fail(name + ": there is no dedup table");
+	}
+
+	long dataSize = new File(indexPath + ".tid").length();
+
+	if (dataSize != dedupSize(count)) {
+	    fail(name + ": the data file has " + dataSize + " bytes, not " + dedupSize(count));
+	}
+    }
+
+    /**
+     * The data of an item.  Most items have one of the
+     * repeated payloads, some have a payload of their own,
+     * and some have a payload too small to share.
+     */
+    static String itemData(long p) {
+	if (p % 10 == 0) {
+	    return "item " + p + " has its own payload";
+	} else if (p % 10 == 1) {
+	    return "tiny " + (p % 7);
+	} else {
+	    return "the shared payload no " + (p % SHARED) + " is repeated";
+	}
+    }
+
+    /**
+     * The size of the data file, when each payload that can be shared
+     * is only written once.
+     */
+    static long dedupSize(long count) {
+	HashSet written = new HashSet();
+	long size = 0;
+
+	for (long p=0; p < count; p++) {
+	    String data = itemData(p);
+
+	    if (data.length() < 16 || written.add(data)) {
+		size += data.length();
+	    }
+	}
+
+	return size;
+    }
+
+    static IndexView open() throws TimeIndexException {
+	Properties openProperties = new Properties();
+	openProperties.setProperty("indexpath", indexPath);
+
+	IndexView index = factory.open(openProperties);
+	index.activate();
+
+	return index;
+    }
+
+    static void removeFiles() {
+	String[] extensions = { ".tih", ".tix", ".tid", ".tdh" };
+
+	for (int e=0; e < extensions.length; e++) {
+	    new File(indexPath + extensions[e]).delete();
+	}
+    }
+
+    static void fail(String message) {
+	System.err.println("TestDedup1: " + message);
+	System.exit(1);
+    }
+}
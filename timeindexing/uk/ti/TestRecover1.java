@@ -0,0 +1,324 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TestRecover1.java
+
+package uk.ti;
+
+import com.timeindexing.index.IndexView;
+import com.timeindexing.index.IndexItem;
+import com.timeindexing.index.IndexType;
+import com.timeindexing.index.TimeIndexFactory;
+import com.timeindexing.index.TimeIndexException;
+import com.timeindexing.time.MicrosecondTimestamp;
+import com.timeindexing.data.StringItem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * Test the crash recovery of a checked index on open.
+ * Each case damages the files of a closed index the way
+ * a crash can, opens it again, and checks the no of items
+ * that are left, the sizes of the cut down files, and
+ * that items can be added after the recovery.
+ */
+public class TestRecover1 {
+    /*
+     * The size of a checked index record
+     */
+    final static long RECORD_SIZE = 60;
+
+    /*
+     * The no of items in each index
+     */
+    final static int COUNT = 3000;
+
+    /*
+     * The no of items added after the header is saved
+     */
+    final static int MORE = 700;
+
+    static String indexPath = "/tmp/testrecover1";
+
+    // The size of the header of the .tix file,
+    // which holds the name of the index
+    static long tixHeaderSize = 0;
+
+    static TimeIndexFactory factory = new TimeIndexFactory();
+
+    public static void main(String [] args) {
+	if (args.length == 1) {
+	    indexPath = args[0];
+	}
+
+	try {
+	    tornTail();
+	    corruptRecord();
+	    corruptData();
+	    headerBehind();
+
+	    removeFiles();
+
+	    System.err.println("TestRecover1: OK");
+
+	} catch (TimeIndexException tie) {
+	    System.err.println("TestRecover1: " + tie);
+	    System.exit(1);
+	} catch (IOException ioe) {
+	    System.err.println("TestRecover1: " + ioe);
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * The .tix is cut in the middle of the last record,
+     * and the .tid is cut in the data of the last item.
+     */
+    static void tornTail() throws TimeIndexException, IOException {
+	makeIndex(COUNT);
+
+	setLength(".tix", length(".tix") - RECORD_SIZE / 2);
+	setLength(".tid", length(".tid") - 5);
+
+	checkRecovery("torn tail", COUNT - 1);
+    }
+
+    /**
+     * A byte of the last index record is wrong.
+     */
+    static void corruptRecord() throws TimeIndexException, IOException {
+	makeIndex(COUNT);
+
+	flipByte(".tix", length(".tix") - 40);
+
+	checkRecovery("corrupt record", COUNT - 1);
+    }
+
+    /**
+     * A byte of the data of the last item is wrong.
+     */
+    static void corruptData() throws TimeIndexException, IOException {
+	makeIndex(COUNT);
+
+	flipByte(".tid", length(".tid") - 2);
+
+	checkRecovery("corrupt data", COUNT - 1);
+    }
+
+    /**
+     * The header was written before the last items were added,
+     * so the files have more items than the header says.
+     */
+    static void headerBehind() throws TimeIndexException, IOException {
+	makeIndex(COUNT);
+
+	byte[] header = readFile(".tih");
+
+	IndexView index = open();
+	addItems(index, COUNT, COUNT + MORE);
+	factory.close(index);
+
+	writeFile(".tih", header);
+
+	checkRecovery("header behind", COUNT + MORE);
+    }
+
+    /**
+     * Open the damaged index, and check the items left,
+     * the sizes of the files, and adding some more items.
+     */
+    static void checkRecovery(String name, int expected) throws TimeIndexException, IOException {
+	IndexView index = open();
+
+	checkItems(name, index, expected);
+
+	if (length(".tix") != tixHeaderSize + RECORD_SIZE * expected) {
+	    fail(name + ": the .tix has " + length(".tix") + " bytes, not " + (tixHeaderSize + RECORD_SIZE * expected));
+	}
+
+	if (length(".tid") != dataSize(expected)) {
+	    fail(name + ": the .tid has " + length(".tid") + " bytes, not " + dataSize(expected));
+	}
+
+	// add some items after the recovery
+	addItems(index, expected, expected + 10);
+	factory.close(index);
+
+	index = open();
+	checkItems(name + " and append", index, expected + 10);
+	factory.close(index);
+
+	System.err.println("TestRecover1: " + name + " OK");
+    }
+
+    /**
+     * Check the no of items in an index, and the data of
+     * the first, middle and last items.
+     */
+    static void checkItems(String name, IndexView index, int expected) throws TimeIndexException {
+	if (index.getLength() != expected) {
+	    fail(name + ": the index has " + index.getLength() + " items, not " + expected);
+	}
+
+	long[] positions = { 0, expected / 2, expected - 1 };
+
+	for (int p=0; p < positions.length; p++) {
+	    IndexItem item = index.getItem(positions[p]);
+	    ByteBuffer buffer = item.getData().duplicate();
+	    buffer.rewind();
+
+	    byte[] bytes = new byte[buffer.remaining()];
+	    buffer.get(bytes);
+
+	    if (! new String(bytes).equals(itemData(positions[p]))) {
+		fail(name + ": item " + positions[p] + " has the wrong data");
+	    }
+	}
+    }
+
+    /**
+     * Create a checked index with some items, and close it.
+     */
+    static void makeIndex(int count) throws TimeIndexException {
+	removeFiles();
+
+	Properties createProperties = new Properties();
+	createProperties.setProperty("name", "index-TestRecover1");
+	createProperties.setProperty("indexpath", indexPath);
+	createProperties.setProperty("datapath", indexPath);
+	createProperties.setProperty("nodatafileheader", "true");
+	createProperties.setProperty("indexformat", "checked");
+
+	IndexView index = factory.create(IndexType.EXTERNAL, createProperties);
+
+	addItems(index, 0, count);
+
+	factory.close(index);
+
+	tixHeaderSize = length(".tix") - RECORD_SIZE * count;
+    }
+
+    /**
+     * Open the index for adding items.
+     */
+    static IndexView open() throws TimeIndexException {
+	Properties openProperties = new Properties();
+	openProperties.setProperty("indexpath", indexPath);
+
+	IndexView index = factory.open(openProperties);
+	index.activate();
+
+	return index;
+    }
+
+    /**
+     * Add the items from position start to end.
+     */
+    static void addItems(IndexView index, long start, long end) throws TimeIndexException {
+	for (long i=start; i < end; i++) {
+	    index.addItem(new StringItem(itemData(i)), new MicrosecondTimestamp(1000000000L * 1000000L + i * 1000L));
+	}
+    }
+
+    /**
+     * The data of the item at position i.
+     * Some items are longer, so the data has different sizes.
+     */
+    static String itemData(long i) {
+	return "item-" + i + (i % 7 == 0 ? "-padding-padding" : "");
+    }
+
+    /**
+     * The size of the data of the first count items.
+     */
+    static long dataSize(long count) {
+	long size = 0;
+
+	for (long i=0; i < count; i++) {
+	    size += itemData(i).length();
+	}
+
+	return size;
+    }
+
+    static long length(String extension) {
+	return new File(indexPath + extension).length();
+    }
+
+    static void setLength(String extension, long length) throws IOException {
+	RandomAccessFile file = new RandomAccessFile(indexPath + extension, "rw");
+	file.setLength(length);
+	file.close();
+    }
+
+    static void flipByte(String extension, long offset) throws IOException {
+	RandomAccessFile file = new RandomAccessFile(indexPath + extension, "rw");
+	file.seek(offset);
+	int value = file.read();
+	file.seek(offset);
+	file.write(value ^ 0xff);
+	file.close();
+    }
+
+    static byte[] readFile(String extension) throws IOException {
+	File file = new File(indexPath + extension);
+	byte[] bytes = new byte[(int)file.length()];
+	FileInputStream input = new FileInputStream(file);
+
+	try {
+	    int got = 0;
+
+	    while (got < bytes.length) {
+		got += input.read(bytes, got, bytes.length - got);
+	    }
+	} finally {
+	    input.close();
+	}
+
+	return bytes;
+    }
+
+    static void writeFile(String extension, byte[] bytes) throws IOException {
+	FileOutputStream output = new FileOutputStream(indexPath + extension);
+
+	try {
+	    output.write(bytes);
+	} finally {
+	    output.close();
+	}
+    }
+
+    static void removeFiles() {
+	String[] extensions = { ".tih", ".tix", ".tid" };
+
+	for (int e=0; e < extensions.length; e++) {
+	    new File(indexPath + extensions[e]).delete();
+	}
+    }
+
+    static void fail(String message) {
+	System.err.println("TestRecover1: " + message);
+	System.exit(1);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TestSegment1.java
+
+package uk.ti;
+
+import com.timeindexing.index.IndexView;
+import com.timeindexing.index.IndexItem;
+import com.timeindexing.index.IndexType;
+import com.timeindexing.index.IndexTimestampSelector;
+import com.timeindexing.index.ExternalIndex;
+import com.timeindexing.index.TimeIndexFactory;
+import com.timeindexing.index.TimeIndexDirectory;
+import com.timeindexing.index.TimeIndexException;
+import com.timeindexing.index.GetItemException;
+import com.timeindexing.io.IndexSegment;
+import com.timeindexing.time.Lifetime;
+import com.timeindexing.time.MicrosecondTimestamp;
+import com.timeindexing.time.TimestampMapping;
+import com.timeindexing.data.StringItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * Test a segmented external index, which keeps its items in
+ * a series of segment files, listed in a .tis manifest.
+ * The index is created, reopened and added to, and reopened again,
+ * and every item is checked each time, by position and by time.
+ * Then the first segment is dropped, and the rest of the
+ * items are checked.
+ */
+public class TestSegment1 {
+    /*
+     * The no of bytes of data in a segment
+     */
+    final static int SEGMENT_SIZE = 20000;
+
+    /*
+     * The no of items added when the index is created
+     */
+    final static int FIRST = 3000;
+
+    /*
+     * The no of items added after the index is reopened
+     */
+    final static int MORE = 1000;
+
+    final static long BASE_TIME = 1000000000L * 1000000L;
+
+    static String indexPath = "/tmp/testsegment1";
+
+    static TimeIndexFactory factory = new TimeIndexFactory();
+
+    public static void main(String [] args) {
+	if (args.length == 1) {
+	    indexPath = args[0];
+	}
+
+	removeFiles();
+
+	try {
+	    Properties createProperties = new Properties();
+	    createProperties.setProperty("name", "index-TestSegment1");
+	    createProperties.setProperty("indexpath", indexPath);
+	    createProperties.setProperty("datapath", indexPath);
+	    createProperties.setProperty("nodatafileheader", "true");
+	    createProperties.setProperty("segmentsize", Integer.toString(SEGMENT_SIZE));
+
+	    IndexView index = factory.create(IndexType.EXTERNAL, createProperties);
+
+	    addItems(index, 0, FIRST);
+	    checkItems("create", index, 0, FIRST);
+
+	    factory.close(index);
+
+	    int segmentCount = checkSegments("create", FIRST);
+
+	    // reopen and add some more
+	    index = open();
+	    checkItems("reopen", index, 0, FIRST);
+
+	    addItems(index, FIRST, FIRST + MORE);
+	    checkItems("append", index, 0, FIRST + MORE);
+
+	    factory.close(index);
+
+	    if (checkSegments("append", FIRST + MORE) <= segmentCount) {
+		fail("append: no new segments were started");
+	    }
+
+	    // and again
+	    index = open();
+	    checkItems("reopen after append", index, 0, FIRST + MORE);
+
+	    // drop the first segment
+	    ExternalIndex model = (ExternalIndex)TimeIndexDirectory.find(index.getID());
+	    IndexSegment first = model.getSegments()[0];
+	    long dropped = first.getCount();
+
+	    model.dropSegment(0);
+
+	    if (new File(first.getIndexFileName()).exists() || new File(first.getDataFileName()).exists()) {
+		fail("drop: the files of segment 0 are still there");
+	    }
+
+	    checkItems("drop", index, dropped, FIRST + MORE);
+
+	    factory.close(index);
+
+	    index = open();
+
+	    model = (ExternalIndex)TimeIndexDirectory.find(index.getID());
+
+	    if (! model.getSegments()[0].isDropped()) {
+		fail("drop: segment 0 is not dropped after a reopen");
+	    }
+
+	    // the items in a dropped segment are gone
+	    try {
+		index.getItem(0);
+		fail("drop: item 0 can still be got after a reopen");
+	    } catch (GetItemException gie) {
+	    }
+
+	    checkItems("reopen after drop", index, dropped, FIRST + MORE);
+
+	    factory.close(index);
+
+	    removeFiles();
+
+	    System.err.println("TestSegment1: OK");
+
+	} catch (TimeIndexException tie) {
+	    System.err.println("TestSegment1: " + tie);
+	    System.exit(1);
+	} catch (IOException ioe) {
+	    System.err.println("TestSegment1: " + ioe);
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Add the items from position start to end.
+     */
+    static void addItems(IndexView index, int start, int end) throws TimeIndexException {
+	for (int p=start; p < end; p++) {
+	    index.addItem(new StringItem(itemData(p)), new MicrosecondTimestamp(BASE_TIME + p * 1000L));
+	}
+    }
+
+    /**
+     * Check the items from position start to end,
+     * getting each one by position and by time.
+     */
+    static void checkItems(String name, IndexView index, long start, long end) throws TimeIndexException {
+	if (index.getLength() != end) {
+	    fail(name + ": the index has " + index.getLength() + " items, not " + end);
+	}
+
+	for (long p=start; p < end; p++) {
+	    IndexItem item = index.getItem(p);
+	    ByteBuffer buffer = item.getData().duplicate();
+	    buffer.rewind();
+
+	    byte[] bytes = new byte[buffer.remaining()];
+	    buffer.get(bytes);
+
+	    if (! new String(bytes).equals(itemData(p))) {
+		fail(name + ": item " + p + " has the wrong data");
+	    }
+
+	    TimestampMapping mapping = index.locate(new MicrosecondTimestamp(BASE_TIME + p * 1000L), IndexTimestampSelector.DATA, Lifetime.DISCRETE);
+
+	    if (mapping == null || mapping.position().value() != p) {
+		fail(name + ": the time of item " + p + " is at " + (mapping == null ? null : mapping.position()));
+	    }
+	}
+
+	System.err.println("TestSegment1: " + name + " OK");
+    }
+
+    /**
+     * Check the segment files, and that the main files
+     * only hold their headers.
+     * @return the no of segments
+     */
+    static int checkSegments(String name, int count) {
+	if (! new File(indexPath + ".tis").exists()) {
+	    fail(name + ": there is no manifest");
+	}
+
+	long indexSize = 0;
+	long dataSize = 0;
+	int segments = 0;
+
+	while (new File(indexPath + "-" + segments + ".tix").exists()) {
+	    if (! new File(indexPath + "-" + segments + ".tid").exists()) {
+		fail(name + ": segment " + segments + " has no .tid");
+	    }
+
+	    indexSize += new File(indexPath + "-" + segments + ".tix").length();
+	    dataSize += new File(indexPath + "-" + segments + ".tid").length();
+	    segments++;
+	}
+
+	if (segments < 2) {
+	    fail(name + ": there are " + segments + " segments");
+	}
+
+	if (indexSize != 52L * count) {
+	    fail(name + ": the segments hold " + indexSize + " bytes of records, not " + (52L * count));
+	}
+
+	if (dataSize != dataSize(count)) {
+	    fail(name + ": the segments hold " + dataSize + " bytes of data, not " + dataSize(count));
+	}
+
+	if (new File(indexPath + ".tid").length() != 0) {
+	    fail(name + ": the main .tid has some data");
+	}
+
+	return segments;
+    }
+
+    static String itemData(long p) {
+	return "item " + p + (p % 3 == 0 ? " has some more data" : "");
+    }
+
+    static long dataSize(long count) {
+	long size = 0;
+
+	for (long p=0; p < count; p++) {
+	    size += itemData(p).length();
+	}
+
+	return size;
+    }
+
+    static IndexView open() throws TimeIndexException {
+	Properties openProperties = new Properties();
+	openProperties.setProperty("indexpath", indexPath);
+
+	IndexView index = factory.open(openProperties);
+	index.activate();
+
+	return index;
+    }
+
+    static void removeFiles() {
+	String[] extensions = { ".tih", ".tix", ".tid", ".tis" };
+
+	for (int e=0; e < extensions.length; e++) {
+	    new File(indexPath + extensions[e]).delete();
+	}
+
+	for (int s=0; new File(indexPath + "-" + s + ".tix").exists() || new File(indexPath + "-" + s + ".tid").exists() || s == 0; s++) {
+	    new File(indexPath + "-" + s + ".tix").delete();
+	    new File(indexPath + "-" + s + ".tid").delete();
+	}
+    }
+
+    static void fail(String message) {
+	System.err.println("TestSegment1: " + message);
+	System.exit(1);
+    }
+}
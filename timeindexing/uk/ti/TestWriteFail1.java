@@ -0,0 +1,270 @@
+/*
+ * Copyright 2003-2008 Stuart Clayman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+// TestWriteFail1.java
+
+package uk.ti;
+
+import com.timeindexing.index.IndexView;
+import com.timeindexing.index.IndexType;
+import com.timeindexing.index.TimeIndexFactory;
+import com.timeindexing.index.TimeIndexException;
+import com.timeindexing.index.AddItemException;
+import com.timeindexing.time.MillisecondTimestamp;
+import com.timeindexing.data.ByteBufferItem;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Test that a write which fails in the background I/O
+ * is reported to the appender, rather than leaving it
+ * waiting for the write ring for ever.
+ * The test runs itself in a child JVM with a limit on the
+ * size of files, so the writes fail with 'File too large'.
+ * It is run once for each IOScheduler.
+ * It also checks that the failed I/O does not keep retrying
+ * the write, using up a CPU and filling up the log.
+ */
+public class TestWriteFail1 {
+    /*
+     * The file size limit for the child, in blocks
+     */
+    final static int FILE_LIMIT = 4000;
+
+    /*
+     * The longest the child can take, in milliseconds
+     */
+    final static long TIMEOUT = 60 * 1000;
+
+    /*
+     * How long the child waits after the failure, in milliseconds
+     */
+    final static long QUIET_TIME = 2 * 1000;
+
+    /*
+     * The most output the child should make
+     */
+    final static int MAX_OUTPUT = 16 * 1024;
+
+    public static void main(String [] args) {
+	if (args.length == 3 && args[0].equals("child")) {
+	    child(args[1], args[2]);
+	} else {
+	    String indexPath = "/tmp/testwritefail1";
+
+	    if (args.length == 1) {
+		indexPath = args[0];
+	    }
+
+	    boolean ok = parent(indexPath, "thread") & parent(indexPath, "shared");
+
+	    if (ok) {
+		System.err.println("TestWriteFail1: OK");
+	    } else {
+		System.exit(1);
+	    }
+	}
+    }
+
+    /**
+     * Run the child with a file size limit, and check it
+     * finishes in time, and says it got the failure.
+     */
+    static boolean parent(String indexPath, String ioScheduler) {
+	String path = indexPath + "-" + ioScheduler;
+
+	removeFiles(path);
+
+	String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+	String command = "ulimit -f " + FILE_LIMIT + " && exec '" + java + "' -cp '" + System.getProperty("java.class.path") + "' " +
+	    TestWriteFail1.class.getName() + " child " + path + " " + ioScheduler;
+
+	try {
+	    ProcessBuilder builder = new ProcessBuilder("sh", "-c", command);
+	    builder.redirectErrorStream(true);
+
+	    Process child = builder.start();
+	    InputStream output = child.getInputStream();
+	    StringBuilder text = new StringBuilder();
+	    byte[] buffer = new byte[4096];
+
+	    long deadline = System.currentTimeMillis() + TIMEOUT;
+	    Integer exitValue = null;
+
+	    while (exitValue == null) {
+		// keep the pipe from filling up
+		while (output.available() > 0) {
+		    int got = output.read(buffer);
+		    text.append(new String(buffer, 0, got));
+		}
+
+		try {
+		    exitValue = Integer.valueOf(child.exitValue());
+		} catch (IllegalThreadStateException itse) {
+		    if (System.currentTimeMillis() > deadline) {
+			child.destroy();
+			System.err.println("TestWriteFail1: " + ioScheduler + " the appender did not see the failed write in " + TIMEOUT + "ms");
+			return false;
+		    }
+
+		    delay(100);
+		}
+	    }
+
+	    int got;
+
+	    while ((got = output.read(buffer)) > 0) {
+		text.append(new String(buffer, 0, got));
+	    }
+
+	    if (exitValue.intValue() != 0 || text.indexOf("TestWriteFail1: child OK") < 0) {
+		System.err.println("TestWriteFail1: " + ioScheduler + " child failed with " + exitValue);
+		System.err.println(text.length() > MAX_OUTPUT ? text.substring(0, MAX_OUTPUT) : text);
+		return false;
+	    }
+
+	    if (text.length() > MAX_OUTPUT) {
+		System.err.println("TestWriteFail1: " + ioScheduler + " the failure was logged over and over, " + text.length() + " bytes");
+		return false;
+	    }
+
+	    System.err.println("TestWriteFail1: " + ioScheduler + " OK");
+	    return true;
+
+	} catch (IOException ioe) {
+	    System.err.println("TestWriteFail1: cannot run the child " + ioe);
+	    return false;
+	} finally {
+	    removeFiles(path);
+	}
+    }
+
+    /**
+     * Add items until one fails, and then check that close fails too.
+     */
+    static void child(String indexPath, String ioScheduler) {
+	TimeIndexFactory factory = new TimeIndexFactory();
+
+	Properties createProperties = new Properties();
+	createProperties.setProperty("name", "index-TestWriteFail1");
+	createProperties.setProperty("indexpath", indexPath);
+	createProperties.setProperty("datapath", indexPath);
+	createProperties.setProperty("nodatafileheader", "true");
+	createProperties.setProperty("ioscheduler", ioScheduler);
+
+	IndexView index = null;
+
+	try {
+	    index = factory.create(IndexType.EXTERNAL, createProperties);
+	} catch (TimeIndexException tie) {
+	    System.err.println("TestWriteFail1: cannot create " + indexPath + " " + tie);
+	    System.exit(1);
+	}
+
+	// far more than the file size limit
+	int count = 100000;
+	int added = 0;
+	boolean failed = false;
+
+	for (added=0; added < count; added++) {
+	    try {
+		index.addItem(new ByteBufferItem(ByteBuffer.allocate(4096)), new MillisecondTimestamp(1000000L + added));
+	    } catch (AddItemException aie) {
+		System.err.println("TestWriteFail1: item " + added + " failed with " + aie);
+		failed = true;
+		break;
+	    } catch (TimeIndexException tie) {
+		System.err.println("TestWriteFail1: item " + added + " failed with the wrong exception " + tie);
+		System.exit(1);
+	    }
+	}
+
+	if (! failed) {
+	    System.err.println("TestWriteFail1: all " + count + " items were added, so no write failed");
+	    System.exit(1);
+	}
+
+	// the I/O should be quiet now
+	long cpuTime = cpuTime();
+
+	delay(QUIET_TIME);
+
+	cpuTime = cpuTime() - cpuTime;
+
+	if (cpuTime > QUIET_TIME * 1000 * 1000 / 4) {
+	    System.err.println("TestWriteFail1: the failed I/O used " + (cpuTime / 1000000) + "ms of CPU in " + QUIET_TIME + "ms");
+	    System.exit(1);
+	}
+
+	// the failure is reported again on close
+	try {
+	    factory.close(index);
+
+	    System.err.println("TestWriteFail1: close did not report the failed write");
+	    System.exit(1);
+	} catch (TimeIndexException tie) {
+	    System.err.println("TestWriteFail1: close failed with " + tie);
+	}
+
+	System.err.println("TestWriteFail1: child OK");
+	System.exit(0);
+    }
+
+    /**
+     * Get the CPU time used by all the threads, in nanoseconds.
+     */
+    static long cpuTime() {
+	ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	long[] ids = threads.getAllThreadIds();
+	long total = 0;
+
+	for (int t=0; t < ids.length; t++) {
+	    long time = threads.getThreadCpuTime(ids[t]);
+
+	    if (time > 0) {
+		total += time;
+	    }
+	}
+
+	return total;
+    }
+
+    /**
+     * Remove the files of an index.
+     */
+    static void removeFiles(String indexPath) {
+	String[] extensions = { ".tih", ".tix", ".tid" };
+
+	for (int e=0; e < extensions.length; e++) {
+	    new File(indexPath + extensions[e]).delete();
+	}
+    }
+
+    static void delay(long millis) {
+	try {
+	    Thread.sleep(millis);
+	} catch (InterruptedException ie) {
+	}
+    }
+}